@@ -0,0 +1,446 @@
+package es.csic.getsensordata;
+
+import android.util.Log;
+
+import java.util.concurrent.locks.LockSupport;
+
+import es.csic.getsensordata.data_sensors.definition.RecordRing;
+
+/**
+ * Continuous capture of audio frames, analysed out of the capture thread.
+ *
+ * The capture thread does nothing but read frames of samples from the source, back to back, into
+ * a `RecordRing` of frames allocated once, so no sample is skipped between frames. The analysis
+ * thread takes every frame published, converts its samples to floats, hands it to the listener
+ * and gives it back, so a frame is never written while it is being analysed. If the analysis falls
+ * behind and the ring is full, the capture goes on into a spare frame, which is dropped and
+ * counted, instead of blocking the capture and losing samples in the source. Every frame, dropped
+ * or not, can also be handed to a capture listener, in the capture thread, e.g. to record it.
+ *
+ * Each frame carries the index of its first sample in the stream captured, and the time it was
+ * captured at, in the `System.nanoTime()` base. Times come from a sample clock: every sample lasts
+ * exactly 1 / sample rate, and the clock is anchored to the read with the lowest latency seen,
+ * the one returning right after its last sample was captured. The anchor is moved to the lowest
+ * latency of the last 2 seconds every 2 seconds, so the drift between the clocks of the audio
+ * and the system doesn't add up over long sessions. A read later than the buffer of the source
+ * can hold means samples were lost there: it is counted as an overrun, and the clock is anchored
+ * again, so the timestamps keep following the real time, while the sample indexes keep counting
+ * the samples actually captured.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     AudioFramePipeline audioFramePipeline = new AudioFramePipeline(44100, 4096, 16, 4 * 4096, frame -> {
+ *         // Analysis thread: use frame.samples or frame.floatSamples, before returning
+ *     });
+ *     audioFramePipeline.start(source);
+ *     ...
+ *     audioFramePipeline.stop();
+ *     ```
+ */
+public class AudioFramePipeline {
+    private static final String TAG = "AudioFramePipeline";
+    // More than a second of audio with the default frame size
+    public static final int DEFAULT_FRAME_COUNT = 16;
+    // Interval the sample clock is anchored again at, to follow the drift of the audio clock
+    static final long CLOCK_WINDOW_NS = 2_000_000_000L;
+    // Wait after an error of the source, before reading again
+    private static final long ERROR_RETRY_MS = 10;
+
+    /**
+     * Frame of samples, reused once analysed.
+     */
+    public static class Frame {
+        // 16 bit PCM samples, as captured
+        public final short[] samples;
+        // Same samples, in [-1, 1), filled right before the frame is analysed
+        public final float[] floatSamples;
+        // Number of samples, which is less than the frame size only for the last frame
+        public int length;
+        // Index of the first sample in the stream captured
+        public long sampleIndex;
+        // Value of `System.nanoTime()` when the first sample was captured
+        public long timestampNanoseconds;
+        // Index of the first sample in a recording of the stream, set by the capture listener, or
+        // -1 if not recorded
+        public long recordedSampleIndex;
+
+        Frame(int frameSize) {
+            samples = new short[frameSize];
+            floatSamples = new float[frameSize];
+        }
+    }
+
+    /**
+     * Source of the samples, e.g. the microphone.
+     */
+    public interface Source {
+        /**
+         * Start capturing. Called in the capture thread, before the first read.
+         */
+        void start();
+
+        /**
+         * Read samples, blocking until they are captured.
+         *
+         * @return the number of samples read, or a negative error code.
+         */
+        int read(short[] samples, int offset, int length);
+
+        /**
+         * Stop capturing, so a read blocked returns. Called in the thread stopping the pipeline.
+         */
+        void stop();
+    }
+
+    /**
+     * Receiver of every frame captured, dropped ones included, e.g. to record them. Called in the
+     * capture thread, once per frame, in order, so it must return right away, without blocking.
+     */
+    public interface CaptureListener {
+        void onCapture(Frame frame);
+    }
+
+    /**
+     * Receiver of the frames captured. Called in the analysis thread, once per frame, in order.
+     * The frame is reused after returning, so its values must be copied.
+     */
+    public interface FrameListener {
+        void onFrame(Frame frame);
+    }
+
+    /**
+     * Clock of the samples captured, anchored to the read with the lowest latency.
+     */
+    static class SampleClock {
+        private final double nanosecondsPerSample;
+        private final long overrunThresholdNanoseconds;
+        private boolean isAnchored = false;
+        private long anchorNanoseconds;
+        private long windowMinimumNanoseconds;
+        private long windowStartNanoseconds;
+
+        /**
+         * @param sampleRate          Samples per second of the source.
+         * @param sourceBufferSamples Samples the source holds; a read later than that lost samples.
+         */
+        SampleClock(int sampleRate, int sourceBufferSamples) {
+            nanosecondsPerSample = 1e9 / sampleRate;
+            overrunThresholdNanoseconds = Math.round(sourceBufferSamples * nanosecondsPerSample);
+        }
+
+        void reset() {
+            isAnchored = false;
+        }
+
+        /**
+         * Update the clock with a read returning, right now, every sample captured so far.
+         *
+         * @param nowNanoseconds  Value of `System.nanoTime()` when the read returned.
+         * @param capturedSamples Samples captured before the frame read.
+         * @param length          Number of samples of the frame read.
+         *
+         * @return true if the read came later than the source can hold samples, so some were lost.
+         */
+        boolean update(long nowNanoseconds, long capturedSamples, int length) {
+            // Time the first sample would have been captured at, if this read had no latency
+            long candidateNanoseconds = nowNanoseconds - Math.round((capturedSamples + length) * nanosecondsPerSample);
+            if (!isAnchored) {
+                isAnchored = true;
+                anchorNanoseconds = candidateNanoseconds;
+                windowMinimumNanoseconds = candidateNanoseconds;
+                windowStartNanoseconds = nowNanoseconds;
+                return false;
+            }
+            if (candidateNanoseconds - anchorNanoseconds > overrunThresholdNanoseconds) {
+                // The buffer of the source was full, so what the frame read leaves there was
+                // captured after its last sample
+                candidateNanoseconds -= overrunThresholdNanoseconds - Math.round(length * nanosecondsPerSample);
+                anchorNanoseconds = candidateNanoseconds;
+                windowMinimumNanoseconds = candidateNanoseconds;
+                windowStartNanoseconds = nowNanoseconds;
+                return true;
+            }
+            anchorNanoseconds = Math.min(anchorNanoseconds, candidateNanoseconds);
+            windowMinimumNanoseconds = Math.min(windowMinimumNanoseconds, candidateNanoseconds);
+            if (nowNanoseconds - windowStartNanoseconds >= CLOCK_WINDOW_NS) {
+                anchorNanoseconds = windowMinimumNanoseconds;
+                windowMinimumNanoseconds = candidateNanoseconds;
+                windowStartNanoseconds = nowNanoseconds;
+            }
+            return false;
+        }
+
+        /**
+         * Get the time a sample was captured at, in the `System.nanoTime()` base.
+         */
+        long getTimestamp(long sampleIndex) {
+            return anchorNanoseconds + Math.round(sampleIndex * nanosecondsPerSample);
+        }
+    }
+
+    private final int sampleRate;
+    private final int frameSize;
+    private final FrameListener frameListener;
+    private volatile CaptureListener captureListener;
+    private final RecordRing<Frame> frameRing;
+    // Written when the ring is full, and dropped, so the capture never stops
+    private final Frame spareFrame;
+
+    private Source source;
+    private Thread captureThread;
+    private Thread analysisThread;
+    private volatile boolean isCapturing = false;
+    private volatile boolean isAnalysing = false;
+
+    // Only accessed by the capture thread
+    private long capturedSamples = 0;
+    private final SampleClock sampleClock;
+
+    private volatile long capturedFrames = 0;
+    private volatile long analysedFrames = 0;
+    private volatile long overruns = 0;
+    private volatile long readErrors = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param sampleRate           Samples per second of the source.
+     * @param frameSize            Samples per frame.
+     * @param frameCount           Frames of the ring, a power of two, enough to hold those
+     *                             captured while the analysis is busy.
+     * @param sourceBufferSamples  Samples the source holds while the capture thread doesn't read
+     *                             them; a read later than that lost samples.
+     * @param frameListener        Where every frame is analysed.
+     */
+    public AudioFramePipeline(int sampleRate, int frameSize, int frameCount, int sourceBufferSamples, FrameListener frameListener) {
+        if (sampleRate <= 0 || frameSize <= 0) {
+            throw new IllegalArgumentException("Invalid sample rate or frame size: " + sampleRate + ", " + frameSize);
+        }
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.sampleClock = new SampleClock(sampleRate, Math.max(sourceBufferSamples, frameSize));
+        this.frameListener = frameListener;
+        Frame[] frames = new Frame[frameCount];
+        for (int index = 0; index < frames.length; index++) {
+            frames[index] = new Frame(frameSize);
+        }
+        this.frameRing = new RecordRing<>(frames);
+        this.spareFrame = new Frame(frameSize);
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Start capturing from the source and analysing the frames. Call it from a single thread, the
+     * same one calling `stop()`.
+     */
+    public void start(Source source) {
+        if (isCapturing) {
+            return;
+        }
+        Log.d(TAG, "start(sampleRate=" + sampleRate + ", frameSize=" + frameSize + ")");
+
+        this.source = source;
+        capturedSamples = 0;
+        sampleClock.reset();
+        frameRing.clear();
+        isCapturing = true;
+        isAnalysing = true;
+
+        analysisThread = new Thread(this::analysisLoop);
+        analysisThread.setName("Analysis thread - AudioFramePipeline");
+        analysisThread.start();
+        captureThread = new Thread(this::captureLoop);
+        captureThread.setName("Capture thread - AudioFramePipeline");
+        captureThread.start();
+    }
+
+    /**
+     * Stop capturing, analyse the frames already captured and wait for both threads to finish.
+     */
+    public void stop() {
+        if (!isCapturing) {
+            return;
+        }
+        isCapturing = false;
+        source.stop();
+        join(captureThread);
+        isAnalysing = false;
+        LockSupport.unpark(analysisThread);
+        join(analysisThread);
+
+        Log.i(TAG, "Stopped. Frames captured: " + capturedFrames +
+                ", analysed: " + analysedFrames +
+                ", dropped: " + getDroppedFrames() +
+                ", overruns: " + overruns +
+                ", read errors: " + readErrors);
+    }
+
+    /**
+     * Set the receiver of every frame captured, in the capture thread.
+     *
+     * @param captureListener Receiver of the frames, or null to stop receiving them.
+     */
+    public void setCaptureListener(CaptureListener captureListener) {
+        this.captureListener = captureListener;
+    }
+
+    public boolean isCapturing() {
+        return isCapturing;
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    public long getCapturedFrames() {
+        return capturedFrames;
+    }
+
+    public long getAnalysedFrames() {
+        return analysedFrames;
+    }
+
+    /**
+     * Get the number of frames captured but not analysed, because the analysis fell behind.
+     */
+    public long getDroppedFrames() {
+        return frameRing.getDroppedRecords();
+    }
+
+    /**
+     * Get the number of times samples were lost by the source, because the capture fell behind.
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    public long getReadErrors() {
+        return readErrors;
+    }
+
+    // endregion
+
+    // region Capture Thread
+
+    private void captureLoop() {
+        source.start();
+        while (isCapturing) {
+            Frame frame = frameRing.claim();
+            boolean isDropped = frame == null;
+            if (isDropped) {
+                frame = spareFrame;
+            }
+            int length = readFrame(frame.samples);
+            if (length <= 0) {
+                continue;
+            }
+            long nowNanoseconds = System.nanoTime();
+            frame.length = length;
+            frame.sampleIndex = capturedSamples;
+            if (sampleClock.update(nowNanoseconds, capturedSamples, length)) {
+                overruns++;
+                Log.i(TAG, "Overrun before sample " + capturedSamples);
+            }
+            capturedSamples += length;
+            frame.timestampNanoseconds = sampleClock.getTimestamp(frame.sampleIndex);
+            frame.recordedSampleIndex = -1;
+            CaptureListener captureListener = this.captureListener;
+            if (captureListener != null) {
+                try {
+                    captureListener.onCapture(frame);
+                } catch (RuntimeException exception) {
+                    Log.e(TAG, "Frame not received: " + exception);
+                }
+            }
+            capturedFrames++;
+            if (!isDropped) {
+                frameRing.publish();
+                LockSupport.unpark(analysisThread);
+            }
+        }
+    }
+
+    /**
+     * Read a whole frame, unless the capture is stopped meanwhile.
+     *
+     * @return the number of samples read.
+     */
+    private int readFrame(short[] samples) {
+        int length = 0;
+        while (length < samples.length && isCapturing) {
+            int count = source.read(samples, length, samples.length - length);
+            if (count < 0) {
+                if (!isCapturing) {
+                    // The source was stopped while reading
+                    break;
+                }
+                readErrors++;
+                sleep(ERROR_RETRY_MS);
+            } else {
+                length += count;
+            }
+        }
+        return length;
+    }
+
+    // endregion
+
+    // region Analysis Thread
+
+    private void analysisLoop() {
+        while (true) {
+            Frame frame = frameRing.peek();
+            if (frame == null) {
+                if (!isAnalysing) {
+                    break;
+                }
+                LockSupport.park(this);
+                continue;
+            }
+            short[] samples = frame.samples;
+            float[] floatSamples = frame.floatSamples;
+            for (int index = 0; index < frame.length; index++) {
+                floatSamples[index] = samples[index] * (1.0f / 32768.0f);
+            }
+            try {
+                frameListener.onFrame(frame);
+            } catch (RuntimeException exception) {
+                Log.e(TAG, "Frame not analysed: " + exception);
+            }
+            frameRing.release();
+            analysedFrames++;
+        }
+    }
+
+    // endregion
+
+    // region Tools
+
+    private static void join(Thread thread) {
+        try {
+            thread.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void sleep(long milliseconds) {
+        try {
+            Thread.sleep(milliseconds);
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,265 @@
+package es.csic.getsensordata;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Framer and decoder of the MTData packets sent by an XSens MTi IMU.
+ *
+ * The IMU must be configured to send the temperature, acceleration, turn rate, magnetic field and
+ * quaternions, as IEEE single precision floats, and a 2 bytes counter. Each packet is then 63
+ * bytes, in big endian:
+ *
+ *     offset  type      field
+ *          0  uint8     preamble (0xFA)
+ *          1  uint8     bus identifier (0xFF)
+ *          2  uint8     message identifier (0x32, MTData)
+ *          3  uint8     data length (58)
+ *          4  float     temperature, in Celsius
+ *          8  float[3]  acceleration, in m/s^2
+ *         20  float[3]  turn rate, in rad/s
+ *         32  float[3]  magnetic field
+ *         44  float[4]  quaternions
+ *         60  int16     counter
+ *         62  uint8     checksum: every byte but the preamble adds up to 0
+ *
+ * Bytes are fed as they arrive from the USB, in chunks of any size, into a reusable buffer. Each
+ * packet found is checked and decoded straight into a `Sample` owned by the caller, so nothing is
+ * allocated while decoding. Bytes not starting a valid packet, as those of a packet cut or
+ * corrupted, are skipped one at a time until the next header, and counted.
+ *
+ * The checksum is a single byte, so one out of 256 misaligned packets would pass it. So a packet
+ * must also be confirmed, either by the header of the following packet or, when the decoder is
+ * locked to the stream (the last packet decoded ended right where this one starts), by its counter
+ * following the last one. Packets that can't be confirmed yet wait for the following header, which
+ * delays the first packet after a resynchronization by one packet.
+ *
+ * The counter of the packets decoded is also used to detect the samples lost on the way, either
+ * dropped by the IMU or the USB, or corrupted: each jump of the counter is a gap, and the samples
+ * it skipped are counted as missing.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     MTiPacketDecoder decoder = new MTiPacketDecoder();
+ *     MTiPacketDecoder.Sample sample = new MTiPacketDecoder.Sample();
+ *     int fed = 0;
+ *     while (fed < length) {
+ *         fed += decoder.feed(bytes, offset + fed, length - fed);
+ *         while (decoder.next(sample)) {
+ *             // Use the sample, before decoding the next one into it
+ *         }
+ *     }
+ *     ```
+ */
+public class MTiPacketDecoder {
+    public static final byte PREAMBLE = (byte) 0xFA;
+    public static final byte BID = (byte) 0xFF;
+    public static final byte MID_MT_DATA = 0x32;
+    public static final int DATA_LENGTH = 58;
+    public static final int PACKET_SIZE = 4 + DATA_LENGTH + 1;
+    public static final int DEFAULT_CAPACITY = 4 * PACKET_SIZE;
+
+    // The four bytes of the header, as read in big endian
+    private static final int HEADER = (PREAMBLE & 0xFF) << 24 | (BID & 0xFF) << 16 | (MID_MT_DATA & 0xFF) << 8 | DATA_LENGTH;
+
+    static final int OFFSET_TEMPERATURE = 4;
+    static final int OFFSET_ACCELERATION = 8;
+    static final int OFFSET_TURN_RATE = 20;
+    static final int OFFSET_MAGNETIC_FIELD = 32;
+    static final int OFFSET_QUATERNIONS = 44;
+    static final int OFFSET_COUNTER = 60;
+
+    /**
+     * Values of a packet, filled by the decoder. Reuse it from one packet to the next.
+     */
+    public static class Sample {
+        public final float[] acceleration = new float[3];
+        public final float[] turnRate = new float[3];
+        public final float[] magneticField = new float[3];
+        public final float[] quaternions = new float[4];
+        public float temperature;
+        public short counter;
+
+        public void copyFrom(Sample sample) {
+            System.arraycopy(sample.acceleration, 0, acceleration, 0, 3);
+            System.arraycopy(sample.turnRate, 0, turnRate, 0, 3);
+            System.arraycopy(sample.magneticField, 0, magneticField, 0, 3);
+            System.arraycopy(sample.quaternions, 0, quaternions, 0, 4);
+            temperature = sample.temperature;
+            counter = sample.counter;
+        }
+    }
+
+    private final byte[] bytes;
+    // Big endian, the default order
+    private final ByteBuffer buffer;
+    // Bytes fed, but not decoded yet, are those from start to end
+    private int start = 0;
+    private int end = 0;
+    // Whether the last packet decoded ended right at start
+    private boolean isLocked = false;
+    private short lastCounter;
+    private boolean hasLastCounter = false;
+
+    private long decodedPackets = 0;
+    private long corruptedPackets = 0;
+    private long skippedBytes = 0;
+    private long gaps = 0;
+    private long missingSamples = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer, using the default capacity.
+     */
+    public MTiPacketDecoder() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Class initializer.
+     *
+     * @param capacity Maximum number of bytes waiting to be decoded. At least a packet.
+     */
+    public MTiPacketDecoder(int capacity) {
+        if (capacity < PACKET_SIZE) {
+            throw new IllegalArgumentException("Capacity must be at least " + PACKET_SIZE + ": " + capacity);
+        }
+        bytes = new byte[capacity];
+        buffer = ByteBuffer.wrap(bytes);
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Append bytes received to those waiting to be decoded.
+     *
+     * Only as many bytes as fit are taken, so call `next()` until it returns false before feeding
+     * the rest.
+     *
+     * @return number of bytes taken.
+     */
+    public int feed(byte[] source, int offset, int length) {
+        if (end + length > bytes.length && start > 0) {
+            System.arraycopy(bytes, start, bytes, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        int count = Math.min(length, bytes.length - end);
+        System.arraycopy(source, offset, bytes, end, count);
+        end += count;
+        return count;
+    }
+
+    /**
+     * Decode the next valid packet among the bytes fed.
+     *
+     * @param sample Where the values of the packet are written.
+     *
+     * @return true if a packet was decoded, false if more bytes are needed.
+     */
+    public boolean next(Sample sample) {
+        while (end - start >= PACKET_SIZE) {
+            if (buffer.getInt(start) == HEADER) {
+                if (isChecksumValid(start)) {
+                    boolean isFollowingHeaderFed = end - start >= PACKET_SIZE + 4;
+                    if ((isFollowingHeaderFed && buffer.getInt(start + PACKET_SIZE) == HEADER) ||
+                            (isLocked && buffer.getShort(start + OFFSET_COUNTER) == (short) (lastCounter + 1))) {
+                        decode(start, sample);
+                        countGap(sample.counter);
+                        lastCounter = sample.counter;
+                        hasLastCounter = true;
+                        isLocked = true;
+                        start += PACKET_SIZE;
+                        decodedPackets++;
+                        return true;
+                    }
+                    if (!isFollowingHeaderFed) {
+                        // Wait for the header of the following packet to confirm it
+                        return false;
+                    }
+                } else {
+                    corruptedPackets++;
+                }
+            }
+            start++;
+            skippedBytes++;
+            isLocked = false;
+        }
+        return false;
+    }
+
+    /**
+     * Discard every byte waiting to be decoded, as when the stream is restarted. The samples lost
+     * meanwhile are not counted as missing.
+     */
+    public void reset() {
+        start = 0;
+        end = 0;
+        isLocked = false;
+        hasLastCounter = false;
+    }
+
+    public long getDecodedPackets() {
+        return decodedPackets;
+    }
+
+    public long getCorruptedPackets() {
+        return corruptedPackets;
+    }
+
+    public long getSkippedBytes() {
+        return skippedBytes;
+    }
+
+    /**
+     * Get the number of jumps of the counter between consecutive packets decoded.
+     */
+    public long getGaps() {
+        return gaps;
+    }
+
+    /**
+     * Get the number of samples skipped by the jumps of the counter. A gap of more than 65535
+     * samples can't be told apart from a shorter one.
+     */
+    public long getMissingSamples() {
+        return missingSamples;
+    }
+
+    // endregion
+
+    private void countGap(short counter) {
+        if (!hasLastCounter) {
+            return;
+        }
+        int missing = (counter - lastCounter - 1) & 0xFFFF;
+        if (missing != 0) {
+            gaps++;
+            missingSamples += missing;
+        }
+    }
+
+    private boolean isChecksumValid(int packet) {
+        byte sum = 0;
+        for (int index = packet + 1; index < packet + PACKET_SIZE; index++) {
+            sum += bytes[index];
+        }
+        return sum == 0;
+    }
+
+    private void decode(int packet, Sample sample) {
+        sample.temperature = buffer.getFloat(packet + OFFSET_TEMPERATURE);
+        for (int axis = 0; axis < 3; axis++) {
+            sample.acceleration[axis] = buffer.getFloat(packet + OFFSET_ACCELERATION + 4 * axis);
+            sample.turnRate[axis] = buffer.getFloat(packet + OFFSET_TURN_RATE + 4 * axis);
+            sample.magneticField[axis] = buffer.getFloat(packet + OFFSET_MAGNETIC_FIELD + 4 * axis);
+        }
+        for (int index = 0; index < 4; index++) {
+            sample.quaternions[index] = buffer.getFloat(packet + OFFSET_QUATERNIONS + 4 * index);
+        }
+        sample.counter = buffer.getShort(packet + OFFSET_COUNTER);
+    }
+}
@@ -0,0 +1,378 @@
+package es.csic.getsensordata;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command and response session with an XSens MTi IMU.
+ *
+ * Commands are queued from any thread and sent one at a time. Each one is acknowledged by a
+ * message whose identifier (MID) is the one of the command plus one, or rejected by an error
+ * message. If neither arrives in time, the command is sent again, up to a number of attempts, and
+ * then it fails. Its callback tells how it ended.
+ *
+ * The session never blocks nor waits: it is driven by the thread reading the IMU, which hands it
+ * every chunk of bytes received, along with the current time. Commands are sent, and timeouts
+ * checked, right then. The USB serial converter sends a chunk at least every few milliseconds,
+ * even with no data, which sets the resolution of the timeouts. MTData messages received meanwhile
+ * are skipped, so the output mode and rate can be changed while measuring.
+ *
+ * Messages are, in big endian:
+ *
+ *     offset  type     field
+ *          0  uint8    preamble (0xFA)
+ *          1  uint8    bus identifier (0xFF)
+ *          2  uint8    message identifier
+ *          3  uint8    data length (0 to 254)
+ *          4  uint8[]  data
+ *          n  uint8    checksum: every byte but the preamble adds up to 0
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     MTiSession session = new MTiSession((bytes, offset, length) -> write(bytes, offset, length));
+ *     session.submit(MTiSession.MID_GO_TO_CONFIG, null, callback);
+ *     ...
+ *     // Reading thread, for each chunk received
+ *     session.onStreamData(bytes, offset, length, System.nanoTime());
+ *     ```
+ */
+public class MTiSession {
+    public static final byte PREAMBLE = (byte) 0xFA;
+    public static final byte BID = (byte) 0xFF;
+
+    public static final byte MID_REQ_DID = 0x00;
+    public static final byte MID_SET_PERIOD = 0x04;
+    public static final byte MID_GO_TO_MEASUREMENT = 0x10;
+    public static final byte MID_REQ_BAUD_RATE = 0x18;
+    public static final byte MID_REQ_PRODUCT_CODE = 0x1C;
+    public static final byte MID_GO_TO_CONFIG = 0x30;
+    public static final byte MID_ERROR = 0x42;
+    public static final byte MID_SET_OUTPUT_MODE = (byte) 0xD0;
+    public static final byte MID_SET_OUTPUT_SETTINGS = (byte) 0xD2;
+
+    public static final long DEFAULT_TIMEOUT_MS = 500;
+    public static final int DEFAULT_ATTEMPTS = 3;
+
+    private static final int MAX_DATA_LENGTH = 254;
+    // Extended length messages, longer than any acknowledgement, are skipped
+    private static final int EXTENDED_LENGTH = 0xFF;
+    private static final int CAPACITY = 2 * (MAX_DATA_LENGTH + 5);
+    private static final byte[] NO_DATA = new byte[0];
+
+    /**
+     * Way to the IMU. Only called by the thread driving the session.
+     */
+    public interface Transport {
+        /**
+         * Send the bytes of a command.
+         *
+         * @return true if every byte was sent.
+         */
+        boolean write(byte[] bytes, int offset, int length);
+    }
+
+    /**
+     * How a command ended. Called in the thread driving the session.
+     */
+    public interface CommandCallback {
+        /**
+         * @param command  Command that ended.
+         * @param result   How it ended.
+         * @param response Data of the acknowledgement, or of the error message, if any.
+         */
+        void onCommandEnded(Command command, Result result, byte[] response);
+    }
+
+    public enum Result {
+        // The IMU acknowledged the command
+        Acknowledged,
+        // The IMU answered with an error message; its data holds the error code
+        Rejected,
+        // Every attempt timed out, or the command couldn't be sent
+        TimedOut,
+        // The session was closed before the command ended
+        Cancelled
+    }
+
+    /**
+     * A command to send, and how long to wait for it.
+     */
+    public static class Command {
+        final byte mid;
+        final byte[] message;
+        final long timeoutNanoseconds;
+        final int maxAttempts;
+        final CommandCallback callback;
+        int attempts = 0;
+        long deadlineNanoseconds;
+
+        Command(byte mid, byte[] data, long timeoutNanoseconds, int maxAttempts, CommandCallback callback) {
+            this.mid = mid;
+            this.message = buildMessage(mid, data);
+            this.timeoutNanoseconds = timeoutNanoseconds;
+            this.maxAttempts = maxAttempts;
+            this.callback = callback;
+        }
+
+        public byte getMid() {
+            return mid;
+        }
+
+        public int getAttempts() {
+            return attempts;
+        }
+    }
+
+    private final Transport transport;
+    private final ConcurrentLinkedQueue<Command> pendingCommands = new ConcurrentLinkedQueue<>();
+    private volatile boolean isClosed = false;
+    // Only accessed by the thread driving the session
+    private Command currentCommand;
+    private final byte[] bytes = new byte[CAPACITY];
+    private int start = 0;
+    private int end = 0;
+
+    private long acknowledgedCommands = 0;
+    private long failedCommands = 0;
+    private long retries = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param transport Way to the IMU.
+     */
+    public MTiSession(Transport transport) {
+        this.transport = transport;
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Queue a command, with the default timeout and attempts. Can be called from any thread.
+     *
+     * @param mid      Message identifier of the command.
+     * @param data     Data of the command, or null if none.
+     * @param callback Told how the command ended, or null.
+     *
+     * @return the command queued.
+     */
+    public Command submit(byte mid, byte[] data, CommandCallback callback) {
+        return submit(mid, data, TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MS), DEFAULT_ATTEMPTS, callback);
+    }
+
+    /**
+     * Queue a command. Can be called from any thread.
+     *
+     * @param mid                Message identifier of the command.
+     * @param data               Data of the command, or null if none. At most 254 bytes.
+     * @param timeoutNanoseconds Time to wait for an answer to each attempt.
+     * @param maxAttempts        Times the command is sent before giving up.
+     * @param callback           Told how the command ended, or null.
+     *
+     * @return the command queued.
+     */
+    public Command submit(byte mid, byte[] data, long timeoutNanoseconds, int maxAttempts, CommandCallback callback) {
+        Command command = new Command(mid, data, timeoutNanoseconds, maxAttempts, callback);
+        if (isClosed) {
+            end(command, Result.Cancelled, null);
+        } else {
+            pendingCommands.add(command);
+        }
+        return command;
+    }
+
+    /**
+     * Hand the session a chunk of bytes received from the IMU, and let it send commands and check
+     * timeouts. Only call it from the thread driving the session.
+     *
+     * @param source               Bytes received.
+     * @param offset               Position of the first byte.
+     * @param length               Number of bytes. Zero to only check timeouts.
+     * @param timestampNanoseconds Current value of `System.nanoTime()`.
+     */
+    public void onStreamData(byte[] source, int offset, int length, long timestampNanoseconds) {
+        if (currentCommand != null) {
+            int fed = 0;
+            while (fed < length && currentCommand != null) {
+                fed += feed(source, offset + fed, length - fed);
+                scan();
+            }
+        }
+        poll(timestampNanoseconds);
+    }
+
+    /**
+     * Whether a command is being sent or waiting to be sent. Only call it from the thread driving
+     * the session.
+     */
+    public boolean isBusy() {
+        return currentCommand != null || !pendingCommands.isEmpty();
+    }
+
+    /**
+     * Cancel the command being sent and those waiting, and any command queued from now on. Only
+     * call it from the thread driving the session, or once it is gone.
+     */
+    public void close() {
+        isClosed = true;
+        if (currentCommand != null) {
+            end(currentCommand, Result.Cancelled, null);
+            currentCommand = null;
+        }
+        Command command;
+        while ((command = pendingCommands.poll()) != null) {
+            end(command, Result.Cancelled, null);
+        }
+    }
+
+    public long getAcknowledgedCommands() {
+        return acknowledgedCommands;
+    }
+
+    public long getFailedCommands() {
+        return failedCommands;
+    }
+
+    public long getRetries() {
+        return retries;
+    }
+
+    // endregion
+
+    // region State Machine
+
+    private void poll(long timestampNanoseconds) {
+        if (currentCommand != null && timestampNanoseconds - currentCommand.deadlineNanoseconds >= 0) {
+            if (currentCommand.attempts < currentCommand.maxAttempts) {
+                retries++;
+                send(currentCommand, timestampNanoseconds);
+            } else {
+                fail(Result.TimedOut, null);
+            }
+        }
+        while (currentCommand == null) {
+            Command command = pendingCommands.poll();
+            if (command == null) {
+                return;
+            }
+            currentCommand = command;
+            // Whatever was received before it can't answer it
+            start = 0;
+            end = 0;
+            send(command, timestampNanoseconds);
+        }
+    }
+
+    private void send(Command command, long timestampNanoseconds) {
+        command.attempts++;
+        command.deadlineNanoseconds = timestampNanoseconds + command.timeoutNanoseconds;
+        if (!transport.write(command.message, 0, command.message.length)) {
+            fail(Result.TimedOut, null);
+        }
+    }
+
+    private void acknowledge(byte[] response) {
+        Command command = currentCommand;
+        currentCommand = null;
+        acknowledgedCommands++;
+        end(command, Result.Acknowledged, response);
+    }
+
+    private void fail(Result result, byte[] response) {
+        Command command = currentCommand;
+        currentCommand = null;
+        failedCommands++;
+        end(command, result, response);
+    }
+
+    private static void end(Command command, Result result, byte[] response) {
+        if (command.callback != null) {
+            command.callback.onCommandEnded(command, result, response);
+        }
+    }
+
+    // endregion
+
+    // region Framing
+
+    private int feed(byte[] source, int offset, int length) {
+        if (end + length > bytes.length && start > 0) {
+            System.arraycopy(bytes, start, bytes, 0, end - start);
+            end -= start;
+            start = 0;
+        }
+        int count = Math.min(length, bytes.length - end);
+        System.arraycopy(source, offset, bytes, end, count);
+        end += count;
+        return count;
+    }
+
+    /**
+     * Look for the answer to the current command among the bytes fed, skipping any other message.
+     */
+    private void scan() {
+        while (currentCommand != null && end - start >= 5) {
+            if (bytes[start] != PREAMBLE || bytes[start + 1] != BID) {
+                start++;
+                continue;
+            }
+            int dataLength = bytes[start + 3] & 0xFF;
+            if (dataLength == EXTENDED_LENGTH) {
+                start++;
+                continue;
+            }
+            int size = dataLength + 5;
+            if (end - start < size) {
+                return;
+            }
+            if (!isChecksumValid(start, size)) {
+                start++;
+                continue;
+            }
+            byte mid = bytes[start + 2];
+            if (mid == (byte) (currentCommand.mid + 1)) {
+                acknowledge(Arrays.copyOfRange(bytes, start + 4, start + 4 + dataLength));
+            } else if (mid == MID_ERROR) {
+                fail(Result.Rejected, Arrays.copyOfRange(bytes, start + 4, start + 4 + dataLength));
+            }
+            start += size;
+        }
+    }
+
+    private boolean isChecksumValid(int message, int size) {
+        byte sum = 0;
+        for (int index = message + 1; index < message + size; index++) {
+            sum += bytes[index];
+        }
+        return sum == 0;
+    }
+
+    static byte[] buildMessage(byte mid, byte[] data) {
+        if (data == null) {
+            data = NO_DATA;
+        }
+        if (data.length > MAX_DATA_LENGTH) {
+            throw new IllegalArgumentException("Data too long: " + data.length);
+        }
+        byte[] message = new byte[data.length + 5];
+        message[0] = PREAMBLE;
+        message[1] = BID;
+        message[2] = mid;
+        message[3] = (byte) data.length;
+        System.arraycopy(data, 0, message, 4, data.length);
+        byte sum = 0;
+        for (int index = 1; index < message.length - 1; index++) {
+            sum += message[index];
+        }
+        message[message.length - 1] = (byte) -sum;
+        return message;
+    }
+
+    // endregion
+}
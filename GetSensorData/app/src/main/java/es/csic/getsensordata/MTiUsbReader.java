@@ -0,0 +1,304 @@
+package es.csic.getsensordata;
+
+import android.hardware.usb.UsbDeviceConnection;
+import android.hardware.usb.UsbEndpoint;
+import android.hardware.usb.UsbRequest;
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Reader of the byte stream sent by the XSens MTi through its FTDI USB serial converter.
+ *
+ * Instead of one blocking bulk transfer at a time, which leaves the endpoint idle for a whole
+ * round trip between transfers and so caps the output rate of the IMU, several requests are kept
+ * queued on the input endpoint. The reading thread waits for any of them to complete, hands its
+ * data to the stream listener and queues it again right away, while the others are being filled.
+ *
+ * The converter starts every USB packet, of the maximum packet size of the endpoint, with two
+ * bytes of modem and line status. They are removed before handing the data over, so the listener
+ * gets the bytes sent by the IMU only. Packets flagged with an overrun of the converter, which
+ * means some bytes before them were lost, are counted.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     MTiUsbReader usbReader = new MTiUsbReader(connection, inputEndPoint, new MTiUsbReader.StreamListener() {
+ *         @Override
+ *         public void onStreamData(byte[] bytes, int offset, int length) {
+ *             // Feed the bytes to the decoder
+ *         }
+ *
+ *         @Override
+ *         public void onStreamStopped(boolean isDeviceLost) {
+ *         }
+ *     });
+ *     usbReader.start();
+ *     ...
+ *     usbReader.stop();
+ *     ```
+ */
+public class MTiUsbReader {
+    private static final String TAG = "MTiUsbReader";
+
+    public static final int DEFAULT_REQUEST_COUNT = 8;
+    // USB packets per request: a request completes with the first packet not full, so a large one
+    // only takes more packets when the IMU sends faster than the requests are reaped
+    public static final int DEFAULT_PACKETS_PER_REQUEST = 16;
+
+    // Modem and line status put by the converter at the start of each USB packet
+    static final int STATUS_SIZE = 2;
+    // Overrun error flag, in the line status
+    static final int STATUS_OVERRUN_ERROR = 0x02;
+
+    /**
+     * Receiver of the stream. Called in the reading thread.
+     */
+    public interface StreamListener {
+        /**
+         * Data received in a request, without the status bytes. Called once per request, even if
+         * it carried no data, as when the IMU is not sending anything. The bytes are only valid
+         * during the call.
+         */
+        void onStreamData(byte[] bytes, int offset, int length);
+
+        /**
+         * The reader stopped, once every request has been reaped.
+         *
+         * @param isDeviceLost true if it stopped because the device stopped accepting requests, as
+         *                     when unplugged, false if `stop()` was called.
+         */
+        void onStreamStopped(boolean isDeviceLost);
+    }
+
+    private final UsbDeviceConnection connection;
+    private final UsbEndpoint inputEndPoint;
+    private final StreamListener streamListener;
+    private final int packetSize;
+    private final UsbRequest[] requests;
+    private final ByteBuffer[] buffers;
+    private Thread readingThread;
+    private volatile boolean isReading = false;
+
+    private volatile long completedRequests = 0;
+    private volatile long receivedBytes = 0;
+    private volatile long overruns = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer, using the default number and size of requests.
+     *
+     * @param connection     Connection to the device, with its interface already claimed.
+     * @param inputEndPoint  Bulk input endpoint of the device.
+     * @param streamListener Receiver of the stream.
+     */
+    public MTiUsbReader(UsbDeviceConnection connection, UsbEndpoint inputEndPoint, StreamListener streamListener) {
+        this(connection, inputEndPoint, streamListener, DEFAULT_REQUEST_COUNT, DEFAULT_PACKETS_PER_REQUEST);
+    }
+
+    /**
+     * Class initializer.
+     *
+     * @param connection         Connection to the device, with its interface already claimed.
+     * @param inputEndPoint      Bulk input endpoint of the device.
+     * @param streamListener     Receiver of the stream.
+     * @param requestCount       Number of requests kept queued.
+     * @param packetsPerRequest  Size of each request, in USB packets.
+     */
+    public MTiUsbReader(UsbDeviceConnection connection, UsbEndpoint inputEndPoint, StreamListener streamListener, int requestCount, int packetsPerRequest) {
+        this.connection = connection;
+        this.inputEndPoint = inputEndPoint;
+        this.streamListener = streamListener;
+        this.packetSize = inputEndPoint.getMaxPacketSize();
+        this.requests = new UsbRequest[requestCount];
+        this.buffers = new ByteBuffer[requestCount];
+        for (int index = 0; index < requestCount; index++) {
+            // Heap buffers, so their bytes are handed over without copying them
+            buffers[index] = ByteBuffer.allocate(packetsPerRequest * packetSize);
+        }
+
+        Log.d(TAG, "MTiUsbReader(" +
+                "requestCount=" + requestCount + ", " +
+                "packetsPerRequest=" + packetsPerRequest + ", " +
+                "packetSize=" + packetSize + ")");
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Queue the requests and start reaping them in the reading thread.
+     *
+     * @return false if no request could be queued.
+     */
+    public boolean start() {
+        for (int index = 0; index < requests.length; index++) {
+            UsbRequest request = new UsbRequest();
+            if (!request.initialize(connection, inputEndPoint)) {
+                Log.e(TAG, "Unable to initialize request " + index);
+                closeRequests();
+                return false;
+            }
+            request.setClientData(buffers[index]);
+            requests[index] = request;
+        }
+
+        isReading = true;
+        readingThread = new Thread(this::readLoop);
+        readingThread.setName("Reading thread - MTiUsbReader");
+        readingThread.start();
+        return true;
+    }
+
+    /**
+     * Cancel the requests queued. The reading thread stops once all of them are reaped, and then
+     * notifies the listener. Can be called from any thread, including the reading thread.
+     */
+    public synchronized void stop() {
+        isReading = false;
+        for (UsbRequest request : requests) {
+            if (request != null) {
+                request.cancel();
+            }
+        }
+    }
+
+    public boolean isReading() {
+        return isReading;
+    }
+
+    public long getCompletedRequests() {
+        return completedRequests;
+    }
+
+    public long getReceivedBytes() {
+        return receivedBytes;
+    }
+
+    /**
+     * Get the number of USB packets flagged with an overrun of the converter, each one meaning
+     * some bytes were lost before it.
+     */
+    public long getOverruns() {
+        return overruns;
+    }
+
+    // endregion
+
+    // region Reading Thread
+
+    private void readLoop() {
+        int queuedRequests = 0;
+        boolean isDeviceLost = false;
+        for (UsbRequest request : requests) {
+            if (queue(request)) {
+                queuedRequests++;
+            }
+        }
+        if (queuedRequests == 0) {
+            isDeviceLost = isReading;
+        }
+
+        while (queuedRequests > 0) {
+            UsbRequest request = connection.requestWait();
+            if (request == null) {
+                // The connection failed: none of the requests will complete
+                isDeviceLost = isReading;
+                break;
+            }
+            queuedRequests--;
+            ByteBuffer buffer = (ByteBuffer) request.getClientData();
+            if (!isReading) {
+                // Cancelled, or completed meanwhile: nobody is waiting for its data
+                continue;
+            }
+            completedRequests++;
+            overruns += countOverruns(buffer.array(), buffer.position(), packetSize);
+            int length = removeStatus(buffer.array(), buffer.position(), packetSize);
+            receivedBytes += length;
+            streamListener.onStreamData(buffer.array(), 0, length);
+            if (queue(request)) {
+                queuedRequests++;
+            } else if (isReading) {
+                isDeviceLost = true;
+                stop();
+            }
+        }
+
+        closeRequests();
+        isReading = false;
+        Log.i(TAG, "Reading stopped. Requests completed: " + completedRequests +
+                ", bytes received: " + receivedBytes +
+                ", overruns: " + overruns +
+                (isDeviceLost ? " (device lost)" : ""));
+        streamListener.onStreamStopped(isDeviceLost);
+    }
+
+    private boolean queue(UsbRequest request) {
+        ByteBuffer buffer = (ByteBuffer) request.getClientData();
+        buffer.clear();
+        // The buffer-and-length variant is the only one available before Android 8, and still
+        // leaves the number of bytes received as the position of the buffer
+        @SuppressWarnings("deprecation")
+        boolean isQueued = request.queue(buffer, buffer.capacity());
+        if (isQueued && !isReading) {
+            // stop() may have been called right before queueing it, missing it
+            request.cancel();
+        }
+        return isQueued;
+    }
+
+    // Synchronized with stop(), so no request is cancelled while being closed
+    private synchronized void closeRequests() {
+        for (int index = 0; index < requests.length; index++) {
+            if (requests[index] != null) {
+                requests[index].close();
+                requests[index] = null;
+            }
+        }
+    }
+
+    // endregion
+
+    // region Tools
+
+    /**
+     * Remove, in place, the status bytes at the start of each USB packet.
+     *
+     * @param bytes      Data received, as USB packets one after the other.
+     * @param length     Number of bytes received.
+     * @param packetSize Maximum packet size of the endpoint.
+     *
+     * @return number of data bytes left at the start of the array.
+     */
+    static int removeStatus(byte[] bytes, int length, int packetSize) {
+        int dataLength = 0;
+        for (int packet = 0; packet < length; packet += packetSize) {
+            int packetLength = Math.min(packetSize, length - packet);
+            int packetDataLength = packetLength - STATUS_SIZE;
+            if (packetDataLength > 0) {
+                System.arraycopy(bytes, packet + STATUS_SIZE, bytes, dataLength, packetDataLength);
+                dataLength += packetDataLength;
+            }
+        }
+        return dataLength;
+    }
+
+    /**
+     * Count the USB packets received flagging an overrun. Call it before removing the status
+     * bytes.
+     */
+    static int countOverruns(byte[] bytes, int length, int packetSize) {
+        int count = 0;
+        for (int packet = 0; packet + 1 < length; packet += packetSize) {
+            if ((bytes[packet + 1] & STATUS_OVERRUN_ERROR) != 0) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // endregion
+}
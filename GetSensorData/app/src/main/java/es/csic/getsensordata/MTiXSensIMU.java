@@ -8,9 +8,8 @@ import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbEndpoint;
 import android.hardware.usb.UsbInterface;
 import android.hardware.usb.UsbManager;
-import android.os.Bundle;
 import android.os.Handler;
-import android.os.Message;
+import android.os.Looper;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -22,6 +21,9 @@ import java.util.Locale;
 
 import es.csic.getsensordata.data_sensors.definition.DataSensor;
 import es.csic.getsensordata.data_sensors.definition.DataSensorType;
+import es.csic.getsensordata.data_sensors.definition.RecordDispatcher;
+import es.csic.getsensordata.logging.LogLineFormatter;
+import es.csic.getsensordata.logging.RawCaptureWriter;
 
 /*
  * Class that handles the USB communication and parse of the data coming from an MTi IMU from XSens
@@ -32,33 +34,11 @@ import es.csic.getsensordata.data_sensors.definition.DataSensorType;
  *
  * For accessing the MTi it is necessary to:
  *
- * - Create a handler to manage the messages from the class:
+ * - Set the listener of the data sensor, notified in the main thread when it connects, disconnects
+ *   or has a new status (at most once per minimum notification interval, every sample is still
+ *   given to the recorder):
  *
- *   private void createMTiHandler(){
- *	   handlerMTi = new Handler() {
- *	     @Override
- *	   	 public void handleMessage(Message msg) {
- *	   	   // handle MTi data and connection messages
- *	   	   Bundle data = msg.getData();
- *	   	   String messageType = data.getString(MESSAGE_TYPE);
- *	   	   String readerName = data.getString(READER_NAME);
- *	   	   if (messageType.equals(CONNECTED)) {...
- *	   			dataIMU.acceleration[0] = data.getFloat("Accelerations_x");
- *	   			dataIMU.acceleration[1] = data.getFloat("Accelerations_y");
- *	   			dataIMU.acceleration[2] = data.getFloat("Accelerations_z");
- *	   			dataIMU.turnRate[0] = data.getFloat("TurnRates_x");
- *	   			dataIMU.turnRate[1] = data.getFloat("TurnRates_y");
- *	   			dataIMU.turnRate[2] = data.getFloat("TurnRates_z");
- *	   			dataIMU.magneticField[0] = data.getFloat("MagneticFields_x");
- *	   			dataIMU.magneticField[1] = data.getFloat("MagneticFields_y");
- *	   			dataIMU.magneticField[2] = data.getFloat("MagneticFields_z");
- *	   			dataIMU.temperature = data.getFloat("Temperature");
- *	   			dataIMU.counter = data.getShort("Counter");
- *	   			dataIMU.time = data.getLong("Time");
- *         }
- *	   	 }
- *	   }
- *   }
+ *   mXSens.setListener(listener);
  *
  *   - Create the UsbManager.
  *
@@ -92,7 +72,7 @@ import es.csic.getsensordata.data_sensors.definition.DataSensorType;
  *
  * - Create MTi element
  *
- *   XSens = new MTi_XSens_IMU(handlerMTi, mPermissionIntent);
+ *   XSens = new MTiXSensIMU(context, mPermissionIntent);
  *
  * - Get the Device (if permission is needed the program will call the broadcast receiver, a system
  *   call)
@@ -116,49 +96,52 @@ import es.csic.getsensordata.data_sensors.definition.DataSensorType;
  */
 public class MTiXSensIMU extends DataSensor {
     private static final String TAG = "MTi XSens";
-    public static final String MESSAGE_TYPE = "MessageType";
-    public static final String MESSAGE_TYPE_CONNECT = "Connect";
-    public static final String READER_NAME = "ReaderName";
-    public static final String CONNECTED = "Connected";
 
     private static final int VENDOR_ID = 0x0403;
     private static final int PRODUCT_ID = 0x0D38B;
-    private static final short TEMPERATURE_INDEX = 4;
-    private static final short ACCELERATION_INDEX = 8;
-    private static final short TURN_RATE_INDEX = 20;
-    private static final short MAGNETIC_FIELD_INDEX = 32;
-    private static final short QUATERNIONS_INDEX = 44;
-    private static final short COUNTER_INDEX = 60;
-    private static final int PACKAGE_SIZE = 63;
-    private static final int MAX_PACKAGES = 100; // 100 * 1 * 1: 10 minutes data, 1 seg
+    public static final int DEFAULT_BAUD_RATE = 115200;
+    // Samples waiting for the recording thread: more than 2 s at 100 Hz
+    private static final int RECORD_RING_CAPACITY = 256;
+    private static final float[] EULER = new float[3];
 
     private boolean connected = false;
-    private Handler handler;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final RecordDispatcher<MTiPacketDecoder.Sample> recordDispatcher;
+    // Last sample dispatched, written in the recording thread, synchronized on the data sensor
+    private final MTiPacketDecoder.Sample currentSample = new MTiPacketDecoder.Sample();
     private UsbManager manager;
-    private Thread readingThread;
-    private boolean readingIMU = false;
+    private MTiUsbReader usbReader;
+    // Commands to the IMU, sent by the reading thread
+    private MTiSession session;
+    private volatile RawCaptureWriter rawCaptureWriter;
+    private volatile boolean isDecodingEnabled = true;
+    private volatile long gaps = 0;
+    private volatile long missingSamples = 0;
     private final String name = "XSens MTi IMU";
     private UsbEndpoint outputEndPoint, inputEndPoint;
     private UsbInterface usbInterface;
     private UsbDeviceConnection connection;
     private final PendingIntent pendingIntent;
-    private int receivedPackages = 0;
-    private final byte dataLength = (byte) (PACKAGE_SIZE - 5);
     private final int maxErrors = 30;
-    private final IMUData[] receivedData;
-    private Bundle data;
-
-    public static byte preamble = (byte) 0xFA;
-    public static byte BID = (byte) 0xFF;
-    public static byte MID_MTData = 50;
-    public static byte MID_goToConfig = 48;
-    public static byte MID_goToMeasurement = 16;
-    public static byte MID_reqDID = 0;
-    public static byte MID_reqProductCode = 28;
-    public static byte MID_reqBaudRate = 24;
-    public static byte MID_SetPeriod = 4;
-    public static byte MID_SetOutputMode = (byte) 208;
-    public static byte MID_SetOutputSettings = (byte) 210;
+
+    public static byte MID_MTData = MTiPacketDecoder.MID_MT_DATA;
+    public static byte MID_goToConfig = MTiSession.MID_GO_TO_CONFIG;
+    public static byte MID_goToMeasurement = MTiSession.MID_GO_TO_MEASUREMENT;
+    public static byte MID_reqDID = MTiSession.MID_REQ_DID;
+    public static byte MID_reqProductCode = MTiSession.MID_REQ_PRODUCT_CODE;
+    public static byte MID_reqBaudRate = MTiSession.MID_REQ_BAUD_RATE;
+    public static byte MID_SetPeriod = MTiSession.MID_SET_PERIOD;
+    public static byte MID_SetOutputMode = MTiSession.MID_SET_OUTPUT_MODE;
+    public static byte MID_SetOutputSettings = MTiSession.MID_SET_OUTPUT_SETTINGS;
+
+    private static final int WRITE_TIMEOUT_MS = 1000;
+    private final MTiSession.CommandCallback logCommandResult = (command, result, response) -> {
+        if (result == MTiSession.Result.Acknowledged) {
+            Log.i(TAG, "Command " + command.getMid() + " acknowledged after " + command.getAttempts() + " attempts");
+        } else {
+            Log.e(TAG, "Command " + command.getMid() + " failed: " + result);
+        }
+    };
 
     // TODO: should be out of here when DataSensor provides this funcionality.
     double timestamp_Imux_last = 0;
@@ -173,8 +156,11 @@ public class MTiXSensIMU extends DataSensor {
     public MTiXSensIMU(Context context, PendingIntent pendingIntent) {
         super(context, DataSensorType.InertialMeasurementUnitIMUX, 0);
         this.pendingIntent = pendingIntent;
-        this.receivedData = new IMUData[MAX_PACKAGES];
-        setHandler();
+        MTiPacketDecoder.Sample[] records = new MTiPacketDecoder.Sample[RECORD_RING_CAPACITY];
+        for (int index = 0; index < records.length; index++) {
+            records[index] = new MTiPacketDecoder.Sample();
+        }
+        recordDispatcher = new RecordDispatcher<>(this, records, currentSample::copyFrom);
     }
 
     /**
@@ -201,14 +187,28 @@ public class MTiXSensIMU extends DataSensor {
     }
 
     /**
-     * Initiate connection with the device, setting the data rate and sending a message to the
-     * handler indicating the connection (MESSAGE_TYPE -> CONNECTED, READER_NAME -> self.name,
-     * "Connected" -> true)
+     * Initiate connection with the device, at the default baud rate.
      *
      * @param usbDevice of the MTi
      * @return true if connected, false otherwise
      */
     public boolean connect(UsbDevice usbDevice) {
+        return connect(usbDevice, DEFAULT_BAUD_RATE);
+    }
+
+    /**
+     * Initiate connection with the device, setting the data rate and notifying the listener of the
+     * connection.
+     *
+     * Each packet takes 63 bytes, so 115200 baud is enough up to about 180 Hz; 400 Hz needs at
+     * least 460800 baud. The baud rate of the IMU must be set to the same one.
+     *
+     * @param usbDevice of the MTi
+     * @param baudRate  115200, 230400, 460800 or 921600.
+     * @return true if connected, false otherwise
+     */
+    public boolean connect(UsbDevice usbDevice, int baudRate) {
+        int baudRateDivisor = getBaudRateDivisor(baudRate);
         int count = usbDevice.getInterfaceCount();
         for (int ii = 0; ii < count; ii++) {
             usbInterface = usbDevice.getInterface(ii);
@@ -226,18 +226,21 @@ public class MTiXSensIMU extends DataSensor {
             return false;
 
         if (connection.claimInterface(usbInterface, false)) {
+            UsbDeviceConnection sessionConnection = connection;
+            UsbEndpoint sessionEndPoint = outputEndPoint;
+            session = new MTiSession((bytes, offset, length) ->
+                    sessionConnection.bulkTransfer(sessionEndPoint, bytes, offset, length, WRITE_TIMEOUT_MS) == length
+            );
             int[] sentSize = new int[4];
             sentSize[0] = connection.controlTransfer(0x40, 0, 0, 0, null, 0, 0); // reset
             sentSize[1] = connection.controlTransfer(0x40, 0, 1, 0, null, 0, 0); // clear Rx
             sentSize[2] = connection.controlTransfer(0x40, 0, 2, 0, null, 0, 0); // clear Tx
-            sentSize[3] = connection.controlTransfer(0x40, 0x03, 0x001A, 0, null, 0, 0); //115200 baud rate
-            Message message = new Message();
-            Bundle data = new Bundle();
-            data.putString(MESSAGE_TYPE, "Connect");
-            data.putString(READER_NAME, name);
-            data.putBoolean(CONNECTED, true);
-            message.setData(data);
-            handler.sendMessage(message);
+            sentSize[3] = connection.controlTransfer(0x40, 0x03, baudRateDivisor, 0, null, 0, 0); // baud rate
+            mainHandler.post(() -> {
+                if (getListener() != null) {
+                    getListener().onDataSensorConnected(this);
+                }
+            });
             Log.i(TAG, "USB MTi connected");
             connected = true;
             return true;
@@ -246,101 +249,98 @@ public class MTiXSensIMU extends DataSensor {
     }
 
     /**
-     * Starts a thread that will send the received IMU packages to the specified handler
+     * Start reading the IMU packets, through an `MTiUsbReader` keeping several USB requests
+     * queued, and publish their samples to the record dispatcher, which hands them to the recorder
+     * in its recording thread, and to the listener in the main thread.
      * <p>
-     * MESSAGE_TYPE->"IMU_Data"
-     * READER_NAME->"XSens MTi IMU"
-     * "Time"-> System time in nanoseconds (long)
-     * "Accelerations_x"-> float
-     * "Accelerations_y"-> float
-     * "Accelerations_z"-> float
-     * "TurnRates_x"-> float
-     * "TurnRates_y"-> float
-     * "TurnRates_z"-> float
-     * "MagneticFields_x"-> float
-     * "MagneticFields_y"-> float
-     * "MagneticFields_z"-> float
-     * "Temperature"-> float
-     * "Counter"-> MTi internal counter (short)
+     * Samples found while the recording thread is too busy to take them, and the ring is full, are
+     * dropped and counted. Samples lost before reaching the decoder are detected through the
+     * counter of the packets.
      * <p>
-     * If it receive more than 30 packages without information it assume that the MTi is
-     * disconnected and sends a message to the handler (MESSAGE_TYPE -> "MTiConnect",
-     * "Connected" -> false).
+     * Commands queued are sent, and their answers looked for, in the reading thread too.
      * <p>
-     * If the USB connection is interrupted it sends a message to the handler (MESSAGE_TYPE ->
-     * "Connect", CONNECTED -> false).
+     * The bytes received can be teed into a raw capture, with or without decoding them meanwhile.
+     * <p>
+     * If it receives more than 30 requests without samples, while no command is being sent, it
+     * assumes that the MTi is disconnected or in config mode, and stops reading.
+     * <p>
+     * If the USB connection is interrupted it notifies the listener of the disconnection.
      */
     public void startMeasurements() {
+        MTiSession session = this.session;
+        if (session == null) {
+            Log.e(TAG, "Not connected");
+            return;
+        }
+        MTiPacketDecoder decoder = new MTiPacketDecoder();
+        MTiPacketDecoder.Sample sample = new MTiPacketDecoder.Sample();
+
+        usbReader = new MTiUsbReader(connection, inputEndPoint, new MTiUsbReader.StreamListener() {
+            private int loopsCounts = 0;
+            private boolean wasDecoding = false;
 
-        this.readingThread = new Thread(() -> {
-            readingIMU = true;
-            byte[] msgBuffer = new byte[64];
-            int inCount, roundCounter = 0;
-            byte[] mtiPkg = new byte[PACKAGE_SIZE * 2];
-            for (int ii = 0; ii < PACKAGE_SIZE * 2; ii++)
-                mtiPkg[ii] = 0;
-            int loopsCounts = 0;
-
-            do {
-                // Read USB data from external device
-                inCount = connection.bulkTransfer(inputEndPoint, msgBuffer, 64, 1000);
-                IMUData mtiBlock = null;
-                // check data are fresh
-                if ((msgBuffer[1] & 0x02) == 0 & inCount > 2)
-                    for (int i = 2; i < inCount; i++) {
-                        mtiPkg[roundCounter] = msgBuffer[i];
-
-                        if (mtiPkg[roundCounter] == preamble) {
-                            if (mtiPkg[(roundCounter + PACKAGE_SIZE + 1) % (PACKAGE_SIZE * 2)] == BID &
-                                    mtiPkg[(roundCounter + PACKAGE_SIZE + 2) % (PACKAGE_SIZE * 2)] == MID_MTData &
-                                    mtiPkg[(roundCounter + PACKAGE_SIZE + 3) % (PACKAGE_SIZE * 2)] == dataLength &
-                                    mtiPkg[(roundCounter + PACKAGE_SIZE) % (PACKAGE_SIZE * 2)] == preamble) {
-                                mtiBlock = parse(mtiPkg, (roundCounter + PACKAGE_SIZE) % (PACKAGE_SIZE * 2));  // --------RAW parse---------
-                                Message message = new Message();
-                                assert mtiBlock != null;
-                                Bundle data = bundleParse(mtiBlock);   // -------- parse Bundle---------
-                                data.putString(MESSAGE_TYPE, "IMU_Data");
-                                data.putString(READER_NAME, name);
-                                data.putLong("Time", System.nanoTime());
-                                message.setData(data);
-                                handler.sendMessage(message);
-                            }
+            @Override
+            public void onStreamData(byte[] bytes, int offset, int length) {
+                long timestampNanoseconds = System.nanoTime();
+                session.onStreamData(bytes, offset, length, timestampNanoseconds);
+                RawCaptureWriter rawCaptureWriter = MTiXSensIMU.this.rawCaptureWriter;
+                if (rawCaptureWriter != null && length > 0) {
+                    rawCaptureWriter.write(bytes, offset, length, timestampNanoseconds);
+                }
+                boolean isDecoding = isDecodingEnabled;
+                if (isDecoding && !wasDecoding) {
+                    // The samples skipped meanwhile are not missing
+                    decoder.reset();
+                }
+                wasDecoding = isDecoding;
+                boolean decoded = false;
+                int fed = 0;
+                while (isDecoding && fed < length) {
+                    fed += decoder.feed(bytes, offset + fed, length - fed);
+                    while (decoder.next(sample)) {
+                        MTiPacketDecoder.Sample record = recordDispatcher.claim();
+                        if (record != null) {
+                            record.copyFrom(sample);
+                            recordDispatcher.publish();
                         }
-                        roundCounter = (roundCounter + 1) % (PACKAGE_SIZE * 2);
+                        decoded = true;
                     }
-                if (mtiBlock != null) {
-                    receivedData[(receivedPackages - 1) % MAX_PACKAGES] = mtiBlock;
+                }
+                gaps = decoder.getGaps();
+                missingSamples = decoder.getMissingSamples();
+                if (decoded || (!isDecoding && length > 0) || session.isBusy()) {
                     loopsCounts = 0;
-                } else {
-                    loopsCounts++;
+                } else if (++loopsCounts >= maxErrors) {
+                    Log.i(TAG, "MTi disconnected or in config mode");
+                    usbReader.stop();
                 }
-
-            } while (inCount > 0 & loopsCounts < maxErrors & readingIMU);
-
-            if (inCount <= 0) {
-                Message message = new Message();
-                Bundle data = new Bundle();
-                data.putString(MESSAGE_TYPE, "Connect");
-                data.putString(READER_NAME, name);
-                data.putBoolean(CONNECTED, false);
-                message.setData(data);
-                handler.sendMessage(message);
-                readingIMU = false;
             }
-            if (loopsCounts >= maxErrors) {
-                Message message = new Message();
-                Bundle data = new Bundle();
-                data.putString(MESSAGE_TYPE, "MTiConnect");
-                data.putString(READER_NAME, name);
-                data.putBoolean(CONNECTED, false);
-                message.setData(data);
-                handler.sendMessage(message);
-                readingIMU = false;
+
+            @Override
+            public void onStreamStopped(boolean isDeviceLost) {
+                Log.i(TAG, "Reading stopped. Packets decoded: " + decoder.getDecodedPackets() +
+                        ", corrupted: " + decoder.getCorruptedPackets() +
+                        ", skipped bytes: " + decoder.getSkippedBytes() +
+                        ", gaps: " + decoder.getGaps() +
+                        ", missing samples: " + decoder.getMissingSamples() +
+                        ", samples dropped: " + recordDispatcher.getDroppedRecords() +
+                        ", commands acknowledged: " + session.getAcknowledgedCommands() +
+                        ", failed: " + session.getFailedCommands() +
+                        ", retries: " + session.getRetries());
+
+                // Nothing answers the commands left from now on
+                session.close();
+                if (isDeviceLost) {
+                    mainHandler.post(() -> {
+                        if (getListener() != null) {
+                            getListener().onDataSensorDisconnected(MTiXSensIMU.this);
+                        }
+                    });
+                }
             }
         });
-        if (!readingThread.isAlive()) {
-            readingThread.setName("Thread ReadingThread - XSens MTi IMU");
-            readingThread.start();
+        if (!usbReader.start()) {
+            session.close();
         }
     }
 
@@ -348,14 +348,49 @@ public class MTiXSensIMU extends DataSensor {
      * Stop reading the IMU
      */
     public void stopReading() {
-        readingIMU = false;  // indicates the IMU reading thread to stop reading from the USB
-        try {
-            if (readingThread.isAlive()) {
-                readingThread.interrupt();
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Socket not connected");
+        // Stop the reading thread first, so it doesn't keep publishing records being discarded
+        if (usbReader != null) {
+            usbReader.stop();
         }
+        recordDispatcher.stop();
+    }
+
+    /**
+     * Get the number of jumps of the counter of the samples received so far, each one being a
+     * sequence of samples lost. Can be called from any thread.
+     */
+    public long getGaps() {
+        return gaps;
+    }
+
+    /**
+     * Get the number of samples lost so far, according to their counter. Can be called from any
+     * thread.
+     */
+    public long getMissingSamples() {
+        return missingSamples;
+    }
+
+    /**
+     * Tee the bytes received from now on into a raw capture, or stop doing it. Can be called from
+     * any thread.
+     *
+     * @param rawCaptureWriter Writer of the raw capture, or null to stop capturing.
+     */
+    public void setRawCaptureWriter(RawCaptureWriter rawCaptureWriter) {
+        this.rawCaptureWriter = rawCaptureWriter;
+    }
+
+    /**
+     * Whether the packets received are decoded into samples, shown and logged. They can be left to
+     * be decoded afterwards from a raw capture. Can be called from any thread.
+     */
+    public void setDecodingEnabled(boolean isDecodingEnabled) {
+        this.isDecodingEnabled = isDecodingEnabled;
+    }
+
+    public String getDeviceName() {
+        return name;
     }
 
     /**
@@ -369,340 +404,92 @@ public class MTiXSensIMU extends DataSensor {
         }
     }
 
+    // region Commands
+
     /**
-     * Enter the configuration mode and interrupt the reading thread if any.
+     * Queue the command to enter the configuration mode, where the IMU stops measuring. Never
+     * blocks: commands are sent, one at a time, by the reading thread once it starts.
      */
     public void goToConfig() {
-        byte[] messageBuffer = new byte[64];
-        byte[] outputBuffer = {preamble, BID, MID_goToConfig, 0, 0};
-        int[] out = new int[5];
-        int loops = 0, outerLoop = 0;
-
-
-        outputBuffer[4] = crc_calculation(outputBuffer, outputBuffer.length);
-        messageBuffer[1] = 2;
-        if (!readingIMU)
-            while (connection.bulkTransfer(inputEndPoint, messageBuffer, 64, 1000) >= 2 & (messageBuffer[1] & 0x02) > 0)
-                ; //Clean the buffer
-        connection.bulkTransfer(inputEndPoint, messageBuffer, 64, 1000);
-        connection.bulkTransfer(inputEndPoint, messageBuffer, 64, 1000);
-        do {
-            // send set setting mode on command
-            connection.bulkTransfer(outputEndPoint, outputBuffer, outputBuffer.length, 1000);
-            if (readingIMU) {
-                while (readingIMU) ;
-            } else {
-                outerLoop = connection.bulkTransfer(inputEndPoint, messageBuffer, 64, 1000);
-                for (int i = 0; i < outerLoop - 2 & i < 5; i++)
-                    out[i] = ((int) messageBuffer[i + 2]) & 0x00FF;
-            }
-            loops++;
-        } while (outerLoop != 7 & loops < 100);
+        submit(MID_goToConfig, null, logCommandResult);
     }
 
     /**
-     * Enter the Measurement state.
+     * Queue the command to enter the measurement mode.
      */
     public void goToMeasurement() {
-        byte[] outputBuffer = {preamble, BID, MID_goToMeasurement, 0, 0}, messageBuffer = new byte[64];
-        int outerLoop, receiveCount = 0;
-        int[] out = new int[5];
-
-        outputBuffer[4] = crc_calculation(outputBuffer, outputBuffer.length);
-
-        connection.bulkTransfer(inputEndPoint, messageBuffer, 64, 1000);
-        connection.bulkTransfer(inputEndPoint, messageBuffer, 64, 1000);
-        // send set measure on command
-        if (connection.bulkTransfer(outputEndPoint, outputBuffer, outputBuffer.length, 1000) < outputBuffer.length)
-            return;
-        do {
-            outerLoop = connection.bulkTransfer(inputEndPoint, messageBuffer, 64, 1000);
-            receiveCount++;
-        } while (outerLoop <= 2 & receiveCount < 9);
-        if (outerLoop <= 0)
-            return;
-
-        for (int i = 0; i < outerLoop - 2 & i < 5; i++)
-            out[i] = ((int) messageBuffer[i + 2]) & 0x00FF;
+        submit(MID_goToMeasurement, null, logCommandResult);
     }
 
-
     /**
-     * Request the Device ID of the IMU.
-     *
-     * @return Received Device ID as a byte array.
+     * Queue the request of the device ID of the IMU, available in the callback as a byte array.
      */
-    public byte[] reqDID() {
-        byte[] messageBuffer = new byte[64];
-        byte[] outputBuffer = {preamble, BID, MID_reqDID, 0, 0};
-        byte[] out = new byte[4];
-        int inputCount, loopsCounts, outerLoop = 0;
-
-
-        outputBuffer[4] = crc_calculation(outputBuffer, outputBuffer.length);
-        do {
-            connection.bulkTransfer(outputEndPoint, outputBuffer, outputBuffer.length, 1000);
-            if (readingIMU) {
-                return null;
-            } else {
-                loopsCounts = 0;
-                do {
-                    inputCount = connection.bulkTransfer(inputEndPoint, messageBuffer, 64, 1000);
-                    if (inputCount >= 11) {
-                        byte sum = messageBuffer[3];
-                        for (int i = 4; i < 11; i++)
-                            sum += messageBuffer[i];
-                        if (messageBuffer[2] == preamble & messageBuffer[3] == BID & messageBuffer[4] == (MID_reqDID + 1) & messageBuffer[5] == 4 & sum == 0) {//&((int)msg_buffer[3]+(int)msg_buffer[4]+(int)msg_buffer[5]+(int)msg_buffer[6]+(int)msg_buffer[7]+(int)msg_buffer[8]+msg_buffer[9]+msg_buffer[10])==0){
-                            out[0] = messageBuffer[6];
-                            out[1] = messageBuffer[7];
-                            out[2] = messageBuffer[8];
-                            out[3] = messageBuffer[9];
-                            return out;
-                        }
-                        loopsCounts = 0;
-                    } else
-                        loopsCounts++;
-                } while (inputCount > 0 & loopsCounts < 10);
-            }
-            outerLoop++;
-        } while (outerLoop < 3);
-        return messageBuffer;
+    public void reqDID(MTiSession.CommandCallback callback) {
+        submit(MID_reqDID, null, callback);
     }
 
     /**
-     * Request the product code of the IMU.
-     *
-     * @return The received product code of the IMU as a char array, use String.copyValueOf(char[])
-     * to generate the String
+     * Queue the request of the product code of the IMU, available in the callback as ASCII text.
      */
-    public char[] reqProductCode() {
-        byte[] msg_buffer = new byte[64];
-        byte[] out_buffer = {preamble, BID, MID_reqProductCode, 0, 0};
-        int in_count, loops_counts, out_loop = 0;
-
-
-        out_buffer[4] = crc_calculation(out_buffer, out_buffer.length);
-        do {
-            connection.bulkTransfer(outputEndPoint, out_buffer, out_buffer.length, 1000);
-            if (readingIMU) {
-                return null;
-            } else {
-                loops_counts = 0;
-                do {
-                    in_count = connection.bulkTransfer(inputEndPoint, msg_buffer, 64, 1000);
-                    if (in_count >= 7) {
-                        byte sum = msg_buffer[3];
-                        for (int i = 4; i < in_count; i++)
-                            sum += msg_buffer[i];
-                        if (msg_buffer[2] == preamble & msg_buffer[3] == BID & msg_buffer[4] == (MID_reqProductCode + 1) & msg_buffer[5] == in_count - 7 & sum == 0) {
-                            char[] out = new char[in_count - 7];
-                            for (int i = 6; i < in_count - 1; i++)
-                                out[i - 6] = (char) (((int) msg_buffer[i]) & 0x00FF);
-                            return out;
-                        }
-                        loops_counts = 0;
-                    } else
-                        loops_counts++;
-                } while (in_count > 0 & loops_counts < 10);
-            }
-            out_loop++;
-        } while (out_loop < 3);
-        return null;
+    public void reqProductCode(MTiSession.CommandCallback callback) {
+        submit(MID_reqProductCode, null, callback);
     }
 
     /**
-     * Send a message with a Data.
+     * Queue a command with data.
      *
      * @param MID  Message ID.
      * @param Data Data to be send with the MID.
      */
     public void Setting(byte MID, byte[] Data) {
-        byte[] messageBuffer = new byte[64];
-        byte[] outerBuffer = new byte[5 + Data.length];
-        int inputCount, loopsCounts, outerLoop;
-
-        outerBuffer[0] = preamble;
-        outerBuffer[1] = BID;
-        outerBuffer[2] = MID;
-        if (Data.length > 59)
-            return;
-        outerBuffer[3] = (byte) (Data.length & 0x00FF);
-        System.arraycopy(Data, 0, outerBuffer, 4, Data.length);
-        //{preamble,BID,MID,Data.length,Data[],0};
-
-        outerBuffer[outerBuffer.length - 1] = crc_calculation(outerBuffer, outerBuffer.length);
-        outerLoop = 0;
-        do {
-            // send command with data
-            if (connection.bulkTransfer(outputEndPoint, outerBuffer, outerBuffer.length, 1000) < 0)
-                return;
-            loopsCounts = 0;
-            do {
-                inputCount = connection.bulkTransfer(inputEndPoint, messageBuffer, 64, 1000);
-                if (inputCount >= 7) {
-                    byte sum = messageBuffer[3];
-                    for (int i = 4; i < inputCount; i++)
-                        sum += messageBuffer[i];
-                    if (messageBuffer[2] == preamble & messageBuffer[3] == BID & messageBuffer[4] == (MID + 1) & messageBuffer[5] == inputCount - 7 & sum == 0) {
-                        byte[] out = new byte[inputCount - 2];
-                        System.arraycopy(messageBuffer, 2, out, 0, inputCount - 2);
-                        return;
-                    }
-                    loopsCounts = 0;
-                } else
-                    loopsCounts++;
-            } while (inputCount > 0 & loopsCounts < 10);
-
-            outerLoop++;
-        } while (outerLoop < 3);
+        submit(MID, Data, logCommandResult);
     }
 
     /**
-     * Parse received message.
+     * Change the output of the IMU, even while measuring: go to configuration mode, set the
+     * period, output mode and output settings, and go back to measurement mode.
      *
-     * @param msg     buffer array with the information to interpret.
-     * @param pointer of the first byte of the package.
-     * @return Received information.
+     * @param period         Sampling period, in units of 1/115200 s, as 2 bytes.
+     * @param outputMode     Output mode, as 2 bytes.
+     * @param outputSettings Output settings, as 4 bytes.
      */
-    private IMUData parse(byte[] msg, int pointer) {
-        byte MTData = 0x32;    //Message identifier for a MT data
-
-        IMUData receivedMessage = new IMUData();
-        byte sum = 0;
-        byte[] Package = new byte[PACKAGE_SIZE];
-        Package[0] = preamble;
-        for (int i = 1; i < PACKAGE_SIZE; i++) {
-            sum += msg[(pointer + i) % (PACKAGE_SIZE * 2)];
-            Package[i] = msg[(pointer + i) % (PACKAGE_SIZE * 2)];
-        }
-        if (sum == 0) {
-            if (Package[2] == MTData) {    //Data message
-                receivedMessage.acceleration[0] = Float.intBitsToFloat((((int) Package[ACCELERATION_INDEX]) << 24) + ((((int) Package[ACCELERATION_INDEX + 1]) & 0x00FF) << 16) + ((((int) Package[ACCELERATION_INDEX + 2]) & 0x00FF) << 8) + (((int) Package[ACCELERATION_INDEX + 3]) & 0x00FF));
-                receivedMessage.acceleration[1] = Float.intBitsToFloat((((int) Package[ACCELERATION_INDEX + 4]) << 24) + ((((int) Package[ACCELERATION_INDEX + 5]) & 0x00FF) << 16) + ((((int) Package[ACCELERATION_INDEX + 6]) & 0x00FF) << 8) + (((int) Package[ACCELERATION_INDEX + 7]) & 0x00FF));
-                receivedMessage.acceleration[2] = Float.intBitsToFloat((((int) Package[ACCELERATION_INDEX + 8]) << 24) + ((((int) Package[ACCELERATION_INDEX + 9]) & 0x00FF) << 16) + ((((int) Package[ACCELERATION_INDEX + 10]) & 0x00FF) << 8) + (((int) Package[ACCELERATION_INDEX + 11]) & 0x00FF));
-                receivedMessage.turnRate[0] = Float.intBitsToFloat((((int) Package[TURN_RATE_INDEX]) << 24) + ((((int) Package[TURN_RATE_INDEX + 1]) & 0x00FF) << 16) + ((((int) Package[TURN_RATE_INDEX + 2]) & 0x00FF) << 8) + (((int) Package[TURN_RATE_INDEX + 3]) & 0x00FF));
-                receivedMessage.turnRate[1] = Float.intBitsToFloat((((int) Package[TURN_RATE_INDEX + 4]) << 24) + ((((int) Package[TURN_RATE_INDEX + 5]) & 0x00FF) << 16) + ((((int) Package[TURN_RATE_INDEX + 6]) & 0x00FF) << 8) + (((int) Package[TURN_RATE_INDEX + 7]) & 0x00FF));
-                receivedMessage.turnRate[2] = Float.intBitsToFloat((((int) Package[TURN_RATE_INDEX + 8]) << 24) + ((((int) Package[TURN_RATE_INDEX + 9]) & 0x00FF) << 16) + ((((int) Package[TURN_RATE_INDEX + 10]) & 0x00FF) << 8) + (((int) Package[TURN_RATE_INDEX + 11]) & 0x00FF));
-                receivedMessage.magneticField[0] = Float.intBitsToFloat((((int) Package[MAGNETIC_FIELD_INDEX]) << 24) + ((((int) Package[MAGNETIC_FIELD_INDEX + 1]) & 0x00FF) << 16) + ((((int) Package[MAGNETIC_FIELD_INDEX + 2]) & 0x00FF) << 8) + (((int) Package[MAGNETIC_FIELD_INDEX + 3]) & 0x00FF));
-                receivedMessage.magneticField[1] = Float.intBitsToFloat((((int) Package[MAGNETIC_FIELD_INDEX + 4]) << 24) + ((((int) Package[MAGNETIC_FIELD_INDEX + 5]) & 0x00FF) << 16) + ((((int) Package[MAGNETIC_FIELD_INDEX + 6]) & 0x00FF) << 8) + (((int) Package[MAGNETIC_FIELD_INDEX + 7]) & 0x00FF));
-                receivedMessage.magneticField[2] = Float.intBitsToFloat((((int) Package[MAGNETIC_FIELD_INDEX + 8]) << 24) + ((((int) Package[MAGNETIC_FIELD_INDEX + 9]) & 0x00FF) << 16) + ((((int) Package[MAGNETIC_FIELD_INDEX + 10]) & 0x00FF) << 8) + (((int) Package[MAGNETIC_FIELD_INDEX + 11]) & 0x00FF));
-                receivedMessage.temperature = Float.intBitsToFloat((((int) Package[TEMPERATURE_INDEX]) << 24) + ((((int) Package[TEMPERATURE_INDEX + 1]) & 0x00FF) << 16) + ((((int) Package[TEMPERATURE_INDEX + 2]) & 0x00FF) << 8) + (((int) Package[TEMPERATURE_INDEX + 3]) & 0x00FF));
-                receivedMessage.quaternions[0] = Float.intBitsToFloat((((int) Package[QUATERNIONS_INDEX]) << 24) + ((((int) Package[QUATERNIONS_INDEX + 1]) & 0x00FF) << 16) + ((((int) Package[QUATERNIONS_INDEX + 2]) & 0x00FF) << 8) + (((int) Package[QUATERNIONS_INDEX + 3]) & 0x00FF));
-                receivedMessage.quaternions[1] = Float.intBitsToFloat((((int) Package[QUATERNIONS_INDEX + 4]) << 24) + ((((int) Package[QUATERNIONS_INDEX + 5]) & 0x00FF) << 16) + ((((int) Package[QUATERNIONS_INDEX + 6]) & 0x00FF) << 8) + (((int) Package[QUATERNIONS_INDEX + 7]) & 0x00FF));
-                receivedMessage.quaternions[2] = Float.intBitsToFloat((((int) Package[QUATERNIONS_INDEX + 8]) << 24) + ((((int) Package[QUATERNIONS_INDEX + 9]) & 0x00FF) << 16) + ((((int) Package[QUATERNIONS_INDEX + 10]) & 0x00FF) << 8) + (((int) Package[QUATERNIONS_INDEX + 11]) & 0x00FF));
-                receivedMessage.quaternions[3] = Float.intBitsToFloat((((int) Package[QUATERNIONS_INDEX + 12]) << 24) + ((((int) Package[QUATERNIONS_INDEX + 13]) & 0x00FF) << 16) + ((((int) Package[QUATERNIONS_INDEX + 14]) & 0x00FF) << 8) + (((int) Package[QUATERNIONS_INDEX + 15]) & 0x00FF));
-                receivedMessage.counter = (short) ((((short) Package[COUNTER_INDEX]) << 8) + (((short) Package[COUNTER_INDEX + 1]) & 0x00FF));
-                receivedPackages++;
-            }
-            return receivedMessage;
-        } else
-            return null;
+    public void configure(byte[] period, byte[] outputMode, byte[] outputSettings) {
+        goToConfig();
+        Setting(MID_SetPeriod, period);
+        Setting(MID_SetOutputMode, outputMode);
+        Setting(MID_SetOutputSettings, outputSettings);
+        goToMeasurement();
     }
 
-    /**
-     * Parse bundle data.
-     *
-     * @param data in the IMU data class.
-     * @return Data in a bundle
-     */
-    private Bundle bundleParse(IMUData data) {
-        Bundle out = new Bundle();
-
-        out.putFloat("Accelerations_x", data.acceleration[0]);
-        out.putFloat("Accelerations_y", data.acceleration[1]);
-        out.putFloat("Accelerations_z", data.acceleration[2]);
-        out.putFloat("TurnRates_x", data.turnRate[0]);
-        out.putFloat("TurnRates_y", data.turnRate[1]);
-        out.putFloat("TurnRates_z", data.turnRate[2]);
-        out.putFloat("MagneticFields_x", data.magneticField[0]);
-        out.putFloat("MagneticFields_y", data.magneticField[1]);
-        out.putFloat("MagneticFields_z", data.magneticField[2]);
-        out.putFloat("quaternions1", data.quaternions[0]);
-        out.putFloat("quaternions2", data.quaternions[1]);
-        out.putFloat("quaternions3", data.quaternions[2]);
-        out.putFloat("quaternions4", data.quaternions[3]);
-        out.putFloat("Temperature", data.temperature);
-        out.putFloat("Pressure", data.pressure);
-        out.putShort("Counter", data.counter);
-        out.putFloat("Euler_Roll", 0);
-        out.putFloat("Euler_Pitch", 0);
-        out.putFloat("Euler_Yaw", 0);
-
-        return out;
+    private void submit(byte mid, byte[] data, MTiSession.CommandCallback callback) {
+        if (session == null) {
+            Log.e(TAG, "Command " + mid + " not sent: not connected");
+            return;
+        }
+        session.submit(mid, data, callback);
     }
 
-    public static class IMUData {
-        public float[] acceleration = {0.0f, 0.0f, 0.0f};
-        public float[] turnRate = {0.0f, 0.0f, 0.0f};
-        public float[] magneticField = {0.0f, 0.0f, 0.0f};
-        public float[] quaternions = {0.0f, 0.0f, 0.0f, 0.0f};
-        public float pressure = 0.0f;
-        public float temperature = 0.0f;
-        public long time = 0;
-        public short counter = 0;
-    }
+    // endregion
 
     /**
-     * Calculate the crc for the XSens MTi IMU messages.
+     * Get the divisor of the 3 MHz clock of the FTDI converter for a baud rate, encoded as the
+     * value of its set baud rate request.
      */
-    private byte crc_calculation(byte[] message, int length) {
-        byte sum = 0;
-        for (int i = 1; i < length - 1; i++)
-            sum += message[i];
-        return (byte) -sum;
-    }
-
-    // region Handler Management
-
-    private void setHandler() {
-        Log.d(TAG, "setHandler()");
-
-        class HandlerCallback implements Handler.Callback {
-            final DataSensor dataSensor;
-
-            public HandlerCallback(DataSensor dataSensor) {
-                this.dataSensor = dataSensor;
-            }
-
-            @Override
-            public boolean handleMessage(@NonNull Message msg) {
-                Log.i(TAG, "Handle sensor message");
-                data = msg.getData();
-                String messageType = data.getString(MTiXSensIMU.MESSAGE_TYPE);
-                if (messageType != null && messageType.equals(MTiXSensIMU.MESSAGE_TYPE_CONNECT)) {
-                    boolean connected = data.getBoolean(MTiXSensIMU.CONNECTED);
-                    if (getListener() != null) {
-                        if (connected) {
-                            getListener().onDataSensorConnected(dataSensor);
-                        } else {
-                            getListener().onDataSensorDisconnected(dataSensor);
-                        }
-                    }
-                }
-
-//                if (messageType != null && messageType.equals("MTiConnect")) {
-//                    boolean connected = data.getBoolean(MTiXSensIMU.CONNECTED);
-//                    if (!connected) {
-//                        if (!configMode) {
-//                            showToast("MTi disconnected or in config mode");
-//                        }
-//                    }
-//                }
-
-                if (messageType != null && messageType.equals("IMU_Data")) {
-                    // TODO: fire this event only X times per second
-                    if (getListener() != null) {
-                        getListener().onDataSensorChanged(dataSensor);
-                    }
-                }
-                return false;
-            }
+    private static int getBaudRateDivisor(int baudRate) {
+        switch (baudRate) {
+            case 115200:
+                return 0x001A; // 26
+            case 230400:
+                return 0x000D; // 13
+            case 460800:
+                return 0x4006; // 6.5
+            case 921600:
+                return 0x8003; // 3.25
+            default:
+                throw new IllegalArgumentException("Unsupported baud rate: " + baudRate);
         }
-        handler = new Handler(new HandlerCallback(this));
     }
 
-    // endregion
-
     // region DataSensor
 
     @Override
@@ -729,34 +516,17 @@ public class MTiXSensIMU extends DataSensor {
 
     @NotNull
     @Override
-    public String getStatusForScreen() {
+    public synchronized String getStatusForScreen() {
         setCounter(getCounter() + 1);
 
-        assert data != null;
-        float[] acceleration = new float[3];
-        acceleration[0] = data.getFloat("Accelerations_x");
-        acceleration[1] = data.getFloat("Accelerations_y");
-        acceleration[2] = data.getFloat("Accelerations_z");
-        float[] turnRate = new float[3];
-        turnRate[0] = data.getFloat("TurnRates_x");
-        turnRate[1] = data.getFloat("TurnRates_y");
-        turnRate[2] = data.getFloat("TurnRates_z");
-        float[] magneticField = new float[3];
-        magneticField[0] = data.getFloat("MagneticFields_x");
-        magneticField[1] = data.getFloat("MagneticFields_y");
-        magneticField[2] = data.getFloat("MagneticFields_z");
-        float[] quaternions = new float[4];
-        quaternions[0] = data.getFloat("quaternions1");
-        quaternions[1] = data.getFloat("quaternions2");
-        quaternions[2] = data.getFloat("quaternions3");
-        quaternions[3] = data.getFloat("quaternions4");
-        float[] euler = new float[3];
-        euler[0] = data.getFloat("Euler_Roll");
-        euler[1] = data.getFloat("Euler_Pitch");
-        euler[2] = data.getFloat("Euler_Yaw");
-        float temperature = data.getFloat("Temperature");
-        float pressure = data.getFloat("Pressure");
-        short counter = data.getShort("Counter");
+        float[] acceleration = currentSample.acceleration;
+        float[] turnRate = currentSample.turnRate;
+        float[] magneticField = currentSample.magneticField;
+        float[] quaternions = currentSample.quaternions;
+        // Neither the Euler angles nor the pressure are sent by the IMU as configured
+        float[] euler = EULER;
+        float temperature = currentSample.temperature;
+        float pressure = 0;
 
         String status = String.format(Locale.US, "\tAcc(X): \t%10.5f \tm/s^2\n\tAcc(Y): \t%10.5f \tm/s^2\n\tAcc(Z): \t%10.5f \tm/s^2\n", acceleration[0], acceleration[1], acceleration[2]);
         status = status + String.format(Locale.US, "\tGyr(X): \t%10.5f \trad/s\n\tGyr(Y): \t%10.5f \trad/s\n\tGyr(Z): \t%10.5f \trad/s\n", turnRate[0], turnRate[1], turnRate[2]);
@@ -777,37 +547,39 @@ public class MTiXSensIMU extends DataSensor {
     @NotNull
     @Override
     public String getStatusForLog() {
-        assert data != null;
-        float[] acceleration = new float[3];
-        acceleration[0] = data.getFloat("Accelerations_x");
-        acceleration[1] = data.getFloat("Accelerations_y");
-        acceleration[2] = data.getFloat("Accelerations_z");
-        float[] turnRate = new float[3];
-        turnRate[0] = data.getFloat("TurnRates_x");
-        turnRate[1] = data.getFloat("TurnRates_y");
-        turnRate[2] = data.getFloat("TurnRates_z");
-        float[] magneticField = new float[3];
-        magneticField[0] = data.getFloat("MagneticFields_x");
-        magneticField[1] = data.getFloat("MagneticFields_y");
-        magneticField[2] = data.getFloat("MagneticFields_z");
-        float[] quaternions = new float[4];
-        quaternions[0] = data.getFloat("quaternions1");
-        quaternions[1] = data.getFloat("quaternions2");
-        quaternions[2] = data.getFloat("quaternions3");
-        quaternions[3] = data.getFloat("quaternions4");
-        float[] euler = new float[3];
-        euler[0] = data.getFloat("Euler_Roll");
-        euler[1] = data.getFloat("Euler_Pitch");
-        euler[2] = data.getFloat("Euler_Yaw");
-        float temperature = data.getFloat("Temperature");
-        float pressure = data.getFloat("Pressure");
-        short counter = data.getShort("Counter");
+        float[] acceleration = currentSample.acceleration;
+        float[] turnRate = currentSample.turnRate;
+        float[] magneticField = currentSample.magneticField;
+        float[] quaternions = currentSample.quaternions;
+        float[] euler = EULER;
+        float temperature = currentSample.temperature;
+        float pressure = 0;
+        short counter = currentSample.counter;
         float SensorTimestamp = (float) timestamp_Imux_last + 0.01f;  // asumo muestreo cada 0.01s i.e. 100Hz //((float)counter/100);
 
-        return String.format(Locale.US, "\nIMUX;%.3f;%.3f;%d;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.5f;%.3f;%.2f",
-                getSecondsFromEpoch(), SensorTimestamp, counter, acceleration[0], acceleration[1], acceleration[2], turnRate[0], turnRate[1], turnRate[2],
-                magneticField[0], magneticField[1], magneticField[2], euler[0], euler[1], euler[2], quaternions[0], quaternions[1], quaternions[2],
-                quaternions[3], pressure, temperature);
+        LogLineFormatter logLineFormatter = getLogLineFormatter().begin("IMUX")
+                .append(getSecondsFromEpoch(), 3)
+                .append(SensorTimestamp, 3)
+                .append(counter);
+        for (float value : acceleration) {
+            logLineFormatter.append(value, 5);
+        }
+        for (float value : turnRate) {
+            logLineFormatter.append(value, 5);
+        }
+        for (float value : magneticField) {
+            logLineFormatter.append(value, 5);
+        }
+        for (float value : euler) {
+            logLineFormatter.append(value, 5);
+        }
+        for (float value : quaternions) {
+            logLineFormatter.append(value, 5);
+        }
+        return logLineFormatter
+                .append(pressure, 3)
+                .append(temperature, 2)
+                .end();
     }
 
     @Override
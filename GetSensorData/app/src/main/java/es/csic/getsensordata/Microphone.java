@@ -1,113 +1,160 @@
 package es.csic.getsensordata;
 
-import android.content.Context;
 import android.media.AudioFormat;
 import android.media.AudioRecord;
-import android.media.AudioRecord.OnRecordPositionUpdateListener;
 import android.media.MediaRecorder;
+import android.os.Process;
 import android.util.Log;
 
+/**
+ * Microphone of the device, captured continuously, in mono 16 bit PCM, through an
+ * `AudioFramePipeline`.
+ *
+ * Frames are read back to back by a capture thread running at audio priority, and handed to the
+ * listener in an analysis thread, so no audio is skipped and no frame is overwritten while it is
+ * analysed. The buffer of the `AudioRecord` holds several frames, so the capture thread can be
+ * late without losing samples.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     Microphone microphone = new Microphone(44100, 4096, frame -> {
+ *         // Analysis thread: use the frame, before returning
+ *     });
+ *     if (microphone.start()) {
+ *         ...
+ *         microphone.stop();
+ *     }
+ *     ```
+ */
 public class Microphone {
-	private int audiosamplerate=44100; //16000;   // 8000, 16000,   44.1kHz
-	private int bufferSize = audiosamplerate/10;  // en 0.1 s se llena medio buffer
-	private int audioReadRate=audiosamplerate/10;  // aviso a los 0.1 s  
-	public short[] buffer;
-	private AudioRecord recorder;
-	Context context;
-	private OnRecordPositionUpdateListener mRecordListener;
-	Boolean leer_audio=true;
-	
-	// ========================
-	public Microphone(OnRecordPositionUpdateListener mRecordListener)
-	{
-		this.mRecordListener=mRecordListener;
-		buffer = new short[bufferSize];
-		inicialize();
-	}
-	
-	//=====================
-	public short[] getbuffer()
-	{
-	short[] buffer_aux= new short[bufferSize];  // creo un buffer/array nuevo
-	buffer_aux=buffer.clone();   //copio los contenidos del buffer actual al nuevo
-	return buffer_aux;  // mando una copia del buffer
-	}
-	//======================
-	private void inicialize()
-	{
-		int minBufferSize = AudioRecord.getMinBufferSize(audiosamplerate,
-				AudioFormat.CHANNEL_IN_MONO,
-				AudioFormat.ENCODING_PCM_16BIT);
-		if (bufferSize>minBufferSize )
-		{  	Log.i("Audio","minBufferSize: "+minBufferSize); }
-		try{
-			recorder = new AudioRecord(MediaRecorder.AudioSource.MIC, audiosamplerate,
-					AudioFormat.CHANNEL_IN_MONO,
-					AudioFormat.ENCODING_PCM_16BIT, bufferSize*2);
-			recorder.setPositionNotificationPeriod(audioReadRate);
-			Log.i("Audio","Setting Audio Record Listener");
-			recorder.setRecordPositionUpdateListener(mRecordListener);
-			
-		} catch(Exception E){
-			Log.i("Audio","No puedo leer, no bien configurado MIC");
-		}
-
-		Log.i("Audio","+1.5End Start Audio Recording inside Thread");
-	}
-	
-	//===========read==============
-	public void start_read_audio_Thread()
-	{
-	final AudioRecord recorder_in_thread=recorder;  // copio referencia a objeto y lo pongo "final" (no copio el objeto)
-
-
-	Thread readingThread = new Thread() {
-		@Override
-		public void run() {
-			
-
-		recorder_in_thread.startRecording();
-		leer_audio=true;
-		while (leer_audio)
-		{
-			recorder_in_thread.read(buffer, 0, bufferSize);  // bloquea mientras lee o llena el buffer (por eso en nuevo thread)
-			//Log.i("Audio","READ Audio Recording inside Thread");
-			try {
-			//Log.i("Audio","SLEEP Audio Recording inside Thread");
-				Thread.sleep(500);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}
-		} // end-while
-		}
-	};
-	readingThread.setName("Hilo Leer Microfono");
-	readingThread.start();  
-	}
-	
-	//=============================
-	public void stop_audio_thread()
-	{
-		Log.i("Audio","Audio Interrupted");
-		leer_audio=false;
-		if (recorder.getState()==AudioRecord.STATE_INITIALIZED  && recorder.getRecordingState()==AudioRecord.RECORDSTATE_RECORDING)
-		{
-			recorder.stop();
-			//recorder.release();
-		}
-	}
-	
-	//==============================
-	public void release()
-	{
-		Log.i("Audio","Audio Interrupted");
-		if (recorder.getState()==AudioRecord.STATE_INITIALIZED && recorder.getRecordingState()==AudioRecord.RECORDSTATE_RECORDING)
-		{
-			//recorder.stop();
-			recorder.release();
-		}
-	}
+    private static final String TAG = "Microphone";
+    public static final int DEFAULT_SAMPLE_RATE = 44100;
+    public static final int DEFAULT_FRAME_SIZE = 4096;
+    // Frames the buffer of the AudioRecord holds, at least
+    private static final int RECORD_BUFFER_FRAMES = 4;
 
-}
+    private final int sampleRate;
+    private final int frameSize;
+    private final AudioFramePipeline.FrameListener frameListener;
+    private AudioFramePipeline.CaptureListener captureListener;
+    private AudioRecord recorder;
+    private AudioFramePipeline audioFramePipeline;
+
+    private final AudioFramePipeline.Source source = new AudioFramePipeline.Source() {
+        @Override
+        public void start() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_URGENT_AUDIO);
+            recorder.startRecording();
+        }
+
+        @Override
+        public int read(short[] samples, int offset, int length) {
+            return recorder.read(samples, offset, length);
+        }
+
+        @Override
+        public void stop() {
+            if (recorder.getRecordingState() == AudioRecord.RECORDSTATE_RECORDING) {
+                recorder.stop();
+            }
+        }
+    };
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param sampleRate    Samples per second, supported by every device for 44100.
+     * @param frameSize     Samples per frame analysed.
+     * @param frameListener Where every frame is analysed, in the analysis thread.
+     */
+    public Microphone(int sampleRate, int frameSize, AudioFramePipeline.FrameListener frameListener) {
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.frameListener = frameListener;
+    }
+
+    // endregion
+
+    // region Public Interface
 
+    /**
+     * Set the receiver of every frame captured, in the capture thread, from the next start on.
+     */
+    public void setCaptureListener(AudioFramePipeline.CaptureListener captureListener) {
+        this.captureListener = captureListener;
+    }
+
+    /**
+     * Start capturing the microphone.
+     *
+     * @return true if the capture started, false if the microphone can't be recorded with this
+     * sample rate, or the app has no permission to record it.
+     */
+    public boolean start() {
+        if (audioFramePipeline != null && audioFramePipeline.isCapturing()) {
+            return true;
+        }
+        int minimumBufferSize = AudioRecord.getMinBufferSize(sampleRate,
+                AudioFormat.CHANNEL_IN_MONO,
+                AudioFormat.ENCODING_PCM_16BIT);
+        if (minimumBufferSize <= 0) {
+            Log.e(TAG, "Sample rate not supported: " + sampleRate);
+            return false;
+        }
+        int bufferSize = Math.max(minimumBufferSize, RECORD_BUFFER_FRAMES * frameSize * 2);
+        try {
+            recorder = new AudioRecord(MediaRecorder.AudioSource.MIC, sampleRate,
+                    AudioFormat.CHANNEL_IN_MONO,
+                    AudioFormat.ENCODING_PCM_16BIT, bufferSize);
+        } catch (IllegalArgumentException | SecurityException exception) {
+            Log.e(TAG, "Microphone not recorded: " + exception);
+            return false;
+        }
+        if (recorder.getState() != AudioRecord.STATE_INITIALIZED) {
+            Log.e(TAG, "Microphone not initialized");
+            recorder.release();
+            recorder = null;
+            return false;
+        }
+        Log.i(TAG, "start(sampleRate=" + sampleRate + ", frameSize=" + frameSize + ", bufferSize=" + bufferSize + ")");
+
+        audioFramePipeline = new AudioFramePipeline(sampleRate, frameSize,
+                AudioFramePipeline.DEFAULT_FRAME_COUNT, bufferSize / 2, frameListener);
+        audioFramePipeline.setCaptureListener(captureListener);
+        audioFramePipeline.start(source);
+        return true;
+    }
+
+    /**
+     * Stop capturing the microphone, once every frame captured is analysed, and release it.
+     */
+    public void stop() {
+        if (audioFramePipeline != null) {
+            audioFramePipeline.stop();
+        }
+        if (recorder != null) {
+            recorder.release();
+            recorder = null;
+        }
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * Get the pipeline of the current capture, or null if never started.
+     */
+    public AudioFramePipeline getAudioFramePipeline() {
+        return audioFramePipeline;
+    }
+
+    // endregion
+}
@@ -0,0 +1,285 @@
+package es.csic.getsensordata;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothSocket;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelUuid;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import es.csic.getsensordata.data_sensors.definition.EmitterTable;
+import es.csic.getsensordata.data_sensors.definition.RadioScanCoordinator;
+import es.csic.getsensordata.data_sensors.definition.RecordDispatcher;
+
+/**
+ * Pool of the RF Code M220 RFID readers bonded through Bluetooth.
+ *
+ * It connects the readers through `RFIDM220ReaderPool`, so all of them are read from a single
+ * thread, and delivers the readings of every reader to its `RFIDM220Reader`, in the recording
+ * thread, through a single `RecordDispatcher`, so they reach the recorder in the order they were received,
+ * whatever the reader. The RSS of every tag, as heard by each reader, is kept in an `EmitterTable`
+ * shared by all of them.
+ *
+ * Bluetooth discovery is cancelled before connecting a reader, as recommended. When discoveries
+ * are coordinated, it is cancelled in the main thread through the `RadioScanCoordinator`, so the
+ * window of the discovery ends without its length being learnt, and BLE scanning resumes.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     RFIDM220BluetoothPool rfidM220BluetoothPool = new RFIDM220BluetoothPool(bluetoothAdapter, radioScanCoordinator);
+ *     RFIDM220Reader rfidM220Reader = new RFIDM220Reader(context, rfidM220BluetoothPool, bluetoothMac);
+ *     ...
+ *     rfidM220BluetoothPool.close();
+ *     ```
+ */
+public class RFIDM220BluetoothPool implements RFIDM220ReaderPool.Connector, RFIDM220ReaderPool.Listener {
+    private static final String TAG = "RFIDM220BluetoothPool";
+    // Readings of every reader waiting for the recording thread
+    private static final int RECORD_RING_CAPACITY = 256;
+    // Tags kept, per reader that heard them, enough for dense buildings
+    private static final int MAXIMUM_TAGS = 4096;
+    // Tags not heard for longer are removed
+    static final long TAG_EXPIRY_MS = 30000;
+    // How often tags not heard lately are removed
+    private static final long EXPIRY_INTERVAL_MS = 1000;
+    // Longest wait of a connect thread for the main thread to cancel the discovery
+    private static final long CANCEL_DISCOVERY_TIMEOUT_MS = 1000;
+
+    /**
+     * Reading of a reader, waiting for the recording thread.
+     */
+    static class Record {
+        int readerIndex;
+        long timestampNanoseconds;
+        final RFIDM220LineParser.Reading reading = new RFIDM220LineParser.Reading();
+    }
+
+    private final BluetoothAdapter bluetoothAdapter;
+    private final RadioScanCoordinator radioScanCoordinator;
+    private final RFIDM220ReaderPool readerPool;
+    private final RecordDispatcher<Record> recordDispatcher;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Readers by index, added in the main thread and read in the recording thread
+    private final CopyOnWriteArrayList<RFIDM220Reader> readers = new CopyOnWriteArrayList<>();
+    // Tags heard by every reader, updated in the recording thread and read by the screen, both
+    // synchronized on it
+    private final EmitterTable emitterTable = new EmitterTable(MAXIMUM_TAGS, TAG_EXPIRY_MS);
+    private final EmitterTable.Statistics statistics = new EmitterTable.Statistics();
+    // Next time tags not heard lately are removed, only accessed by the recording thread
+    private long nextExpiryNanoseconds = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param bluetoothAdapter     Adapter the readers are bonded to.
+     * @param radioScanCoordinator Timeline of the scans of the radio, or null if discoveries are
+     *                             not coordinated.
+     */
+    public RFIDM220BluetoothPool(BluetoothAdapter bluetoothAdapter, RadioScanCoordinator radioScanCoordinator) {
+        this.bluetoothAdapter = bluetoothAdapter;
+        this.radioScanCoordinator = radioScanCoordinator;
+        Record[] records = new Record[RECORD_RING_CAPACITY];
+        for (int index = 0; index < records.length; index++) {
+            records[index] = new Record();
+        }
+        recordDispatcher = new RecordDispatcher<>(records, record -> {
+            RFIDM220Reader reader = readers.get(record.readerIndex);
+            synchronized (reader) {
+                reader.onRecord(record);
+            }
+            synchronized (emitterTable) {
+                updateEmitterTable(reader.getReaderNumber(), record);
+                if (record.timestampNanoseconds - nextExpiryNanoseconds >= 0) {
+                    emitterTable.expire(record.timestampNanoseconds);
+                    nextExpiryNanoseconds = record.timestampNanoseconds + TimeUnit.MILLISECONDS.toNanos(EXPIRY_INTERVAL_MS);
+                }
+            }
+            return reader;
+        });
+        readerPool = new RFIDM220ReaderPool(this, this);
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Add a reader to the pool. Only call it from the main thread.
+     *
+     * @return index of the reader in the pool.
+     */
+    int addReader(RFIDM220Reader reader, String bluetoothDeviceMac, String bluetoothDeviceName) {
+        int readerIndex = readerPool.addReader(bluetoothDeviceMac, bluetoothDeviceName);
+        readers.add(reader);
+        return readerIndex;
+    }
+
+    public RFIDM220ReaderPool getReaderPool() {
+        return readerPool;
+    }
+
+    /**
+     * Disconnect every reader and stop delivering their readings. Only call it from the main
+     * thread.
+     */
+    public void close() {
+        Log.d(TAG, "close()");
+
+        readerPool.close();
+        recordDispatcher.stop();
+    }
+
+    /**
+     * Append the number of tags heard lately by a reader, and the strongest one. Only call it from
+     * the main thread.
+     */
+    void appendTagsForScreen(StringBuilder stringBuilder, int readerNumber) {
+        synchronized (emitterTable) {
+            appendTags(stringBuilder, readerNumber);
+        }
+    }
+
+    private void appendTags(StringBuilder stringBuilder, int readerNumber) {
+        long nowNanoseconds = System.nanoTime();
+        // A single pass over the table, as tags are expired in the recording thread
+        int tags = 0;
+        int strongestSlot = -1;
+        for (int slot = 0; slot < emitterTable.getSlotCount(); slot++) {
+            long key = emitterTable.getKey(slot);
+            if (EmitterTable.kindOf(key) == EmitterTable.KIND_RFID && getReaderNumber(key) == readerNumber && !emitterTable.isExpired(slot, nowNanoseconds)) {
+                if (strongestSlot < 0 || emitterTable.getLastRss(slot) > emitterTable.getLastRss(strongestSlot)) {
+                    strongestSlot = slot;
+                }
+                tags++;
+            }
+        }
+        stringBuilder.append("\n\t\tTags in the last ").append(TAG_EXPIRY_MS / 1000).append(" s: ").append(tags);
+        if (strongestSlot >= 0) {
+            emitterTable.getStatistics(strongestSlot, nowNanoseconds, statistics);
+            stringBuilder.append(", strongest: ").append(statistics.getId() & 0xFFFFFFFFL)
+                    .append(" (mean ").append(Math.round(statistics.meanRss))
+                    .append(", ").append(statistics.minimumRss).append("/").append(statistics.maximumRss).append(" dBm)");
+        }
+    }
+
+    // endregion
+
+    /**
+     * Add a reading to the tags heard, with the RSS of the strongest antenna, in dBm.
+     */
+    private void updateEmitterTable(int readerNumber, Record record) {
+        int rssA = record.reading.rssA;
+        int rssB = record.reading.rssB;
+        // The reader gives the RSS as positive numbers, the lower the stronger, or -1 if missing
+        int rss = rssA > 0 && (rssB <= 0 || rssA < rssB) ? rssA : rssB;
+        if (rss <= 0) {
+            return;
+        }
+        long id = ((long) readerNumber << 32) | (record.reading.tagId & 0xFFFFFFFFL);
+        emitterTable.update(EmitterTable.key(EmitterTable.KIND_RFID, id), -rss, record.timestampNanoseconds);
+    }
+
+    private static int getReaderNumber(long key) {
+        return (int) (EmitterTable.idOf(key) >>> 32);
+    }
+
+    // region RFIDM220ReaderPool.Connector
+
+    @Override
+    public RFIDM220ReaderPool.Connection connect(String address) throws IOException {
+        BluetoothDevice bluetoothDevice = bluetoothAdapter.getRemoteDevice(address);
+        ParcelUuid[] uuids = bluetoothDevice.getUuids();
+        if (uuids == null || uuids.length == 0) {
+            throw new IOException("No UUID obtained for " + address);
+        }
+        BluetoothSocket bluetoothSocket = bluetoothDevice.createInsecureRfcommSocketToServiceRecord(uuids[0].getUuid());
+        // Recommended before connecting
+        cancelDiscovery();
+        try {
+            bluetoothSocket.connect();
+        } catch (IOException exception) {
+            bluetoothSocket.close();
+            throw exception;
+        }
+        return new RFIDM220ReaderPool.Connection() {
+            @Override
+            public InputStream getInputStream() throws IOException {
+                return bluetoothSocket.getInputStream();
+            }
+
+            @Override
+            public OutputStream getOutputStream() throws IOException {
+                return bluetoothSocket.getOutputStream();
+            }
+
+            @Override
+            public void close() throws IOException {
+                bluetoothSocket.close();
+            }
+        };
+    }
+
+    /**
+     * Cancel the Bluetooth discovery, if any. Called in a connect thread.
+     */
+    private void cancelDiscovery() throws IOException {
+        if (radioScanCoordinator == null) {
+            bluetoothAdapter.cancelDiscovery();
+            return;
+        }
+        // The coordinator is only used from the main thread
+        CountDownLatch cancelled = new CountDownLatch(1);
+        mainHandler.post(() -> {
+            radioScanCoordinator.cancel(RadioScanCoordinator.BLUETOOTH, System.nanoTime());
+            bluetoothAdapter.cancelDiscovery();
+            cancelled.countDown();
+        });
+        try {
+            if (!cancelled.await(CANCEL_DISCOVERY_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+                Log.i(TAG, "Discovery not cancelled in time, connecting anyway");
+            }
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while cancelling the discovery");
+        }
+    }
+
+    // endregion
+
+    // region RFIDM220ReaderPool.Listener
+
+    @Override
+    public void onReaderConnected(int readerIndex) {
+        mainHandler.post(() -> readers.get(readerIndex).onConnected());
+    }
+
+    @Override
+    public void onReaderDisconnected(int readerIndex) {
+        mainHandler.post(() -> readers.get(readerIndex).onDisconnected());
+    }
+
+    @Override
+    public void onReading(int readerIndex, long timestampNanoseconds, RFIDM220LineParser.Reading reading) {
+        Record record = recordDispatcher.claim();
+        if (record != null) {
+            record.readerIndex = readerIndex;
+            record.timestampNanoseconds = timestampNanoseconds;
+            record.reading.copyFrom(reading);
+            recordDispatcher.publish();
+        }
+    }
+
+    // endregion
+}
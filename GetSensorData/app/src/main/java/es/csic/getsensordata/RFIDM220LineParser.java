@@ -0,0 +1,284 @@
+package es.csic.getsensordata;
+
+/**
+ * Parser of the text lines sent by an RF Code M220 RFID reader in locate mode.
+ *
+ * Bytes are fed as they arrive from the socket, in chunks of any size. Lines end with a carriage
+ * return; everything before the first one is skipped, as it may be the tail of a line. Each line
+ * holding a valid reading, with the tag ID and the RSS of at least one of its antennas, is handed
+ * to the listener, e.g.:
+ *
+ *     H,00012345,GLOCATE,P,A67,B110
+ *
+ * Lines are looked for in the chunk itself, and only the part of a line cut by the end of a chunk
+ * is copied, into a reusable buffer. Fields are parsed straight from the bytes, with the same rules
+ * as `String.indexOf()`, `Long.parseLong()` and `Integer.parseInt()` on the line, so nothing is
+ * allocated per line and malformed lines are just counted, without throwing exceptions. Lines
+ * longer than the buffer can't be valid, and are counted as invalid too.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     RFIDM220LineParser parser = new RFIDM220LineParser();
+ *     parser.feed(bytes, offset, length, reading -> {
+ *         // Use the reading, before the next one is parsed into it
+ *     });
+ *     ```
+ */
+public class RFIDM220LineParser {
+    private static final byte CARRIAGE_RETURN = 13;
+    // Far longer than any line sent by the reader
+    public static final int DEFAULT_MAXIMUM_LINE_LENGTH = 256;
+    // Shortest line holding a reading
+    static final int MINIMUM_LINE_LENGTH = 23;
+    // Offset and length of the tag ID, after "H,"
+    static final int TAG_ID_OFFSET = 2;
+    static final int TAG_ID_LENGTH = 8;
+
+    private static final byte[] GLOCATE = {',', 'G', 'L', 'O', 'C', 'A', 'T', 'E', ','};
+    private static final byte[] ANTENNA_A = {',', 'A'};
+    private static final byte[] ANTENNA_B = {',', 'B'};
+    // Parsed number not valid
+    private static final long INVALID = Long.MIN_VALUE;
+
+    /**
+     * Values of a line read from the RFID reader. Reuse it from one line to the next.
+     */
+    public static class Reading {
+        public long tagId;
+        public int rssA; // -1 means there is no valid RSS reading
+        public int rssB;
+
+        public void copyFrom(Reading reading) {
+            tagId = reading.tagId;
+            rssA = reading.rssA;
+            rssB = reading.rssB;
+        }
+    }
+
+    /**
+     * Receiver of the readings parsed. Called in the thread feeding the parser.
+     */
+    public interface ReadingListener {
+        void onReading(Reading reading);
+    }
+
+    private final Reading reading = new Reading();
+    // Start of the line cut by the end of the previous chunk
+    private final byte[] line;
+    private int lineLength = 0;
+    private boolean isLineTooLong = false;
+    private boolean inSync = false;
+
+    private long validLines = 0;
+    private long invalidLines = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer, using the default maximum line length.
+     */
+    public RFIDM220LineParser() {
+        this(DEFAULT_MAXIMUM_LINE_LENGTH);
+    }
+
+    /**
+     * Class initializer.
+     *
+     * @param maximumLineLength Length of the longest line that can be parsed.
+     */
+    public RFIDM220LineParser(int maximumLineLength) {
+        line = new byte[maximumLineLength];
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Parse bytes received, handing every valid reading completed by them to the listener.
+     */
+    public void feed(byte[] bytes, int offset, int length, ReadingListener listener) {
+        int end = offset + length;
+        int index = offset;
+        if (!inSync) {
+            // Skip up to the first carriage return, and start collecting lines
+            int lineEnd = indexOfCarriageReturn(bytes, index, end);
+            if (lineEnd < 0) {
+                return;
+            }
+            inSync = true;
+            index = lineEnd + 1;
+        }
+        while (index < end) {
+            int lineEnd = indexOfCarriageReturn(bytes, index, end);
+            if (lineEnd < 0) {
+                append(bytes, index, end - index);
+                return;
+            }
+            boolean isValid;
+            if (lineLength == 0 && !isLineTooLong) {
+                // The whole line is in the chunk: parse it in place
+                isValid = lineEnd - index <= line.length && parseLine(bytes, index, lineEnd, reading);
+            } else {
+                append(bytes, index, lineEnd - index);
+                isValid = !isLineTooLong && parseLine(line, 0, lineLength, reading);
+                lineLength = 0;
+                isLineTooLong = false;
+            }
+            if (isValid) {
+                validLines++;
+                listener.onReading(reading);
+            } else {
+                invalidLines++;
+            }
+            index = lineEnd + 1;
+        }
+    }
+
+    /**
+     * Discard the line being read, as when the stream is restarted.
+     */
+    public void reset() {
+        inSync = false;
+        lineLength = 0;
+        isLineTooLong = false;
+    }
+
+    public long getValidLines() {
+        return validLines;
+    }
+
+    public long getInvalidLines() {
+        return invalidLines;
+    }
+
+    // endregion
+
+    // region Tools
+
+    private void append(byte[] bytes, int offset, int length) {
+        int count = Math.min(length, line.length - lineLength);
+        System.arraycopy(bytes, offset, line, lineLength, count);
+        lineLength += count;
+        if (count < length) {
+            isLineTooLong = true;
+        }
+    }
+
+    private static int indexOfCarriageReturn(byte[] bytes, int from, int to) {
+        for (int index = from; index < to; index++) {
+            if (bytes[index] == CARRIAGE_RETURN) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Parse a line received from the RFID reader, e.g. "H,00012345,GLOCATE,P,A67,B110".
+     *
+     * The RSS of an antenna takes 3 digits if the first one is 1 (100 dB or more), and 2 otherwise.
+     *
+     * @param bytes   Bytes holding the line.
+     * @param start   Position of its first byte.
+     * @param end     Position right after its last byte.
+     * @param reading Where the values of the line are written, if valid.
+     *
+     * @return true if the line holds a valid reading.
+     */
+    static boolean parseLine(byte[] bytes, int start, int end, Reading reading) {
+        if (end - start < MINIMUM_LINE_LENGTH || bytes[start] != 'H' || bytes[start + 1] != ',' ||
+                indexOf(bytes, start, end, GLOCATE) < 0 || !containsPosition(bytes, start, end)) {
+            return false;
+        }
+        int posA = indexOf(bytes, start, end, ANTENNA_A);
+        int posB = indexOf(bytes, start, end, ANTENNA_B);
+        if (posA < 0 && posB < 0) {
+            return false;
+        }
+
+        long tagId = parseDecimal(bytes, start + TAG_ID_OFFSET, start + TAG_ID_OFFSET + TAG_ID_LENGTH, end);
+        int rssA = parseRss(bytes, posA, end);
+        int rssB = parseRss(bytes, posB, end);
+        if (rssA > 0 || rssB > 0) {
+            reading.tagId = tagId == INVALID ? 0 : tagId;
+            reading.rssA = rssA;
+            reading.rssB = rssB;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether the line has a ",P" or ",p" field.
+     */
+    private static boolean containsPosition(byte[] bytes, int start, int end) {
+        for (int index = start; index + 1 < end; index++) {
+            if (bytes[index] == ',' && (bytes[index + 1] == 'P' || bytes[index + 1] == 'p')) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Parse the RSS after an antenna field (",A" or ",B").
+     *
+     * @param position Position of the antenna field, or -1 if missing.
+     *
+     * @return the RSS, or -1 if missing or not a number.
+     */
+    private static int parseRss(byte[] bytes, int position, int end) {
+        if (position < 0 || position + 2 >= end) {
+            return -1;
+        }
+        int digits = bytes[position + 2] == '1' ? 3 : 2;
+        long rss = parseDecimal(bytes, position + 2, position + 2 + digits, end);
+        return rss == INVALID ? -1 : (int) rss;
+    }
+
+    /**
+     * Parse a decimal number, with an optional sign, the same as `Long.parseLong()`.
+     *
+     * @return the number, or `INVALID` if it is not a number or goes past the end of the line.
+     */
+    private static long parseDecimal(byte[] bytes, int from, int to, int end) {
+        if (to > end) {
+            return INVALID;
+        }
+        int index = from;
+        boolean isNegative = false;
+        if (bytes[index] == '-' || bytes[index] == '+') {
+            isNegative = bytes[index] == '-';
+            index++;
+            if (index == to) {
+                return INVALID;
+            }
+        }
+        long value = 0;
+        for (; index < to; index++) {
+            int digit = bytes[index] - '0';
+            if (digit < 0 || digit > 9) {
+                return INVALID;
+            }
+            value = value * 10 + digit;
+        }
+        return isNegative ? -value : value;
+    }
+
+    private static int indexOf(byte[] bytes, int start, int end, byte[] pattern) {
+        for (int index = start; index + pattern.length <= end; index++) {
+            int matched = 0;
+            while (matched < pattern.length && bytes[index + matched] == pattern[matched]) {
+                matched++;
+            }
+            if (matched == pattern.length) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    // endregion
+}
@@ -0,0 +1,725 @@
+package es.csic.getsensordata;
+
+import android.util.Log;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import es.csic.getsensordata.logging.RawCaptureWriter;
+
+/**
+ * Manager of every RF Code M220 RFID reader, read from a single thread.
+ *
+ * Instead of a connect thread and a read thread per reader, the pool thread owns all of them. It
+ * connects them through a few connect threads, at most `maximumConcurrentConnects` at once, as
+ * connecting is the only blocking step; a reader that fails to connect, or whose connection
+ * drops, is tried again after a backoff that doubles with every consecutive failure, up to a
+ * maximum. Once connected, the pool thread configures the reader when reading is wanted, and polls
+ * every connection for the bytes available, so it never blocks on a silent reader. The wait
+ * between polls doubles with every poll finding no bytes, up to a maximum, and goes back to the
+ * minimum as soon as any arrive, so silent readers don't keep the thread waking up. Bytes are teed
+ * into the raw capture of the reader, if any, and parsed with its `RFIDM220LineParser`.
+ *
+ * As a single thread reads every reader, the readings of all of them are handed to the listener
+ * as one stream, in the order they were received, tagged with the index of their reader and the
+ * time their chunk was read. The throughput and health of each reader can be queried from any
+ * thread with `getReaderStatus()`.
+ *
+ * A reader reading but silent for longer than the link timeout is reconnected, as a Bluetooth
+ * link lost without notice just stops having bytes available.
+ *
+ * Connections are made by a `Connector`, so the pool doesn't depend on Bluetooth itself.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     RFIDM220ReaderPool readerPool = new RFIDM220ReaderPool(connector, listener);
+ *     int readerIndex = readerPool.addReader(bluetoothMac, bluetoothName);
+ *     readerPool.connect(readerIndex);
+ *     readerPool.startReading(readerIndex);
+ *     ...
+ *     readerPool.stopReading(readerIndex);
+ *     readerPool.disconnect(readerIndex);
+ *     readerPool.close();
+ *     ```
+ */
+public class RFIDM220ReaderPool {
+    private static final String TAG = "RFIDM220ReaderPool";
+
+    public static final int DEFAULT_MAXIMUM_CONCURRENT_CONNECTS = 2;
+    public static final long DEFAULT_INITIAL_BACKOFF_MS = 1000;
+    public static final long DEFAULT_MAXIMUM_BACKOFF_MS = 60000;
+    // A reader reading but sending nothing for longer is not healthy
+    public static final long SILENCE_TIMEOUT_MS = 10000;
+    // A reader reading but sending nothing for longer is reconnected
+    public static final long DEFAULT_LINK_TIMEOUT_MS = 60000;
+    // Wait of the pool thread after a poll finding no bytes, doubled with every such poll up to the
+    // maximum, and when no reader is connected
+    static final long MINIMUM_POLL_INTERVAL_MS = 5;
+    static final long MAXIMUM_POLL_INTERVAL_MS = 40;
+    static final long IDLE_POLL_INTERVAL_MS = 100;
+    // How often the throughput of each reader is updated
+    static final long THROUGHPUT_INTERVAL_MS = 1000;
+    // Bytes read from a connection at once
+    private static final int READ_BUFFER_SIZE = 1024;
+
+    // Put the reader in locate mode, and start measuring
+    private static final String[] START_COMMANDS = {"M,0\r", "M,0\r", "G,LOCATE,4\r", "S,2\r", "M,433\r", "M,433\r"};
+    // Stop measuring
+    private static final String[] STOP_COMMANDS = {"M\r", "M,0\r"};
+
+    /**
+     * Connection to a reader.
+     */
+    public interface Connection extends Closeable {
+        InputStream getInputStream() throws IOException;
+
+        OutputStream getOutputStream() throws IOException;
+    }
+
+    /**
+     * Maker of connections to the readers. Called in a connect thread, so it may block.
+     */
+    public interface Connector {
+        Connection connect(String address) throws IOException;
+    }
+
+    /**
+     * Receiver of the events of the readers. Called in the pool thread.
+     */
+    public interface Listener {
+        void onReaderConnected(int readerIndex);
+
+        void onReaderDisconnected(int readerIndex);
+
+        /**
+         * Reading parsed. Readings of every reader are given in the order they were received.
+         *
+         * @param readerIndex          Index of the reader, as returned by `addReader()`.
+         * @param timestampNanoseconds Value of `System.nanoTime()` when its last byte was read.
+         * @param reading              Reading, only valid during the call.
+         */
+        void onReading(int readerIndex, long timestampNanoseconds, RFIDM220LineParser.Reading reading);
+    }
+
+    public enum State {
+        // Not wanted to be connected
+        IDLE,
+        // Waiting for the backoff to expire, or for a connect thread
+        WAITING,
+        CONNECTING,
+        // Connected, but not measuring
+        CONNECTED,
+        READING
+    }
+
+    /**
+     * Throughput and health of a reader. Reuse it from one query to the next.
+     */
+    public static class ReaderStatus {
+        public String name;
+        public int readerNumber;
+        public State state;
+        public int connectAttempts;
+        // Consecutive failures, of connecting or of the connection, since the last success
+        public int failedAttempts;
+        public long bytesRead;
+        public long validLines;
+        public long invalidLines;
+        public float readingsPerSecond;
+        public float bytesPerSecond;
+        // Time without bytes while reading, 0 otherwise
+        public long silenceMilliseconds;
+        // Time left to the next connect attempt while waiting, 0 otherwise
+        public long nextAttemptMilliseconds;
+
+        public boolean isHealthy() {
+            return state == State.READING && silenceMilliseconds < SILENCE_TIMEOUT_MS;
+        }
+    }
+
+    /**
+     * A reader, and what the pool thread knows about it.
+     */
+    private static class Channel {
+        final int index;
+        final String address;
+        final String name;
+        final int readerNumber;
+        final RFIDM220LineParser parser = new RFIDM220LineParser();
+
+        // Wanted from other threads
+        volatile boolean isConnectWanted = false;
+        volatile boolean isReadingWanted = false;
+        volatile boolean isDecodingEnabled = true;
+        volatile RawCaptureWriter rawCaptureWriter;
+
+        // Only accessed by the pool thread
+        Connection connection;
+        InputStream inputStream;
+        OutputStream outputStream;
+        boolean isDecoding = true;
+        long previousBytesRead = 0;
+        long previousValidLines = 0;
+
+        // Written by the pool thread, read by any thread
+        volatile State state = State.IDLE;
+        volatile int connectAttempts = 0;
+        volatile int failedAttempts = 0;
+        volatile long bytesRead = 0;
+        volatile long validLines = 0;
+        volatile long invalidLines = 0;
+        volatile float readingsPerSecond = 0;
+        volatile float bytesPerSecond = 0;
+        volatile long lastDataNanoseconds = 0;
+        volatile long nextAttemptNanoseconds = 0;
+
+        Channel(int index, String address, String name) {
+            this.index = index;
+            this.address = address;
+            this.name = name;
+            this.readerNumber = parseReaderNumber(name);
+        }
+    }
+
+    /**
+     * Outcome of a connect thread, handed to the pool thread.
+     */
+    private static class ConnectResult {
+        final Channel channel;
+        final Connection connection;
+        final IOException exception;
+
+        ConnectResult(Channel channel, Connection connection, IOException exception) {
+            this.channel = channel;
+            this.connection = connection;
+            this.exception = exception;
+        }
+    }
+
+    private final Connector connector;
+    private final Listener listener;
+    private final int maximumConcurrentConnects;
+    private final long initialBackoffNanoseconds;
+    private final long maximumBackoffNanoseconds;
+    private final long linkTimeoutNanoseconds;
+    private final CopyOnWriteArrayList<Channel> channels = new CopyOnWriteArrayList<>();
+    private final ExecutorService connectExecutor;
+    private final ConcurrentLinkedQueue<ConnectResult> connectResults = new ConcurrentLinkedQueue<>();
+    private final Object closeLock = new Object();
+    private final Thread poolThread;
+    private volatile boolean isClosed = false;
+
+    // Only accessed by the pool thread
+    private int connectsInFlight = 0;
+    // Reader and time of the chunk being parsed, for the reading listener
+    private Channel parsingChannel;
+    private long parsingTimestampNanoseconds;
+    private final RFIDM220LineParser.ReadingListener readingListener = this::onReading;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer, using the default connect concurrency, backoff and link timeout.
+     *
+     * @param connector Maker of connections to the readers.
+     * @param listener  Receiver of the events of the readers.
+     */
+    public RFIDM220ReaderPool(Connector connector, Listener listener) {
+        this(connector, listener, DEFAULT_MAXIMUM_CONCURRENT_CONNECTS, DEFAULT_INITIAL_BACKOFF_MS, DEFAULT_MAXIMUM_BACKOFF_MS, DEFAULT_LINK_TIMEOUT_MS);
+    }
+
+    /**
+     * Class initializer.
+     *
+     * @param connector                 Maker of connections to the readers.
+     * @param listener                  Receiver of the events of the readers.
+     * @param maximumConcurrentConnects Readers being connected at once, at least one.
+     * @param initialBackoffMs          Wait, in milliseconds, after the first failure of a reader.
+     * @param maximumBackoffMs          Longest wait, in milliseconds, between attempts.
+     * @param linkTimeoutMs             Silence, in milliseconds, after which a reader reading is
+     *                                  reconnected.
+     */
+    public RFIDM220ReaderPool(Connector connector, Listener listener, int maximumConcurrentConnects, long initialBackoffMs, long maximumBackoffMs, long linkTimeoutMs) {
+        if (maximumConcurrentConnects < 1) {
+            throw new IllegalArgumentException("At least one reader has to be connected at once");
+        }
+        this.connector = connector;
+        this.listener = listener;
+        this.maximumConcurrentConnects = maximumConcurrentConnects;
+        this.initialBackoffNanoseconds = TimeUnit.MILLISECONDS.toNanos(initialBackoffMs);
+        this.maximumBackoffNanoseconds = TimeUnit.MILLISECONDS.toNanos(maximumBackoffMs);
+        this.linkTimeoutNanoseconds = TimeUnit.MILLISECONDS.toNanos(linkTimeoutMs);
+
+        Log.d(TAG, "RFIDM220ReaderPool(" +
+                "maximumConcurrentConnects=" + maximumConcurrentConnects + ", " +
+                "initialBackoffMs=" + initialBackoffMs + ", " +
+                "maximumBackoffMs=" + maximumBackoffMs + ", " +
+                "linkTimeoutMs=" + linkTimeoutMs + ")");
+
+        AtomicInteger connectThreads = new AtomicInteger();
+        connectExecutor = Executors.newFixedThreadPool(maximumConcurrentConnects, runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setName("Connect thread " + connectThreads.incrementAndGet() + " - RFIDM220ReaderPool");
+            return thread;
+        });
+        poolThread = new Thread(this::poolLoop);
+        poolThread.setName("Pool thread - RFIDM220ReaderPool");
+        poolThread.start();
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Add a reader to the pool. It is not connected until `connect()` is called.
+     *
+     * @param address Address of the reader, for the connector.
+     * @param name    Name of the reader, ending with its two digit number.
+     *
+     * @return index of the reader, to refer to it from now on.
+     */
+    public synchronized int addReader(String address, String name) {
+        Channel channel = new Channel(channels.size(), address, name);
+        channels.add(channel);
+        Log.i(TAG, "Reader added: " + name + " (" + address + "), index " + channel.index);
+        return channel.index;
+    }
+
+    public int getReaderCount() {
+        return channels.size();
+    }
+
+    /**
+     * Connect a reader, and keep it connected, retrying with backoff, until `disconnect()`.
+     */
+    public void connect(int readerIndex) {
+        channels.get(readerIndex).isConnectWanted = true;
+        LockSupport.unpark(poolThread);
+    }
+
+    /**
+     * Close the connection to a reader, and stop trying to connect it.
+     */
+    public void disconnect(int readerIndex) {
+        channels.get(readerIndex).isConnectWanted = false;
+        LockSupport.unpark(poolThread);
+    }
+
+    /**
+     * Put a reader in measurement mode, now or as soon as it connects, and again on every
+     * reconnection.
+     */
+    public void startReading(int readerIndex) {
+        channels.get(readerIndex).isReadingWanted = true;
+        LockSupport.unpark(poolThread);
+    }
+
+    /**
+     * Take a reader out of measurement mode. It stays connected.
+     */
+    public void stopReading(int readerIndex) {
+        channels.get(readerIndex).isReadingWanted = false;
+        LockSupport.unpark(poolThread);
+    }
+
+    /**
+     * Tee the bytes received from a reader from now on into a raw capture, or stop doing it.
+     *
+     * @param rawCaptureWriter Writer of the raw capture, or null to stop capturing.
+     */
+    public void setRawCaptureWriter(int readerIndex, RawCaptureWriter rawCaptureWriter) {
+        channels.get(readerIndex).rawCaptureWriter = rawCaptureWriter;
+    }
+
+    /**
+     * Whether the lines received from a reader are parsed into readings. They can be left to be
+     * parsed afterwards from a raw capture.
+     */
+    public void setDecodingEnabled(int readerIndex, boolean isDecodingEnabled) {
+        channels.get(readerIndex).isDecodingEnabled = isDecodingEnabled;
+    }
+
+    /**
+     * Get the throughput and health of a reader.
+     *
+     * @param status Where they are written.
+     */
+    public void getReaderStatus(int readerIndex, ReaderStatus status) {
+        Channel channel = channels.get(readerIndex);
+        long nowNanoseconds = System.nanoTime();
+        status.name = channel.name;
+        status.readerNumber = channel.readerNumber;
+        status.state = channel.state;
+        status.connectAttempts = channel.connectAttempts;
+        status.failedAttempts = channel.failedAttempts;
+        status.bytesRead = channel.bytesRead;
+        status.validLines = channel.validLines;
+        status.invalidLines = channel.invalidLines;
+        status.readingsPerSecond = channel.readingsPerSecond;
+        status.bytesPerSecond = channel.bytesPerSecond;
+        status.silenceMilliseconds = status.state == State.READING ?
+                TimeUnit.NANOSECONDS.toMillis(nowNanoseconds - channel.lastDataNanoseconds) : 0;
+        status.nextAttemptMilliseconds = status.state == State.WAITING ?
+                Math.max(0, TimeUnit.NANOSECONDS.toMillis(channel.nextAttemptNanoseconds - nowNanoseconds)) : 0;
+    }
+
+    /**
+     * Close every connection and stop the pool thread. The pool can't be used afterwards.
+     *
+     * Blocks until the pool thread takes the readers out of measurement mode, but not for the
+     * connect threads, whose connections are closed as they finish.
+     */
+    public void close() {
+        Log.d(TAG, "close()");
+
+        synchronized (closeLock) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+        }
+        LockSupport.unpark(poolThread);
+        try {
+            poolThread.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        connectExecutor.shutdownNow();
+
+        ReaderStatus status = new ReaderStatus();
+        for (int index = 0; index < channels.size(); index++) {
+            getReaderStatus(index, status);
+            Log.i(TAG, "Closed " + status.name + ". Connect attempts: " + status.connectAttempts +
+                    ", bytes: " + status.bytesRead +
+                    ", lines parsed: " + status.validLines +
+                    ", invalid: " + status.invalidLines);
+        }
+    }
+
+    // endregion
+
+    // region Pool Thread
+
+    private void poolLoop() {
+        byte[] buffer = new byte[READ_BUFFER_SIZE];
+        long nextThroughputNanoseconds = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(THROUGHPUT_INTERVAL_MS);
+        long pollIntervalNanoseconds = TimeUnit.MILLISECONDS.toNanos(MINIMUM_POLL_INTERVAL_MS);
+        while (!isClosed) {
+            long nowNanoseconds = System.nanoTime();
+            ConnectResult connectResult;
+            while ((connectResult = connectResults.poll()) != null) {
+                adoptConnection(connectResult, nowNanoseconds);
+            }
+
+            boolean isAnyConnected = false;
+            boolean isDataRead = false;
+            for (Channel channel : channels) {
+                update(channel, nowNanoseconds);
+                if (channel.connection != null) {
+                    isAnyConnected = true;
+                    isDataRead |= readAvailable(channel, buffer);
+                }
+            }
+
+            if (nowNanoseconds >= nextThroughputNanoseconds) {
+                updateThroughput(nowNanoseconds - nextThroughputNanoseconds + TimeUnit.MILLISECONDS.toNanos(THROUGHPUT_INTERVAL_MS));
+                nextThroughputNanoseconds = nowNanoseconds + TimeUnit.MILLISECONDS.toNanos(THROUGHPUT_INTERVAL_MS);
+            }
+            if (isDataRead) {
+                pollIntervalNanoseconds = TimeUnit.MILLISECONDS.toNanos(MINIMUM_POLL_INTERVAL_MS);
+            } else if (isAnyConnected) {
+                // Woken up earlier by any request from other threads
+                LockSupport.parkNanos(this, pollIntervalNanoseconds);
+                pollIntervalNanoseconds = Math.min(2 * pollIntervalNanoseconds, TimeUnit.MILLISECONDS.toNanos(MAXIMUM_POLL_INTERVAL_MS));
+            } else {
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(IDLE_POLL_INTERVAL_MS));
+            }
+        }
+
+        for (Channel channel : channels) {
+            closeConnection(channel, false);
+            channel.state = State.IDLE;
+        }
+        // Connect threads can't add results anymore, as the pool is closed
+        ConnectResult connectResult;
+        while ((connectResult = connectResults.poll()) != null) {
+            if (connectResult.connection != null) {
+                closeQuietly(connectResult.connection);
+            }
+        }
+    }
+
+    /**
+     * Bring a reader to the state wanted by the other threads.
+     */
+    private void update(Channel channel, long nowNanoseconds) {
+        if (!channel.isConnectWanted) {
+            if (channel.connection != null) {
+                Log.i(TAG, "Disconnecting " + channel.name);
+                closeConnection(channel, true);
+            }
+            if (channel.state != State.CONNECTING) {
+                channel.state = State.IDLE;
+            }
+            return;
+        }
+
+        switch (channel.state) {
+            case IDLE:
+                // Connect right away if possible
+                channel.state = State.WAITING;
+                channel.nextAttemptNanoseconds = nowNanoseconds;
+                connectWhenDue(channel, nowNanoseconds);
+                break;
+            case WAITING:
+                connectWhenDue(channel, nowNanoseconds);
+                break;
+            case CONNECTED:
+                if (channel.isReadingWanted) {
+                    sendCommands(channel, START_COMMANDS, nowNanoseconds);
+                    if (channel.connection != null) {
+                        Log.i(TAG, "Reading " + channel.name);
+                        channel.parser.reset();
+                        channel.lastDataNanoseconds = nowNanoseconds;
+                        channel.state = State.READING;
+                    }
+                }
+                break;
+            case READING:
+                if (!channel.isReadingWanted) {
+                    Log.i(TAG, "Stop reading " + channel.name);
+                    channel.state = State.CONNECTED;
+                    sendCommands(channel, STOP_COMMANDS, nowNanoseconds);
+                } else if (nowNanoseconds - channel.lastDataNanoseconds > linkTimeoutNanoseconds) {
+                    Log.e(TAG, "No data from " + channel.name + " in " + TimeUnit.NANOSECONDS.toSeconds(linkTimeoutNanoseconds) + " s: reconnecting");
+                    connectionFailed(channel, nowNanoseconds);
+                }
+                break;
+        }
+    }
+
+    private void connectWhenDue(Channel channel, long nowNanoseconds) {
+        if (nowNanoseconds - channel.nextAttemptNanoseconds >= 0 && connectsInFlight < maximumConcurrentConnects) {
+            startConnecting(channel);
+        }
+    }
+
+    private void startConnecting(Channel channel) {
+        channel.state = State.CONNECTING;
+        channel.connectAttempts++;
+        connectsInFlight++;
+        Log.i(TAG, "Connecting " + channel.name + ", attempt " + channel.connectAttempts);
+        connectExecutor.execute(() -> {
+            Connection connection = null;
+            IOException exception = null;
+            try {
+                connection = connector.connect(channel.address);
+            } catch (IOException connectException) {
+                exception = connectException;
+            } catch (RuntimeException connectException) {
+                exception = new IOException(connectException);
+            }
+            synchronized (closeLock) {
+                if (!isClosed) {
+                    connectResults.add(new ConnectResult(channel, connection, exception));
+                    LockSupport.unpark(poolThread);
+                    return;
+                }
+            }
+            if (connection != null) {
+                closeQuietly(connection);
+            }
+        });
+    }
+
+    private void adoptConnection(ConnectResult connectResult, long nowNanoseconds) {
+        connectsInFlight--;
+        Channel channel = connectResult.channel;
+        if (connectResult.exception != null) {
+            Log.e(TAG, "Unable to connect " + channel.name + ": " + connectResult.exception.getMessage());
+            scheduleRetry(channel, nowNanoseconds);
+            return;
+        }
+        if (!channel.isConnectWanted) {
+            closeQuietly(connectResult.connection);
+            channel.state = State.IDLE;
+            return;
+        }
+        try {
+            channel.inputStream = connectResult.connection.getInputStream();
+            channel.outputStream = connectResult.connection.getOutputStream();
+        } catch (IOException exception) {
+            Log.e(TAG, "Streams of " + channel.name + " not created", exception);
+            closeQuietly(connectResult.connection);
+            channel.inputStream = null;
+            channel.outputStream = null;
+            scheduleRetry(channel, nowNanoseconds);
+            return;
+        }
+        channel.connection = connectResult.connection;
+        channel.failedAttempts = 0;
+        channel.state = State.CONNECTED;
+        Log.i(TAG, "Connected " + channel.name);
+        listener.onReaderConnected(channel.index);
+    }
+
+    /**
+     * Read the bytes available from a reader, without blocking.
+     *
+     * @return true if any byte was read.
+     */
+    private boolean readAvailable(Channel channel, byte[] buffer) {
+        int length;
+        try {
+            int available = channel.inputStream.available();
+            if (available <= 0) {
+                return false;
+            }
+            length = channel.inputStream.read(buffer, 0, Math.min(available, buffer.length));
+            if (length < 0) {
+                throw new IOException("End of stream");
+            }
+        } catch (IOException exception) {
+            Log.e(TAG, "Connection to " + channel.name + " lost: " + exception.getMessage());
+            connectionFailed(channel, System.nanoTime());
+            return false;
+        }
+        long timestampNanoseconds = System.nanoTime();
+        channel.bytesRead += length;
+        channel.lastDataNanoseconds = timestampNanoseconds;
+
+        RawCaptureWriter rawCaptureWriter = channel.rawCaptureWriter;
+        if (rawCaptureWriter != null) {
+            rawCaptureWriter.write(buffer, 0, length, timestampNanoseconds);
+        }
+        boolean isDecoding = channel.state == State.READING && channel.isDecodingEnabled;
+        if (isDecoding && !channel.isDecoding) {
+            // Lines cut while not decoding are incomplete
+            channel.parser.reset();
+        }
+        channel.isDecoding = isDecoding;
+        if (isDecoding) {
+            parsingChannel = channel;
+            parsingTimestampNanoseconds = timestampNanoseconds;
+            channel.parser.feed(buffer, 0, length, readingListener);
+            channel.validLines = channel.parser.getValidLines();
+            channel.invalidLines = channel.parser.getInvalidLines();
+        }
+        return true;
+    }
+
+    private void onReading(RFIDM220LineParser.Reading reading) {
+        listener.onReading(parsingChannel.index, parsingTimestampNanoseconds, reading);
+    }
+
+    private void sendCommands(Channel channel, String[] commands, long nowNanoseconds) {
+        try {
+            for (String command : commands) {
+                channel.outputStream.write(command.getBytes(StandardCharsets.US_ASCII));
+            }
+            channel.outputStream.flush();
+        } catch (IOException exception) {
+            Log.e(TAG, "Unable to send commands to " + channel.name + ": " + exception.getMessage());
+            connectionFailed(channel, nowNanoseconds);
+        }
+    }
+
+    private void connectionFailed(Channel channel, long nowNanoseconds) {
+        closeConnection(channel, false);
+        listener.onReaderDisconnected(channel.index);
+        scheduleRetry(channel, nowNanoseconds);
+    }
+
+    /**
+     * Wait before connecting a reader again, twice as long as the previous time.
+     */
+    private void scheduleRetry(Channel channel, long nowNanoseconds) {
+        channel.failedAttempts++;
+        int doublings = Math.min(channel.failedAttempts - 1, 30);
+        long backoffNanoseconds = Math.min(maximumBackoffNanoseconds, initialBackoffNanoseconds << doublings);
+        channel.nextAttemptNanoseconds = nowNanoseconds + backoffNanoseconds;
+        channel.state = State.WAITING;
+        Log.i(TAG, "Retrying " + channel.name + " in " + TimeUnit.NANOSECONDS.toMillis(backoffNanoseconds) + " ms");
+    }
+
+    /**
+     * Close the connection to a reader, taking it out of measurement mode first if requested.
+     */
+    private void closeConnection(Channel channel, boolean isDisconnectNotified) {
+        if (channel.connection == null) {
+            return;
+        }
+        if (channel.state == State.READING) {
+            try {
+                for (String command : STOP_COMMANDS) {
+                    channel.outputStream.write(command.getBytes(StandardCharsets.US_ASCII));
+                }
+                channel.outputStream.flush();
+            } catch (IOException exception) {
+                Log.i(TAG, "Unable to stop " + channel.name + " before closing: " + exception.getMessage());
+            }
+        }
+        closeQuietly(channel.connection);
+        channel.connection = null;
+        channel.inputStream = null;
+        channel.outputStream = null;
+        if (isDisconnectNotified) {
+            listener.onReaderDisconnected(channel.index);
+        }
+    }
+
+    private void updateThroughput(long elapsedNanoseconds) {
+        float elapsedSeconds = elapsedNanoseconds * 1e-9f;
+        for (Channel channel : channels) {
+            long bytesRead = channel.bytesRead;
+            long validLines = channel.validLines;
+            channel.bytesPerSecond = (bytesRead - channel.previousBytesRead) / elapsedSeconds;
+            channel.readingsPerSecond = (validLines - channel.previousValidLines) / elapsedSeconds;
+            channel.previousBytesRead = bytesRead;
+            channel.previousValidLines = validLines;
+        }
+    }
+
+    // endregion
+
+    // region Tools
+
+    /**
+     * Get the number of a reader from its name, as "RFCode M220 07".
+     *
+     * @return the number, or 0 if the name doesn't end with two digits.
+     */
+    static int parseReaderNumber(String name) {
+        if (name == null || name.length() < 2) {
+            return 0;
+        }
+        char tens = name.charAt(name.length() - 2);
+        char units = name.charAt(name.length() - 1);
+        if (tens < '0' || tens > '9' || units < '0' || units > '9') {
+            return 0;
+        }
+        return (tens - '0') * 10 + (units - '0');
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            connection.close();
+        } catch (IOException exception) {
+            Log.i(TAG, "Unable to close connection: " + exception.getMessage());
+        }
+    }
+
+    // endregion
+}
@@ -87,10 +87,12 @@ class DataSensorsRecyclerViewAdapter(val dataSensorsRecyclerViewItems: DataSenso
                     features = dataSensor.getFeatures()
                     isAvailable = dataSensor.isAvailable
                     showExtendedStatus = dataSensor.offersExtendedStatus
-                    status = dataSensor.getStatusForScreen()
                     extendedStatus = dataSensor.getExtendedStatusForScreen()
                     if (payloads.size == 0) {
-                        status = dataSensor.getStatusForScreen()
+                        // Managed data sensors publish their events in other threads
+                        status = synchronized(dataSensor) {
+                            dataSensor.getStatusForScreen()
+                        }
                     } else {
                         if (showSensorRealTimeData) {
                             status = payloads.first() as String
@@ -0,0 +1,121 @@
+package es.csic.getsensordata.activities
+
+import android.os.Handler
+import android.os.Looper
+import android.view.Choreographer
+import androidx.recyclerview.widget.LinearLayoutManager
+import es.csic.getsensordata.data_sensors.definition.DataSensor
+import es.csic.getsensordata.data_sensors.definition.DataSensorType
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.atomic.AtomicIntegerArray
+
+/**
+ * Refresh the status of the data sensors shown in the recycler view, at most once per frame.
+ *
+ * Data sensors are marked as dirty from any thread, as often as they change, which costs almost
+ * nothing. Once per frame (or less often, if a minimum refresh interval is given), the status of
+ * the visible dirty data sensors is formatted and bound, in the main thread. That way, the cost of
+ * the UI depends on the frame rate, not on the rate of the sensors.
+ *
+ * Dirty data sensors not visible are not formatted: they get their status when they are bound
+ * after scrolling.
+ *
+ * @param dataSensorsRecyclerView: recycler view showing the data sensors.
+ * @param dataSensorsRecyclerViewItems: items of the recycler view.
+ * @param minimumRefreshIntervalNanoseconds: minimum time between refreshes. Zero to refresh on
+ * every frame.
+ */
+class DataSensorsRefreshScheduler(
+    private val dataSensorsRecyclerView: DataSensorsRecyclerView,
+    private val dataSensorsRecyclerViewItems: DataSensorsRecyclerViewItems,
+    private val minimumRefreshIntervalNanoseconds: Long
+) : Choreographer.FrameCallback {
+
+    // Position of each data sensor type in the recycler view, or -1 if not shown. Replaces the
+    // linear search for each change
+    private val positions = IntArray(DataSensorType.values().size) { -1 }
+    private val dirtyPositions = AtomicIntegerArray(dataSensorsRecyclerViewItems.size)
+    private val isFrameScheduled = AtomicBoolean(false)
+    private val mainHandler = Handler(Looper.getMainLooper())
+    private val scheduleFrame = Runnable { Choreographer.getInstance().postFrameCallback(this) }
+    private var previousRefreshNanoseconds: Long = 0
+    private var isStopped = false
+
+    init {
+        for (position in 0 until dataSensorsRecyclerViewItems.size) {
+            val dataSensorsRecyclerViewItem = dataSensorsRecyclerViewItems[position]
+            if (dataSensorsRecyclerViewItem is DataSensorsRecyclerViewItemDataSensor) {
+                val type = dataSensorsRecyclerViewItem.dataSensor.type
+                if (positions[type.ordinal] == -1) {
+                    positions[type.ordinal] = position
+                }
+            }
+        }
+    }
+
+    /**
+     * Mark the data sensor as changed, so its status is refreshed on the next frame.
+     *
+     * Can be called from any thread.
+     *
+     * @param dataSensor: data sensor whose status changed.
+     */
+    fun markDirty(dataSensor: DataSensor) {
+        val position = positions[dataSensor.type.ordinal]
+        if (position == -1) {
+            return
+        }
+        dirtyPositions.set(position, 1)
+        if (isFrameScheduled.compareAndSet(false, true)) {
+            // The choreographer belongs to the main thread
+            mainHandler.post(scheduleFrame)
+        }
+    }
+
+    /**
+     * Stop refreshing. Best suited to be called in an activity's onDestroy() method.
+     */
+    fun stop() {
+        isStopped = true
+        mainHandler.removeCallbacks(scheduleFrame)
+        Choreographer.getInstance().removeFrameCallback(this)
+    }
+
+    // region FrameCallback
+
+    override fun doFrame(frameTimeNanos: Long) {
+        if (isStopped) {
+            return
+        }
+        if (frameTimeNanos - previousRefreshNanoseconds < minimumRefreshIntervalNanoseconds) {
+            Choreographer.getInstance().postFrameCallback(this)
+            return
+        }
+        previousRefreshNanoseconds = frameTimeNanos
+        // Data sensors changing from now on schedule a new frame
+        isFrameScheduled.set(false)
+
+        val showSensorRealTimeData = dataSensorsRecyclerView.showSensorRealTimeData
+        val layoutManager = dataSensorsRecyclerView.layoutManager as? LinearLayoutManager
+        val firstVisiblePosition = layoutManager?.findFirstVisibleItemPosition() ?: 0
+        val lastVisiblePosition = layoutManager?.findLastVisibleItemPosition() ?: dirtyPositions.length() - 1
+        for (position in 0 until dirtyPositions.length()) {
+            if (dirtyPositions.getAndSet(position, 0) == 0) {
+                continue
+            }
+            if (!showSensorRealTimeData || position < firstVisiblePosition || position > lastVisiblePosition) {
+                continue
+            }
+            val dataSensorsRecyclerViewItem = dataSensorsRecyclerViewItems[position] as DataSensorsRecyclerViewItemDataSensor
+            val dataSensor = dataSensorsRecyclerViewItem.dataSensor
+            val status = synchronized(dataSensor) {
+                dataSensor.getStatusForScreen()
+            }
+            if (status.isNotEmpty()) {
+                dataSensorsRecyclerView.updateStatus(position, "\n" + status)
+            }
+        }
+    }
+
+    // endregion
+}
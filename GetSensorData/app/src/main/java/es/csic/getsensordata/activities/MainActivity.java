@@ -43,7 +43,6 @@ import org.jetbrains.annotations.NotNull;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.OutputStreamWriter;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Date;
@@ -52,9 +51,12 @@ import java.util.Objects;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import es.csic.getsensordata.MTiXSensIMU;
 import es.csic.getsensordata.R;
+import es.csic.getsensordata.RFIDM220BluetoothPool;
 import es.csic.getsensordata.RFIDM220Reader;
 import es.csic.getsensordata.Smartphone;
 import es.csic.getsensordata.data_sensors.AccelerometerDataSensor;
@@ -79,7 +81,16 @@ import es.csic.getsensordata.data_sensors.definition.DataSensor.DataSensorEventL
 import es.csic.getsensordata.data_sensors.definition.DataSensorProxy;
 import es.csic.getsensordata.data_sensors.definition.DataSensorStatusDestination;
 import es.csic.getsensordata.data_sensors.definition.DataSensorType;
+import es.csic.getsensordata.data_sensors.definition.EmitterTable;
+import es.csic.getsensordata.data_sensors.definition.ManagedDataSensor;
+import es.csic.getsensordata.data_sensors.definition.RadioScanCoordinator;
+import es.csic.getsensordata.data_sensors.definition.SensorDeliveryScheduler;
 import es.csic.getsensordata.databinding.ActivityMainBinding;
+import es.csic.getsensordata.logging.BinarySessionWriter;
+import es.csic.getsensordata.logging.LogWriter;
+import es.csic.getsensordata.logging.RawCaptureWriter;
+import es.csic.getsensordata.logging.WavWriter;
+import es.csic.getsensordata.logging.SessionRecorder;
 import es.csic.getsensordata.preferences.Preferences;
 
 public class MainActivity extends AppCompatActivity implements DataSensorEventListener {
@@ -97,6 +108,8 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
     private Timer secondsLoggingTimer;
 
     ArrayList<RFIDM220Reader> rfidM220Readers = new ArrayList<>();
+    // Reads every RFID reader from a single thread
+    RFIDM220BluetoothPool rfidM220BluetoothPool;
 
     //----XSens--
     MTiXSensIMU mXSens;   // XSens object
@@ -126,7 +139,18 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
 
     String bluetooth4FeaturesText;
 
-    OutputStreamWriter outputStreamWriter;
+    SessionRecorder sessionRecorder;
+    // Where the log files of the session are stored, and how they are named
+    boolean isLogFileExternal;
+    String logFileBaseName;
+    // Raw captures of the external devices, while saving
+    int rawCaptureMode = RawCaptureWriter.CAPTURE_OFF;
+    final ArrayList<RawCaptureWriter> rawCaptureWriters = new ArrayList<>();
+    // Recording of the microphone, while saving
+    WavWriter wavWriter;
+
+    SensorDeliveryScheduler sensorDeliveryScheduler;
+    ManagedDataSensor[] managedDataSensors;
 
     long startingTimestampNanoseconds = 0;
     long timestampNanoseconds;
@@ -134,6 +158,7 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
     long positionCounter = 0;
     double timestamp_Imul_last_update = 0;
     double updateInterval = 0.25;   // update screen with measurements every 0.25 seconds (4 Hz)
+    private static final long flushTimeoutMilliseconds = 2000; // maximum wait for batched samples
 
     // Estimote:
     private BeaconManager beaconManager;
@@ -142,6 +167,17 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
     String scanId_Eddystone;
     boolean bleEnabled = true;
     boolean flag_EstimoteTelemetry = false;   // set to true if telemetry required
+    // BLE motes heard lately, iBeacon and Eddystone, only accessed by the main thread
+    private static final int MAXIMUM_BLE_MOTES = 1024;
+    private static final long BLE_MOTE_EXPIRY_MS = 10000;
+    private final EmitterTable bleEmitterTable = new EmitterTable(MAXIMUM_BLE_MOTES, BLE_MOTE_EXPIRY_MS);
+    private final EmitterTable.Statistics bleStatistics = new EmitterTable.Statistics();
+    private final int[] bleSlots = new int[MAXIMUM_BLE_MOTES];
+    // Timeline of the WiFi scans, Bluetooth discoveries and BLE scanning sharing the radio
+    private final RadioScanCoordinator radioScanCoordinator = new RadioScanCoordinator();
+    // Whether BLE is scanning, and paused while another technology takes the radio
+    private boolean isBleScanning = false;
+    private boolean isBleScanPaused = false;
 
     // User interface
     int colorSensorAvailable = 0xff000000;
@@ -150,6 +186,7 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
     // Recycler View
     DataSensorsRecyclerView dataSensorsRecyclerView;
     DataSensorsRecyclerViewItems dataSensorsRecyclerViewItems;
+    DataSensorsRefreshScheduler dataSensorsRefreshScheduler;
 
     // region Activity Lifecycle
 
@@ -212,6 +249,33 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
         rfidDataSensor.connect(this);
         imuxDataSensor.connect(this);
 
+        // WiFi scans and Bluetooth discoveries take turns, and BLE pauses while they scan
+        wiFiDataSensor.setRadioScanCoordinator(radioScanCoordinator);
+        bluetoothDataSensor.setRadioScanCoordinator(radioScanCoordinator);
+        radioScanCoordinator.setListener(this::onExclusiveRadioWindow);
+
+        // Receive the samples of the managed data sensors out of the main thread
+        Preferences preferences = new Preferences(this);
+        sensorDeliveryScheduler = new SensorDeliveryScheduler(preferences.getSensorThreadPriority());
+        managedDataSensors = new ManagedDataSensor[]{
+                accelerometerDataSensor,
+                gyroscopeDataSensor,
+                magneticFieldDataSensor,
+                pressureDataSensor,
+                lightDataSensor,
+                proximityDataSensor,
+                relativeHumidityDataSensor,
+                ambientTemperatureDataSensor,
+                rotationVectorDataSensor
+        };
+        for (ManagedDataSensor managedDataSensor : managedDataSensors) {
+            if (preferences.getSensorThreadPerSensorEnabled()) {
+                sensorDeliveryScheduler.assign(managedDataSensor, managedDataSensor.getPrefix());
+            } else {
+                sensorDeliveryScheduler.assign(managedDataSensor, "Managed sensors");
+            }
+        }
+
         // DataSensorsRecyclerView: start
 
         dataSensorsRecyclerView = findViewById(R.id.dataSensorsRecyclerView);
@@ -246,6 +310,11 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
         dataSensorsRecyclerViewAdapter.setColorSensorAvailable(colorSensorAvailable);
         dataSensorsRecyclerViewAdapter.setColorSensorNotAvailable(colorSensorNotAvailable);
         dataSensorsRecyclerView.setAdapter(dataSensorsRecyclerViewAdapter);
+        dataSensorsRefreshScheduler = new DataSensorsRefreshScheduler(
+                dataSensorsRecyclerView,
+                dataSensorsRecyclerViewItems,
+                preferences.getScreenRefreshInterval() * 1000000L
+        );
 
         // DataSensorsRecyclerView: end
 
@@ -309,7 +378,10 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                 String bluetoothName = device.getName();
                 if (bluetoothName.contains("M220")) {
                     String bluetoothMac = device.getAddress();
-                    RFIDM220Reader rfidM220Reader = new RFIDM220Reader(this, bluetoothMac);
+                    if (rfidM220BluetoothPool == null) {
+                        rfidM220BluetoothPool = new RFIDM220BluetoothPool(bluetoothDataSensor.bluetoothAdapter, radioScanCoordinator);
+                    }
+                    RFIDM220Reader rfidM220Reader = new RFIDM220Reader(this, rfidM220BluetoothPool, bluetoothMac);
                     rfidM220Reader.setListener(this);
                     rfidM220Reader.connect();
                 }
@@ -370,6 +442,8 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                 if (flag_EstimoteTelemetry) {
                     scanId = beaconManager.startTelemetryDiscovery();
                 }
+                isBleScanning = true;
+                isBleScanPaused = false;
             });
         }
 
@@ -409,6 +483,18 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
             }
         }
 
+        // Batch the samples of the sensors chosen by the user, or read them through a direct
+        // channel if asked to; sensors not supporting it fall back to their listener
+        Preferences samplingPreferences = new Preferences(this);
+        for (ManagedDataSensor managedDataSensor : managedDataSensors) {
+            managedDataSensor.setDirectChannelRateLevel(samplingPreferences.getDirectChannelRateLevel());
+            if (samplingPreferences.getBatchedSensors().contains(managedDataSensor.getType().name())) {
+                managedDataSensor.setMaxReportLatencyUs(samplingPreferences.getBatchingMaxReportLatency() * 1000);
+            } else {
+                managedDataSensor.setMaxReportLatencyUs(ManagedDataSensor.defaultMaxReportLatencyUs);
+            }
+        }
+
         // Register sensors
         if (accelerometerDataSensor.isAvailable()) {
             accelerometerDataSensor.setSamplingPeriodUs(delay);
@@ -492,11 +578,15 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
         super.onPause();
 
         if (bleEnabled) {
-            beaconManager.stopRanging(region);
-            beaconManager.stopEddystoneScanning(scanId_Eddystone);
+            if (!isBleScanPaused) {
+                beaconManager.stopRanging(region);
+                beaconManager.stopEddystoneScanning(scanId_Eddystone);
+            }
             if (flag_EstimoteTelemetry) {
                 beaconManager.stopTelemetryDiscovery(scanId);
             }
+            isBleScanning = false;
+            isBleScanPaused = false;
         }
 
         accelerometerDataSensor.stopReading();
@@ -517,6 +607,7 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
         }
 
         soundDataSensor.stopReading();
+        Log.i(Tag, radioScanCoordinator.appendRates(new StringBuilder("onPause(): radio: ")).toString());
 
         // TODO: use same interface rest of data sensors use.
         cameraDataSensor.getCamera().close();
@@ -558,6 +649,9 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                 rfidm220Reader.disconnect();
             }
         }
+        if (rfidM220BluetoothPool != null) {
+            rfidM220BluetoothPool.close();
+        }
 
         // Disconnect XSens
         mXSens.stopReading();
@@ -575,6 +669,17 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
             secondsLoggingTimer.cancel();
         }
 
+        // Managed data sensors already stopped reading in onPause()
+        sensorDeliveryScheduler.quit();
+        dataSensorsRefreshScheduler.stop();
+
+        // Write whatever is still queued if the activity is destroyed while saving
+        stopRawCaptures();
+        stopSoundRecording();
+        if (sessionRecorder != null && sessionRecorder.isOpen()) {
+            sessionRecorder.close();
+        }
+
         if (isTracingEnabled) {
             Debug.stopMethodTracing();
         }
@@ -708,57 +813,94 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                 Date currentDate = new Date();
                 String formattedCurrentDate = simpleDateFormat.format(currentDate);
 
+                Preferences preferences = new Preferences(this);
+
+                // Binary sessions can be converted afterwards to the text log
+                String extension = preferences.getLogBinaryEnabled() ? ".gsdb" : ".txt";
+                if (preferences.getLogCompressionLevel() != LogWriter.NO_COMPRESSION) {
+                    // Decompressed, block by block, by CompressedBlockReader
+                    extension += ".gsdz";
+                }
+
+                isLogFileExternal = externalStorageAvailable;
+                logFileBaseName = "logfile_" + formattedCurrentDate;
+                rawCaptureMode = preferences.getLogRawCapture();
+
                 try {
-                    if (externalStorageAvailable) {
-                        File path = Environment.getExternalStoragePublicDirectory("LogFiles_GetSensorData");
-                        Log.d(Tag, "- path: " + path);
-                        if (path.mkdirs()) {
-                            Log.d(Tag, "- path created");
-                        }
-                        File file = new File(path.getAbsolutePath(), "logfile_" + formattedCurrentDate + ".txt");
-                        outputStreamWriter = new OutputStreamWriter(new FileOutputStream(file));
-                        Log.d(Tag, "- external log file opened for writing");
+                    FileOutputStream fileOutputStream = openLogFileOutput(logFileBaseName + extension);
+                    LogWriter.Durability durability = preferences.getLogSyncEnabled() ? LogWriter.Durability.Synced : LogWriter.Durability.Buffered;
+                    if (preferences.getLogBinaryEnabled()) {
+                        BinarySessionWriter binarySessionWriter = new BinarySessionWriter(
+                                fileOutputStream,
+                                startingTimestampNanoseconds,
+                                preferences.getLogFlushInterval(),
+                                BinarySessionWriter.DEFAULT_MAXIMUM_ROW_COUNT,
+                                BinarySessionWriter.DEFAULT_TEXT_QUEUE_CAPACITY,
+                                durability,
+                                preferences.getLogCompressionLevel()
+                        );
+                        sessionRecorder = new SessionRecorder(binarySessionWriter);
                     } else {
-                        outputStreamWriter = new OutputStreamWriter(openFileOutput("logfile_" + formattedCurrentDate + ".txt", Context.MODE_PRIVATE));
-                        Log.d(Tag, "- internal log file opened for writing");
+                        LogWriter logWriter = new LogWriter(
+                                fileOutputStream,
+                                LogWriter.DEFAULT_QUEUE_CAPACITY,
+                                LogWriter.DEFAULT_BUFFER_SIZE,
+                                preferences.getLogFlushInterval(),
+                                durability,
+                                preferences.getLogCompressionLevel(),
+                                startingTimestampNanoseconds
+                        );
+                        sessionRecorder = new SessionRecorder(logWriter);
                     }
 
                     Toast.makeText(getApplicationContext(), getString(R.string.savingSensorData), Toast.LENGTH_SHORT).show();
 
-                    outputStreamWriter.write("% LogFile created by the 'GetSensorData' App for Android.");
-                    outputStreamWriter.write("\n% Date of creation: " + currentDate.toString());
-                    outputStreamWriter.write("\n% Developed by LOPSI research group at CAR-CSIC, Spain (http://www.car.upm-csic.es/lopsi)");
-                    outputStreamWriter.write("\n% Version 2.1 January 2018");
-                    outputStreamWriter.write("\n% The 'GetSensorData' program stores information from Smartphone/Tablet internal sensors (Accelerometers, Gyroscopes, Magnetometers, Pressure, Ambient Light, Orientation, Sound level, GPS/GNSS position, WiFi RSS, Cellular/GSM/3G signal strength,...) and also from external devices (e.g. RFCode RFID reader, XSens IMU, or MIMU22BT)");
-                    outputStreamWriter.write("\n%\n% Phone used for this logfile:");
-                    outputStreamWriter.write("\n% Manufacturer:            \t" + Smartphone.Companion.getManufacturer());
-                    outputStreamWriter.write("\n% Model:                   \t" + Smartphone.Companion.getModel());
-                    outputStreamWriter.write("\n% API Android version:     \t" + Smartphone.Companion.getSdkVersion());
-                    outputStreamWriter.write("\n% Android version Release: \t" + Smartphone.Companion.getReleaseVersion());
-                    outputStreamWriter.write("\n%\n% LogFile Data format:");
-                    outputStreamWriter.write("\n% Accelerometer data: \t'ACCE;AppTimestamp(s);SensorTimestamp(s);Acc_X(m/s^2);Acc_Y(m/s^2);Acc_Z(m/s^2);Accuracy(integer)'");
-                    outputStreamWriter.write("\n% Gyroscope data:     \t'GYRO;AppTimestamp(s);SensorTimestamp(s);Gyr_X(rad/s);Gyr_Y(rad/s);Gyr_Z(rad/s);Accuracy(integer)'");
-                    outputStreamWriter.write("\n% Magnetometer data:  \t'MAGN;AppTimestamp(s);SensorTimestamp(s);Mag_X(uT);;Mag_Y(uT);Mag_Z(uT);Accuracy(integer)'");
-                    outputStreamWriter.write("\n% Pressure data:      \t'PRES;AppTimestamp(s);SensorTimestamp(s);Pres(mbar);Accuracy(integer)'");
-                    outputStreamWriter.write("\n% Light data:         \t'LIGH;AppTimestamp(s);SensorTimestamp(s);Light(lux);Accuracy(integer)'");
-                    outputStreamWriter.write("\n% Proximity data:     \t'PROX;AppTimestamp(s);SensorTimestamp(s);prox(?);Accuracy(integer)'");
-                    outputStreamWriter.write("\n% Humidity data:      \t'HUMI;AppTimestamp(s);SensorTimestamp(s);humi(Percentage);Accuracy(integer)'");
-                    outputStreamWriter.write("\n% Temperature data:   \t'TEMP;AppTimestamp(s);SensorTimestamp(s);temp(Celsius);Accuracy(integer)'");
-                    outputStreamWriter.write("\n% Orientation data:   \t'AHRS;AppTimestamp(s);SensorTimestamp(s);PitchX(deg);RollY(deg);YawZ(deg);Quat(2);Quat(3);Quat(4);Accuracy(int)'");
-                    outputStreamWriter.write("\n% GNSS/GPS data:      \t'GNSS;AppTimestamp(s);SensorTimeStamp(s);Latit(deg);Long(deg);Altitude(m);Bearing(deg);Accuracy(m);Speed(m/s);SatInView;SatInUse'");
-                    outputStreamWriter.write("\n% WIFI data:          \t'WIFI;AppTimestamp(s);SensorTimeStamp(s);Name_SSID;MAC_BSSID;Frequency;RSS(dBm);'");
-                    outputStreamWriter.write("\n% Bluetooth data:     \t'BLUE;AppTimestamp(s);Name;MAC_Address;RSS(dBm);'");
-                    outputStreamWriter.write("\n% BLE 4.0 data:       \t'BLE4;AppTimestamp(s);iBeacon;MAC;RSSI(dBm);Power;MajorID;MinorID;UUID'");
-                    outputStreamWriter.write("\n% BLE 4.0 data:       \t'BLE4;AppTimestamp(s);Eddystone;MAC;RSSI(dBm);instanceID;OptionalTelemetry[voltage;temperature;uptime;count]");
-                    outputStreamWriter.write("\n% Sound data:         \t'SOUN;AppTimestamp(s);RMS;Pressure(Pa);SPL(dB);'");
-                    outputStreamWriter.write("\n% RFID Reader data:   \t'RFID;AppTimestamp(s);ReaderNumber(int);TagID(int);RSS_A(dBm);RSS_B(dBm);'");
-                    outputStreamWriter.write("\n% IMU XSens data:     \t'IMUX;AppTimestamp(s);SensorTimestamp(s);Counter;Acc_X(m/s^2);Acc_Y(m/s^2);Acc_Z(m/s^2);Gyr_X(rad/s);Gyr_Y(rad/s);Gyr_Z(rad/s);Mag_X(uT);;Mag_Y(uT);Mag_Z(uT);Roll(deg);Pitch(deg);Yaw(deg);Quat(1);Quat(2);Quat(3);Quat(4);Pressure(mbar);Temp(Celsius)'");
-                    outputStreamWriter.write("\n% IMU MIMU22BT data:  \t'IMUI;AppTimestamp(s);Packet_count;Step_Counter;delta_X(m);delta_Y(m);delta_Z(m);delta_theta(degrees);Covariance4x4[1:10]'");
-                    outputStreamWriter.write("\n% POSI Reference:    	\t'POSI;Timestamp(s);Counter;Latitude(degrees); Longitude(degrees);floor ID(0,1,2..4);Building ID(0,1,2..3);'");
-                    outputStreamWriter.write("\n% ");
-                    outputStreamWriter.write("\n% Note that there are two timestamps: ");
-                    outputStreamWriter.write("\n%  -'AppTimestamp' is set by the Android App as data is read. It is not representative of when data is actually captured by the sensor (but has a common time reference for all sensors)");
-                    outputStreamWriter.write("\n%  -'SensorTimestamp' is set by the sensor itself (the delta_time=SensorTimestamp(k)-SensorTimestamp(k-1) between two consecutive samples is an accurate estimate of the sampling interval). This timestamp is better for integrating inertial data. \n");
+                    sessionRecorder.write("% LogFile created by the 'GetSensorData' App for Android.");
+                    sessionRecorder.write("\n% Date of creation: " + currentDate.toString());
+                    sessionRecorder.write("\n% Developed by LOPSI research group at CAR-CSIC, Spain (http://www.car.upm-csic.es/lopsi)");
+                    sessionRecorder.write("\n% Version 2.1 January 2018");
+                    sessionRecorder.write("\n% The 'GetSensorData' program stores information from Smartphone/Tablet internal sensors (Accelerometers, Gyroscopes, Magnetometers, Pressure, Ambient Light, Orientation, Sound level, GPS/GNSS position, WiFi RSS, Cellular/GSM/3G signal strength,...) and also from external devices (e.g. RFCode RFID reader, XSens IMU, or MIMU22BT)");
+                    sessionRecorder.write("\n%\n% Phone used for this logfile:");
+                    sessionRecorder.write("\n% Manufacturer:            \t" + Smartphone.Companion.getManufacturer());
+                    sessionRecorder.write("\n% Model:                   \t" + Smartphone.Companion.getModel());
+                    sessionRecorder.write("\n% API Android version:     \t" + Smartphone.Companion.getSdkVersion());
+                    sessionRecorder.write("\n% Android version Release: \t" + Smartphone.Companion.getReleaseVersion());
+                    sessionRecorder.write("\n%\n% LogFile Data format:");
+                    sessionRecorder.write("\n% Accelerometer data: \t'ACCE;AppTimestamp(s);SensorTimestamp(s);Acc_X(m/s^2);Acc_Y(m/s^2);Acc_Z(m/s^2);Accuracy(integer)'");
+                    sessionRecorder.write("\n% Gyroscope data:     \t'GYRO;AppTimestamp(s);SensorTimestamp(s);Gyr_X(rad/s);Gyr_Y(rad/s);Gyr_Z(rad/s);Accuracy(integer)'");
+                    sessionRecorder.write("\n% Magnetometer data:  \t'MAGN;AppTimestamp(s);SensorTimestamp(s);Mag_X(uT);;Mag_Y(uT);Mag_Z(uT);Accuracy(integer)'");
+                    sessionRecorder.write("\n% Pressure data:      \t'PRES;AppTimestamp(s);SensorTimestamp(s);Pres(mbar);Accuracy(integer)'");
+                    sessionRecorder.write("\n% Light data:         \t'LIGH;AppTimestamp(s);SensorTimestamp(s);Light(lux);Accuracy(integer)'");
+                    sessionRecorder.write("\n% Proximity data:     \t'PROX;AppTimestamp(s);SensorTimestamp(s);prox(?);Accuracy(integer)'");
+                    sessionRecorder.write("\n% Humidity data:      \t'HUMI;AppTimestamp(s);SensorTimestamp(s);humi(Percentage);Accuracy(integer)'");
+                    sessionRecorder.write("\n% Temperature data:   \t'TEMP;AppTimestamp(s);SensorTimestamp(s);temp(Celsius);Accuracy(integer)'");
+                    sessionRecorder.write("\n% Orientation data:   \t'AHRS;AppTimestamp(s);SensorTimestamp(s);PitchX(deg);RollY(deg);YawZ(deg);Quat(2);Quat(3);Quat(4);Accuracy(int)'");
+                    sessionRecorder.write("\n% GNSS/GPS data:      \t'GNSS;AppTimestamp(s);SensorTimeStamp(s);Latit(deg);Long(deg);Altitude(m);Bearing(deg);Accuracy(m);Speed(m/s);SatInView;SatInUse'");
+                    sessionRecorder.write("\n% WIFI data:          \t'WIFI;AppTimestamp(s);SensorTimeStamp(s);Name_SSID;MAC_BSSID;Frequency;RSS(dBm);', each measurement once: results repeated by a later scan are skipped");
+                    sessionRecorder.write("\n% Bluetooth data:     \t'BLUE;AppTimestamp(s);Name;MAC_Address;RSS(dBm);'");
+                    sessionRecorder.write("\n% BLE 4.0 data:       \t'BLE4;AppTimestamp(s);iBeacon;MAC;RSSI(dBm);Power;MajorID;MinorID;UUID'");
+                    sessionRecorder.write("\n% BLE 4.0 data:       \t'BLE4;AppTimestamp(s);Eddystone;MAC;RSSI(dBm);instanceID;OptionalTelemetry[voltage;temperature;uptime;count]");
+                    sessionRecorder.write("\n% Sound data:         \t'SOUN;AppTimestamp(s);RMS;Pressure(Pa);SPL(dB);SampleIndex;WavSampleIndex'");
+                    sessionRecorder.write("\n% Sound recording:    \t'" + logFileBaseName + "_SOUN.wav', if enabled: WavSampleIndex is the position in it of the first sample of each frame (-1 if not recorded), SampleIndex its index since the microphone started");
+                    sessionRecorder.write("\n% Sound levels:       \t'SOUL;AppTimestamp(s);LZ(dB);LA(dBA);LC(dBC);LAeq(dBA);LAmax(dBA);LCeq(dBC);LCmax(dBC)'");
+                    sessionRecorder.write("\n% Sound octaves:      \t'SOUO;AppTimestamp(s);L_31.5Hz(dB);L_63Hz(dB);...;L_16kHz(dB)', up to the last band below half the sample rate");
+                    sessionRecorder.write("\n% Sound 1/3 octaves:  \t'SOUT;AppTimestamp(s);L_25Hz(dB);L_31.5Hz(dB);...;L_20kHz(dB)', up to the last band below half the sample rate");
+                    sessionRecorder.write("\n% Sound tones:        \t'SOUG;AppTimestamp(s);Frequency(Hz);OnsetSampleIndex;OnsetTime(s);SNR(dB);Level(dBFS)', a tone starting at OnsetSampleIndex (fractional) and OnsetTime in the timestamps of the frames");
+                    sessionRecorder.write("\n% RFID Reader data:   \t'RFID;AppTimestamp(s);ReaderNumber(int);TagID(int);RSS_A(dBm);RSS_B(dBm);'");
+                    sessionRecorder.write("\n% IMU XSens data:     \t'IMUX;AppTimestamp(s);SensorTimestamp(s);Counter;Acc_X(m/s^2);Acc_Y(m/s^2);Acc_Z(m/s^2);Gyr_X(rad/s);Gyr_Y(rad/s);Gyr_Z(rad/s);Mag_X(uT);;Mag_Y(uT);Mag_Z(uT);Roll(deg);Pitch(deg);Yaw(deg);Quat(1);Quat(2);Quat(3);Quat(4);Pressure(mbar);Temp(Celsius)'");
+                    sessionRecorder.write("\n% IMU MIMU22BT data:  \t'IMUI;AppTimestamp(s);Packet_count;Step_Counter;delta_X(m);delta_Y(m);delta_Z(m);delta_theta(degrees);Covariance4x4[1:10]'");
+                    sessionRecorder.write("\n% POSI Reference:    	\t'POSI;Timestamp(s);Counter;Latitude(degrees); Longitude(degrees);floor ID(0,1,2..4);Building ID(0,1,2..3);'");
+                    sessionRecorder.write("\n% ");
+                    sessionRecorder.write("\n% Note that there are two timestamps: ");
+                    sessionRecorder.write("\n%  -'AppTimestamp' is set by the Android App as data is read. It is not representative of when data is actually captured by the sensor (but has a common time reference for all sensors)");
+                    sessionRecorder.write("\n%  -'SensorTimestamp' is set by the sensor itself (the delta_time=SensorTimestamp(k)-SensorTimestamp(k-1) between two consecutive samples is an accurate estimate of the sampling interval). This timestamp is better for integrating inertial data. \n");
+
+                    // Store from now on the status of every data sensor, once the header is written
+                    attachDataSensorsToRecorder();
+                    startRawCaptures();
+                    if (preferences.getSoundRecordingEnabled()) {
+                        startSoundRecording(preferences.getSoundSampleRate());
+                    }
                 } catch (Exception exception) {
                     Log.d(Tag, "- error writing data to log file");
                     exception.printStackTrace();
@@ -770,7 +912,6 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                 secondsLoggingTimer.schedule(secondsLoggingTimerTask, 1000, 1000);
 
                 // Start camera sampling
-                Preferences preferences = new Preferences(this);
                 if (preferences.getCameraEnabled()) {
                     if (cameraDataSensor != null) {
                         cameraDataSensor.startSampling();
@@ -781,14 +922,10 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                 secondsLoggingTimer.cancel();
 
                 Log.d(Tag, "- stop logging, close file");
-                try {
-                    startingTimestampNanoseconds = 0;
-                    outputStreamWriter.close();
-                    Toast.makeText(getApplicationContext(), getString(R.string.endOfSaving), Toast.LENGTH_SHORT).show();
-                } catch (Exception exception) {
-                    Log.d(Tag, "- error closing log file");
-                    exception.printStackTrace();
-                }
+                startingTimestampNanoseconds = 0;
+                stopRawCaptures();
+                stopSoundRecording();
+                closeSessionRecorderAfterFlush();
 
                 // Stop camera sampling
                 Preferences preferences = new Preferences(this);
@@ -801,6 +938,166 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
         });
     }
 
+    /**
+     * Ask the batching sensors to deliver the samples still in their hardware FIFO, and close the
+     * session recorder once they do, or once the flush takes too long.
+     */
+    private void closeSessionRecorderAfterFlush() {
+        Log.d(Tag, "closeSessionRecorderAfterFlush()");
+
+        final SessionRecorder sessionRecorder = this.sessionRecorder;
+        if (sessionRecorder == null) {
+            // The log file couldn't be opened
+            return;
+        }
+        final AtomicBoolean isClosed = new AtomicBoolean(false);
+        final Runnable close = () -> {
+            // It may have been closed meanwhile by onDestroy()
+            if (isClosed.compareAndSet(false, true) && sessionRecorder.isOpen()) {
+                try {
+                    sessionRecorder.close();
+                    Toast.makeText(getApplicationContext(), getString(R.string.endOfSaving), Toast.LENGTH_SHORT).show();
+                } catch (Exception exception) {
+                    Log.d(Tag, "- error closing log file");
+                    exception.printStackTrace();
+                }
+            }
+        };
+
+        final AtomicInteger pendingFlushes = new AtomicInteger(1);
+        for (ManagedDataSensor managedDataSensor : managedDataSensors) {
+            if (managedDataSensor.isBatching()) {
+                pendingFlushes.incrementAndGet();
+                boolean isRequested = managedDataSensor.flush(() -> {
+                    if (pendingFlushes.decrementAndGet() == 0) {
+                        runOnUiThread(close);
+                    }
+                });
+                if (!isRequested) {
+                    pendingFlushes.decrementAndGet();
+                }
+            }
+        }
+        if (pendingFlushes.decrementAndGet() == 0) {
+            close.run();
+        } else {
+            secondsLoggingHandler.postDelayed(close, flushTimeoutMilliseconds);
+        }
+    }
+
+    /**
+     * Open a file of the session, in the external storage if available.
+     *
+     * @param fileName Name of the file.
+     */
+    private FileOutputStream openLogFileOutput(String fileName) throws IOException {
+        if (isLogFileExternal) {
+            File path = Environment.getExternalStoragePublicDirectory("LogFiles_GetSensorData");
+            Log.d(Tag, "- path: " + path);
+            if (path.mkdirs()) {
+                Log.d(Tag, "- path created");
+            }
+            File file = new File(path.getAbsolutePath(), fileName);
+            Log.d(Tag, "- external log file opened for writing: " + fileName);
+            return new FileOutputStream(file);
+        } else {
+            Log.d(Tag, "- internal log file opened for writing: " + fileName);
+            return openFileOutput(fileName, Context.MODE_PRIVATE);
+        }
+    }
+
+    /**
+     * Tee the bytes received from the XSens IMU and every RFID reader into a raw capture file
+     * each, if enabled in the preferences.
+     */
+    private void startRawCaptures() {
+        Log.d(Tag, "startRawCaptures()");
+
+        for (RFIDM220Reader rfidm220Reader : rfidM220Readers) {
+            startRawCapture(rfidm220Reader);
+        }
+        if (rawCaptureMode != RawCaptureWriter.CAPTURE_OFF && mXSens != null && mXSens.isAvailable()) {
+            RawCaptureWriter rawCaptureWriter = openRawCaptureWriter(mXSens, mXSens.getDeviceName());
+            if (rawCaptureWriter != null) {
+                mXSens.setRawCaptureWriter(rawCaptureWriter);
+                mXSens.setDecodingEnabled(rawCaptureMode != RawCaptureWriter.CAPTURE_ONLY);
+            }
+        }
+    }
+
+    private void startRawCapture(RFIDM220Reader rfidM220Reader) {
+        if (rawCaptureMode == RawCaptureWriter.CAPTURE_OFF) {
+            return;
+        }
+        RawCaptureWriter rawCaptureWriter = openRawCaptureWriter(rfidM220Reader, rfidM220Reader.name);
+        if (rawCaptureWriter != null) {
+            rfidM220Reader.setRawCaptureWriter(rawCaptureWriter);
+            rfidM220Reader.setDecodingEnabled(rawCaptureMode != RawCaptureWriter.CAPTURE_ONLY);
+        }
+    }
+
+    private RawCaptureWriter openRawCaptureWriter(DataSensor dataSensor, String deviceName) {
+        String fileName = logFileBaseName + "_" + dataSensor.getPrefix() + "_" + deviceName.replaceAll("[^A-Za-z0-9]", "") + ".gsdr";
+        try {
+            RawCaptureWriter rawCaptureWriter = new RawCaptureWriter(openLogFileOutput(fileName), dataSensor.getPrefix(), deviceName, dataSensor.getEpoch());
+            rawCaptureWriters.add(rawCaptureWriter);
+            return rawCaptureWriter;
+        } catch (IOException exception) {
+            Log.e(Tag, "- unable to open raw capture file: " + fileName, exception);
+            return null;
+        }
+    }
+
+    /**
+     * Stop teeing the bytes of the external devices, decode them again, and close the raw
+     * captures.
+     */
+    private void stopRawCaptures() {
+        Log.d(Tag, "stopRawCaptures()");
+
+        // RFID readers connecting while the session recorder is flushed are not captured
+        rawCaptureMode = RawCaptureWriter.CAPTURE_OFF;
+        for (RFIDM220Reader rfidm220Reader : rfidM220Readers) {
+            rfidm220Reader.setRawCaptureWriter(null);
+            rfidm220Reader.setDecodingEnabled(true);
+        }
+        if (mXSens != null) {
+            mXSens.setRawCaptureWriter(null);
+            mXSens.setDecodingEnabled(true);
+        }
+        for (RawCaptureWriter rawCaptureWriter : rawCaptureWriters) {
+            rawCaptureWriter.close();
+        }
+        rawCaptureWriters.clear();
+    }
+
+    /**
+     * Record the microphone into a WAV file, alongside the sound records.
+     *
+     * @param sampleRate Sample rate of the microphone.
+     */
+    private void startSoundRecording(int sampleRate) {
+        Log.d(Tag, "startSoundRecording(sampleRate=" + sampleRate + ")");
+
+        String fileName = logFileBaseName + "_" + soundDataSensor.getPrefix() + ".wav";
+        try {
+            wavWriter = new WavWriter(openLogFileOutput(fileName), sampleRate);
+            soundDataSensor.setWavWriter(wavWriter);
+        } catch (IOException exception) {
+            Log.e(Tag, "- unable to open sound recording file: " + fileName, exception);
+        }
+    }
+
+    private void stopSoundRecording() {
+        Log.d(Tag, "stopSoundRecording()");
+
+        if (wavWriter != null) {
+            soundDataSensor.setWavWriter(null);
+            wavWriter.close();
+            wavWriter = null;
+        }
+    }
+
     private void setMarkPositionButtonHandler() {
         Log.d(Tag, "setMarkPositionButtonHandler()");
 
@@ -830,11 +1127,10 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                 }
                 timestampSeconds = ((double) (timestampNanoseconds)) * 1e-9;
 
-                try {
-                    String logLine = String.format(Locale.US, "\nPOSI;%.3f;%d;%.8f;%.8f;%d;%d", timestampSeconds, positionCounter, 0.0, 0.0, 0, 0);
-                    outputStreamWriter.write(logLine);
-                } catch (IOException e) {
-                    e.printStackTrace();
+                String logLine = String.format(Locale.US, "\nPOSI;%.3f;%d;%.8f;%.8f;%d;%d", timestampSeconds, positionCounter, 0.0, 0.0, 0, 0);
+                // The toggle may be checked before the session is created, or after it failed
+                if (sessionRecorder != null && sessionRecorder.isOpen()) {
+                    sessionRecorder.write(logLine);
                 }
             }
         });
@@ -868,6 +1164,26 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
         };
     }
 
+    /**
+     * Pause BLE scanning while a WiFi scan or a Bluetooth discovery takes the radio, and resume it
+     * once none does.
+     */
+    private void onExclusiveRadioWindow(int technology, boolean isBegun) {
+        if (!isBleScanning) {
+            return;
+        }
+        boolean isRadioTaken = radioScanCoordinator.isRadioTaken();
+        if (isRadioTaken && !isBleScanPaused) {
+            beaconManager.stopRanging(region);
+            beaconManager.stopEddystoneScanning(scanId_Eddystone);
+            isBleScanPaused = true;
+        } else if (!isRadioTaken && isBleScanPaused) {
+            beaconManager.startRanging(region);
+            scanId_Eddystone = beaconManager.startEddystoneScanning();
+            isBleScanPaused = false;
+        }
+    }
+
     private void setBLEHandler() {
         Log.i("BLE", " START: Set BLE BeaconManager handler");
         beaconManager = new BeaconManager(this);
@@ -880,13 +1196,11 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
             int rssi;
             int power;
             MacAddress macAddress;
-            StringBuilder bleStringBuilder = new StringBuilder();
             String uuid;
+            long nowNanoseconds = System.nanoTime();
+            radioScanCoordinator.onObservations(RadioScanCoordinator.BLE, nowNanoseconds, list_BLE.size());
 
             if (!list_BLE.isEmpty()) {
-
-                int bleItems = list_BLE.size();
-
                 for (Beacon mote_BLE : list_BLE) {
                     major = mote_BLE.getMajor();
                     minor = mote_BLE.getMinor();
@@ -897,7 +1211,13 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                     //UUID=mote_BLE.getProximityUUID();
                     String macAddressAsString = macAddress.toStandardString();
 
-                    bleStringBuilder.append("\n\t-").append(macAddressAsString).append("\t\tRSS:").append(rssi).append("dBm").append("\t\tID: ").append(major).append(":").append(minor);
+                    long mac = EmitterTable.parseMac(macAddressAsString);
+                    if (mac >= 0) {
+                        int slot = bleEmitterTable.update(EmitterTable.key(EmitterTable.KIND_IBEACON, mac), rssi, nowNanoseconds);
+                        if (bleEmitterTable.getLabel(slot) == null) {
+                            bleEmitterTable.setLabel(slot, "ID: " + major + ":" + minor);
+                        }
+                    }
                     if (binding.saveLogToggleButton.isChecked()) {
                         long timestamp_ns_raw = System.nanoTime();
                         if (timestamp_ns_raw >= startingTimestampNanoseconds) {
@@ -907,17 +1227,18 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                         }
                         timestampSeconds = ((double) (timestampNanoseconds)) * 1E-9;  // nanoseconds to seconds
 
-                        try {
-                            // 'BLE4;AppTimestamp(s);"iBeacon";MAC;RSSI(dBm);MajorID;MinorID;'
-                            // 'BLE4;AppTimestamp(s);"Eddystone";MAC;RSSI(dBm);instanceID;OptionalTelemetry[voltage;temperature;uptime;count]'
-                            String string = String.format(Locale.US, "\nBLE4;%.3f;%s;%s;%d;%d;%d;%d;%s", timestampSeconds, "iBeacon", macAddressAsString, rssi, power, major, minor, uuid);
-                            outputStreamWriter.write(string);
-                        } catch (IOException e) {
-                            e.printStackTrace();
+                        // 'BLE4;AppTimestamp(s);"iBeacon";MAC;RSSI(dBm);MajorID;MinorID;'
+                        // 'BLE4;AppTimestamp(s);"Eddystone";MAC;RSSI(dBm);instanceID;OptionalTelemetry[voltage;temperature;uptime;count]'
+                        String string = String.format(Locale.US, "\nBLE4;%.3f;%s;%s;%d;%d;%d;%d;%s", timestampSeconds, "iBeacon", macAddressAsString, rssi, power, major, minor, uuid);
+                        if (sessionRecorder != null && sessionRecorder.isOpen()) {
+                            sessionRecorder.write(string);
                         }
                     }
                 }
-                String text = "\tNumber of iBEACON BLE motes: " + bleItems + bleStringBuilder;
+            }
+            bleEmitterTable.expire(nowNanoseconds);
+            if (bleEmitterTable.count(EmitterTable.KIND_IBEACON) > 0) {
+                String text = getBLEMotesForScreen(EmitterTable.KIND_IBEACON, "\tNumber of iBEACON BLE motes: ", nowNanoseconds);
                 Log.i("BLE Scan", text);
                 bleDataSensor.setStatusForScreen(text);
             } else {
@@ -930,7 +1251,6 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
 
         // Eddystone tags
         beaconManager.setEddystoneListener(eddystoneBeacons -> {
-            StringBuilder stringBuilder = new StringBuilder();
             MacAddress macAddress;
             String instanceID;
             int rssi;
@@ -939,11 +1259,10 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
             long packetCounter;
             double temperature;
             long uptime;
+            long nowNanoseconds = System.nanoTime();
+            radioScanCoordinator.onObservations(RadioScanCoordinator.BLE, nowNanoseconds, eddystoneBeacons.size());
 
             if (!eddystoneBeacons.isEmpty()) {
-
-                int eddystoneItems = eddystoneBeacons.size();
-
                 for (Eddystone eddystoneBeacon : eddystoneBeacons) {
                     macAddress = eddystoneBeacon.macAddress;
                     instanceID = eddystoneBeacon.instance;
@@ -962,7 +1281,12 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                     }
                     String macAddressAsString = macAddress.toStandardString();
 
-                    stringBuilder.append("\n\t-").append(macAddressAsString).append(",\t\tRSS:").append(rssi).append("dBm").append(",\t\tID: ").append(instanceID).append("\n  Vols:").append(voltage).append("\tTemp:").append(temperature).append("\tUpHours:").append(uptime).append("\tCount:").append(packetCounter);
+                    long mac = EmitterTable.parseMac(macAddressAsString);
+                    if (mac >= 0) {
+                        int slot = bleEmitterTable.update(EmitterTable.key(EmitterTable.KIND_EDDYSTONE, mac), rssi, nowNanoseconds);
+                        // Telemetry changes from one scan to the next
+                        bleEmitterTable.setLabel(slot, "ID: " + instanceID + "\n  Vols:" + voltage + "\tTemp:" + temperature + "\tUpHours:" + uptime + "\tCount:" + packetCounter);
+                    }
 
                     if (binding.saveLogToggleButton.isChecked()) {
                         long timestamp_ns_raw = System.nanoTime();
@@ -973,17 +1297,18 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                         }
                         timestampSeconds = ((double) (timestampNanoseconds)) * 1E-9;
 
-                        try {
-                            // 'BLE4;AppTimestamp(s);"iBeacon";MAC;RSSI(dBm);MajorID;MinorID;'
-                            // 'BLE4;AppTimestamp(s);"Eddystone";MAC;RSSI(dBm);instanceID;OptionalTelemetry[voltage;temperature;uptime;count]'
-                            String string = String.format(Locale.US, "\nBLE4;%.3f;%s;%s;%d;%s;%d;%.1f;%d;%d", timestampSeconds, "Eddystone", macAddressAsString, rssi, instanceID, voltage, temperature, uptime, packetCounter);
-                            outputStreamWriter.write(string);
-                        } catch (IOException e) {
-                            e.printStackTrace();
+                        // 'BLE4;AppTimestamp(s);"iBeacon";MAC;RSSI(dBm);MajorID;MinorID;'
+                        // 'BLE4;AppTimestamp(s);"Eddystone";MAC;RSSI(dBm);instanceID;OptionalTelemetry[voltage;temperature;uptime;count]'
+                        String string = String.format(Locale.US, "\nBLE4;%.3f;%s;%s;%d;%s;%d;%.1f;%d;%d", timestampSeconds, "Eddystone", macAddressAsString, rssi, instanceID, voltage, temperature, uptime, packetCounter);
+                        if (sessionRecorder != null && sessionRecorder.isOpen()) {
+                            sessionRecorder.write(string);
                         }
                     }
                 }
-                String text = "\tNumber of EDDYSTONE BLE motes: " + eddystoneItems + stringBuilder;
+            }
+            bleEmitterTable.expire(nowNanoseconds);
+            if (bleEmitterTable.count(EmitterTable.KIND_EDDYSTONE) > 0) {
+                String text = getBLEMotesForScreen(EmitterTable.KIND_EDDYSTONE, "\tNumber of EDDYSTONE BLE motes: ", nowNanoseconds);
                 Log.i("Eddystone BLE Scan", text);
                 bleDataSensor.setExtendedStatusForScreen(text);
             } else {
@@ -1017,6 +1342,29 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
         Log.i("BLE", "END: Set BLE BeaconManager handler");
     }
 
+    /**
+     * Get the BLE motes of a kind heard lately, from the strongest to the weakest, with the
+     * statistics of their RSS.
+     *
+     * @param kind  Kind of the motes, `EmitterTable.KIND_IBEACON` or `EmitterTable.KIND_EDDYSTONE`.
+     * @param title Text shown before the number of motes.
+     */
+    private String getBLEMotesForScreen(int kind, String title, long nowNanoseconds) {
+        int count = bleEmitterTable.sortByRss(kind, bleSlots);
+        StringBuilder stringBuilder = new StringBuilder(title).append(count);
+        for (int index = 0; index < count; index++) {
+            bleEmitterTable.getStatistics(bleSlots[index], nowNanoseconds, bleStatistics);
+            stringBuilder.append("\n\t-");
+            EmitterTable.appendMac(stringBuilder, bleStatistics.getId())
+                    .append("\t\tRSS:").append(bleStatistics.lastRss).append("dBm")
+                    .append(" (mean ").append(Math.round(bleStatistics.meanRss))
+                    .append(", ").append(bleStatistics.minimumRss).append("/").append(bleStatistics.maximumRss)
+                    .append(", ").append(bleStatistics.ageNanoseconds / 1000000000L).append(" s ago)")
+                    .append("\t\t").append(bleStatistics.label);
+        }
+        return stringBuilder.toString();
+    }
+
     void setUSBHandler() {
         Log.d(Tag, "setUSBHandler()");
 
@@ -1083,6 +1431,31 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
 
     // region DataSensor Management
 
+    /**
+     * Attach every data sensor producing status for log to the session recorder.
+     */
+    private void attachDataSensorsToRecorder() {
+        Log.d(Tag, "attachDataSensorsToRecorder()");
+
+        sessionRecorder.attach(accelerometerDataSensor);
+        sessionRecorder.attach(gyroscopeDataSensor);
+        sessionRecorder.attach(magneticFieldDataSensor);
+        sessionRecorder.attach(pressureDataSensor);
+        sessionRecorder.attach(lightDataSensor);
+        sessionRecorder.attach(proximityDataSensor);
+        sessionRecorder.attach(relativeHumidityDataSensor);
+        sessionRecorder.attach(ambientTemperatureDataSensor);
+        sessionRecorder.attach(rotationVectorDataSensor);
+        sessionRecorder.attach(gnssDataSensor);
+        sessionRecorder.attach(wiFiDataSensor);
+        sessionRecorder.attach(bluetoothDataSensor);
+        sessionRecorder.attach(soundDataSensor);
+        for (RFIDM220Reader rfidm220Reader : rfidM220Readers) {
+            sessionRecorder.attach(rfidm220Reader);
+        }
+        sessionRecorder.attach(mXSens);
+    }
+
     @Override
     public void onDataSensorConnected(@NotNull DataSensor dataSensor) {
         Log.v(Tag, "onDataSensorConnected(dataSensor=" + dataSensor + ")");
@@ -1094,6 +1467,10 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                 RFIDM220Reader rfidM220Reader = (RFIDM220Reader) dataSensor;
                 rfidM220Reader.startReading();
                 rfidM220Readers.add(rfidM220Reader);
+                if (sessionRecorder != null && sessionRecorder.isOpen()) {
+                    sessionRecorder.attach(rfidM220Reader);
+                    startRawCapture(rfidM220Reader);
+                }
                 dataSensorProxy = rfidDataSensor;
                 break;
             case InertialMeasurementUnitIMUX:
@@ -1136,9 +1513,8 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
 
     @Override
     public void onDataSensorChanged(@NotNull DataSensor dataSensor) {
-        Log.v(Tag, "onDataSensorChanged(dataSensor=" + dataSensor + ")");
+        // Called for every sample of the managed data sensors, so nothing is logged here
 
-        int dataSensorRecyclerViewIndex = dataSensorsRecyclerViewItems.indexOf(dataSensor);
         String prologue = "";
 
         DataSensorProxy dataSensorProxy = null;
@@ -1153,7 +1529,9 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                     stringBuilder.
                             append("\n").
                             append(" - ").
-                            append(rfidm220Reader.name);
+                            append(rfidm220Reader.name).
+                            append(": ").
+                            append(rfidm220Reader.getHealthForScreen());
                 }
                 prologue = stringBuilder.toString();
                 dataSensorProxy = rfidDataSensor;
@@ -1163,20 +1541,26 @@ public class MainActivity extends AppCompatActivity implements DataSensorEventLi
                 break;
         }
 
+        // Data sensors shown by themselves are refreshed at most once per frame, no matter how
+        // often they change, and in the main thread
+        if (dataSensorProxy == null) {
+            dataSensorsRefreshScheduler.markDirty(dataSensor);
+            return;
+        }
+
         String status = dataSensor.getStatus(DataSensorStatusDestination.Screen);
         if (prologue.equals("") && status.equals("")) {
             return;
         }
         final String statusForScreen = prologue + "\n" + status;
 
-        if (dataSensorsRecyclerView.getShowSensorRealTimeData()) {
-            if (dataSensorProxy == null) {
-                dataSensorsRecyclerView.updateStatus(dataSensorRecyclerViewIndex, statusForScreen);
-            } else {
-                dataSensorProxy.setStatusForScreen(statusForScreen);
-                dataSensorsRecyclerView.notifyDataSensorChanged(dataSensorProxy);
+        final DataSensorProxy finalDataSensorProxy = dataSensorProxy;
+        runOnUiThread(() -> {
+            if (dataSensorsRecyclerView.getShowSensorRealTimeData()) {
+                finalDataSensorProxy.setStatusForScreen(statusForScreen);
+                dataSensorsRecyclerView.notifyDataSensorChanged(finalDataSensorProxy);
             }
-        }
+        });
     }
 
     // endregion
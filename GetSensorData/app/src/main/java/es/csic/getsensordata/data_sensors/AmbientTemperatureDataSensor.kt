@@ -1,15 +1,21 @@
 package es.csic.getsensordata.data_sensors
 
 import android.content.Context
-import android.util.Log
 import es.csic.getsensordata.R
 import es.csic.getsensordata.data_sensors.definition.DataSensorType
 import es.csic.getsensordata.data_sensors.definition.ManagedDataSensor
+import es.csic.getsensordata.logging.LogSchema
 import java.util.*
 
 class AmbientTemperatureDataSensor(context: Context, updateInterval: Double):
     ManagedDataSensor(context, DataSensorType.AmbientTemperature, updateInterval) {
 
+    override val logSchema = LogSchema(
+        getPrefix(),
+        LogSchema.Field("temp(Celsius)", LogSchema.FieldType.Float32, 1),
+        LogSchema.Field("Accuracy(integer)", LogSchema.FieldType.Int32, 0)
+    )
+
     override fun getName(): String =
         if (sensor != null) {
             sensor.name
@@ -41,12 +47,7 @@ class AmbientTemperatureDataSensor(context: Context, updateInterval: Double):
         val eventTimestampInSeconds = getEventTimestampInSeconds(event)
         val secondsFromEpoch = getSecondsFromEpoch()
 
-        if (eventTimestampInSeconds - previousSensorTimestampInSeconds > 0) {
-            measurementFrequency = (0.9 * measurementFrequency + 0.1 / (eventTimestampInSeconds - previousSensorTimestampInSeconds)).toFloat()
-        } else {
-            Log.e("${getPrefix()} SENSOR", "timestamp < previousTimestamp")
-        }
-        previousSensorTimestampInSeconds = eventTimestampInSeconds
+        updateMeasurementFrequency(eventTimestampInSeconds)
 
         return if (secondsFromEpoch - previousSecondsFromEpoch > updateInterval) {
             val templateForScreen = """
@@ -66,12 +67,11 @@ class AmbientTemperatureDataSensor(context: Context, updateInterval: Double):
         val eventTimestampInSeconds = getEventTimestampInSeconds(event)
         val secondsFromEpoch = getSecondsFromEpoch()
 
-        val templateForLog = "\n${getPrefix()};%.3f;%.3f;%.1f;%d"
-        return String.format(Locale.US, templateForLog,
-                secondsFromEpoch,
-                eventTimestampInSeconds,
-                event!!.values[0],
-                event!!.accuracy
-        )
+        return logLineFormatter.begin(getPrefix())
+            .append(secondsFromEpoch, 3)
+            .append(eventTimestampInSeconds, 3)
+            .append(event!!.values[0], 1)
+            .append(event!!.accuracy)
+            .end()
     }
 }
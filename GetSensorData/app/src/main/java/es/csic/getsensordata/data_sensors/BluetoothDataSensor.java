@@ -14,21 +14,26 @@ import androidx.annotation.NonNull;
 import java.util.ArrayList;
 import java.util.Locale;
 import java.util.Set;
-import java.util.Timer;
-import java.util.TimerTask;
 
 import es.csic.getsensordata.R;
 import es.csic.getsensordata.data_sensors.definition.DataSensor;
 import es.csic.getsensordata.data_sensors.definition.DataSensorType;
+import es.csic.getsensordata.data_sensors.definition.RadioScanCoordinator;
 
 public class BluetoothDataSensor extends DataSensor {
     private static final String tag = "Bluetooth";
     private static final DataSensorType type = DataSensorType.Bluetooth;
+    // Time from connecting to the first discovery, and between discoveries
+    private static final long FIRST_DISCOVERY_DELAY_MS = 15000;
+    private static final long DISCOVERY_INTERVAL_MS = 10000;
 
     private boolean bluetoothWasOff = false;
     public BluetoothAdapter bluetoothAdapter;
-    private TimerTask bluetoothTimerTask;
-    private Timer bluetoothTimer;
+    private final Runnable discoveryRunnable = this::discover;
+    private final Runnable expireDiscoveryWindowRunnable = this::expireDiscoveryWindow;
+    // Timeline of the scans of the radio, or null if discoveries are not coordinated
+    private RadioScanCoordinator radioScanCoordinator;
+    private boolean isDiscoveryWindowReserved = false;
     private BroadcastReceiver bluetoothDiscoveryMonitor;
     private BroadcastReceiver bluetoothDiscoveryResult;
     private final Handler bluetoothHandler = new Handler();
@@ -40,7 +45,8 @@ public class BluetoothDataSensor extends DataSensor {
     private String statusForScreen = "";
     private String extendedStatusForScreen = "";
     private String statusForLog = "";
-    private final Boolean discoverBluetooth = false;
+    // Whether the discovery receivers are registered
+    private boolean isReading = false;
 
     public BluetoothDataSensor(@NonNull Context context, double updateInterval) {
         super(context, type, updateInterval);
@@ -127,12 +133,13 @@ public class BluetoothDataSensor extends DataSensor {
 
             setHandler(this);
 
-            bluetoothTimer = new Timer("Bluetooth Timer");
-            bluetoothTimer.schedule(bluetoothTimerTask, 15000, 10000);
+            bluetoothHandler.postDelayed(discoveryRunnable, FIRST_DISCOVERY_DELAY_MS);
         }
     }
 
     public void disconnect() {
+        bluetoothHandler.removeCallbacks(discoveryRunnable);
+        bluetoothHandler.removeCallbacks(expireDiscoveryWindowRunnable);
         if (bluetoothWasOff) {
             if (bluetoothAdapter.isEnabled()) {
                 bluetoothAdapter.disable();
@@ -140,10 +147,22 @@ public class BluetoothDataSensor extends DataSensor {
         }
     }
 
+    /**
+     * Discover in windows of the radio not taken by other technologies, from the next discovery on.
+     * Discoveries are only started while coordinated, as otherwise they take the radio from WiFi
+     * and BLE for seconds at a time.
+     *
+     * @param radioScanCoordinator Timeline of the scans of the radio, or null not to discover.
+     */
+    public void setRadioScanCoordinator(RadioScanCoordinator radioScanCoordinator) {
+        this.radioScanCoordinator = radioScanCoordinator;
+    }
+
     public void startReading() {
         if (getContext().getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH) && bluetoothAdapter != null) {
             getContext().registerReceiver(bluetoothDiscoveryMonitor, new IntentFilter(BluetoothAdapter.ACTION_DISCOVERY_FINISHED));
             getContext().registerReceiver(bluetoothDiscoveryResult, new IntentFilter(BluetoothDevice.ACTION_FOUND));
+            isReading = true;
         }
     }
 
@@ -151,6 +170,7 @@ public class BluetoothDataSensor extends DataSensor {
         if (getContext().getPackageManager().hasSystemFeature(PackageManager.FEATURE_BLUETOOTH) && bluetoothAdapter != null) {
             getContext().unregisterReceiver(bluetoothDiscoveryMonitor);
             getContext().unregisterReceiver(bluetoothDiscoveryResult);
+            isReading = false;
         }
     }
 
@@ -161,6 +181,10 @@ public class BluetoothDataSensor extends DataSensor {
             @Override
             public void onReceive(Context context, Intent intent) {
                 if (discoveryFinished.equals(intent.getAction())) {
+                    bluetoothHandler.removeCallbacks(expireDiscoveryWindowRunnable);
+                    if (radioScanCoordinator != null) {
+                        radioScanCoordinator.end(RadioScanCoordinator.BLUETOOTH, System.nanoTime());
+                    }
                     StringBuilder statusStringBuilder = new StringBuilder();
                     statusStringBuilder.
                             append("\tDiscovered Bluetooth devices:").
@@ -217,6 +241,9 @@ public class BluetoothDataSensor extends DataSensor {
                 if (!bluetoothDevices.contains(remoteDevice)) {
                     bluetoothDevices.add(remoteDevice);
                 }
+                if (radioScanCoordinator != null) {
+                    radioScanCoordinator.onObservations(RadioScanCoordinator.BLUETOOTH, System.nanoTime(), 1);
+                }
 
                 String address = "";
                 String name = "";
@@ -225,23 +252,51 @@ public class BluetoothDataSensor extends DataSensor {
                     name = remoteDevice.getName();
                 }
                 int rss = 0;
-                statusForLog = String.format(Locale.US, "\nBLUE;%.3f;%s;%s;%d", timestamp, name, address, rss);
+                statusForLog = getLogLineFormatter().begin(getPrefix())
+                        .append(timestamp, 3)
+                        .append(name)
+                        .append(address)
+                        .append(rss)
+                        .end();
+                notifyRecorder();
             }
         };
+    }
 
-        bluetoothTimerTask = new TimerTask() {
-            public void run() {
-                bluetoothHandler.post(new Runnable() {
-                    public void run() {
-                        // TODO: discoverBluetooth is always false
-                        if (bluetoothAdapter != null && bluetoothAdapter.isEnabled() && !bluetoothAdapter.isDiscovering() && discoverBluetooth) {
-                            bluetoothDevices.clear();
-                            bluetoothAdapter.startDiscovery();
-                        }
-                    }
-                });
+    /**
+     * Start a discovery, if due, in a window of the radio. Called in the main thread.
+     */
+    private void discover() {
+        RadioScanCoordinator radioScanCoordinator = this.radioScanCoordinator;
+        if (bluetoothAdapter != null && bluetoothAdapter.isEnabled() && !bluetoothAdapter.isDiscovering() && isReading && radioScanCoordinator != null) {
+            long nowNanoseconds = System.nanoTime();
+            if (!isDiscoveryWindowReserved) {
+                long startNanoseconds = radioScanCoordinator.reserve(RadioScanCoordinator.BLUETOOTH, nowNanoseconds);
+                if (startNanoseconds - nowNanoseconds > 0) {
+                    // Wait for the radio
+                    isDiscoveryWindowReserved = true;
+                    bluetoothHandler.postDelayed(discoveryRunnable, (startNanoseconds - nowNanoseconds + 999999) / 1000000);
+                    return;
+                }
             }
-        };
+            isDiscoveryWindowReserved = false;
+            bluetoothDevices.clear();
+            if (bluetoothAdapter.startDiscovery()) {
+                radioScanCoordinator.begin(RadioScanCoordinator.BLUETOOTH, nowNanoseconds);
+                bluetoothHandler.postDelayed(expireDiscoveryWindowRunnable, radioScanCoordinator.getWindowNanoseconds(RadioScanCoordinator.BLUETOOTH) / 1000000 + 1);
+            } else {
+                radioScanCoordinator.end(RadioScanCoordinator.BLUETOOTH, nowNanoseconds);
+            }
+        }
+        bluetoothHandler.postDelayed(discoveryRunnable, DISCOVERY_INTERVAL_MS);
+    }
 
+    /**
+     * End the window of the radio of a discovery not finished in time. Called in the main thread.
+     */
+    private void expireDiscoveryWindow() {
+        if (radioScanCoordinator != null) {
+            radioScanCoordinator.expire(System.nanoTime());
+        }
     }
 }
@@ -264,7 +264,19 @@ public class GNSSDataSensor extends DataSensor implements LocationListener, GpsS
             setPreviousSensorTimestampInSeconds(timestamp);
         }
 
-        statusForLog = String.format(Locale.US, "\nGNSS;%.3f;%.3f;%.6f;%.6f;%.3f;%.3f;%.1f;%.1f;%d;%d", timestamp, sensorTimeStamp, latitude, longitude, altitude, bearing, accuracy, speed, satellitesInView, satellitesInUse);
+        statusForLog = getLogLineFormatter().begin(getPrefix())
+                .append(timestamp, 3)
+                .append(sensorTimeStamp, 3)
+                .append(latitude, 6)
+                .append(longitude, 6)
+                .append(altitude, 3)
+                .append(bearing, 3)
+                .append(accuracy, 1)
+                .append(speed, 1)
+                .append(satellitesInView)
+                .append(satellitesInUse)
+                .end();
+        notifyRecorder();
     }
 
     @SuppressLint("MissingPermission")
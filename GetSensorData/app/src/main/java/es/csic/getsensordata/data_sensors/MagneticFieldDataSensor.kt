@@ -1,15 +1,23 @@
 package es.csic.getsensordata.data_sensors
 
 import android.content.Context
-import android.util.Log
 import es.csic.getsensordata.R
 import es.csic.getsensordata.data_sensors.definition.DataSensorType
 import es.csic.getsensordata.data_sensors.definition.ManagedDataSensor
+import es.csic.getsensordata.logging.LogSchema
 import java.util.*
 
 class MagneticFieldDataSensor(context: Context, updateInterval: Double):
     ManagedDataSensor(context, DataSensorType.MagneticField, updateInterval) {
 
+    override val logSchema = LogSchema(
+        getPrefix(),
+        LogSchema.Field("Mag_X(uT)", LogSchema.FieldType.Float32, 5),
+        LogSchema.Field("Mag_Y(uT)", LogSchema.FieldType.Float32, 5),
+        LogSchema.Field("Mag_Z(uT)", LogSchema.FieldType.Float32, 5),
+        LogSchema.Field("Accuracy(integer)", LogSchema.FieldType.Int32, 0)
+    )
+
     override fun getName(): String =
         if (sensor != null) {
             sensor.name
@@ -37,12 +45,7 @@ class MagneticFieldDataSensor(context: Context, updateInterval: Double):
         val eventTimestampInSeconds = getEventTimestampInSeconds(event)
         val secondsFromEpoch = getSecondsFromEpoch()
 
-        if (eventTimestampInSeconds - previousSensorTimestampInSeconds > 0) {
-            measurementFrequency = (0.9 * measurementFrequency + 0.1 / (eventTimestampInSeconds - previousSensorTimestampInSeconds)).toFloat()
-        } else {
-            Log.e("${getPrefix()} SENSOR", "timestamp < previousTimestamp")
-        }
-        previousSensorTimestampInSeconds = eventTimestampInSeconds
+        updateMeasurementFrequency(eventTimestampInSeconds)
 
         return if (secondsFromEpoch - previousSecondsFromEpoch > updateInterval) {
             previousSecondsFromEpoch = secondsFromEpoch
@@ -67,14 +70,13 @@ class MagneticFieldDataSensor(context: Context, updateInterval: Double):
         val eventTimestampInSeconds = getEventTimestampInSeconds(event)
         val secondsFromEpoch = getSecondsFromEpoch()
 
-        val templateForLog = "\n${getPrefix()};%.3f;%.3f;%.5f;%.5f;%.5f;%d"
-        return String.format(Locale.US, templateForLog,
-                secondsFromEpoch,
-                eventTimestampInSeconds,
-                event!!.values[0],
-                event!!.values[1],
-                event!!.values[2],
-                event!!.accuracy
-        )
+        return logLineFormatter.begin(getPrefix())
+            .append(secondsFromEpoch, 3)
+            .append(eventTimestampInSeconds, 3)
+            .append(event!!.values[0], 5)
+            .append(event!!.values[1], 5)
+            .append(event!!.values[2], 5)
+            .append(event!!.accuracy)
+            .end()
     }
 }
@@ -5,12 +5,25 @@ import android.hardware.SensorManager
 import es.csic.getsensordata.R
 import es.csic.getsensordata.data_sensors.definition.DataSensorType
 import es.csic.getsensordata.data_sensors.definition.ManagedDataSensor
+import es.csic.getsensordata.logging.LogRecord
+import es.csic.getsensordata.logging.LogSchema
 import java.util.*
 import kotlin.math.PI
 
 class RotationVectorDataSensor(context: Context, updateInterval: Double):
     ManagedDataSensor(context, DataSensorType.RotationVector, updateInterval) {
 
+    override val logSchema = LogSchema(
+        getPrefix(),
+        LogSchema.Field("PitchX(deg)", LogSchema.FieldType.Float64, 6),
+        LogSchema.Field("RollY(deg)", LogSchema.FieldType.Float64, 6),
+        LogSchema.Field("YawZ(deg)", LogSchema.FieldType.Float64, 6),
+        LogSchema.Field("Quat(2)", LogSchema.FieldType.Float32, 8),
+        LogSchema.Field("Quat(3)", LogSchema.FieldType.Float32, 8),
+        LogSchema.Field("Quat(4)", LogSchema.FieldType.Float32, 8),
+        LogSchema.Field("Accuracy(integer)", LogSchema.FieldType.Int32, 0)
+    )
+
     override fun getName(): String =
         if (sensor != null) {
             sensor.name
@@ -38,23 +51,10 @@ class RotationVectorDataSensor(context: Context, updateInterval: Double):
         val eventTimestampInSeconds = getEventTimestampInSeconds(event)
         val secondsFromEpoch = getSecondsFromEpoch()
 
-        measurementFrequency = (0.9 * measurementFrequency + 0.1 / (eventTimestampInSeconds - previousSensorTimestampInSeconds)).toFloat()
-        previousSensorTimestampInSeconds = eventTimestampInSeconds
+        updateMeasurementFrequency(eventTimestampInSeconds)
 
         val eventValues = event!!.values
-        val rotationMatrix = floatArrayOf(1f, 0f, 0f, 0f, 1f, 0f, 0f, 0f, 1f)
-        try {
-            SensorManager.getRotationMatrixFromVector(rotationMatrix, eventValues)
-        } catch(e: IllegalArgumentException) {
-            // Galaxy Note 3 bug
-            val eventValuesFixed = floatArrayOf(eventValues[0], eventValues[1], eventValues[2])
-            SensorManager.getRotationMatrixFromVector(rotationMatrix, eventValuesFixed)
-        }
-
-        var orientation = floatArrayOf(0f, 0f, 0f)
-        orientation = SensorManager.getOrientation(rotationMatrix, orientation)
-        orientation[0] = -orientation[0]
-        orientation[1] = -orientation[1]
+        val orientation = getOrientation(eventValues)
         val yaw = orientation[0] * 180 / PI
         val pitch = orientation[1] * 180 / PI
         val roll = orientation[2] * 180 / PI
@@ -83,6 +83,44 @@ class RotationVectorDataSensor(context: Context, updateInterval: Double):
         val secondsFromEpoch = getSecondsFromEpoch()
 
         val eventValues = event!!.values
+        val orientation = getOrientation(eventValues)
+        val yaw = orientation[0] * 180 / PI
+        val pitch = orientation[1] * 180 / PI
+        val roll = orientation[2] * 180 / PI
+
+        return logLineFormatter.begin(getPrefix())
+            .append(secondsFromEpoch, 3)
+            .append(eventTimestampInSeconds, 3)
+            .append(pitch, 6)
+            .append(roll, 6)
+            .append(yaw, 6)
+            .append(eventValues[0], 8)
+            .append(eventValues[1], 8)
+            .append(eventValues[2], 8)
+            .append(event!!.accuracy)
+            .end()
+    }
+
+    override fun writeLogRecord(record: LogRecord) {
+        val event = event!!
+        record.setTimestamps(getNanosecondsFromEpoch(), event.timestamp)
+
+        val eventValues = event.values
+        val orientation = getOrientation(eventValues)
+        // Same expressions as in getStatusForLog(), so the values are the same
+        record.setDouble(0, orientation[1] * 180 / PI)
+        record.setDouble(1, orientation[2] * 180 / PI)
+        record.setDouble(2, orientation[0] * 180 / PI)
+        record.setFloat(3, eventValues[0])
+        record.setFloat(4, eventValues[1])
+        record.setFloat(5, eventValues[2])
+        record.setInt(6, event.accuracy)
+    }
+
+    /**
+     * Get the yaw, pitch and roll, in radians, of a rotation vector.
+     */
+    private fun getOrientation(eventValues: FloatArray): FloatArray {
         val rotationMatrix = floatArrayOf(1f, 0f, 0f, 0f, 1f, 0f, 0f, 0f, 1f)
         try {
             SensorManager.getRotationMatrixFromVector(rotationMatrix, eventValues)
@@ -96,21 +134,6 @@ class RotationVectorDataSensor(context: Context, updateInterval: Double):
         orientation = SensorManager.getOrientation(rotationMatrix, orientation)
         orientation[0] = -orientation[0]
         orientation[1] = -orientation[1]
-        val yaw = orientation[0] * 180 / PI
-        val pitch = orientation[1] * 180 / PI
-        val roll = orientation[2] * 180 / PI
-
-        val templateForLog = "\n${getPrefix()};%.3f;%.3f;%.6f;%.6f;%.6f;%.8f;%.8f;%.8f;%d"
-        return String.format(Locale.US, templateForLog,
-                secondsFromEpoch,
-                eventTimestampInSeconds,
-                pitch,
-                roll,
-                yaw,
-                eventValues[0],
-                eventValues[1],
-                eventValues[2],
-                event!!.accuracy
-        )
+        return orientation
     }
 }
@@ -2,30 +2,100 @@ package es.csic.getsensordata.data_sensors;
 
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.media.AudioRecord;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import java.util.Locale;
 
+import es.csic.getsensordata.AudioFramePipeline;
 import es.csic.getsensordata.Microphone;
 import es.csic.getsensordata.R;
 import es.csic.getsensordata.data_sensors.definition.DataSensor;
 import es.csic.getsensordata.data_sensors.definition.DataSensorType;
+import es.csic.getsensordata.data_sensors.definition.RecordDispatcher;
+import es.csic.getsensordata.data_sensors.sound.SoundLevelAnalyzer;
+import es.csic.getsensordata.data_sensors.sound.ToneDetector;
+import es.csic.getsensordata.logging.LogLineFormatter;
+import es.csic.getsensordata.logging.WavWriter;
+import es.csic.getsensordata.preferences.Preferences;
 
 public class SoundDataSensor extends DataSensor {
     private static final String TAG = "Sound";
     private static final DataSensorType type = DataSensorType.Sound;
+    // Prefixes of the records derived from the spectrum of each frame
+    private static final String LEVELS_PREFIX = "SOUL";
+    private static final String OCTAVE_BANDS_PREFIX = "SOUO";
+    private static final String THIRD_OCTAVE_BANDS_PREFIX = "SOUT";
+    // Prefix of the records of the tones detected in each frame
+    private static final String TONES_PREFIX = "SOUG";
+    // Tones detected kept per frame; more than one per detector and frame is already unusual
+    private static final int MAX_DETECTIONS = 32;
+    // Frames analysed waiting for the recording thread: several seconds with the smallest frames
+    private static final int RECORD_RING_CAPACITY = 512;
+
+    /**
+     * Values of a frame analysed, waiting for the recording thread.
+     */
+    static class Record {
+        long timestampNanoseconds;
+        long sampleIndex;
+        long recordedSampleIndex;
+        double rms;
+        double pressure;
+        double spl;
+        boolean hasLevels;
+        final SoundLevelAnalyzer.Levels levels = new SoundLevelAnalyzer.Levels();
+        int detectionCount;
+        final ToneDetector.Detection[] detections = ToneDetector.newDetections(MAX_DETECTIONS);
+
+        void copyFrom(Record record) {
+            timestampNanoseconds = record.timestampNanoseconds;
+            sampleIndex = record.sampleIndex;
+            recordedSampleIndex = record.recordedSampleIndex;
+            rms = record.rms;
+            pressure = record.pressure;
+            spl = record.spl;
+            hasLevels = record.hasLevels;
+            if (hasLevels) {
+                levels.copyFrom(record.levels);
+            }
+            detectionCount = record.detectionCount;
+            for (int index = 0; index < detectionCount; index++) {
+                detections[index].copyFrom(record.detections[index]);
+            }
+        }
+    }
+
     private Microphone microphone;
+    // Where the frames captured are recorded, or null if not recorded
+    private volatile WavWriter wavWriter;
+    // Only used by the analysis thread of the microphone, or null if the spectrum is not analysed
+    private SoundLevelAnalyzer soundLevelAnalyzer;
+    private final SoundLevelAnalyzer.Levels levels = new SoundLevelAnalyzer.Levels();
+    // Only run by the analysis thread of the microphone, or null if tones are not detected
+    private volatile ToneDetector toneDetector;
+    private final ToneDetector.Detection[] detections = ToneDetector.newDetections(MAX_DETECTIONS);
+    private final RecordDispatcher<Record> recordDispatcher;
+    // Last frame dispatched, written in the recording thread, synchronized on the data sensor
+    private final Record currentRecord = new Record();
+    private long previousTimestampNanoseconds = 0;
+    private int sampleRate;
+    // Last tone detected, written in the recording thread, synchronized on the data sensor
+    private final ToneDetector.Detection lastDetection = new ToneDetector.Detection();
+    private boolean hasLastDetection = false;
+    // Builder of the status for log, holding the records of a frame
+    private final StringBuilder statusForLogStringBuilder = new StringBuilder();
 
     private boolean isAvailable;
 
-    private String statusForScreen = "";
-    private String statusForLog = "";
-
     public SoundDataSensor(@NonNull Context context, double updateInterval) {
         super(context, type, updateInterval);
+        Record[] records = new Record[RECORD_RING_CAPACITY];
+        for (int index = 0; index < records.length; index++) {
+            records[index] = new Record();
+        }
+        recordDispatcher = new RecordDispatcher<>(this, records, this::onRecord);
     }
 
     @Override
@@ -39,35 +109,92 @@ public class SoundDataSensor extends DataSensor {
     }
 
     public void connect() {
-        try {
-            AudioRecord.OnRecordPositionUpdateListener onRecordPositionUpdateListener;
-            onRecordPositionUpdateListener = setHandler(this);
-            microphone = new Microphone(onRecordPositionUpdateListener);
-        } catch (SecurityException e) {
-            microphone = null;
-        }
-
         isAvailable = getContext().getPackageManager().hasSystemFeature(PackageManager.FEATURE_MICROPHONE);
     }
 
     public void disconnect() {
-        if (microphone != null) {
-            microphone.release();
-        }
+        stopReading();
     }
 
+    /**
+     * Start capturing the microphone, with the sample rate and frame size of the preferences,
+     * analysing the spectrum of every frame and detecting tones in it, if enabled there.
+     */
     public void startReading() {
         if (microphone != null) {
-            microphone.start_read_audio_Thread();
+            return;
+        }
+        Log.d(TAG, "startReading()");
+
+        Preferences preferences = new Preferences(getContext());
+        previousTimestampNanoseconds = 0;
+        soundLevelAnalyzer = null;
+        if (preferences.getSoundSpectrumEnabled()) {
+            soundLevelAnalyzer = new SoundLevelAnalyzer(preferences.getSoundSampleRate(), preferences.getSoundFrameSize(), preferences.getSoundLeqWindow());
+        }
+        sampleRate = preferences.getSoundSampleRate();
+        hasLastDetection = false;
+        toneDetector = null;
+        if (preferences.getSoundToneDetectionEnabled()) {
+            double[] frequencies = parseToneFrequencies(preferences.getSoundToneFrequencies(), sampleRate, ToneDetector.DEFAULT_BLOCK_SIZE);
+            if (frequencies.length > 0) {
+                toneDetector = new ToneDetector(sampleRate, frequencies, ToneDetector.DEFAULT_BLOCK_SIZE, preferences.getSoundToneThreshold());
+            }
+        }
+        microphone = new Microphone(preferences.getSoundSampleRate(), preferences.getSoundFrameSize(), this::onFrame);
+        microphone.setCaptureListener(this::onCapture);
+        if (!microphone.start()) {
+            microphone = null;
         }
     }
 
+    /**
+     * Parse a list of frequencies separated by commas, skipping those that are not numbers or are
+     * not at least a bin away from 0 Hz and from half the sample rate.
+     */
+    private static double[] parseToneFrequencies(String value, int sampleRate, int blockSize) {
+        double binWidth = (double) sampleRate / blockSize;
+        String[] items = value.split(",");
+        double[] frequencies = new double[items.length];
+        int count = 0;
+        for (String item : items) {
+            double frequency;
+            try {
+                frequency = Double.parseDouble(item.trim());
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "parseToneFrequencies(): not a frequency: " + item);
+                continue;
+            }
+            if (frequency < binWidth || frequency > sampleRate / 2.0 - binWidth) {
+                Log.e(TAG, String.format(Locale.US, "parseToneFrequencies(): %.1f Hz out of range at %d Hz", frequency, sampleRate));
+                continue;
+            }
+            frequencies[count] = frequency;
+            count++;
+        }
+        double[] result = new double[count];
+        System.arraycopy(frequencies, 0, result, 0, count);
+        return result;
+    }
+
     public void stopReading() {
         if (microphone != null) {
-            microphone.stop_audio_thread();
+            microphone.stop();
+            microphone = null;
+            recordDispatcher.stop();
         }
     }
 
+    /**
+     * Record every frame captured from now on, as long as the sample rates of the microphone and
+     * the writer match, writing the position of each frame in the recording into its records.
+     *
+     * @param wavWriter Writer of the recording, or null to stop recording.
+     */
+    public void setWavWriter(WavWriter wavWriter) {
+        this.wavWriter = wavWriter;
+    }
+
     @NonNull
     @Override
     public String getName() {
@@ -90,70 +217,172 @@ public class SoundDataSensor extends DataSensor {
 
     @NonNull
     @Override
-    public String getStatusForScreen() {
-        return statusForScreen;
+    public synchronized String getStatusForScreen() {
+        if (getCounter() == 0) {
+            return "";
+        }
+        String status = String.format(Locale.US, "\tRMS: \t\t\t%6.1f \n\tPressure: \t%6.2f \tmPa\n\tSPL: \t\t\t%6.1f \tdB", currentRecord.rms, currentRecord.pressure * 1000, currentRecord.spl);
+        if (currentRecord.hasLevels) {
+            SoundLevelAnalyzer.Levels levels = currentRecord.levels;
+            status = status + String.format(Locale.US, "\n\tLA: \t\t\t%6.1f \tdBA (Leq %5.1f, max %5.1f)\n\tLC: \t\t\t%6.1f \tdBC (Leq %5.1f, max %5.1f)", levels.la, levels.laeq, levels.lamax, levels.lc, levels.lceq, levels.lcmax);
+        }
+        if (hasLastDetection) {
+            status = status + String.format(Locale.US, "\n\tTone: \t\t%7.1f \tHz (SNR %4.1f dB, at %.3f s)", lastDetection.frequency, lastDetection.snr, lastDetection.onsetSampleIndex / sampleRate);
+        }
+        return status + String.format(Locale.US, "\n\t\t\t\t\t\t\t\tFreq: %5.1f Hz", getMeasurementFrequency());
     }
 
     @NonNull
     @Override
     public String getExtendedStatusForScreen() {
-        return "";
+        Microphone microphone = this.microphone;
+        if (microphone == null || microphone.getAudioFramePipeline() == null) {
+            return "";
+        }
+        AudioFramePipeline audioFramePipeline = microphone.getAudioFramePipeline();
+        String status = String.format(Locale.US, "\tSample rate: %d Hz, frame: %d samples\n\tFrames: %d, dropped: %d, overruns: %d",
+                audioFramePipeline.getSampleRate(), audioFramePipeline.getFrameSize(),
+                audioFramePipeline.getCapturedFrames(), audioFramePipeline.getDroppedFrames(), audioFramePipeline.getOverruns());
+        WavWriter wavWriter = this.wavWriter;
+        if (wavWriter != null) {
+            status = status + String.format(Locale.US, "\n\tRecorded: %.1f s, dropped: %d frames",
+                    (double) wavWriter.getWrittenSamples() / wavWriter.getSampleRate(), wavWriter.getDroppedFrames());
+        }
+        ToneDetector toneDetector = this.toneDetector;
+        if (toneDetector != null) {
+            status = status + String.format(Locale.US, "\n\tTones: %d detectors, %d detected, %d missed",
+                    toneDetector.getDetectorCount(), toneDetector.getDetectionCount(), toneDetector.getMissedDetectionCount());
+        }
+        return status;
     }
 
     @NonNull
     @Override
     public String getStatusForLog() {
-        return statusForLog;
-    }
-
-    private AudioRecord.OnRecordPositionUpdateListener setHandler(DataSensor dataSensor) {
-        Log.d(TAG, "setAudioHandler()");
-
-        return new AudioRecord.OnRecordPositionUpdateListener() {
-            @Override
-            public void onPeriodicNotification(AudioRecord recorder) {
-                setCounter(getCounter() + 1);
-
-                double timestamp = System.nanoTime();
-                // initial timestamp set when user starts saving data to file
-                if (timestamp >= getPreviousSensorTimestampInSeconds()) {
-                    timestamp = timestamp - getPreviousSensorTimestampInSeconds();
-                } else {
-                    timestamp = (timestamp - getPreviousSensorTimestampInSeconds()) + Long.MAX_VALUE;
-                }
-                timestamp = timestamp * 1e-9; // from nanoseconds to seconds
-
-                short[] buffer = microphone.buffer;
-                double rms = 0;
-                for (short value : buffer) {
-                    rms += Math.pow(Math.abs(value), 2);
-                }
-                rms = Math.sqrt(rms / buffer.length);
-                // Assumption: sensor saturates at 20 Pascals (120dB)
-                double pressure = rms / Short.MAX_VALUE;
-                // Human hearing threshold: 2E-5 Pascals
-                double SPL = 20 * Math.log10(pressure / 2e-5);
-
-                if (timestamp - getPreviousSensorTimestampInSeconds() > 0.005) {
-                    float measurementFrequency = (float) (0.99 * getMeasurementFrequency() + 0.01 / (timestamp - getPreviousSensorTimestampInSeconds()));
-                    setMeasurementFrequency(measurementFrequency);
-                }
-
-                if (timestamp - getPreviousSensorTimestampInSeconds() > getUpdateInterval()) {
-                    statusForScreen = String.format(Locale.US, "\tRMS: \t\t\t%6.1f \n\tPressure: \t%6.2f \tmPa\n\tSPL: \t\t\t%6.1f \tdB\n\t\t\t\t\t\t\t\tFreq: %5.1f Hz", rms, pressure * 1000, SPL, getMeasurementFrequency());
-                    setPreviousSensorTimestampInSeconds(timestamp);
-
-                    if (getListener() != null) {
-                        getListener().onDataSensorChanged(dataSensor);
-                    }
-                }
-
-                statusForLog = String.format(Locale.US, "\nSOUN;%.3f;%.2f;%.5f;%.2f", timestamp, rms, pressure, SPL);
+        double timestamp = (currentRecord.timestampNanoseconds - getEpoch()) * 1e-9;
+        LogLineFormatter logLineFormatter = getLogLineFormatter().begin(getPrefix())
+                .append(timestamp, 3)
+                .append(currentRecord.rms, 2)
+                .append(currentRecord.pressure, 5)
+                .append(currentRecord.spl, 2)
+                .append(currentRecord.sampleIndex)
+                .append(currentRecord.recordedSampleIndex);
+        if (!currentRecord.hasLevels && currentRecord.detectionCount == 0) {
+            return logLineFormatter.end();
+        }
+        statusForLogStringBuilder.setLength(0);
+        statusForLogStringBuilder.append(logLineFormatter.getLine());
+
+        if (currentRecord.hasLevels) {
+            SoundLevelAnalyzer.Levels levels = currentRecord.levels;
+            statusForLogStringBuilder.append(getLogLineFormatter().begin(LEVELS_PREFIX)
+                    .append(timestamp, 3)
+                    .append(levels.lz, 2)
+                    .append(levels.la, 2)
+                    .append(levels.lc, 2)
+                    .append(levels.laeq, 2)
+                    .append(levels.lamax, 2)
+                    .append(levels.lceq, 2)
+                    .append(levels.lcmax, 2)
+                    .getLine());
+            logLineFormatter = getLogLineFormatter().begin(OCTAVE_BANDS_PREFIX)
+                    .append(timestamp, 3);
+            for (int index = 0; index < levels.octaveBandCount; index++) {
+                logLineFormatter.append(levels.octaveBandLevels[index], 2);
+            }
+            statusForLogStringBuilder.append(logLineFormatter.getLine());
+            logLineFormatter = getLogLineFormatter().begin(THIRD_OCTAVE_BANDS_PREFIX)
+                    .append(timestamp, 3);
+            for (int index = 0; index < levels.thirdOctaveBandCount; index++) {
+                logLineFormatter.append(levels.thirdOctaveBandLevels[index], 2);
+            }
+            statusForLogStringBuilder.append(logLineFormatter.getLine());
+        }
+        for (int index = 0; index < currentRecord.detectionCount; index++) {
+            ToneDetector.Detection detection = currentRecord.detections[index];
+            double onsetTime = timestamp + (detection.onsetSampleIndex - currentRecord.sampleIndex) / sampleRate;
+            statusForLogStringBuilder.append(getLogLineFormatter().begin(TONES_PREFIX)
+                    .append(timestamp, 3)
+                    .append(detection.frequency, 1)
+                    .append(detection.onsetSampleIndex, 1)
+                    .append(onsetTime, 6)
+                    .append(detection.snr, 2)
+                    .append(detection.level, 2)
+                    .getLine());
+        }
+        return statusForLogStringBuilder.toString();
+    }
+
+    /**
+     * Record a frame captured, if recording. Called in the capture thread of the microphone.
+     */
+    private void onCapture(AudioFramePipeline.Frame frame) {
+        WavWriter wavWriter = this.wavWriter;
+        if (wavWriter != null && wavWriter.getSampleRate() == microphone.getSampleRate()) {
+            frame.recordedSampleIndex = wavWriter.write(frame.samples, 0, frame.length);
+        }
+    }
+
+    /**
+     * Analyse a frame captured. Called in the analysis thread of the microphone.
+     */
+    private void onFrame(AudioFramePipeline.Frame frame) {
+        short[] samples = frame.samples;
+        long sumOfSquares = 0;
+        for (int index = 0; index < frame.length; index++) {
+            int value = samples[index];
+            sumOfSquares += value * value;
+        }
+        double rms = Math.sqrt((double) sumOfSquares / frame.length);
+        // Assumption: sensor saturates at 20 Pascals (120dB)
+        double pressure = rms / Short.MAX_VALUE;
+        // Human hearing threshold: 2E-5 Pascals
+        double spl = 20 * Math.log10(pressure / 2e-5);
+        boolean hasLevels = soundLevelAnalyzer != null && soundLevelAnalyzer.analyze(frame.floatSamples, frame.length, levels);
+        ToneDetector toneDetector = this.toneDetector;
+        int detectionCount = 0;
+        if (toneDetector != null) {
+            detectionCount = toneDetector.detect(frame.floatSamples, frame.length, frame.sampleIndex, detections);
+        }
+
+        Record record = recordDispatcher.claim();
+        if (record != null) {
+            record.timestampNanoseconds = frame.timestampNanoseconds;
+            record.sampleIndex = frame.sampleIndex;
+            record.recordedSampleIndex = frame.recordedSampleIndex;
+            record.rms = rms;
+            record.pressure = pressure;
+            record.spl = spl;
+            record.hasLevels = hasLevels;
+            if (hasLevels) {
+                record.levels.copyFrom(levels);
+            }
+            record.detectionCount = detectionCount;
+            for (int index = 0; index < detectionCount; index++) {
+                record.detections[index].copyFrom(detections[index]);
             }
+            recordDispatcher.publish();
+        }
+    }
 
-            @Override
-            public void onMarkerReached(AudioRecord recorder) {
+    /**
+     * Take a frame analysed as the current status. Called in the recording thread, synchronized on
+     * the data sensor.
+     */
+    private void onRecord(Record record) {
+        setCounter(getCounter() + 1);
+        currentRecord.copyFrom(record);
+        if (record.detectionCount > 0) {
+            lastDetection.copyFrom(record.detections[record.detectionCount - 1]);
+            hasLastDetection = true;
+        }
+        if (previousTimestampNanoseconds != 0) {
+            double interval = (record.timestampNanoseconds - previousTimestampNanoseconds) * 1e-9;
+            if (interval > 0.005) {
+                float measurementFrequency = (float) (0.99 * getMeasurementFrequency() + 0.01 / interval);
+                setMeasurementFrequency(measurementFrequency);
             }
-        };
+        }
+        previousTimestampNanoseconds = record.timestampNanoseconds;
     }
 }
@@ -7,38 +7,125 @@ import android.content.IntentFilter;
 import android.net.wifi.ScanResult;
 import android.net.wifi.WifiInfo;
 import android.net.wifi.WifiManager;
+import android.os.Build;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
 
 import androidx.annotation.NonNull;
 
 import java.util.List;
 import java.util.Locale;
-import java.util.Timer;
-import java.util.TimerTask;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 import es.csic.getsensordata.R;
 import es.csic.getsensordata.data_sensors.definition.DataSensor;
 import es.csic.getsensordata.data_sensors.definition.DataSensorType;
-
+import es.csic.getsensordata.data_sensors.definition.EmitterTable;
+import es.csic.getsensordata.data_sensors.definition.RadioScanCoordinator;
+import es.csic.getsensordata.data_sensors.definition.RecordDispatcher;
+import es.csic.getsensordata.data_sensors.wifi.WiFiScanScheduler;
+import es.csic.getsensordata.logging.LogLineFormatter;
+
+/**
+ * WiFi access points heard in the scans, processed in a thread of their own.
+ *
+ * Android returns every access point it knows in each scan, including those cached from previous
+ * scans, with the timestamp of when each one was actually measured. The results are processed as
+ * the differences with an access point table keyed by BSSID: a result is new when its access point
+ * is not in the table, changed when its timestamp is, and stale when it repeats the timestamp of
+ * the last measurement of its access point. Stale results are neither logged nor added to the
+ * statistics of their access point, so each measurement is logged once.
+ *
+ * Scans are requested while reading, as often as the throttling of the platform allows, following
+ * a `WiFiScanScheduler`, and, if given a `RadioScanCoordinator`, in windows of the radio not taken
+ * by other technologies.
+ */
 public class WiFiDataSensor extends DataSensor {
     private static final String TAG = "WiFi";
     private static final DataSensorType type = DataSensorType.WiFi;
+    // Access points kept on the screen, enough for dense buildings
+    private static final int MAXIMUM_ACCESS_POINTS = 2048;
+    // Access points not heard for longer are removed from the screen
+    private static final long ACCESS_POINT_EXPIRY_MS = 30000;
+    // Minimum time between scans, when not throttled
+    private static final long SCAN_INTERVAL_MS = 2000;
+    // Fresh results kept per scan, more than any scan returns
+    private static final int MAXIMUM_RESULTS_PER_SCAN = 1024;
+    // Scans processed waiting for the recording thread, far more than the scans in a second
+    private static final int RECORD_RING_CAPACITY = 4;
+
+    /**
+     * Results of a scan processed, waiting for the recording thread.
+     */
+    static class Record {
+        long timestampNanoseconds;
+        // Results in the scan, by kind
+        int resultCount;
+        int newCount;
+        int changedCount;
+        int staleCount;
+        // New and changed results, the only ones logged
+        int freshCount;
+        final String[] ssids = new String[MAXIMUM_RESULTS_PER_SCAN];
+        final String[] bssids = new String[MAXIMUM_RESULTS_PER_SCAN];
+        final int[] frequencies = new int[MAXIMUM_RESULTS_PER_SCAN];
+        final int[] rss = new int[MAXIMUM_RESULTS_PER_SCAN];
+        final long[] scanTimestampsMicroseconds = new long[MAXIMUM_RESULTS_PER_SCAN];
+        // Results since reading started, by kind
+        long totalResultCount;
+        long totalStaleCount;
+        boolean isWifiEnabled;
+        String connectedSsid;
+        String connectedBssid;
+        int connectedRssi;
+        int connectedLinkSpeed;
+        String accessPointsForScreen;
+    }
 
     private WifiManager wiFiManager;
     private BroadcastReceiver wiFiBroadcastReceiver;
-    private TimerTask wiFiTimerTask;
-    private Timer wiFiTimer;
+    private WiFiScanScheduler scanScheduler;
     private final Handler wiFiHandler = new Handler();
-
-    private boolean isAvailable = false;
-    private String name = "";
-    private String features = "";
-    private String statusForScreen = "";
-    private String extendedStatusForScreen = "";
+    private final Runnable scanRunnable = this::scan;
+    private final Runnable scheduleScanRunnable = this::scheduleScan;
+    // Timeline of the scans of the radio, or null if scans are not coordinated
+    private volatile RadioScanCoordinator radioScanCoordinator;
+    // Whether the window of the next scan is reserved, only accessed by the main thread
+    private boolean isScanWindowReserved = false;
+    private final Runnable expireScanWindowRunnable = this::expireScanWindow;
+    private final Runnable endScanWindowRunnable = this::endScanWindow;
+    // Thread the scan results are received and processed in, while reading
+    private HandlerThread scanThread;
+
+    // Updated in the recording thread too, and read by the screen
+    private volatile boolean isAvailable = false;
+    private volatile String name = "";
+    private volatile String features = "";
+    private volatile String statusForScreen = "";
+    private volatile String extendedStatusForScreen = "";
     private String statusForLog = "";
 
+    // Access points heard, and what is needed to show them, only accessed by the scan thread
+    private final EmitterTable emitterTable = new EmitterTable(MAXIMUM_ACCESS_POINTS, ACCESS_POINT_EXPIRY_MS);
+    private final EmitterTable.Statistics statistics = new EmitterTable.Statistics();
+    private final int[] slots = new int[MAXIMUM_ACCESS_POINTS];
+    private final StringBuilder extendedStatusStringBuilder = new StringBuilder();
+    private long totalResultCount = 0;
+    private long totalStaleCount = 0;
+    private final RecordDispatcher<Record> recordDispatcher;
+    // Only accessed by the recording thread
+    private final StringBuilder statusForLogStringBuilder = new StringBuilder();
+    private long previousTimestampNanoseconds = 0;
+
     public WiFiDataSensor(@NonNull Context context, double updateInterval) {
         super(context, type, updateInterval);
+        Record[] records = new Record[RECORD_RING_CAPACITY];
+        for (int index = 0; index < records.length; index++) {
+            records[index] = new Record();
+        }
+        recordDispatcher = new RecordDispatcher<>(this, records, this::onRecord);
     }
 
     @Override
@@ -77,26 +164,60 @@ public class WiFiDataSensor extends DataSensor {
             features = getContext().getString(R.string.no_features);
         }
 
-        setWiFiScanHandler(this);
+        setWiFiScanHandler();
 
-        // Set timer at 1 Hz
-        wiFiTimer = new Timer("WiFi Timer");
-        wiFiTimer.scheduleAtFixedRate(wiFiTimerTask, 2000, 2000);
+        if (wiFiManager != null) {
+            scanScheduler = new WiFiScanScheduler(SCAN_INTERVAL_MS, isScanThrottled());
+        }
     }
 
     public void disconnect() {
-        wiFiTimer.cancel();
+        wiFiHandler.removeCallbacks(scanRunnable);
+        wiFiHandler.removeCallbacks(scheduleScanRunnable);
+        wiFiHandler.removeCallbacks(endScanWindowRunnable);
+    }
+
+    /**
+     * Request the scans in windows of the radio not taken by other technologies, from the next
+     * scan on.
+     *
+     * @param radioScanCoordinator Timeline of the scans of the radio, or null to request them as
+     *                             soon as due.
+     */
+    public void setRadioScanCoordinator(RadioScanCoordinator radioScanCoordinator) {
+        this.radioScanCoordinator = radioScanCoordinator;
     }
 
     public void startReading() {
-        if (wiFiManager != null) {
-            getContext().registerReceiver(wiFiBroadcastReceiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION));
+        if (wiFiManager != null && scanThread == null) {
+            previousTimestampNanoseconds = 0;
+            scanThread = new HandlerThread("WiFi scan thread");
+            scanThread.start();
+            getContext().registerReceiver(wiFiBroadcastReceiver, new IntentFilter(WifiManager.SCAN_RESULTS_AVAILABLE_ACTION),
+                    null, new Handler(scanThread.getLooper()));
+            scheduleScan();
         }
     }
 
     public void stopReading() {
-        if (wiFiManager != null) {
+        if (wiFiManager != null && scanThread != null) {
             getContext().unregisterReceiver(wiFiBroadcastReceiver);
+            scanThread.quitSafely();
+            try {
+                scanThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            scanThread = null;
+            // Free the radio: no other scan is scheduled, as no longer reading
+            endScanWindow();
+            wiFiHandler.removeCallbacks(scanRunnable);
+            wiFiHandler.removeCallbacks(scheduleScanRunnable);
+            wiFiHandler.removeCallbacks(endScanWindowRunnable);
+            recordDispatcher.stop();
+            Log.i(TAG, "stopReading(): results: " + totalResultCount + ", stale: " + totalStaleCount +
+                    ", scans requested: " + scanScheduler.getRequestedScans() + ", rejected: " + scanScheduler.getRejectedScans() +
+                    ", failed: " + scanScheduler.getFailedScans() + ", external: " + scanScheduler.getExternalScans());
         }
     }
 
@@ -129,73 +250,276 @@ public class WiFiDataSensor extends DataSensor {
         return statusForLog;
     }
 
-    private void setWiFiScanHandler(DataSensor dataSensor) {
+    private void setWiFiScanHandler() {
         wiFiBroadcastReceiver = new BroadcastReceiver() {
             @Override
             public void onReceive(Context context, Intent intent) {
-                setCounter(getCounter() + 1);
-
-                double timestamp = System.nanoTime();
-                // initial timestamp set when user starts saving data to file
-                if (timestamp >= getPreviousSensorTimestampInSeconds()) {
-                    timestamp = timestamp - getPreviousSensorTimestampInSeconds();
+                boolean isUpdated = Build.VERSION.SDK_INT < Build.VERSION_CODES.M ||
+                        intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, true);
+                // Results of scans of other apps or the system don't end the window of the scan
+                // requested, they only delay the next one
+                if (scanScheduler.onScanResults(System.nanoTime(), isUpdated)) {
+                    wiFiHandler.post(endScanWindowRunnable);
                 } else {
-                    timestamp = (timestamp - getPreviousSensorTimestampInSeconds()) + Long.MAX_VALUE;
-                }
-                timestamp = timestamp * 1e-9; // from nanoseconds to seconds
-
-                // See WiFi Scan results
-                List<ScanResult> scanResults = wiFiManager.getScanResults();
-                int wiFiAccessPoints = scanResults.size();
-                StringBuilder statusForScreenStringBuilder = new StringBuilder();
-                StringBuilder statusForLogStringBuilder = new StringBuilder();
-                for (ScanResult scanResult : scanResults) {
-                    String ssid = scanResult.SSID;
-                    String bssid = scanResult.BSSID;
-                    int frequency = scanResult.frequency;
-                    long scanResultTimestamp = scanResult.timestamp;
-                    double sensorTimeStamp = ((double) (scanResultTimestamp)) * 1E-6;
-                    int rss = scanResult.level;
-                    statusForScreenStringBuilder.append("\n\t- ").append(ssid).append(",\t").append(bssid).append(",\tRSS:").append(rss).append(" dBm");
-                    statusForLogStringBuilder.append(String.format(Locale.US, "\nWIFI;%.3f;%.3f;%s;%s;%d;%d", timestamp, sensorTimeStamp, ssid, bssid, frequency, rss));
+                    wiFiHandler.post(scheduleScanRunnable);
                 }
-                extendedStatusForScreen = "\tNumber of Wifi APs: " + wiFiAccessPoints + statusForScreenStringBuilder;
-                statusForScreen = statusForScreenStringBuilder.toString();
+                onScanResults();
+            }
+        };
+    }
 
-                if (timestamp - getPreviousSensorTimestampInSeconds() > 0.005) {
-                    float measurementFrequency = (float) (0.99 * getMeasurementFrequency() + 0.01 / (timestamp - getPreviousSensorTimestampInSeconds()));
-                    setMeasurementFrequency(measurementFrequency);
-                }
+    /**
+     * Whether the platform throttles the scans of the apps in the foreground, which it does since
+     * Android 9, unless disabled in the developer options.
+     */
+    private boolean isScanThrottled() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            return wiFiManager.isScanThrottleEnabled();
+        }
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.P;
+    }
 
-                if (wiFiManager.isWifiEnabled()) {
-                    isAvailable = true;
-                    name = getContext().getString(R.string.wifiOn);
-                    features = getContext().getString(R.string.wifiMACAddress, wiFiManager.getConnectionInfo().getMacAddress());
-                }
+    /**
+     * Request a scan, if due. Called in the main thread.
+     */
+    private void scan() {
+        if (!wiFiManager.isWifiEnabled()) {
+            wiFiHandler.postDelayed(scanRunnable, TimeUnit.NANOSECONDS.toMillis(scanScheduler.getIntervalNanoseconds()));
+            return;
+        }
+        long nowNanoseconds = System.nanoTime();
+        if (scanScheduler.getNextScanNanoseconds(nowNanoseconds) - nowNanoseconds > 0) {
+            scheduleScan();
+            return;
+        }
+        RadioScanCoordinator radioScanCoordinator = this.radioScanCoordinator;
+        if (radioScanCoordinator != null && !isScanWindowReserved) {
+            long startNanoseconds = radioScanCoordinator.reserve(RadioScanCoordinator.WIFI, nowNanoseconds);
+            if (startNanoseconds - nowNanoseconds > 0) {
+                // Wait for the radio
+                isScanWindowReserved = true;
+                wiFiHandler.postDelayed(scanRunnable, (startNanoseconds - nowNanoseconds + 999999) / 1000000);
+                return;
+            }
+        }
+        isScanWindowReserved = false;
+        boolean isAccepted = wiFiManager.startScan();
+        scanScheduler.onScanRequested(nowNanoseconds, isAccepted);
+        if (radioScanCoordinator != null) {
+            if (isAccepted) {
+                radioScanCoordinator.begin(RadioScanCoordinator.WIFI, nowNanoseconds);
+                wiFiHandler.postDelayed(expireScanWindowRunnable, radioScanCoordinator.getWindowNanoseconds(RadioScanCoordinator.WIFI) / 1000000 + 1);
+            } else {
+                radioScanCoordinator.end(RadioScanCoordinator.WIFI, nowNanoseconds);
+            }
+        }
+        scheduleScan();
+    }
+
+    /**
+     * End the window of the radio of the scan, as its results arrived, and schedule the next scan.
+     * Called in the main thread.
+     */
+    private void endScanWindow() {
+        wiFiHandler.removeCallbacks(expireScanWindowRunnable);
+        isScanWindowReserved = false;
+        RadioScanCoordinator radioScanCoordinator = this.radioScanCoordinator;
+        if (radioScanCoordinator != null) {
+            radioScanCoordinator.end(RadioScanCoordinator.WIFI, System.nanoTime());
+        }
+        scheduleScan();
+    }
 
-                WifiInfo wifiinfo = wiFiManager.getConnectionInfo();
-                if (wifiinfo.getBSSID() != null) {
-                    statusForScreen = String.format(Locale.US, "\tConnected to: %s\n\tBSSID: %s\n\tRSSI: %d dBm \n\tLinkSpeed: %d Mbps\n\t\t\t\t\t\t\t\tFreq: %5.1f Hz", wifiinfo.getSSID(), wifiinfo.getBSSID(), wifiinfo.getRssi(), wifiinfo.getLinkSpeed(), getMeasurementFrequency());
+    /**
+     * End the window of the radio of a scan whose results didn't arrive in time. Called in the
+     * main thread.
+     */
+    private void expireScanWindow() {
+        RadioScanCoordinator radioScanCoordinator = this.radioScanCoordinator;
+        if (radioScanCoordinator != null) {
+            radioScanCoordinator.expire(System.nanoTime());
+        }
+    }
+
+    /**
+     * Schedule the next scan, while reading. Called in the main thread.
+     */
+    private void scheduleScan() {
+        if (scanThread == null || isScanWindowReserved) {
+            return;
+        }
+        wiFiHandler.removeCallbacks(scanRunnable);
+        long nowNanoseconds = System.nanoTime();
+        long delayNanoseconds = Math.max(0, scanScheduler.getNextScanNanoseconds(nowNanoseconds) - nowNanoseconds);
+        // Rounded up, so the scan is due when run
+        wiFiHandler.postDelayed(scanRunnable, (delayNanoseconds + 999999) / 1000000);
+    }
+
+    /**
+     * Process the results of a scan, keeping only those not seen in a previous scan. Called in the
+     * scan thread.
+     */
+    private void onScanResults() {
+        long nowNanoseconds = System.nanoTime();
+        List<ScanResult> scanResults = wiFiManager.getScanResults();
+        int newCount = 0;
+        int changedCount = 0;
+        int staleCount = 0;
+        Record record = recordDispatcher.claim();
+        if (record != null) {
+            record.freshCount = 0;
+        }
+        for (ScanResult scanResult : scanResults) {
+            String ssid = scanResult.SSID;
+            long mac = EmitterTable.parseMac(scanResult.BSSID);
+            if (mac >= 0) {
+                long key = EmitterTable.key(EmitterTable.KIND_WIFI, mac);
+                int slot = emitterTable.find(key);
+                // Without a timestamp, every result is taken as fresh
+                if (slot >= 0 && scanResult.timestamp != 0 && emitterTable.getSourceTimestamp(slot) == scanResult.timestamp) {
+                    staleCount++;
+                    continue;
+                }
+                if (slot < 0) {
+                    newCount++;
                 } else {
-                    statusForScreen = getContext().getString(R.string.wifiNoConnection);
+                    changedCount++;
                 }
-
-                if (getListener() != null) {
-                    getListener().onDataSensorChanged(dataSensor);
+                // A result not logged, as when the ring is full, is left out of the table too, so
+                // it is still fresh if a later scan repeats it
+                if (record != null && record.freshCount < MAXIMUM_RESULTS_PER_SCAN) {
+                    slot = emitterTable.update(key, scanResult.level, nowNanoseconds);
+                    emitterTable.setSourceTimestamp(slot, scanResult.timestamp);
+                    if (!Objects.equals(ssid, emitterTable.getLabel(slot))) {
+                        emitterTable.setLabel(slot, ssid);
+                    }
                 }
+            } else {
+                // Without a valid BSSID it can't be told whether it is stale, so it is logged
+                changedCount++;
             }
-        };
+            if (record != null && record.freshCount < MAXIMUM_RESULTS_PER_SCAN) {
+                int index = record.freshCount;
+                record.ssids[index] = ssid;
+                record.bssids[index] = scanResult.BSSID;
+                record.frequencies[index] = scanResult.frequency;
+                record.rss[index] = scanResult.level;
+                record.scanTimestampsMicroseconds[index] = scanResult.timestamp;
+                record.freshCount++;
+            }
+        }
+        totalResultCount += scanResults.size();
+        totalStaleCount += staleCount;
+        RadioScanCoordinator radioScanCoordinator = this.radioScanCoordinator;
+        if (radioScanCoordinator != null) {
+            radioScanCoordinator.onObservations(RadioScanCoordinator.WIFI, nowNanoseconds, newCount + changedCount);
+        }
+        emitterTable.expire(nowNanoseconds);
+        if (record == null) {
+            return;
+        }
 
-        wiFiTimerTask = new TimerTask() {
-            public void run() {
-                wiFiHandler.post(new Runnable() {
-                    public void run() {
-                        if (wiFiManager != null && wiFiManager.isWifiEnabled()) {
-                            wiFiManager.startScan();
-                        }
-                    }
-                });
+        record.timestampNanoseconds = nowNanoseconds;
+        record.resultCount = scanResults.size();
+        record.newCount = newCount;
+        record.changedCount = changedCount;
+        record.staleCount = staleCount;
+        record.totalResultCount = totalResultCount;
+        record.totalStaleCount = totalStaleCount;
+        record.isWifiEnabled = wiFiManager.isWifiEnabled();
+        WifiInfo wifiInfo = wiFiManager.getConnectionInfo();
+        record.connectedBssid = wifiInfo != null ? wifiInfo.getBSSID() : null;
+        if (record.connectedBssid != null) {
+            record.connectedSsid = wifiInfo.getSSID();
+            record.connectedRssi = wifiInfo.getRssi();
+            record.connectedLinkSpeed = wifiInfo.getLinkSpeed();
+        }
+        record.accessPointsForScreen = getAccessPointsForScreen(record, nowNanoseconds);
+        recordDispatcher.publish();
+    }
+
+    /**
+     * Take the results of a scan as the current status, logging the fresh ones. Called in the
+     * recording thread.
+     */
+    private void onRecord(Record record) {
+        setCounter(getCounter() + 1);
+
+        double timestamp = (record.timestampNanoseconds - getEpoch()) * 1e-9;
+        statusForLogStringBuilder.setLength(0);
+        for (int index = 0; index < record.freshCount; index++) {
+            statusForLogStringBuilder.append(getLogLineFormatter().begin(getPrefix())
+                    .append(timestamp, 3)
+                    .append(record.scanTimestampsMicroseconds[index] * 1e-6, 3)
+                    .append(record.ssids[index])
+                    .append(record.bssids[index])
+                    .append(record.frequencies[index])
+                    .append(record.rss[index])
+                    .getLine());
+        }
+        statusForLog = statusForLogStringBuilder.toString();
+        extendedStatusForScreen = record.accessPointsForScreen;
+
+        if (previousTimestampNanoseconds != 0) {
+            double interval = (record.timestampNanoseconds - previousTimestampNanoseconds) * 1e-9;
+            if (interval > 0.005) {
+                float measurementFrequency = (float) (0.99 * getMeasurementFrequency() + 0.01 / interval);
+                setMeasurementFrequency(measurementFrequency);
             }
-        };
+        }
+        previousTimestampNanoseconds = record.timestampNanoseconds;
+
+        if (record.isWifiEnabled && !isAvailable) {
+            isAvailable = true;
+            name = getContext().getString(R.string.wifiOn);
+            features = getContext().getString(R.string.wifiMACAddress, wiFiManager.getConnectionInfo().getMacAddress());
+        }
+
+        if (record.connectedBssid != null) {
+            statusForScreen = String.format(Locale.US, "\tConnected to: %s\n\tBSSID: %s\n\tRSSI: %d dBm \n\tLinkSpeed: %d Mbps\n\t\t\t\t\t\t\t\tFreq: %5.1f Hz", record.connectedSsid, record.connectedBssid, record.connectedRssi, record.connectedLinkSpeed, getMeasurementFrequency());
+        } else {
+            statusForScreen = getContext().getString(R.string.wifiNoConnection);
+        }
+    }
+
+    /**
+     * Get the access points heard lately, from the strongest to the weakest, with the statistics
+     * of their RSS.
+     *
+     * @param record Results of the last scan.
+     */
+    private String getAccessPointsForScreen(Record record, long nowNanoseconds) {
+        StringBuilder stringBuilder = extendedStatusStringBuilder;
+        stringBuilder.setLength(0);
+        int count = emitterTable.sortByRss(EmitterTable.KIND_WIFI, slots);
+        stringBuilder.append("\tNumber of Wifi APs: ").append(record.resultCount)
+                .append(" (").append(count).append(" in the last ").append(ACCESS_POINT_EXPIRY_MS / 1000).append(" s)")
+                .append("\n\tLast scan: ").append(record.newCount).append(" new, ").append(record.changedCount)
+                .append(" changed, ").append(record.staleCount).append(" stale (")
+                .append(record.totalResultCount > 0 ? Math.round(100.0 * record.totalStaleCount / record.totalResultCount) : 0)
+                .append("% stale overall)")
+                .append("\n\tScans: ");
+        LogLineFormatter.appendFixed(stringBuilder, scanScheduler.getScanRate() * 60, 1);
+        stringBuilder.append("/min, latency ");
+        LogLineFormatter.appendFixed(stringBuilder, scanScheduler.getMeanLatency(), 1);
+        stringBuilder.append(" s").append(scanScheduler.isThrottled() ? ", throttled" : "")
+                .append(" (").append(scanScheduler.getRequestedScans()).append(" requested, ")
+                .append(scanScheduler.getRejectedScans()).append(" rejected, ")
+                .append(scanScheduler.getFailedScans()).append(" failed, ")
+                .append(scanScheduler.getExternalScans()).append(" external)");
+        RadioScanCoordinator radioScanCoordinator = this.radioScanCoordinator;
+        if (radioScanCoordinator != null) {
+            radioScanCoordinator.appendRates(stringBuilder.append("\n\tRadio: "));
+        }
+        for (int index = 0; index < count; index++) {
+            emitterTable.getStatistics(slots[index], nowNanoseconds, statistics);
+            stringBuilder.append("\n\t- ").append(statistics.label).append(",\t");
+            EmitterTable.appendMac(stringBuilder, statistics.getId())
+                    .append(",\tRSS:").append(statistics.lastRss).append(" dBm")
+                    .append(" (mean ").append(Math.round(statistics.meanRss))
+                    .append(", ").append(statistics.minimumRss).append("/").append(statistics.maximumRss)
+                    .append(", ").append(statistics.ageNanoseconds / 1000000000L).append(" s ago)");
+        }
+        return stringBuilder.toString();
     }
 }
@@ -1,6 +1,7 @@
 package es.csic.getsensordata.data_sensors.definition
 
 import android.content.Context
+import es.csic.getsensordata.logging.LogLineFormatter
 
 /**
  * Base class for the data sensors hierarchy.
@@ -124,6 +125,10 @@ abstract class DataSensor(
      */
     abstract fun getStatusForLog(): String
 
+    // Builder of the status for log, faster than `String.format()`. Only used from the thread
+    // producing that status
+    protected val logLineFormatter = LogLineFormatter()
+
     /**
      * Get the current status of the sensor, formatted for the destination passed as a parameter.
      *
@@ -154,16 +159,24 @@ abstract class DataSensor(
      * @return sensor timestamp in seconds.
      */
     fun getSecondsFromEpoch(): Double {
+        // Transform nanoseconds to seconds
+        return getNanosecondsFromEpoch().toDouble() * 1e-9
+    }
+
+    /**
+     * Get the time since it started working, in nanoseconds.
+     *
+     * @return sensor timestamp in nanoseconds.
+     */
+    fun getNanosecondsFromEpoch(): Long {
         // Get current system time in nanoseconds, as this is more precise
         val systemNanoTime = System.nanoTime()
         // Make sure time difference from epoch is positive
-        val timestampInNanoseconds: Long = if (systemNanoTime >= epoch) {
+        return if (systemNanoTime >= epoch) {
             systemNanoTime - epoch
         } else {
             systemNanoTime - epoch + Long.MAX_VALUE
         }
-        // Transform nanoseconds to seconds
-        return timestampInNanoseconds.toDouble() * 1e-9
     }
 
     // region Listener
@@ -184,6 +197,25 @@ abstract class DataSensor(
 
     // endregion
 
+    // region Recorder
+
+    // Reference to the object storing every status change. Unlike `listener`, which may only be
+    // told when the screen should be refreshed, it is told each time there is a new status for log.
+    // Set in the main thread, and read in the threads notifying it
+    @Volatile
+    var recorder: DataSensorEventListener? = null
+
+    /**
+     * Tell the recorder, if any, that there is a new status for log to store.
+     *
+     * Call it right after the status for log changes, whether or not the listener is told too.
+     */
+    fun notifyRecorder() {
+        recorder?.onDataSensorChanged(this)
+    }
+
+    // endregion
+
     // region Comparison
 
     /**
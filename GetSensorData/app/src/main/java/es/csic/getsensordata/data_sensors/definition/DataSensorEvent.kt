@@ -2,35 +2,120 @@ package es.csic.getsensordata.data_sensors.definition
 
 import android.hardware.SensorEvent
 import android.os.Bundle
-import android.util.Log
 
 /**
  * Event generated by a `DataSensor` instance.
+ *
+ * Instances are reused, usually taken from a `DataSensorEventPool`, so no object is allocated each
+ * time a sensor reports a sample: the values are copied into the primitive storage of the event.
+ *
+ * Contract: an event published by a data sensor (for example, `ManagedDataSensor.event`) is only
+ * valid until the data sensor publishes the next one. Whoever needs to keep it for longer has to
+ * copy it, using `copyFrom()`.
+ *
+ * Nothing is logged here, as this is called for every sample.
+ *
+ * @param dataSensor: data sensor generating the events.
  */
-class DataSensorEvent(
-    val dataSensor: DataSensor,
-    sensorEvent: SensorEvent?,
-    val data: Bundle?,
-    val tag: String?
-) {
-    val values: FloatArray
-    val accuracy: Int
-    val timestamp: Long // nanoseconds
-
-    init {
-        Log.v(
-            Tag, "constructor(" +
-                    "dataSensor=$dataSensor, " +
-                    "sensorEvent=$sensorEvent, " +
-                    "data=$data, " +
-                    "tag=$tag)"
-        )
-        values = sensorEvent?.values ?: FloatArray(0)
-        accuracy = sensorEvent?.accuracy ?: 0
-        timestamp = sensorEvent?.timestamp ?: System.nanoTime()
+class DataSensorEvent(val dataSensor: DataSensor) {
+    // Values of the sample. Its size is the number of values reported by the sensor, and it is
+    // only reallocated if the sensor changes that number
+    var values: FloatArray = emptyValues
+        private set
+    var accuracy: Int = 0
+        private set
+    var timestamp: Long = 0 // nanoseconds
+        private set
+    var data: Bundle? = null
+        private set
+    var tag: String? = null
+        private set
+
+    /**
+     * Class initializer kept for those data sensors building a single event.
+     *
+     * @param dataSensor: data sensor generating the event.
+     * @param sensorEvent: event the values are copied from. If null, the event has no values and
+     * its timestamp is the current time.
+     * @param data: optional. Additional information of the event.
+     * @param tag: optional. Label of the event.
+     */
+    constructor(dataSensor: DataSensor, sensorEvent: SensorEvent?, data: Bundle?, tag: String?) :
+            this(dataSensor) {
+        set(sensorEvent)
+        this.data = data
+        this.tag = tag
+    }
+
+    /**
+     * Copy the values, accuracy and timestamp of a `SensorEvent`.
+     *
+     * @param sensorEvent: event the values are copied from. If null, the event has no values and
+     * its timestamp is the current time.
+     *
+     * @return this same event.
+     */
+    fun set(sensorEvent: SensorEvent?): DataSensorEvent {
+        if (sensorEvent == null) {
+            values = emptyValues
+            accuracy = 0
+            timestamp = System.nanoTime()
+        } else {
+            copyValues(sensorEvent.values)
+            accuracy = sensorEvent.accuracy
+            timestamp = sensorEvent.timestamp
+        }
+        data = null
+        tag = null
+        return this
+    }
+
+    /**
+     * Copy the values, accuracy and timestamp of a sample not delivered as a `SensorEvent`, like
+     * those read from a direct channel.
+     *
+     * @param values: array holding the values of the sample.
+     * @param valueCount: number of values of the sample, at the start of `values`.
+     * @param accuracy: accuracy of the sample.
+     * @param timestamp: time, in nanoseconds, the sample was taken.
+     *
+     * @return this same event.
+     */
+    fun set(values: FloatArray, valueCount: Int, accuracy: Int, timestamp: Long): DataSensorEvent {
+        copyValues(values, valueCount)
+        this.accuracy = accuracy
+        this.timestamp = timestamp
+        data = null
+        tag = null
+        return this
+    }
+
+    /**
+     * Copy another event, so it can be kept after the data sensor publishes a new one.
+     *
+     * The bundle, if any, is shared, not copied.
+     *
+     * @param other: event to copy.
+     *
+     * @return this same event.
+     */
+    fun copyFrom(other: DataSensorEvent): DataSensorEvent {
+        copyValues(other.values)
+        accuracy = other.accuracy
+        timestamp = other.timestamp
+        data = other.data
+        tag = other.tag
+        return this
+    }
+
+    private fun copyValues(source: FloatArray, count: Int = source.size) {
+        if (values.size != count) {
+            values = if (count == 0) emptyValues else FloatArray(count)
+        }
+        System.arraycopy(source, 0, values, 0, count)
     }
 
     companion object {
-        private val Tag = DataSensorEvent::class.java.simpleName
+        private val emptyValues = FloatArray(0)
     }
 }
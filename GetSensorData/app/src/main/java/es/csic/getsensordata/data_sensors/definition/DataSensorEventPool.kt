@@ -0,0 +1,63 @@
+package es.csic.getsensordata.data_sensors.definition
+
+/**
+ * Pool of reusable `DataSensorEvent` instances for a data sensor.
+ *
+ * Events are only allocated when the pool is empty, so once the data sensor is working no event is
+ * allocated per sample. Released events beyond the capacity of the pool are left to the garbage
+ * collector.
+ *
+ * # Example of use
+ *
+ *     ```kotlin
+ *     val copy = pool.acquire().copyFrom(dataSensor.event!!)
+ *     ...
+ *     pool.release(copy)
+ *     ```
+ *
+ * @param dataSensor: data sensor generating the events.
+ * @param capacity: maximum number of free events kept in the pool.
+ */
+class DataSensorEventPool(
+    private val dataSensor: DataSensor,
+    capacity: Int = defaultCapacity
+) {
+    private val freeEvents = arrayOfNulls<DataSensorEvent>(capacity)
+    private var freeEventsCount = 0
+
+    // Number of events allocated by the pool, useful to check it is no longer allocating
+    var allocatedEvents: Long = 0
+        private set
+
+    /**
+     * Get a free event, allocating it only if none is available.
+     */
+    @Synchronized
+    fun acquire(): DataSensorEvent {
+        if (freeEventsCount > 0) {
+            freeEventsCount -= 1
+            val event = freeEvents[freeEventsCount]!!
+            freeEvents[freeEventsCount] = null
+            return event
+        }
+        allocatedEvents += 1
+        return DataSensorEvent(dataSensor)
+    }
+
+    /**
+     * Give back an event that is no longer used, so it can be acquired again.
+     *
+     * @param event: event to give back. It must not be used after releasing it.
+     */
+    @Synchronized
+    fun release(event: DataSensorEvent) {
+        if (freeEventsCount < freeEvents.size) {
+            freeEvents[freeEventsCount] = event
+            freeEventsCount += 1
+        }
+    }
+
+    companion object {
+        const val defaultCapacity = 4
+    }
+}
@@ -0,0 +1,192 @@
+package es.csic.getsensordata.data_sensors.definition
+
+import android.hardware.Sensor
+import android.hardware.SensorDirectChannel
+import android.hardware.SensorManager
+import android.os.Build
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.MemoryFile
+import android.os.Process
+import android.util.Log
+import androidx.annotation.RequiresApi
+import java.io.IOException
+
+/**
+ * Backend reading a managed data sensor through a sensor direct channel, instead of a
+ * `SensorEventListener`.
+ *
+ * The sensor writes its reports straight into shared memory (a `MemoryFile`), with no callback per
+ * sample. The backend polls the shared memory periodically, copies and decodes only the new
+ * reports with a `DirectReportDecoder` and publishes each one in the data sensor, so the rest of
+ * the app sees them as any other sample. The shared memory is only accessed, and closed, in the
+ * polling thread. If it can't be read, polling stops and `onFailure` is called, in that thread, so
+ * the data sensor can fall back to a listener.
+ *
+ * Only available since API 26, and only for the sensors supporting direct channels backed by
+ * shared memory. Use `isSupported()` before starting it.
+ *
+ * @param dataSensor: data sensor the samples are published in.
+ * @param sensorManager: sensor manager creating the direct channel.
+ * @param sensor: sensor to read.
+ * @param rateLevel: one of the `SensorDirectChannel.RATE_*` constants.
+ * @param handler: optional. Handler of the thread polling the shared memory. If null, a thread is
+ * created for it.
+ * @param onFailure: called, in the polling thread, if the shared memory can't be read.
+ */
+@RequiresApi(Build.VERSION_CODES.O)
+class DirectChannelBackend(
+    private val dataSensor: ManagedDataSensor,
+    private val sensorManager: SensorManager,
+    private val sensor: Sensor,
+    private val rateLevel: Int,
+    handler: Handler?,
+    private val onFailure: (DirectChannelBackend) -> Unit
+) : DirectReportDecoder.ReportListener, DirectReportDecoder.SharedMemory {
+
+    companion object {
+        private val Tag = DirectChannelBackend::class.java.simpleName
+
+        // Enough reports for more than half a second at the highest rate level (up to 1760 Hz)
+        private const val reportCount = 1024
+        private const val pollIntervalMilliseconds = 20L
+
+        /**
+         * Can the sensor be read through a direct channel backed by shared memory at the given
+         * rate level?
+         */
+        fun isSupported(sensor: Sensor, rateLevel: Int): Boolean =
+            rateLevel != SensorDirectChannel.RATE_STOP &&
+                    sensor.isDirectChannelTypeSupported(SensorDirectChannel.TYPE_MEMORY_FILE) &&
+                    sensor.highestDirectReportRateLevel >= rateLevel
+    }
+
+    private val pollThread: HandlerThread?
+    private val pollHandler: Handler
+    private val snapshot = ByteArray(reportCount * DirectReportDecoder.REPORT_SIZE)
+    private val decoder = DirectReportDecoder(snapshot)
+    private val valueCount = getValueCount(sensor.type)
+
+    // Only accessed by the polling thread once started
+    @Volatile
+    private var memoryFile: MemoryFile? = null
+    @Volatile
+    private var directChannel: SensorDirectChannel? = null
+    @Volatile
+    private var token = 0
+
+    init {
+        if (handler == null) {
+            pollThread = HandlerThread("Direct channel thread - ${dataSensor.getPrefix()}", Process.THREAD_PRIORITY_URGENT_DISPLAY)
+            pollThread.start()
+            pollHandler = Handler(pollThread.looper)
+        } else {
+            pollThread = null
+            pollHandler = handler
+        }
+    }
+
+    private val poll = object : Runnable {
+        override fun run() {
+            val memoryFile = memoryFile ?: return
+            try {
+                decoder.read(this@DirectChannelBackend, this@DirectChannelBackend)
+            } catch (exception: IOException) {
+                Log.e(Tag, "Unable to read direct channel of ${dataSensor.getPrefix()}, after ${decoder.decodedReports} reports", exception)
+                onFailure(this@DirectChannelBackend)
+                return
+            }
+            pollHandler.postDelayed(this, pollIntervalMilliseconds)
+        }
+    }
+
+    /**
+     * Create the direct channel and start polling it.
+     *
+     * @return `true` if the sensor is being read, `false` if the direct channel couldn't be
+     * created or configured, so the caller should fall back to a listener.
+     */
+    fun start(): Boolean {
+        Log.d(Tag, "start(): ${dataSensor.getPrefix()}, rateLevel=$rateLevel")
+
+        try {
+            val memoryFile = MemoryFile("GetSensorData direct channel - ${dataSensor.getPrefix()}", snapshot.size)
+            this.memoryFile = memoryFile
+            val directChannel = sensorManager.createDirectChannel(memoryFile)
+            this.directChannel = directChannel
+            token = directChannel.configure(sensor, rateLevel)
+        } catch (exception: Exception) {
+            Log.w(Tag, "Unable to create direct channel of ${dataSensor.getPrefix()}", exception)
+            token = 0
+        }
+        if (token <= 0) {
+            stop()
+            return false
+        }
+
+        pollHandler.postDelayed(poll, pollIntervalMilliseconds)
+        return true
+    }
+
+    /**
+     * Stop polling, stop the sensor and close the direct channel, in the polling thread, so the
+     * shared memory is never closed while being read.
+     */
+    fun stop() {
+        Log.d(Tag, "stop(): ${dataSensor.getPrefix()}")
+
+        pollHandler.removeCallbacks(poll)
+        pollHandler.post {
+            pollHandler.removeCallbacks(poll)
+            directChannel?.let { directChannel ->
+                if (token > 0) {
+                    directChannel.configure(sensor, SensorDirectChannel.RATE_STOP)
+                }
+                directChannel.close()
+            }
+            directChannel = null
+            memoryFile?.close()
+            memoryFile = null
+            pollThread?.quitSafely()
+
+            if (decoder.decodedReports > 0 || decoder.lostReports > 0) {
+                Log.i(Tag, "${dataSensor.getPrefix()}: reports decoded: ${decoder.decodedReports}, lost: ${decoder.lostReports}")
+            }
+        }
+    }
+
+    // region ReportListener
+
+    override fun onReport(token: Int, type: Int, timestamp: Long, values: FloatArray) {
+        if (token == this.token) {
+            dataSensor.publish(values, valueCount, timestamp)
+        }
+    }
+
+    // endregion
+
+    // region SharedMemory
+
+    override fun read(snapshot: ByteArray, offset: Int, length: Int) {
+        val memoryFile = memoryFile ?: throw IOException("Direct channel closed")
+        memoryFile.readBytes(snapshot, offset, offset, length)
+    }
+
+    // endregion
+
+    /**
+     * Get how many of the values in a report are meaningful for each sensor type, matching the
+     * size of `SensorEvent.values` for the same sensor.
+     */
+    private fun getValueCount(sensorType: Int): Int =
+        when (sensorType) {
+            Sensor.TYPE_ACCELEROMETER,
+            Sensor.TYPE_GYROSCOPE,
+            Sensor.TYPE_MAGNETIC_FIELD -> 3
+            Sensor.TYPE_ACCELEROMETER_UNCALIBRATED,
+            Sensor.TYPE_GYROSCOPE_UNCALIBRATED,
+            Sensor.TYPE_MAGNETIC_FIELD_UNCALIBRATED -> 6
+            Sensor.TYPE_ROTATION_VECTOR -> 5
+            else -> 1
+        }
+}
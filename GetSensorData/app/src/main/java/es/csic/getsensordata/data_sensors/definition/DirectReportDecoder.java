@@ -0,0 +1,239 @@
+package es.csic.getsensordata.data_sensors.definition;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Decoder of the reports written by a sensor direct channel in its shared memory.
+ *
+ * The shared memory is a ring of reports of 104 bytes each, in little endian:
+ *
+ *     offset  type       field
+ *          0  int32      size of the report (104)
+ *          4  int32      sensor report token
+ *          8  int32      sensor type
+ *         12  uint32     atomic counter, increased by one on every report, starting at 1
+ *         16  int64      timestamp, in nanoseconds
+ *         24  float[16]  values
+ *         88  int32[4]   reserved
+ *
+ * Report number `n` is written in the slot `(n - 1) % reportCount`. The decoder keeps the
+ * counter of the next report it expects, so it knows which reports are new. If the writer laps
+ * the decoder, the reports overwritten are counted as lost and decoding continues from the
+ * oldest report still in the ring.
+ *
+ * It works on a snapshot of the shared memory copied into a byte array, and allocates nothing
+ * while decoding. `read()` only copies the region of the new reports: from the report expected
+ * on, in chunks, until a chunk isn't full of new reports. The whole shared memory is only copied
+ * when the writer lapped the decoder, to find the oldest report left.
+ */
+public class DirectReportDecoder {
+    public static final int REPORT_SIZE = 104;
+    public static final int MAX_VALUES = 16;
+
+    static final int OFFSET_SIZE = 0;
+    static final int OFFSET_TOKEN = 4;
+    static final int OFFSET_TYPE = 8;
+    static final int OFFSET_COUNTER = 12;
+    static final int OFFSET_TIMESTAMP = 16;
+    static final int OFFSET_VALUES = 24;
+
+    // Reports copied at once by `read()`, more than polling every 20 ms at 1760 Hz gives
+    static final int DEFAULT_READ_CHUNK_REPORTS = 64;
+
+    /**
+     * Shared memory the reports are read from.
+     */
+    public interface SharedMemory {
+        /**
+         * Copy a region of the shared memory into the same region of the snapshot.
+         */
+        void read(byte[] snapshot, int offset, int length) throws IOException;
+    }
+
+    /**
+     * Receiver of the reports decoded.
+     */
+    public interface ReportListener {
+        /**
+         * A new report has been decoded.
+         *
+         * @param token     Sensor report token, as returned when configuring the direct channel.
+         * @param type      Sensor type.
+         * @param timestamp Time, in nanoseconds, the sample was taken.
+         * @param values    Values of the sample. The array is reused for the next report, so copy
+         *                  it if needed.
+         */
+        void onReport(int token, int type, long timestamp, float[] values);
+    }
+
+    private final byte[] snapshot;
+    private final ByteBuffer buffer;
+    private final int reportCount;
+    private final int readChunkReports;
+    private final float[] values = new float[MAX_VALUES];
+
+    // Counter of the next report expected, wrapping around as an unsigned 32 bits integer
+    private int expectedCounter = 1;
+    private long decodedReports = 0;
+    private long lostReports = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param snapshot Array where the shared memory is copied before decoding. Its size must be a
+     *                 multiple of the report size.
+     */
+    public DirectReportDecoder(byte[] snapshot) {
+        this(snapshot, DEFAULT_READ_CHUNK_REPORTS);
+    }
+
+    /**
+     * Class initializer.
+     *
+     * @param snapshot         Array where the shared memory is copied before decoding. Its size
+     *                         must be a multiple of the report size.
+     * @param readChunkReports Reports copied at once by `read()`.
+     */
+    public DirectReportDecoder(byte[] snapshot, int readChunkReports) {
+        if (snapshot.length == 0 || snapshot.length % REPORT_SIZE != 0) {
+            throw new IllegalArgumentException("Snapshot size must be a multiple of " + REPORT_SIZE + ": " + snapshot.length);
+        }
+        if (readChunkReports <= 0) {
+            throw new IllegalArgumentException("The read chunk must be positive: " + readChunkReports);
+        }
+        this.snapshot = snapshot;
+        this.buffer = ByteBuffer.wrap(snapshot).order(ByteOrder.LITTLE_ENDIAN);
+        this.reportCount = snapshot.length / REPORT_SIZE;
+        this.readChunkReports = readChunkReports;
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Copy the new reports of the shared memory into the snapshot, and decode them in the order
+     * they were written.
+     *
+     * @param sharedMemory Shared memory the reports are copied from.
+     * @param listener     Receiver of the reports decoded.
+     *
+     * @return number of reports decoded.
+     */
+    public int read(SharedMemory sharedMemory, ReportListener listener) throws IOException {
+        int decoded = 0;
+        while (decoded < reportCount) {
+            int offset = getOffset(expectedCounter);
+            int length = Math.min(readChunkReports * REPORT_SIZE, snapshot.length - offset);
+            sharedMemory.read(snapshot, offset, length);
+            if (buffer.getInt(offset + OFFSET_COUNTER) - expectedCounter > 0) {
+                // Lapped: the oldest report left can be anywhere in the ring
+                sharedMemory.read(snapshot, 0, snapshot.length);
+                return decoded + decode(listener, reportCount - decoded);
+            }
+            // Never past the chunk, as the rest of the snapshot is not up to date
+            int chunkReports = Math.min(length / REPORT_SIZE, reportCount - decoded);
+            int chunkDecoded = decode(listener, chunkReports);
+            decoded += chunkDecoded;
+            if (chunkDecoded < chunkReports) {
+                break;
+            }
+        }
+        return decoded;
+    }
+
+    /**
+     * Decode every new report in the snapshot, in the order they were written.
+     *
+     * @param listener Receiver of the reports decoded.
+     *
+     * @return number of reports decoded.
+     */
+    public int decode(ReportListener listener) {
+        // Never decode more than a full ring, even if the writer keeps going meanwhile
+        return decode(listener, reportCount);
+    }
+
+    /**
+     * Decode the new reports in the snapshot, at most `maximumReports` of them.
+     */
+    private int decode(ReportListener listener, int maximumReports) {
+        int decoded = 0;
+        while (decoded < maximumReports) {
+            int offset = getOffset(expectedCounter);
+            int delta = buffer.getInt(offset + OFFSET_COUNTER) - expectedCounter;
+            if (delta < 0) {
+                // Old report, or not yet written: nothing new
+                break;
+            }
+            if (delta > 0) {
+                // The writer lapped the decoder: skip to the oldest report still in the ring
+                int oldestCounter = getNewestCounter() - reportCount + 1;
+                if (oldestCounter - expectedCounter <= 0) {
+                    // Torn snapshot, the report expected being overwritten: wait for the next one
+                    break;
+                }
+                lostReports += (oldestCounter - expectedCounter) & 0xFFFFFFFFL;
+                expectedCounter = oldestCounter;
+                continue;
+            }
+            if (buffer.getInt(offset + OFFSET_SIZE) != REPORT_SIZE) {
+                break;
+            }
+            for (int i = 0; i < MAX_VALUES; i++) {
+                values[i] = buffer.getFloat(offset + OFFSET_VALUES + i * 4);
+            }
+            listener.onReport(
+                    buffer.getInt(offset + OFFSET_TOKEN),
+                    buffer.getInt(offset + OFFSET_TYPE),
+                    buffer.getLong(offset + OFFSET_TIMESTAMP),
+                    values
+            );
+            expectedCounter++;
+            decoded++;
+        }
+        decodedReports += decoded;
+        return decoded;
+    }
+
+    public int getReportCount() {
+        return reportCount;
+    }
+
+    public long getDecodedReports() {
+        return decodedReports;
+    }
+
+    public long getLostReports() {
+        return lostReports;
+    }
+
+    // endregion
+
+    /**
+     * Get the offset of the slot a report is written in.
+     */
+    private int getOffset(int counter) {
+        long slot = ((counter & 0xFFFFFFFFL) - 1 + reportCount) % reportCount;
+        return (int) slot * REPORT_SIZE;
+    }
+
+    /**
+     * Get the counter of the newest report in the ring, that is, the one furthest ahead of the
+     * report expected.
+     */
+    private int getNewestCounter() {
+        int newestCounter = expectedCounter;
+        for (int slot = 0; slot < reportCount; slot++) {
+            int counter = buffer.getInt(slot * REPORT_SIZE + OFFSET_COUNTER);
+            if (counter - newestCounter > 0) {
+                newestCounter = counter;
+            }
+        }
+        return newestCounter;
+    }
+}
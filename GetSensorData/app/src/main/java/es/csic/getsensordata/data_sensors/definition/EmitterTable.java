@@ -0,0 +1,506 @@
+package es.csic.getsensordata.data_sensors.definition;
+
+import java.util.Arrays;
+
+/**
+ * Table of the radio emitters heard by a data sensor, as WiFi access points, BLE beacons or RFID
+ * tags, with statistics of the RSS of each one over its last measurements.
+ *
+ * Emitters are keyed by a primitive 64-bit ID: the MAC address as a long, or the RFID tag ID,
+ * with the kind of emitter in the top byte, so IDs of different kinds never collide. The table is
+ * an open-addressing hash table, with linear probing and backward-shift deletion, so there are no
+ * tombstones; keys, statistics and the window of measurements of every emitter live in primitive
+ * arrays allocated once, so no boxing is done and the memory is constant. Once the maximum number
+ * of emitters is reached, a new one evicts the one heard longest ago.
+ *
+ * Emitters not heard for longer than the expiry time are removed by `expire()`, which should be
+ * called after every scan, before showing the table.
+ *
+ * Each emitter also keeps the timestamp its source gave to its last measurement, as the one of a
+ * WiFi scan result, so a measurement repeated by a later scan can be told from a new one and
+ * skipped, instead of being counted twice in the statistics.
+ *
+ * Slots are only valid until the next update or expiry, as removing an emitter moves others.
+ *
+ * It is not thread safe: feed and query it from a single thread, as the main one.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     EmitterTable emitterTable = new EmitterTable(4096, 30000);
+ *     int slot = emitterTable.update(EmitterTable.key(EmitterTable.KIND_WIFI, EmitterTable.parseMac(bssid)), rss, System.nanoTime());
+ *     if (emitterTable.getLabel(slot) == null) {
+ *         emitterTable.setLabel(slot, ssid);
+ *     }
+ *     ...
+ *     emitterTable.expire(System.nanoTime());
+ *     int count = emitterTable.sortByRss(EmitterTable.KIND_WIFI, slots);
+ *     for (int index = 0; index < count; index++) {
+ *         emitterTable.getStatistics(slots[index], System.nanoTime(), statistics);
+ *     }
+ *     ```
+ */
+public class EmitterTable {
+    // Measurements of each emitter the statistics are computed over
+    public static final int DEFAULT_WINDOW_SIZE = 8;
+
+    // Kinds of emitter, in the top byte of the key. Any kind matches every emitter when querying
+    public static final int KIND_ANY = 0;
+    public static final int KIND_WIFI = 1;
+    public static final int KIND_IBEACON = 2;
+    public static final int KIND_EDDYSTONE = 3;
+    public static final int KIND_RFID = 4;
+
+    private static final int KIND_SHIFT = 56;
+    private static final long ID_MASK = (1L << KIND_SHIFT) - 1;
+    // Key of the empty slots. Keys always have a kind, so they are never 0
+    private static final long EMPTY = 0;
+
+    /**
+     * Statistics of an emitter. Reuse it from one query to the next.
+     */
+    public static class Statistics {
+        public long key;
+        public String label;
+        public int lastRss;
+        public float meanRss;
+        public int minimumRss;
+        public int maximumRss;
+        // Measurements in the window the statistics are computed over
+        public int windowCount;
+        // Measurements since the emitter was first heard
+        public long count;
+        // Time since it was last heard
+        public long ageNanoseconds;
+        // Time since it was first heard
+        public long lifetimeNanoseconds;
+
+        public int getKind() {
+            return kindOf(key);
+        }
+
+        public long getId() {
+            return idOf(key);
+        }
+    }
+
+    private final int maximumEmitters;
+    private final int windowSize;
+    private final long expiryNanoseconds;
+    private final int mask;
+    private final long[] keys;
+    private final String[] labels;
+    private final int[] lastRss;
+    private final long[] counts;
+    private final long[] firstSeenNanoseconds;
+    private final long[] lastSeenNanoseconds;
+    private final long[] sourceTimestamps;
+    // Window of each emitter, `windowSize` measurements from `slot * windowSize`
+    private final int[] windows;
+    private final long[] sortKeys;
+    private int size = 0;
+    private long evictedEmitters = 0;
+    private long expiredEmitters = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer, using the default window size.
+     *
+     * @param maximumEmitters Emitters kept at once.
+     * @param expiryMs        Time, in milliseconds, after which an emitter not heard is removed.
+     */
+    public EmitterTable(int maximumEmitters, long expiryMs) {
+        this(maximumEmitters, expiryMs, DEFAULT_WINDOW_SIZE);
+    }
+
+    /**
+     * Class initializer.
+     *
+     * @param maximumEmitters Emitters kept at once.
+     * @param expiryMs        Time, in milliseconds, after which an emitter not heard is removed.
+     * @param windowSize      Measurements of each emitter the statistics are computed over.
+     */
+    public EmitterTable(int maximumEmitters, long expiryMs, int windowSize) {
+        if (maximumEmitters < 1 || windowSize < 1) {
+            throw new IllegalArgumentException("At least one emitter and one measurement have to be kept");
+        }
+        this.maximumEmitters = maximumEmitters;
+        this.windowSize = windowSize;
+        this.expiryNanoseconds = expiryMs * 1000000L;
+        // At most half full, so probe sequences stay short
+        int capacity = Integer.highestOneBit(Math.max(2, maximumEmitters * 2 - 1)) << 1;
+        mask = capacity - 1;
+        keys = new long[capacity];
+        labels = new String[capacity];
+        lastRss = new int[capacity];
+        counts = new long[capacity];
+        firstSeenNanoseconds = new long[capacity];
+        lastSeenNanoseconds = new long[capacity];
+        sourceTimestamps = new long[capacity];
+        windows = new int[capacity * windowSize];
+        sortKeys = new long[maximumEmitters];
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Add a measurement of an emitter, adding the emitter if new.
+     *
+     * @param key                  Key of the emitter, as made by `key()`.
+     * @param rss                  RSS measured, in dBm.
+     * @param timestampNanoseconds Value of `System.nanoTime()` when it was measured.
+     *
+     * @return slot of the emitter, valid until the next update or expiry.
+     */
+    public int update(long key, int rss, long timestampNanoseconds) {
+        if (key == EMPTY) {
+            throw new IllegalArgumentException("Keys must have a kind");
+        }
+        int slot = find(key);
+        if (slot < 0) {
+            if (size == maximumEmitters) {
+                remove(findOldest());
+                evictedEmitters++;
+            }
+            slot = hash(key) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            labels[slot] = null;
+            counts[slot] = 0;
+            sourceTimestamps[slot] = 0;
+            firstSeenNanoseconds[slot] = timestampNanoseconds;
+            size++;
+        }
+        windows[slot * windowSize + (int) (counts[slot] % windowSize)] = rss;
+        counts[slot]++;
+        lastRss[slot] = rss;
+        lastSeenNanoseconds[slot] = timestampNanoseconds;
+        return slot;
+    }
+
+    /**
+     * Find the slot of an emitter.
+     *
+     * @return the slot, or -1 if the emitter is not in the table.
+     */
+    public int find(long key) {
+        int slot = hash(key) & mask;
+        long slotKey;
+        while ((slotKey = keys[slot]) != EMPTY) {
+            if (slotKey == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    public long getKey(int slot) {
+        return keys[slot];
+    }
+
+    /**
+     * Get the number of slots, so every emitter can be visited in a single pass, skipping the
+     * empty slots, whose key is 0.
+     */
+    public int getSlotCount() {
+        return keys.length;
+    }
+
+    public int getLastRss(int slot) {
+        return lastRss[slot];
+    }
+
+    /**
+     * Whether the emitter in a slot has not been heard for longer than the expiry time, so it will
+     * be removed by the next `expire()`.
+     */
+    public boolean isExpired(int slot, long nowNanoseconds) {
+        return nowNanoseconds - lastSeenNanoseconds[slot] > expiryNanoseconds;
+    }
+
+    /**
+     * Get the label of an emitter, as the SSID of an access point, or null if not set.
+     */
+    public String getLabel(int slot) {
+        return labels[slot];
+    }
+
+    public void setLabel(int slot, String label) {
+        labels[slot] = label;
+    }
+
+    /**
+     * Get the timestamp the source gave to the last measurement of an emitter, or 0 if not set.
+     */
+    public long getSourceTimestamp(int slot) {
+        return sourceTimestamps[slot];
+    }
+
+    public void setSourceTimestamp(int slot, long sourceTimestamp) {
+        sourceTimestamps[slot] = sourceTimestamp;
+    }
+
+    /**
+     * Get the statistics of the emitter in a slot.
+     *
+     * @param slot           Slot of the emitter.
+     * @param nowNanoseconds Current value of `System.nanoTime()`, to compute the age.
+     * @param statistics     Where they are written.
+     */
+    public void getStatistics(int slot, long nowNanoseconds, Statistics statistics) {
+        int windowCount = (int) Math.min(counts[slot], windowSize);
+        int start = slot * windowSize;
+        int minimum = Integer.MAX_VALUE;
+        int maximum = Integer.MIN_VALUE;
+        long sum = 0;
+        for (int index = start; index < start + windowCount; index++) {
+            int rss = windows[index];
+            minimum = Math.min(minimum, rss);
+            maximum = Math.max(maximum, rss);
+            sum += rss;
+        }
+        statistics.key = keys[slot];
+        statistics.label = labels[slot];
+        statistics.lastRss = lastRss[slot];
+        statistics.meanRss = (float) sum / windowCount;
+        statistics.minimumRss = minimum;
+        statistics.maximumRss = maximum;
+        statistics.windowCount = windowCount;
+        statistics.count = counts[slot];
+        statistics.ageNanoseconds = nowNanoseconds - lastSeenNanoseconds[slot];
+        statistics.lifetimeNanoseconds = nowNanoseconds - firstSeenNanoseconds[slot];
+    }
+
+    /**
+     * Get the statistics of an emitter.
+     *
+     * @return false if the emitter is not in the table.
+     */
+    public boolean getStatistics(long key, long nowNanoseconds, Statistics statistics) {
+        int slot = find(key);
+        if (slot < 0) {
+            return false;
+        }
+        getStatistics(slot, nowNanoseconds, statistics);
+        return true;
+    }
+
+    /**
+     * Remove the emitters not heard for longer than the expiry time.
+     *
+     * @return number of emitters removed.
+     */
+    public int expire(long nowNanoseconds) {
+        int removed = 0;
+        int slot = 0;
+        while (slot <= mask) {
+            if (keys[slot] != EMPTY && nowNanoseconds - lastSeenNanoseconds[slot] > expiryNanoseconds) {
+                // Another emitter may be shifted into the slot, so it is checked again
+                remove(slot);
+                removed++;
+            } else {
+                slot++;
+            }
+        }
+        expiredEmitters += removed;
+        return removed;
+    }
+
+    /**
+     * Remove every emitter.
+     */
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        Arrays.fill(labels, null);
+        size = 0;
+    }
+
+    /**
+     * Get the slots of the emitters of a kind, from the strongest last RSS to the weakest.
+     *
+     * @param kind  Kind of the emitters, or `KIND_ANY`.
+     * @param slots Where the slots are written, at least as long as the maximum number of emitters.
+     *
+     * @return number of slots written.
+     */
+    public int sortByRss(int kind, int[] slots) {
+        int count = 0;
+        for (int slot = 0; slot <= mask; slot++) {
+            long key = keys[slot];
+            if (key != EMPTY && (kind == KIND_ANY || kindOf(key) == kind)) {
+                // Strongest first: ascending order of the opposite of the RSS, then of the slot
+                sortKeys[count++] = ((long) -lastRss[slot] << 32) | slot;
+            }
+        }
+        Arrays.sort(sortKeys, 0, count);
+        for (int index = 0; index < count; index++) {
+            slots[index] = (int) sortKeys[index];
+        }
+        return count;
+    }
+
+    /**
+     * Count the emitters of a kind.
+     *
+     * @param kind Kind of the emitters, or `KIND_ANY`.
+     */
+    public int count(int kind) {
+        if (kind == KIND_ANY) {
+            return size;
+        }
+        int count = 0;
+        for (long key : keys) {
+            if (key != EMPTY && kindOf(key) == kind) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getMaximumEmitters() {
+        return maximumEmitters;
+    }
+
+    /**
+     * Get the number of emitters removed to make room for new ones, while the table was full.
+     */
+    public long getEvictedEmitters() {
+        return evictedEmitters;
+    }
+
+    public long getExpiredEmitters() {
+        return expiredEmitters;
+    }
+
+    // endregion
+
+    // region Keys
+
+    /**
+     * Make the key of an emitter.
+     *
+     * @param kind Kind of the emitter, as `KIND_WIFI`.
+     * @param id   ID of the emitter, of 56 bits at most, as a MAC address or an RFID tag ID.
+     */
+    public static long key(int kind, long id) {
+        return ((long) kind << KIND_SHIFT) | (id & ID_MASK);
+    }
+
+    public static int kindOf(long key) {
+        return (int) (key >>> KIND_SHIFT);
+    }
+
+    public static long idOf(long key) {
+        return key & ID_MASK;
+    }
+
+    /**
+     * Parse a MAC address, as "0a:1b:2c:3d:4e:5f", into a long, without allocating.
+     *
+     * @return the address, or -1 if it is not a valid MAC address.
+     */
+    public static long parseMac(CharSequence mac) {
+        if (mac == null || mac.length() != 17) {
+            return -1;
+        }
+        long value = 0;
+        for (int index = 0; index < 17; index++) {
+            char character = mac.charAt(index);
+            if (index % 3 == 2) {
+                if (character != ':' && character != '-') {
+                    return -1;
+                }
+                continue;
+            }
+            int digit = Character.digit(character, 16);
+            if (digit < 0) {
+                return -1;
+            }
+            value = (value << 4) | digit;
+        }
+        return value;
+    }
+
+    /**
+     * Append a MAC address, as "0a:1b:2c:3d:4e:5f", without allocating.
+     */
+    public static StringBuilder appendMac(StringBuilder stringBuilder, long mac) {
+        for (int shift = 40; shift >= 0; shift -= 8) {
+            int octet = (int) (mac >>> shift) & 0xFF;
+            stringBuilder.append(Character.forDigit(octet >>> 4, 16)).append(Character.forDigit(octet & 0xF, 16));
+            if (shift > 0) {
+                stringBuilder.append(':');
+            }
+        }
+        return stringBuilder;
+    }
+
+    // endregion
+
+    // region Tools
+
+    private static int hash(long key) {
+        // Finalizer of MurmurHash3, so consecutive IDs spread over the table
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int findOldest() {
+        int oldest = -1;
+        for (int slot = 0; slot <= mask; slot++) {
+            if (keys[slot] != EMPTY && (oldest < 0 || lastSeenNanoseconds[slot] - lastSeenNanoseconds[oldest] < 0)) {
+                oldest = slot;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Remove the emitter in a slot, shifting back the emitters after it in its probe sequence, so
+     * no tombstone is left.
+     */
+    private void remove(int slot) {
+        int hole = slot;
+        int index = (slot + 1) & mask;
+        long key;
+        while ((key = keys[index]) != EMPTY) {
+            int home = hash(key) & mask;
+            // Move the emitter to the hole if the hole is between its home slot and its slot
+            if (((index - home) & mask) >= ((index - hole) & mask)) {
+                move(index, hole);
+                hole = index;
+            }
+            index = (index + 1) & mask;
+        }
+        keys[hole] = EMPTY;
+        labels[hole] = null;
+        size--;
+    }
+
+    private void move(int from, int to) {
+        keys[to] = keys[from];
+        labels[to] = labels[from];
+        lastRss[to] = lastRss[from];
+        counts[to] = counts[from];
+        firstSeenNanoseconds[to] = firstSeenNanoseconds[from];
+        lastSeenNanoseconds[to] = lastSeenNanoseconds[from];
+        sourceTimestamps[to] = sourceTimestamps[from];
+        System.arraycopy(windows, from * windowSize, windows, to * windowSize, windowSize);
+    }
+
+    // endregion
+}
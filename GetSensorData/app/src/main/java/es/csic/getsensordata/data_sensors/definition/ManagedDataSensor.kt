@@ -4,27 +4,64 @@ import android.content.Context
 import android.hardware.Sensor
 import android.hardware.SensorEvent
 import android.hardware.SensorEventListener
+import android.hardware.SensorEventListener2
 import android.hardware.SensorManager
+import android.os.Build
+import android.os.Handler
+import android.os.Looper
+import android.os.SystemClock
+import android.util.Log
+import androidx.annotation.RequiresApi
 import es.csic.getsensordata.R
+import es.csic.getsensordata.logging.LogRecord
+import es.csic.getsensordata.logging.LogSchema
+import java.util.*
+import kotlin.math.max
+import kotlin.math.min
 
 /**
  * DataSensor's implementation for managed sensor, that is, those accessible via `SensorManager`.
  *
  * This class implements the `SensorEventListener` interface, so it has to include the methods
- * `onSensorChanged()` and `onAccuracyChanged()`.
+ * `onSensorChanged()` and `onAccuracyChanged()`. It also implements `SchemaLoggedDataSensor`, as
+ * every managed sensor describes the records it stores in binary sessions.
+ *
+ * If `maxReportLatencyUs` is set and the sensor has a hardware FIFO, samples are batched: the
+ * sensor stores them in its FIFO and delivers them together, so the application processor can
+ * stay asleep meanwhile. Call `flush()` before stopping to get the samples still in the FIFO.
+ *
+ * If `directChannelRateLevel` is set and the sensor supports it, samples are read through a
+ * sensor direct channel instead (see `DirectChannelBackend`). Otherwise, it falls back to the
+ * listener.
  */
 abstract class ManagedDataSensor(
     context: Context,
     type: DataSensorType,
     updateInterval: Double
-) : DataSensor(context, type, updateInterval), SensorEventListener {
+) : DataSensor(context, type, updateInterval), SensorEventListener, SchemaLoggedDataSensor {
 
     companion object {
+        private val Tag = ManagedDataSensor::class.java.simpleName
+
         const val defaultSamplingPeriodUs = SensorManager.SENSOR_DELAY_GAME
+        const val defaultMaxReportLatencyUs = 0
+        const val directChannelDisabled = 0 // same value as SensorDirectChannel.RATE_STOP
     }
 
     var samplingPeriodUs = defaultSamplingPeriodUs
 
+    // Maximum time, in microseconds, samples can wait in the hardware FIFO before being delivered.
+    // Zero means no batching. Takes effect next time the sensor starts reading
+    var maxReportLatencyUs = defaultMaxReportLatencyUs
+
+    // Rate level, one of the `SensorDirectChannel.RATE_*` constants, to read the sensor through a
+    // direct channel. Takes effect next time the sensor starts reading
+    var directChannelRateLevel = directChannelDisabled
+
+    // Thread where the samples are delivered, assigned by a `SensorDeliveryScheduler`. If null,
+    // they are delivered in the main thread
+    var deliveryThread: SensorDeliveryScheduler.DeliveryThread? = null
+
     // Managed sensors don't offer extended status
     override val offersExtendedStatus = false
     override fun getExtendedStatusForScreen() = context.getString(R.string.emptyStatus)
@@ -34,15 +71,225 @@ abstract class ManagedDataSensor(
     val sensor: Sensor? = sensorManager?.getDefaultSensor(type.value)
     override val isAvailable = sensor != null
 
-    // Reference of the last event registered, used when retrieving the sensor's status
+    abstract override val logSchema: LogSchema
+
+    // Events are reused, so no event is allocated per sample. Use it to copy `event` if needed
+    val eventPool = DataSensorEventPool(this)
+
+    // Reference of the last event registered, used when retrieving the sensor's status. It is
+    // only valid until the next sample is published. Threads other than the delivery one must
+    // read it while synchronized on the data sensor
     var event: DataSensorEvent? = null
 
+    // Number of samples published, used to measure the frequency
+    @Volatile
+    private var publishedSamples: Long = 0
+    private var previousPublishedSamples: Long = 0
+
+    // Listener registered instead of this class when batching, able to get flush completions
+    private var batchedListener: SensorEventListener? = null
+    private var flushCompletedCallback: Runnable? = null
+
+    // Backend reading the sensor through a direct channel, if in use. Typed as `Any` so this class
+    // still loads on devices without direct channels
+    private var directChannelBackend: Any? = null
+    private val mainHandler by lazy { Handler(Looper.getMainLooper()) }
+
+    // Number of samples delivered together, as seen by the application
+    val batchStatistics = BatchStatistics()
+
     override fun startReading() {
-        sensorManager?.registerListener(this, sensor, samplingPeriodUs)
+        batchStatistics.reset()
+        if (startDirectChannel()) {
+            return
+        }
+        startListener()
+    }
+
+    /**
+     * Start reading the sensor through the listener, batching if asked to.
+     */
+    private fun startListener() {
+        val effectiveMaxReportLatencyUs = getEffectiveMaxReportLatencyUs()
+        if (effectiveMaxReportLatencyUs > 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            Log.d(Tag, "startReading(): ${getPrefix()} batching with maxReportLatencyUs=$effectiveMaxReportLatencyUs")
+            val listener = BatchedListener()
+            batchedListener = listener
+            sensorManager?.registerListener(listener, sensor, samplingPeriodUs, effectiveMaxReportLatencyUs, deliveryThread?.handler)
+        } else {
+            sensorManager?.registerListener(this, sensor, samplingPeriodUs, deliveryThread?.handler)
+        }
     }
 
     override fun stopReading() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            (directChannelBackend as DirectChannelBackend?)?.stop()
+        }
+        directChannelBackend = null
         sensorManager?.unregisterListener(this)
+        batchedListener?.let { sensorManager?.unregisterListener(it) }
+        batchedListener = null
+        flushCompletedCallback = null
+
+        batchStatistics.finish()
+        if (batchStatistics.events > 0) {
+            Log.i(Tag, "${getPrefix()}: $batchStatistics")
+        }
+    }
+
+    /**
+     * Start reading the sensor through a direct channel, if asked to and supported.
+     *
+     * @return `true` if the direct channel is in use, `false` if the listener should be used.
+     */
+    private fun startDirectChannel(): Boolean {
+        if (directChannelRateLevel == directChannelDisabled || sensor == null || sensorManager == null ||
+                Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return false
+        }
+        if (!DirectChannelBackend.isSupported(sensor, directChannelRateLevel)) {
+            Log.d(Tag, "startDirectChannel(): ${getPrefix()} doesn't support direct channels, using listener")
+            return false
+        }
+        val backend = DirectChannelBackend(this, sensorManager, sensor, directChannelRateLevel, deliveryThread?.handler) { failedBackend ->
+            mainHandler.post { onDirectChannelFailed(failedBackend) }
+        }
+        if (!backend.start()) {
+            Log.d(Tag, "startDirectChannel(): ${getPrefix()} direct channel not started, using listener")
+            return false
+        }
+        directChannelBackend = backend
+        return true
+    }
+
+    /**
+     * Fall back to the listener, as the direct channel stopped working. Called in the main thread.
+     */
+    @RequiresApi(Build.VERSION_CODES.O)
+    private fun onDirectChannelFailed(backend: DirectChannelBackend) {
+        // Stopped reading, or started again, meanwhile
+        if (directChannelBackend !== backend) {
+            return
+        }
+        Log.w(Tag, "onDirectChannelFailed(): ${getPrefix()} direct channel failed, using listener")
+        backend.stop()
+        directChannelBackend = null
+        startListener()
+    }
+
+    /**
+     * Is the sensor read through a direct channel?
+     */
+    val isUsingDirectChannel: Boolean
+        get() = directChannelBackend != null
+
+    /**
+     * Is the sensor reading in batches?
+     */
+    val isBatching: Boolean
+        get() = batchedListener != null
+
+    /**
+     * Ask the sensor to deliver right now the samples waiting in its hardware FIFO.
+     *
+     * Best suited to be called when a session is about to stop, so no sample is lost.
+     *
+     * @param onFlushCompleted: called, in the delivery thread, once every sample in the FIFO has
+     * been delivered.
+     *
+     * @return `true` if the flush was requested, so `onFlushCompleted` will be called, `false`
+     * if the sensor is not batching.
+     */
+    fun flush(onFlushCompleted: Runnable): Boolean {
+        val listener = batchedListener
+        if (listener == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return false
+        }
+        flushCompletedCallback = onFlushCompleted
+        val isRequested = sensorManager?.flush(listener) == true
+        if (!isRequested) {
+            flushCompletedCallback = null
+        }
+        return isRequested
+    }
+
+    /**
+     * Get the maximum report latency the sensor can honour.
+     *
+     * Sensors without a hardware FIFO can't batch. For the rest, the latency is limited to the time
+     * it takes to fill the FIFO, so samples are not dropped.
+     */
+    private fun getEffectiveMaxReportLatencyUs(): Int {
+        if (maxReportLatencyUs <= 0 || sensor == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return 0
+        }
+        val fifoMaxEventCount = sensor.fifoMaxEventCount
+        if (fifoMaxEventCount <= 0) {
+            return 0
+        }
+        val fifoLatencyUs = fifoMaxEventCount.toLong() * getSamplingPeriodInMicroseconds()
+        return min(maxReportLatencyUs.toLong(), fifoLatencyUs).toInt()
+    }
+
+    /**
+     * Get the sampling period, in microseconds, translating the `SensorManager.SENSOR_DELAY_*`
+     * constants, and never lower than the minimum delay of the sensor.
+     */
+    private fun getSamplingPeriodInMicroseconds(): Int {
+        val samplingPeriodInMicroseconds = when (samplingPeriodUs) {
+            SensorManager.SENSOR_DELAY_FASTEST -> 0
+            SensorManager.SENSOR_DELAY_GAME -> 20_000
+            SensorManager.SENSOR_DELAY_UI -> 66_667
+            SensorManager.SENSOR_DELAY_NORMAL -> 200_000
+            else -> samplingPeriodUs
+        }
+        return max(samplingPeriodInMicroseconds, sensor?.minDelay ?: 0)
+    }
+
+    private fun onFlushCompleted() {
+        val callback = flushCompletedCallback
+        flushCompletedCallback = null
+        callback?.run()
+    }
+
+    /**
+     * Update `measurementFrequency` with the samples published since the last time it was updated.
+     *
+     * Unlike updating it on every sample, this can be called only when the status is shown, no
+     * matter how often the sensor publishes samples.
+     *
+     * @param eventTimestampInSeconds: timestamp of the last event published, in seconds.
+     */
+    protected fun updateMeasurementFrequency(eventTimestampInSeconds: Double) {
+        val samples = publishedSamples - previousPublishedSamples
+        val elapsedSeconds = eventTimestampInSeconds - previousSensorTimestampInSeconds
+        if (samples <= 0) {
+            return
+        }
+        if (previousSensorTimestampInSeconds > 0 && elapsedSeconds > 0) {
+            measurementFrequency = (0.9 * measurementFrequency + 0.1 * samples / elapsedSeconds).toFloat()
+        } else if (elapsedSeconds < 0) {
+            Log.e("${getPrefix()} SENSOR", "timestamp < previousTimestamp")
+        }
+        previousSensorTimestampInSeconds = eventTimestampInSeconds
+        previousPublishedSamples = publishedSamples
+    }
+
+    /**
+     * Fill a record of a binary session with the last event published.
+     *
+     * Follows the layout shared by most managed data sensors: a float field for each value of the
+     * event, then an integer field for the accuracy. Data sensors logging something else override
+     * it.
+     */
+    override fun writeLogRecord(record: LogRecord) {
+        val event = event!!
+        record.setTimestamps(getNanosecondsFromEpoch(), event.timestamp)
+        val accuracyField = logSchema.fieldCount - 1
+        for (field in 0 until accuracyField) {
+            record.setFloat(field, event.values[field])
+        }
+        record.setInt(accuracyField, event.accuracy)
     }
 
     // region SensorEventListener
@@ -50,12 +297,55 @@ abstract class ManagedDataSensor(
     /**
      * The status of the sensor has changed.
      *
-     * Keep a copy of the event generated and inform then to the listener of this class of the
-     * status change.
+     * Copy the event generated into a pooled event, publish it and inform then to the recorder and
+     * the listener of this class of the status change. The event previously published goes back to
+     * the pool.
+     *
+     * Called for every sample, in the delivery thread if any, so nothing is allocated or logged
+     * here.
      */
     override fun onSensorChanged(event: SensorEvent?) {
-        this.event = DataSensorEvent(this, event, null, "")
+        if (event != null) {
+            deliveryThread?.latency?.record(event.timestamp)
+            batchStatistics.record(event.timestamp)
+        }
+        publish { it.set(event) }
+    }
+
+    /**
+     * A sample has been read through the direct channel.
+     *
+     * Same as `onSensorChanged()`, for samples not delivered as a `SensorEvent`.
+     *
+     * @param values: array holding the values of the sample. Reused after this call.
+     * @param valueCount: number of values of the sample, at the start of `values`.
+     * @param timestamp: time, in nanoseconds, the sample was taken.
+     */
+    fun publish(values: FloatArray, valueCount: Int, timestamp: Long) {
+        deliveryThread?.latency?.record(timestamp)
+        batchStatistics.record(timestamp)
+        // Direct reports carry no accuracy
+        publish { it.set(values, valueCount, SensorManager.SENSOR_STATUS_ACCURACY_HIGH, timestamp) }
+    }
+
+    /**
+     * Fill a pooled event, publish it and tell the recorder and the listener. The event previously
+     * published goes back to the pool.
+     */
+    private inline fun publish(fill: (DataSensorEvent) -> Unit) {
+        val previousEvent = this.event
+        val event = eventPool.acquire()
+        fill(event)
+        // Only the swap is synchronized, so the screen can read a whole event meanwhile
+        synchronized(this) {
+            this.event = event
+        }
+        publishedSamples += 1
+        notifyRecorder()
         listener?.onDataSensorChanged(this)
+        if (previousEvent != null) {
+            eventPool.release(previousEvent)
+        }
     }
 
     /**
@@ -67,4 +357,103 @@ abstract class ManagedDataSensor(
     }
 
     // endregion
+
+    // region Batching
+
+    /**
+     * Listener registered when batching.
+     *
+     * `SensorEventListener2` is only available since API 19, so it is not implemented by the data
+     * sensor itself, that has to load on older devices.
+     */
+    @RequiresApi(Build.VERSION_CODES.KITKAT)
+    private inner class BatchedListener : SensorEventListener2 {
+        override fun onSensorChanged(event: SensorEvent?) {
+            this@ManagedDataSensor.onSensorChanged(event)
+        }
+
+        override fun onAccuracyChanged(sensor: Sensor?, accuracy: Int) {
+            this@ManagedDataSensor.onAccuracyChanged(sensor, accuracy)
+        }
+
+        override fun onFlushCompleted(sensor: Sensor?) {
+            this@ManagedDataSensor.onFlushCompleted()
+        }
+    }
+
+    /**
+     * Number of samples delivered together.
+     *
+     * The application is not told where a batch starts, so samples are considered part of the same
+     * batch when they arrive much closer in time than they were taken. Without batching, every
+     * batch has a single sample.
+     *
+     * Only the delivery thread records samples, while any thread can read the statistics.
+     */
+    class BatchStatistics {
+        @Volatile
+        var batches: Long = 0
+            private set
+        @Volatile
+        var events: Long = 0
+            private set
+        @Volatile
+        var largestBatch: Int = 0
+            private set
+
+        private var currentBatch = 0
+        private var previousArrival: Long = 0
+        private var previousTimestamp: Long = 0
+
+        val meanBatch: Double
+            get() = if (batches > 0) events.toDouble() / batches else 0.0
+
+        /**
+         * Record a sample just delivered.
+         *
+         * @param timestamp: time, in nanoseconds, the sample was taken.
+         */
+        fun record(timestamp: Long) {
+            val arrival = SystemClock.elapsedRealtimeNanos()
+            if (currentBatch > 0 && (arrival - previousArrival) * 2 > timestamp - previousTimestamp) {
+                finish()
+            }
+            currentBatch += 1
+            events += 1
+            previousArrival = arrival
+            previousTimestamp = timestamp
+        }
+
+        /**
+         * Close the batch in progress, if any.
+         */
+        fun finish() {
+            if (currentBatch == 0) {
+                return
+            }
+            batches += 1
+            if (currentBatch > largestBatch) {
+                largestBatch = currentBatch
+            }
+            currentBatch = 0
+        }
+
+        fun reset() {
+            batches = 0
+            events = 0
+            largestBatch = 0
+            currentBatch = 0
+        }
+
+        override fun toString(): String =
+            String.format(
+                Locale.US, "events: %d, batches: %d, mean events per batch: %.1f, largest batch: %d",
+                events,
+                batches,
+                meanBatch,
+                largestBatch
+            )
+    }
+
+    // endregion
 }
@@ -0,0 +1,449 @@
+package es.csic.getsensordata.data_sensors.definition;
+
+/**
+ * Timeline of the scans of the radio technologies sharing the 2.4 GHz band: WiFi scans, Bluetooth
+ * discoveries and BLE scanning.
+ *
+ * A WiFi scan and a Bluetooth discovery sweep the band for seconds, and when they overlap, or BLE
+ * scans during them, the radio is shared and each one hears less. So WiFi scans and Bluetooth
+ * discoveries take exclusive windows of the timeline: each data sensor reserves the window of its
+ * next scan, from when it is due, and gets the earliest start that doesn't overlap the window
+ * reserved by the other, nor comes before its own share of the radio allows. When a window
+ * begins, the listener is told, so BLE scanning can pause, and when it ends, by the results or,
+ * if they never arrive, once `expire()` is called after the time reserved, BLE resumes. BLE scans
+ * the rest of the time, a duty cycle following the other scans.
+ *
+ * The share of the radio of each technology is planned from what it hears. Every 10 seconds, the
+ * yield of each one, as access points, devices or beacons heard per second it had the radio, is
+ * measured, and the shares are planned to hear the most: every technology keeps a minimum share,
+ * so it is never starved and its yield is still measured, and the rest goes to the technologies
+ * hearing more than BLE, the best first. A technology not held back by its share in the last rate
+ * window only gets what it used then, with a margin, as it can't use more, and the rest is left
+ * to the next one. Until its yield is measured, WiFi and Bluetooth take a quarter of the radio
+ * each. The length of the windows reserved is learnt from the length of the last scans of each
+ * technology.
+ *
+ * Times are values of `System.nanoTime()`. It is thread safe; the listener is called in the thread
+ * calling `reserve()`, `begin()`, `end()`, `cancel()` or `expire()`, so call them from a single
+ * one, as the main thread, while observations can be counted from any.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     RadioScanCoordinator radioScanCoordinator = new RadioScanCoordinator();
+ *     radioScanCoordinator.setListener((technology, isBegun) -> {
+ *         // Pause BLE scanning when begun, resume it when ended
+ *     });
+ *     // When a WiFi scan is due
+ *     long startNanoseconds = radioScanCoordinator.reserve(RadioScanCoordinator.WIFI, System.nanoTime());
+ *     // At startNanoseconds
+ *     radioScanCoordinator.begin(RadioScanCoordinator.WIFI, System.nanoTime());
+ *     // When the results are received
+ *     radioScanCoordinator.end(RadioScanCoordinator.WIFI, System.nanoTime());
+ *     radioScanCoordinator.onObservations(RadioScanCoordinator.WIFI, System.nanoTime(), count);
+ *     ```
+ */
+public class RadioScanCoordinator {
+    // Technologies, the first ones taking exclusive windows
+    public static final int WIFI = 0;
+    public static final int BLUETOOTH = 1;
+    public static final int BLE = 2;
+    public static final int TECHNOLOGY_COUNT = 3;
+    private static final int EXCLUSIVE_TECHNOLOGY_COUNT = 2;
+    private static final String[] NAMES = {"WiFi", "Bluetooth", "BLE"};
+
+    // Length of the first windows, before it is learnt: a WiFi scan takes a few seconds, and a
+    // Bluetooth discovery some 12 seconds
+    public static final long DEFAULT_WIFI_WINDOW_MS = 4000;
+    public static final long DEFAULT_BLUETOOTH_WINDOW_MS = 13000;
+    // Time the rates and yields are measured over, and the shares planned
+    static final long RATE_WINDOW_MS = 10000;
+    // Share of the radio of WiFi and Bluetooth until their yield is measured
+    static final double INITIAL_SHARE = 0.25;
+    // Share of the radio every technology keeps
+    static final double MINIMUM_SHARE = 0.1;
+    // Share given to a technology not held back by its own, over the one it used
+    static final double SHARE_MARGIN = 1.25;
+    // Weight of the last scan in the length of the windows reserved
+    private static final double SMOOTHING = 0.3;
+
+    /**
+     * Be told when an exclusive window begins and ends.
+     */
+    public interface Listener {
+        /**
+         * @param technology Technology of the window, `WIFI` or `BLUETOOTH`.
+         * @param isBegun    Whether it has begun or ended.
+         */
+        void onExclusiveWindow(int technology, boolean isBegun);
+    }
+
+    private final long rateWindowNanoseconds;
+    private Listener listener;
+    // Exclusive windows, per technology: reserved, maybe begun, until their end
+    private final boolean[] isReserved = new boolean[EXCLUSIVE_TECHNOLOGY_COUNT];
+    private final boolean[] isBegun = new boolean[EXCLUSIVE_TECHNOLOGY_COUNT];
+    private final long[] startTimes = new long[EXCLUSIVE_TECHNOLOGY_COUNT];
+    private final long[] endTimes = new long[EXCLUSIVE_TECHNOLOGY_COUNT];
+    private final long[] windowLengths = new long[EXCLUSIVE_TECHNOLOGY_COUNT];
+    private final long[] windowCounts = new long[EXCLUSIVE_TECHNOLOGY_COUNT];
+    // Last window of each technology, its next one is paced from
+    private final long[] previousStartTimes = new long[EXCLUSIVE_TECHNOLOGY_COUNT];
+    private final long[] previousLengths = new long[EXCLUSIVE_TECHNOLOGY_COUNT];
+    private final boolean[] hasPreviousWindow = new boolean[EXCLUSIVE_TECHNOLOGY_COUNT];
+    // Share of the radio planned for each technology, that of BLE being the rest
+    private final double[] shares = new double[EXCLUSIVE_TECHNOLOGY_COUNT];
+    // Observations of each technology in the current rate window, and rate of the last one
+    private final long[] observationCounts = new long[TECHNOLOGY_COUNT];
+    private final double[] rates = new double[TECHNOLOGY_COUNT];
+    private final long[] totalObservationCounts = new long[TECHNOLOGY_COUNT];
+    // Observations per second with the radio, of the last rate window each technology had it
+    private final double[] yields = new double[TECHNOLOGY_COUNT];
+    private final boolean[] hasYield = new boolean[TECHNOLOGY_COUNT];
+    private long rateWindowStart;
+    private boolean hasRateWindow = false;
+    // Time taken by the windows of each technology in the current rate window, whether any of them
+    // was delayed by its share, and the share of the last rate window taken by them all
+    private final long[] busyNanoseconds = new long[EXCLUSIVE_TECHNOLOGY_COUNT];
+    private final boolean[] isPaced = new boolean[EXCLUSIVE_TECHNOLOGY_COUNT];
+    private final double[] usedShares = new double[EXCLUSIVE_TECHNOLOGY_COUNT];
+    private double busyShare = 0;
+
+    // region Class Initializer
+
+    public RadioScanCoordinator() {
+        this(DEFAULT_WIFI_WINDOW_MS, DEFAULT_BLUETOOTH_WINDOW_MS, RATE_WINDOW_MS);
+    }
+
+    /**
+     * Class initializer.
+     *
+     * @param wiFiWindowMs      Length, in milliseconds, of the first WiFi windows.
+     * @param bluetoothWindowMs Length, in milliseconds, of the first Bluetooth windows.
+     * @param rateWindowMs      Time, in milliseconds, the rates are measured over.
+     */
+    public RadioScanCoordinator(long wiFiWindowMs, long bluetoothWindowMs, long rateWindowMs) {
+        if (wiFiWindowMs <= 0 || bluetoothWindowMs <= 0 || rateWindowMs <= 0) {
+            throw new IllegalArgumentException("The windows must be positive");
+        }
+        windowLengths[WIFI] = wiFiWindowMs * 1000000L;
+        windowLengths[BLUETOOTH] = bluetoothWindowMs * 1000000L;
+        rateWindowNanoseconds = rateWindowMs * 1000000L;
+        shares[WIFI] = INITIAL_SHARE;
+        shares[BLUETOOTH] = INITIAL_SHARE;
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    public synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Reserve the window of the next scan of a technology, replacing the one it had reserved.
+     *
+     * @param technology     `WIFI` or `BLUETOOTH`.
+     * @param nowNanoseconds Current time, when the scan is due.
+     *
+     * @return when the window starts, and the scan should begin: the earliest time from now when
+     * the radio is not taken by the other technology, and the technology is within its share.
+     */
+    public synchronized long reserve(int technology, long nowNanoseconds) {
+        checkExclusive(technology);
+        expire(nowNanoseconds);
+        if (isBegun[technology]) {
+            end(technology, nowNanoseconds);
+        }
+        long length = windowLengths[technology];
+        long startTime = nowNanoseconds;
+        if (hasPreviousWindow[technology]) {
+            // Not before the previous window is followed by the rest of its period at this share
+            long pacedTime = previousStartTimes[technology] + (long) (previousLengths[technology] / shares[technology]);
+            if (startTime - pacedTime < 0) {
+                startTime = pacedTime;
+                isPaced[technology] = true;
+            }
+        }
+        // Move past every window overlapping, until none does
+        boolean isMoved = true;
+        while (isMoved) {
+            isMoved = false;
+            for (int other = 0; other < EXCLUSIVE_TECHNOLOGY_COUNT; other++) {
+                if (other == technology || !isReserved[other]) {
+                    continue;
+                }
+                if (startTime - endTimes[other] < 0 && startTimes[other] - (startTime + length) < 0) {
+                    startTime = endTimes[other];
+                    isMoved = true;
+                }
+            }
+        }
+        isReserved[technology] = true;
+        startTimes[technology] = startTime;
+        endTimes[technology] = startTime + length;
+        return startTime;
+    }
+
+    /**
+     * Begin the window of a technology, as its scan starts.
+     */
+    public synchronized void begin(int technology, long nowNanoseconds) {
+        checkExclusive(technology);
+        expire(nowNanoseconds);
+        if (isBegun[technology]) {
+            return;
+        }
+        long length = windowLengths[technology];
+        isReserved[technology] = true;
+        isBegun[technology] = true;
+        startTimes[technology] = nowNanoseconds;
+        endTimes[technology] = nowNanoseconds + length;
+        if (listener != null) {
+            listener.onExclusiveWindow(technology, true);
+        }
+    }
+
+    /**
+     * End the window of a technology, as the results of its scan arrive or the scan fails, learning
+     * its length if it had begun.
+     */
+    public synchronized void end(int technology, long nowNanoseconds) {
+        checkExclusive(technology);
+        if (!isReserved[technology]) {
+            return;
+        }
+        isReserved[technology] = false;
+        if (!isBegun[technology]) {
+            return;
+        }
+        isBegun[technology] = false;
+        long length = nowNanoseconds - startTimes[technology];
+        setPreviousWindow(technology, startTimes[technology], nowNanoseconds);
+        windowCounts[technology]++;
+        windowLengths[technology] = (long) ((1 - SMOOTHING) * windowLengths[technology] + SMOOTHING * length);
+        if (listener != null) {
+            listener.onExclusiveWindow(technology, false);
+        }
+    }
+
+    /**
+     * End the window of a technology whose scan is cancelled, as when the radio is needed to
+     * connect a device, without learning its length. Nothing is done if it hasn't begun.
+     */
+    public synchronized void cancel(int technology, long nowNanoseconds) {
+        checkExclusive(technology);
+        if (!isBegun[technology]) {
+            return;
+        }
+        isReserved[technology] = false;
+        isBegun[technology] = false;
+        setPreviousWindow(technology, startTimes[technology], nowNanoseconds);
+        if (listener != null) {
+            listener.onExclusiveWindow(technology, false);
+        }
+    }
+
+    /**
+     * Whether a window, of any technology, has begun and not ended.
+     */
+    public synchronized boolean isRadioTaken() {
+        for (int technology = 0; technology < EXCLUSIVE_TECHNOLOGY_COUNT; technology++) {
+            if (isBegun[technology]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * End the windows whose time is over, without learning their length, as their scans failed.
+     * Call it at the end of every window begun, in case its results never arrive.
+     */
+    public synchronized void expire(long nowNanoseconds) {
+        for (int technology = 0; technology < EXCLUSIVE_TECHNOLOGY_COUNT; technology++) {
+            if (isReserved[technology] && nowNanoseconds - endTimes[technology] >= 0) {
+                isReserved[technology] = false;
+                if (isBegun[technology]) {
+                    isBegun[technology] = false;
+                    setPreviousWindow(technology, startTimes[technology], endTimes[technology]);
+                    if (listener != null) {
+                        listener.onExclusiveWindow(technology, false);
+                    }
+                }
+            }
+        }
+        updateRateWindow(nowNanoseconds);
+    }
+
+    /**
+     * Count observations of a technology, as access points, devices or beacons heard in a scan.
+     */
+    public synchronized void onObservations(int technology, long nowNanoseconds, int count) {
+        updateRateWindow(nowNanoseconds);
+        observationCounts[technology] += count;
+        totalObservationCounts[technology] += count;
+    }
+
+    /**
+     * Get the observations per second of a technology in the last rate window.
+     */
+    public synchronized double getRate(int technology) {
+        return rates[technology];
+    }
+
+    /**
+     * Get the observations per second a technology had the radio, in the last rate window it had
+     * it, or 0 if not measured yet.
+     */
+    public synchronized double getYield(int technology) {
+        return yields[technology];
+    }
+
+    /**
+     * Get the share of the radio planned for a technology, that of BLE being the time left by the
+     * others.
+     */
+    public synchronized double getShare(int technology) {
+        if (technology == BLE) {
+            return 1 - shares[WIFI] - shares[BLUETOOTH];
+        }
+        checkExclusive(technology);
+        return shares[technology];
+    }
+
+    public synchronized long getObservationCount(int technology) {
+        return totalObservationCounts[technology];
+    }
+
+    /**
+     * Get the number of windows of a technology that began and ended.
+     */
+    public synchronized long getWindowCount(int technology) {
+        checkExclusive(technology);
+        return windowCounts[technology];
+    }
+
+    /**
+     * Get the length, in nanoseconds, of the next window reserved for a technology.
+     */
+    public synchronized long getWindowNanoseconds(int technology) {
+        checkExclusive(technology);
+        return windowLengths[technology];
+    }
+
+    /**
+     * Get the share of the last rate window taken by exclusive windows.
+     */
+    public synchronized double getBusyShare() {
+        return busyShare;
+    }
+
+    /**
+     * Append the rates and planned shares of every technology and the share of time taken, as
+     * "WiFi 2.1/s 10%, Bluetooth 0.0/s 10%, BLE 12.3/s 80%, 8% taken".
+     */
+    public synchronized StringBuilder appendRates(StringBuilder stringBuilder) {
+        for (int technology = 0; technology < TECHNOLOGY_COUNT; technology++) {
+            stringBuilder.append(NAMES[technology]).append(' ').append(Math.round(rates[technology] * 10) / 10.0).append("/s ")
+                    .append(Math.round(getShare(technology) * 100)).append("%, ");
+        }
+        return stringBuilder.append(Math.round(busyShare * 100)).append("% taken");
+    }
+
+    // endregion
+
+    // region Tools
+
+    private static void checkExclusive(int technology) {
+        if (technology < 0 || technology >= EXCLUSIVE_TECHNOLOGY_COUNT) {
+            throw new IllegalArgumentException("Only WiFi and Bluetooth take windows: " + technology);
+        }
+    }
+
+    private void setPreviousWindow(int technology, long startNanoseconds, long endNanoseconds) {
+        previousStartTimes[technology] = startNanoseconds;
+        previousLengths[technology] = endNanoseconds - startNanoseconds;
+        hasPreviousWindow[technology] = true;
+        // Only the part in the current rate window is busy in it, the rest was in the previous one
+        busyNanoseconds[technology] += endNanoseconds - (hasRateWindow && startNanoseconds - rateWindowStart < 0 ? rateWindowStart : startNanoseconds);
+    }
+
+    private void updateRateWindow(long nowNanoseconds) {
+        if (!hasRateWindow) {
+            rateWindowStart = nowNanoseconds;
+            hasRateWindow = true;
+            return;
+        }
+        long elapsed = nowNanoseconds - rateWindowStart;
+        if (elapsed < rateWindowNanoseconds) {
+            return;
+        }
+        double seconds = elapsed * 1e-9;
+        for (int technology = 0; technology < TECHNOLOGY_COUNT; technology++) {
+            rates[technology] = observationCounts[technology] / seconds;
+        }
+        // Windows not ended are busy until now, and the rest of them in the next rate window
+        long totalBusyNanoseconds = 0;
+        for (int technology = 0; technology < EXCLUSIVE_TECHNOLOGY_COUNT; technology++) {
+            if (isBegun[technology]) {
+                busyNanoseconds[technology] += nowNanoseconds - (startTimes[technology] - rateWindowStart < 0 ? rateWindowStart : startTimes[technology]);
+            }
+            usedShares[technology] = (double) busyNanoseconds[technology] / elapsed;
+            setYield(technology, busyNanoseconds[technology]);
+            totalBusyNanoseconds += busyNanoseconds[technology];
+        }
+        setYield(BLE, elapsed - totalBusyNanoseconds);
+        busyShare = Math.min(1, (double) totalBusyNanoseconds / elapsed);
+        plan();
+        for (int technology = 0; technology < TECHNOLOGY_COUNT; technology++) {
+            observationCounts[technology] = 0;
+        }
+        for (int technology = 0; technology < EXCLUSIVE_TECHNOLOGY_COUNT; technology++) {
+            busyNanoseconds[technology] = 0;
+            isPaced[technology] = false;
+        }
+        rateWindowStart = nowNanoseconds;
+    }
+
+    /**
+     * Measure the yield of a technology from the time it had the radio in the rate window, if any.
+     */
+    private void setYield(int technology, long radioNanoseconds) {
+        if (radioNanoseconds > 0) {
+            yields[technology] = observationCounts[technology] / (radioNanoseconds * 1e-9);
+            hasYield[technology] = true;
+        }
+    }
+
+    /**
+     * Plan the shares of WiFi and Bluetooth, to hear the most over the next rate window.
+     */
+    private void plan() {
+        double freeShare = 1 - TECHNOLOGY_COUNT * MINIMUM_SHARE;
+        for (int technology = 0; technology < EXCLUSIVE_TECHNOLOGY_COUNT; technology++) {
+            shares[technology] = MINIMUM_SHARE;
+            // Not measured yet: keep the initial share until it is
+            if (!hasYield[technology]) {
+                shares[technology] = INITIAL_SHARE;
+                freeShare -= INITIAL_SHARE - MINIMUM_SHARE;
+            }
+        }
+        int best = yields[WIFI] >= yields[BLUETOOTH] ? WIFI : BLUETOOTH;
+        for (int rank = 0; rank < EXCLUSIVE_TECHNOLOGY_COUNT; rank++) {
+            int technology = rank == 0 ? best : 1 - best;
+            if (!hasYield[technology] || yields[technology] <= yields[BLE]) {
+                continue;
+            }
+            double share = freeShare;
+            if (!isPaced[technology]) {
+                share = Math.min(freeShare, Math.max(0, usedShares[technology] * SHARE_MARGIN - MINIMUM_SHARE));
+            }
+            shares[technology] += share;
+            freeShare -= share;
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,238 @@
+package es.csic.getsensordata.data_sensors.definition;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Deliver the records produced by the reading thread of an external data sensor to its recorder,
+ * in a recording thread of its own, and to its listener, in the main thread.
+ *
+ * The reading thread fills records of a `RecordRing` and publishes them, which only schedules a
+ * drain of the ring when none is pending, instead of sending a message per record. When drained,
+ * in the recording thread, every record is handed, in order, to the data sensor, which takes it as
+ * its current status, and then to the recorder, so nothing is lost in the log, however busy the
+ * main thread is. The listener, which refreshes the screen, is notified of the last record in the
+ * main thread, at most once per minimum notification interval, no matter how fast records arrive.
+ *
+ * As the status of the data sensor changes in the recording thread, each record is taken while
+ * synchronized on the data sensor, so the screen can read a whole status by synchronizing on it
+ * too.
+ *
+ * Several data sensors fed by the same reading thread, as the RFID readers, can share a single
+ * dispatcher, routing each record to the data sensor it belongs to, so their records reach the
+ * recorder in the order they were produced.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     // Main thread
+ *     RecordDispatcher<Reading> recordDispatcher = new RecordDispatcher<>(this, records, reading -> {
+ *         // Take the reading as the current status
+ *     });
+ *
+ *     // Reading thread
+ *     Reading reading = recordDispatcher.claim();
+ *     if (reading != null) {
+ *         reading.value = value;
+ *         recordDispatcher.publish();
+ *     }
+ *     ```
+ *
+ * @param <T> Type of the records.
+ */
+public class RecordDispatcher<T> {
+    private static final String TAG = "RecordDispatcher";
+
+    // At most 10 notifications per second, enough to follow the values on the screen
+    public static final long MINIMUM_NOTIFICATION_INTERVAL_MS = 100;
+
+    /**
+     * Take a record as the current status of the data sensor. Called in the recording thread, once
+     * per record, while synchronized on the data sensor, right before notifying the recorder. The
+     * record is reused afterwards, so its values must be copied.
+     */
+    public interface RecordConsumer<T> {
+        void onRecord(T record);
+    }
+
+    /**
+     * Take a record as the current status of the data sensor it belongs to. Called in the
+     * recording thread, once per record, right before notifying the recorder of that data sensor.
+     * The record is reused afterwards, so its values must be copied, synchronized as the screen
+     * reads them.
+     */
+    public interface RecordRouter<T> {
+        /**
+         * @return the data sensor that took the record, or null to skip it.
+         */
+        DataSensor onRecord(T record);
+    }
+
+    private final RecordRing<T> recordRing;
+    private final RecordRouter<T> recordRouter;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Thread the records are drained in, started by the first record published after stopping
+    private HandlerThread recordingThread;
+    private Handler recordingHandler;
+    private final AtomicBoolean isDrainScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean isNotificationScheduled = new AtomicBoolean(false);
+    private final Runnable drain = this::drain;
+    private final Runnable notifyListener = this::notifyListener;
+    private final long minimumNotificationIntervalNanoseconds = TimeUnit.MILLISECONDS.toNanos(MINIMUM_NOTIFICATION_INTERVAL_MS);
+    private volatile long previousNotificationNanoseconds = 0;
+    // Data sensor of the last record drained, the one the listener is notified of
+    private volatile DataSensor dataSensor;
+    // Only accessed by the recording thread
+    private long dispatchedRecords = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param dataSensor     Data sensor producing the records.
+     * @param records        Records of the ring, already allocated. Its length must be a power of
+     *                       two, large enough to hold the records produced while the recording
+     *                       thread is busy.
+     * @param recordConsumer Where each record is taken as the current status of the data sensor.
+     */
+    public RecordDispatcher(DataSensor dataSensor, T[] records, RecordConsumer<T> recordConsumer) {
+        this(records, record -> {
+            synchronized (dataSensor) {
+                recordConsumer.onRecord(record);
+            }
+            return dataSensor;
+        });
+        this.dataSensor = dataSensor;
+    }
+
+    /**
+     * Class initializer, for records of several data sensors.
+     *
+     * @param records      Records of the ring, already allocated. Its length must be a power of
+     *                     two, large enough to hold the records produced while the recording
+     *                     thread is busy.
+     * @param recordRouter Where each record is taken as the current status of its data sensor.
+     */
+    public RecordDispatcher(T[] records, RecordRouter<T> recordRouter) {
+        this.recordRing = new RecordRing<>(records);
+        this.recordRouter = recordRouter;
+    }
+
+    // endregion
+
+    // region Reading Thread
+
+    /**
+     * Get the next free record to fill. Only call it from the reading thread.
+     *
+     * @return the record, or null if the ring is full and the record must be dropped.
+     */
+    public T claim() {
+        return recordRing.claim();
+    }
+
+    /**
+     * Deliver the record claimed. Only call it from the reading thread.
+     */
+    public void publish() {
+        recordRing.publish();
+        if (isDrainScheduled.compareAndSet(false, true)) {
+            getRecordingHandler().post(drain);
+        }
+    }
+
+    private synchronized Handler getRecordingHandler() {
+        if (recordingThread == null) {
+            recordingThread = new HandlerThread("Recording thread");
+            recordingThread.start();
+            recordingHandler = new Handler(recordingThread.getLooper());
+        }
+        return recordingHandler;
+    }
+
+    // endregion
+
+    // region Main Thread
+
+    /**
+     * Stop delivering records, once those published are recorded. Call it after the reading thread
+     * stopped publishing.
+     */
+    public void stop() {
+        HandlerThread recordingThread;
+        synchronized (this) {
+            recordingThread = this.recordingThread;
+            this.recordingThread = null;
+            recordingHandler = null;
+        }
+        if (recordingThread != null) {
+            // The drain pending, if any, is run before quitting
+            recordingThread.quitSafely();
+            try {
+                recordingThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        Log.i(TAG, "stop(): records dispatched: " + dispatchedRecords +
+                ", dropped: " + recordRing.getDroppedRecords());
+
+        mainHandler.removeCallbacks(notifyListener);
+        isNotificationScheduled.set(false);
+        recordRing.clear();
+        isDrainScheduled.set(false);
+    }
+
+    public long getDroppedRecords() {
+        return recordRing.getDroppedRecords();
+    }
+
+    private void notifyListener() {
+        isNotificationScheduled.set(false);
+        previousNotificationNanoseconds = SystemClock.elapsedRealtimeNanos();
+        DataSensor dataSensor = this.dataSensor;
+        if (dataSensor == null) {
+            return;
+        }
+        DataSensor.DataSensorEventListener listener = dataSensor.getListener();
+        if (listener != null) {
+            listener.onDataSensorChanged(dataSensor);
+        }
+    }
+
+    // endregion
+
+    // region Recording Thread
+
+    private void drain() {
+        // Records published from now on schedule another drain
+        isDrainScheduled.set(false);
+        boolean isDrained = false;
+        T record;
+        while ((record = recordRing.peek()) != null) {
+            DataSensor recordDataSensor = recordRouter.onRecord(record);
+            recordRing.release();
+            if (recordDataSensor == null) {
+                continue;
+            }
+            recordDataSensor.notifyRecorder();
+            dataSensor = recordDataSensor;
+            dispatchedRecords++;
+            isDrained = true;
+        }
+        if (isDrained && isNotificationScheduled.compareAndSet(false, true)) {
+            // The status shown catches up with the last record once the interval expires
+            long remainingNanoseconds = previousNotificationNanoseconds + minimumNotificationIntervalNanoseconds - SystemClock.elapsedRealtimeNanos();
+            mainHandler.postDelayed(notifyListener, remainingNanoseconds <= 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(remainingNanoseconds) + 1);
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,155 @@
+package es.csic.getsensordata.data_sensors.definition;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free ring of records between a single producer thread and a single consumer thread.
+ *
+ * Records are objects of primitive fields, allocated once when the ring is created and reused
+ * from then on. The producer claims the next free record, fills it and publishes it; the consumer
+ * peeks the oldest published record, reads it and releases it. Neither side ever blocks nor
+ * allocates: if the ring is full, the record is dropped and counted, instead of waiting for the
+ * consumer.
+ *
+ * Each side only writes its own index, and publishes it with an ordered write, so the fields of a
+ * record written before publishing it are seen by the consumer, and those read before releasing it
+ * are not overwritten by the producer.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     // Producer thread
+ *     Reading reading = ring.claim();
+ *     if (reading != null) {
+ *         reading.value = value;
+ *         ring.publish();
+ *     }
+ *
+ *     // Consumer thread
+ *     Reading reading;
+ *     while ((reading = ring.peek()) != null) {
+ *         // Use the reading, before releasing it
+ *         ring.release();
+ *     }
+ *     ```
+ *
+ * @param <T> Type of the records.
+ */
+public class RecordRing<T> {
+    private final T[] records;
+    private final int mask;
+
+    // Index of the next record to publish, only written by the producer
+    private final AtomicLong tail = new AtomicLong();
+    // Index of the next record to release, only written by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // Last value of the other side's index seen by each side, to read the atomic one only when
+    // the ring looks full (producer) or empty (consumer)
+    private long cachedHead = 0;
+    private long cachedTail = 0;
+
+    private final AtomicLong droppedRecords = new AtomicLong();
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param records Records of the ring, already allocated. Its length is the capacity of the
+     *                ring, and must be a power of two.
+     */
+    public RecordRing(T[] records) {
+        if (records.length == 0 || Integer.bitCount(records.length) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + records.length);
+        }
+        this.records = records;
+        this.mask = records.length - 1;
+    }
+
+    // endregion
+
+    // region Producer
+
+    /**
+     * Get the next free record to fill. Only call it from the producer thread.
+     *
+     * @return the record, or null if the ring is full, in which case the record is counted as
+     * dropped.
+     */
+    public T claim() {
+        long index = tail.get();
+        if (index - cachedHead >= records.length) {
+            cachedHead = head.get();
+            if (index - cachedHead >= records.length) {
+                droppedRecords.incrementAndGet();
+                return null;
+            }
+        }
+        return records[(int) index & mask];
+    }
+
+    /**
+     * Make the record claimed visible to the consumer. Only call it from the producer thread.
+     */
+    public void publish() {
+        tail.lazySet(tail.get() + 1);
+    }
+
+    // endregion
+
+    // region Consumer
+
+    /**
+     * Get the oldest record published, without releasing it. Only call it from the consumer
+     * thread.
+     *
+     * @return the record, or null if the ring is empty.
+     */
+    public T peek() {
+        long index = head.get();
+        if (index - cachedTail >= 0) {
+            cachedTail = tail.get();
+            if (index - cachedTail >= 0) {
+                return null;
+            }
+        }
+        return records[(int) index & mask];
+    }
+
+    /**
+     * Give the record peeked back to the producer. Only call it from the consumer thread.
+     */
+    public void release() {
+        head.lazySet(head.get() + 1);
+    }
+
+    /**
+     * Discard every record published, but not released yet. Only call it from the consumer
+     * thread. The producer can keep publishing meanwhile: its records are peeked afterwards.
+     */
+    public void clear() {
+        // The consumer's view of the tail moves along with the head, or it would be left behind
+        // and records not published yet would be peeked
+        long index = tail.get();
+        cachedTail = index;
+        head.lazySet(index);
+    }
+
+    // endregion
+
+    public int getCapacity() {
+        return records.length;
+    }
+
+    /**
+     * Get the number of records published and not released yet. Can be called from any thread.
+     */
+    public int size() {
+        long index = head.get();
+        return (int) (tail.get() - index);
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+}
@@ -0,0 +1,24 @@
+package es.csic.getsensordata.data_sensors.definition
+
+import es.csic.getsensordata.logging.LogRecord
+import es.csic.getsensordata.logging.LogSchema
+
+/**
+ * Data sensor able to store its status in a binary session, as records following a schema.
+ *
+ * Only implemented by the data sensors having such a schema. The rest are stored as text, using
+ * `getStatusForLog()`, even in binary sessions.
+ */
+interface SchemaLoggedDataSensor : LogRecord.Source {
+    /**
+     * Schema of the records the sensor stores in a binary session.
+     */
+    val logSchema: LogSchema
+
+    /**
+     * Fill a record of a binary session with the current status of the sensor, following
+     * `logSchema`. Binary counterpart of `getStatusForLog()`: the values stored must be those
+     * formatted there.
+     */
+    override fun writeLogRecord(record: LogRecord)
+}
@@ -0,0 +1,168 @@
+package es.csic.getsensordata.data_sensors.definition
+
+import android.os.Handler
+import android.os.HandlerThread
+import android.os.Process
+import android.os.SystemClock
+import android.util.Log
+import java.util.*
+
+/**
+ * Decide in which thread each managed data sensor receives its samples.
+ *
+ * Without a scheduler, `SensorManager` delivers every sample in the main thread, together with the
+ * work done by the UI. With it, each managed data sensor, or group of them, receives its samples
+ * in a `HandlerThread` of its own, with the priority given, so high rate capture is not delayed
+ * by the UI.
+ *
+ * Each thread measures the latency of the samples it receives, that is, the time passed since the
+ * sensor took the sample until it was delivered.
+ *
+ * Assign the data sensors before they start reading, as the thread is chosen when the listener is
+ * registered. As their listeners are then called in those threads, whoever updates the UI from
+ * them has to move to the main thread first.
+ *
+ * # Example of use
+ *
+ *     ```kotlin
+ *     val scheduler = SensorDeliveryScheduler(Process.THREAD_PRIORITY_URGENT_DISPLAY)
+ *     scheduler.assign(accelerometerDataSensor, "Inertial")
+ *     scheduler.assign(gyroscopeDataSensor, "Inertial")
+ *     scheduler.assign(pressureDataSensor)
+ *     ...
+ *     scheduler.quit()
+ *     ```
+ *
+ * @param threadPriority: priority of the threads created, as used by `android.os.Process`.
+ */
+class SensorDeliveryScheduler(
+    private val threadPriority: Int = Process.THREAD_PRIORITY_URGENT_DISPLAY
+) {
+
+    // region Delivery Thread
+
+    /**
+     * Thread where one or more managed data sensors receive their samples.
+     *
+     * @param name: name of the group of data sensors using the thread.
+     * @param priority: priority of the thread, as used by `android.os.Process`.
+     */
+    class DeliveryThread(val name: String, priority: Int) {
+        private val handlerThread = HandlerThread("Sensor thread - $name", priority)
+        val handler: Handler
+        val latency = DeliveryLatency()
+
+        init {
+            handlerThread.start()
+            handler = Handler(handlerThread.looper)
+        }
+
+        fun quit() {
+            handlerThread.quitSafely()
+        }
+    }
+
+    /**
+     * Latency of the samples delivered in a thread, in nanoseconds.
+     *
+     * Only the delivery thread records latencies, while any thread can read them.
+     */
+    class DeliveryLatency {
+        @Volatile
+        var count: Long = 0
+            private set
+        @Volatile
+        var total: Long = 0
+            private set
+        @Volatile
+        var maximum: Long = 0
+            private set
+
+        val mean: Long
+            get() = if (count > 0) total / count else 0
+
+        /**
+         * Record the latency of a sample just delivered.
+         *
+         * Sensors whose timestamps are not based on `SystemClock.elapsedRealtimeNanos()` are
+         * ignored, as their latency can't be known.
+         *
+         * @param timestamp: time, in nanoseconds, the sample just delivered was taken.
+         */
+        fun record(timestamp: Long) {
+            val latency = SystemClock.elapsedRealtimeNanos() - timestamp
+            if (latency < 0 || latency > maximumLatency) {
+                return
+            }
+            count += 1
+            total += latency
+            if (latency > maximum) {
+                maximum = latency
+            }
+        }
+
+        override fun toString(): String =
+            String.format(
+                Locale.US, "samples: %d, mean: %.3f ms, maximum: %.3f ms",
+                count,
+                mean * 1e-6,
+                maximum * 1e-6
+            )
+
+        companion object {
+            private const val maximumLatency = 10_000_000_000L // 10 s
+        }
+    }
+
+    // endregion
+
+    private val deliveryThreads = LinkedHashMap<String, DeliveryThread>()
+
+    /**
+     * Make the managed data sensor receive its samples in the thread of a group, creating the
+     * thread if it is the first data sensor of the group.
+     *
+     * @param dataSensor: managed data sensor to assign. Takes effect next time it starts reading.
+     * @param group: name of the group of data sensors sharing the thread. By default, each data
+     * sensor has its own thread.
+     */
+    @Synchronized
+    fun assign(dataSensor: ManagedDataSensor, group: String = dataSensor.getPrefix()) {
+        Log.d(Tag, "assign(dataSensor=${dataSensor.getPrefix()}, group=$group)")
+
+        dataSensor.deliveryThread = deliveryThreads.getOrPut(group) {
+            DeliveryThread(group, threadPriority)
+        }
+    }
+
+    /**
+     * Get the latency of the samples delivered in each thread, one line per thread.
+     */
+    @Synchronized
+    fun getLatencyReport(): String =
+        deliveryThreads.values.joinToString("\n") { deliveryThread ->
+            "${deliveryThread.name}: ${deliveryThread.latency}"
+        }
+
+    /**
+     * Stop every thread, once the samples already delivered are processed.
+     *
+     * Call it after every data sensor assigned stopped reading.
+     */
+    @Synchronized
+    fun quit() {
+        Log.d(Tag, "quit()")
+
+        if (deliveryThreads.isNotEmpty()) {
+            Log.i(Tag, "Latency per thread:\n${getLatencyReport()}")
+        }
+        for (deliveryThread in deliveryThreads.values) {
+            deliveryThread.quit()
+        }
+        deliveryThreads.clear()
+    }
+
+    companion object {
+        private val Tag = SensorDeliveryScheduler::class.java.simpleName
+    }
+}
@@ -0,0 +1,145 @@
+package es.csic.getsensordata.data_sensors.sound;
+
+/**
+ * Fast Fourier transform of real signals, of a fixed power of two size.
+ *
+ * The N real samples are packed as N/2 complex ones (even samples as real parts, odd ones as
+ * imaginary parts), transformed with an iterative radix-2 FFT of size N/2, and split into the
+ * N/2 + 1 bins of the spectrum of the real signal. Twiddles and the bit reversal permutation are
+ * computed once, when created, so a transform neither allocates nor calls any trigonometric
+ * function.
+ *
+ * Not thread safe: it keeps the work buffers of the transform.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     RealFft realFft = new RealFft(4096);
+ *     double[] real = new double[realFft.getBinCount()];
+ *     double[] imaginary = new double[realFft.getBinCount()];
+ *     realFft.transform(samples, real, imaginary);
+ *     ```
+ */
+public class RealFft {
+    private final int size;
+    // Size of the complex transform
+    private final int halfSize;
+    private final int[] bitReversed;
+    // exp(-2 pi i k / halfSize), for k < halfSize / 2
+    private final double[] twiddleReal;
+    private final double[] twiddleImaginary;
+    // exp(-2 pi i k / size), for k <= halfSize, to split the spectrum
+    private final double[] splitReal;
+    private final double[] splitImaginary;
+    private final double[] workReal;
+    private final double[] workImaginary;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param size Number of samples transformed, a power of two, 4 or more.
+     */
+    public RealFft(int size) {
+        if (size < 4 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Size must be a power of two, 4 or more: " + size);
+        }
+        this.size = size;
+        this.halfSize = size / 2;
+        int bits = Integer.numberOfTrailingZeros(halfSize);
+        bitReversed = new int[halfSize];
+        for (int index = 0; index < halfSize; index++) {
+            bitReversed[index] = Integer.reverse(index) >>> (32 - bits);
+        }
+        twiddleReal = new double[halfSize / 2];
+        twiddleImaginary = new double[halfSize / 2];
+        for (int index = 0; index < halfSize / 2; index++) {
+            double angle = 2 * Math.PI * index / halfSize;
+            twiddleReal[index] = Math.cos(angle);
+            twiddleImaginary[index] = -Math.sin(angle);
+        }
+        splitReal = new double[halfSize + 1];
+        splitImaginary = new double[halfSize + 1];
+        for (int index = 0; index <= halfSize; index++) {
+            double angle = 2 * Math.PI * index / size;
+            splitReal[index] = Math.cos(angle);
+            splitImaginary[index] = -Math.sin(angle);
+        }
+        workReal = new double[halfSize];
+        workImaginary = new double[halfSize];
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Get the number of bins of the spectrum, from 0 Hz to half the sample rate, both included.
+     */
+    public int getBinCount() {
+        return halfSize + 1;
+    }
+
+    /**
+     * Transform `size` samples into the bins of their spectrum.
+     *
+     * @param samples   Samples, already windowed.
+     * @param real      Where the real parts of the bins are written, `getBinCount()` long.
+     * @param imaginary Where the imaginary parts of the bins are written, `getBinCount()` long.
+     */
+    public void transform(double[] samples, double[] real, double[] imaginary) {
+        for (int index = 0; index < halfSize; index++) {
+            int target = bitReversed[index];
+            workReal[target] = samples[2 * index];
+            workImaginary[target] = samples[2 * index + 1];
+        }
+        transformComplex(workReal, workImaginary);
+
+        // X(k) = E(k) + W(k) O(k), with E and O the spectra of the even and odd samples
+        for (int index = 0; index <= halfSize; index++) {
+            int direct = index == halfSize ? 0 : index;
+            int mirrored = index == 0 ? 0 : halfSize - index;
+            double zReal = workReal[direct];
+            double zImaginary = workImaginary[direct];
+            double conjugateReal = workReal[mirrored];
+            double conjugateImaginary = -workImaginary[mirrored];
+            double evenReal = 0.5 * (zReal + conjugateReal);
+            double evenImaginary = 0.5 * (zImaginary + conjugateImaginary);
+            double oddReal = 0.5 * (zImaginary - conjugateImaginary);
+            double oddImaginary = -0.5 * (zReal - conjugateReal);
+            real[index] = evenReal + splitReal[index] * oddReal - splitImaginary[index] * oddImaginary;
+            imaginary[index] = evenImaginary + splitReal[index] * oddImaginary + splitImaginary[index] * oddReal;
+        }
+    }
+
+    // endregion
+
+    /**
+     * In place radix-2 decimation in time transform, of data already in bit reversed order.
+     */
+    private void transformComplex(double[] real, double[] imaginary) {
+        for (int length = 2; length <= halfSize; length <<= 1) {
+            int half = length >> 1;
+            int step = halfSize / length;
+            for (int start = 0; start < halfSize; start += length) {
+                for (int index = 0; index < half; index++) {
+                    double wReal = twiddleReal[index * step];
+                    double wImaginary = twiddleImaginary[index * step];
+                    int top = start + index;
+                    int bottom = top + half;
+                    double productReal = wReal * real[bottom] - wImaginary * imaginary[bottom];
+                    double productImaginary = wReal * imaginary[bottom] + wImaginary * real[bottom];
+                    real[bottom] = real[top] - productReal;
+                    imaginary[bottom] = imaginary[top] - productImaginary;
+                    real[top] += productReal;
+                    imaginary[top] += productImaginary;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package es.csic.getsensordata.data_sensors.sound;
+
+/**
+ * Sound levels of the frames captured from the microphone: the 1/1 and 1/3 octave band levels,
+ * the A and C weighted levels, and their running Leq and Lmax.
+ *
+ * Each frame is windowed with a Hann window and transformed with a `RealFft`. The power of every
+ * bin, normalized by the power of the window, is a share of the mean square of the frame, so
+ * band levels are sums of bins: each bin covers the frequencies up to half a bin around its own,
+ * and adds to every band the fraction of it overlapping the band. The nominal bands are the base
+ * 10 ones of IEC 61260, from 31.5 Hz (1/1) and 25 Hz (1/3), up to the last one below half the
+ * sample rate, which is cut there. A and C weightings follow the formulas of IEC 61672, applied
+ * as a gain per bin. The window spreads a tone over a few bins, so bands and weightings are only
+ * approximate below some 10 bins (about 100 Hz with 4096 samples at 44.1 kHz), where bands are
+ * that narrow and weightings that steep: use larger frames for low frequencies.
+ *
+ * Levels use the same calibration as the SOUN records: a full scale signal is 1 Pa, against the
+ * 20 uPa of the human hearing threshold, and levels below -100 dB are floored there. Leq is the
+ * level of the mean energy of the frames of the last window, and Lmax the level of its loudest
+ * frame, so with the default frames, about 0.1 s long, Lmax is close to a fast time weighted one.
+ *
+ * Nothing is allocated per frame: bands, weightings and windows are computed once, when created.
+ * Not thread safe: use it from the thread analysing the frames.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     SoundLevelAnalyzer soundLevelAnalyzer = new SoundLevelAnalyzer(44100, 4096, 60);
+ *     SoundLevelAnalyzer.Levels levels = new SoundLevelAnalyzer.Levels();
+ *     if (soundLevelAnalyzer.analyze(frame.floatSamples, frame.length, levels)) {
+ *         // Use levels.la, levels.laeq, levels.octaveBandLevels...
+ *     }
+ *     ```
+ */
+public class SoundLevelAnalyzer {
+    // Nominal center frequencies of the bands, in Hz
+    static final double[] OCTAVE_BAND_FREQUENCIES = {
+            31.5, 63, 125, 250, 500, 1000, 2000, 4000, 8000, 16000
+    };
+    static final double[] THIRD_OCTAVE_BAND_FREQUENCIES = {
+            25, 31.5, 40, 50, 63, 80, 100, 125, 160, 200, 250, 315, 400, 500, 630, 800, 1000,
+            1250, 1600, 2000, 2500, 3150, 4000, 5000, 6300, 8000, 10000, 12500, 16000, 20000
+    };
+    // Exact center frequency of the first bands, as 1 kHz * 10^(exponent / 10)
+    private static final int FIRST_OCTAVE_BAND = -15;
+    private static final int FIRST_THIRD_OCTAVE_BAND = -16;
+    public static final int MAXIMUM_OCTAVE_BANDS = OCTAVE_BAND_FREQUENCIES.length;
+    public static final int MAXIMUM_THIRD_OCTAVE_BANDS = THIRD_OCTAVE_BAND_FREQUENCIES.length;
+
+    // Human hearing threshold, in Pa
+    private static final double REFERENCE_PRESSURE = 2e-5;
+    // Lowest level given, in dB
+    public static final double MINIMUM_LEVEL = -100;
+    private static final double MINIMUM_ENERGY = REFERENCE_PRESSURE * REFERENCE_PRESSURE * Math.pow(10, MINIMUM_LEVEL / 10);
+    // Float samples are scaled by 1 / 32768, while the SOUN records are by 1 / 32767
+    private static final double FULL_SCALE_CORRECTION = (32768.0 / 32767.0) * (32768.0 / 32767.0);
+
+    /**
+     * Levels of a frame, in dB. Reuse it from one frame to the next.
+     */
+    public static class Levels {
+        // Levels of the frame, without weighting (Z), and A and C weighted
+        public double lz;
+        public double la;
+        public double lc;
+        // Levels of the window ending with the frame
+        public double laeq;
+        public double lamax;
+        public double lceq;
+        public double lcmax;
+        public int octaveBandCount;
+        public final double[] octaveBandLevels = new double[MAXIMUM_OCTAVE_BANDS];
+        public int thirdOctaveBandCount;
+        public final double[] thirdOctaveBandLevels = new double[MAXIMUM_THIRD_OCTAVE_BANDS];
+
+        public void copyFrom(Levels levels) {
+            lz = levels.lz;
+            la = levels.la;
+            lc = levels.lc;
+            laeq = levels.laeq;
+            lamax = levels.lamax;
+            lceq = levels.lceq;
+            lcmax = levels.lcmax;
+            octaveBandCount = levels.octaveBandCount;
+            System.arraycopy(levels.octaveBandLevels, 0, octaveBandLevels, 0, octaveBandCount);
+            thirdOctaveBandCount = levels.thirdOctaveBandCount;
+            System.arraycopy(levels.thirdOctaveBandLevels, 0, thirdOctaveBandLevels, 0, thirdOctaveBandCount);
+        }
+    }
+
+    /**
+     * Bins adding to a band, and the fraction of each one overlapping it.
+     */
+    private static class Band {
+        final int firstBin;
+        final double[] weights;
+
+        Band(int firstBin, double[] weights) {
+            this.firstBin = firstBin;
+            this.weights = weights;
+        }
+    }
+
+    private final int sampleRate;
+    private final RealFft realFft;
+    private final int binCount;
+    private final double[] window;
+    // Share of the mean square of the frame per squared magnitude of each bin
+    private final double[] binScales;
+    private final double[] aWeights;
+    private final double[] cWeights;
+    private final Band[] octaveBands;
+    private final Band[] thirdOctaveBands;
+    private final SlidingWindow aWindow;
+    private final SlidingWindow cWindow;
+
+    private final double[] windowed;
+    private final double[] real;
+    private final double[] imaginary;
+    private final double[] power;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param sampleRate        Samples per second of the frames.
+     * @param frameSize         Samples per frame, a power of two.
+     * @param leqWindowSeconds  Length of the window of the Leq and Lmax, in seconds.
+     */
+    public SoundLevelAnalyzer(int sampleRate, int frameSize, double leqWindowSeconds) {
+        this.sampleRate = sampleRate;
+        realFft = new RealFft(frameSize);
+        binCount = realFft.getBinCount();
+
+        window = new double[frameSize];
+        double windowPower = 0;
+        for (int index = 0; index < frameSize; index++) {
+            // Periodic Hann window, as used for spectral analysis
+            window[index] = 0.5 * (1 - Math.cos(2 * Math.PI * index / frameSize));
+            windowPower += window[index] * window[index];
+        }
+        binScales = new double[binCount];
+        for (int bin = 0; bin < binCount; bin++) {
+            // Bins between 0 Hz and half the sample rate stand for their negative frequency too
+            double sides = bin == 0 || bin == binCount - 1 ? 1 : 2;
+            binScales[bin] = FULL_SCALE_CORRECTION * sides / (frameSize * windowPower);
+        }
+
+        double binWidth = (double) sampleRate / frameSize;
+        aWeights = new double[binCount];
+        cWeights = new double[binCount];
+        for (int bin = 0; bin < binCount; bin++) {
+            aWeights[bin] = Math.pow(10, getAWeighting(bin * binWidth) / 10);
+            cWeights[bin] = Math.pow(10, getCWeighting(bin * binWidth) / 10);
+        }
+        octaveBands = getBands(OCTAVE_BAND_FREQUENCIES, FIRST_OCTAVE_BAND, 3, binWidth);
+        thirdOctaveBands = getBands(THIRD_OCTAVE_BAND_FREQUENCIES, FIRST_THIRD_OCTAVE_BAND, 1, binWidth);
+
+        int windowFrames = (int) Math.max(1, Math.round(leqWindowSeconds * sampleRate / frameSize));
+        aWindow = new SlidingWindow(windowFrames);
+        cWindow = new SlidingWindow(windowFrames);
+
+        windowed = new double[frameSize];
+        real = new double[binCount];
+        imaginary = new double[binCount];
+        power = new double[binCount];
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Get the levels of a frame, and of the window ending with it.
+     *
+     * @param samples Samples of the frame, in [-1, 1).
+     * @param length  Number of samples. Frames shorter than the frame size, as the last one
+     *                captured, are not analysed.
+     * @param levels  Where the levels are written.
+     *
+     * @return true if the frame was analysed.
+     */
+    public boolean analyze(float[] samples, int length, Levels levels) {
+        if (length != realFft.getSize()) {
+            return false;
+        }
+        for (int index = 0; index < length; index++) {
+            windowed[index] = samples[index] * window[index];
+        }
+        realFft.transform(windowed, real, imaginary);
+
+        double zEnergy = 0;
+        double aEnergy = 0;
+        double cEnergy = 0;
+        for (int bin = 0; bin < binCount; bin++) {
+            double binPower = (real[bin] * real[bin] + imaginary[bin] * imaginary[bin]) * binScales[bin];
+            power[bin] = binPower;
+            zEnergy += binPower;
+            aEnergy += binPower * aWeights[bin];
+            cEnergy += binPower * cWeights[bin];
+        }
+        aWindow.add(aEnergy);
+        cWindow.add(cEnergy);
+
+        levels.lz = getLevel(zEnergy);
+        levels.la = getLevel(aEnergy);
+        levels.lc = getLevel(cEnergy);
+        levels.laeq = getLevel(aWindow.getMean());
+        levels.lamax = getLevel(aWindow.getMaximum());
+        levels.lceq = getLevel(cWindow.getMean());
+        levels.lcmax = getLevel(cWindow.getMaximum());
+        levels.octaveBandCount = octaveBands.length;
+        for (int index = 0; index < octaveBands.length; index++) {
+            levels.octaveBandLevels[index] = getLevel(getBandEnergy(octaveBands[index]));
+        }
+        levels.thirdOctaveBandCount = thirdOctaveBands.length;
+        for (int index = 0; index < thirdOctaveBands.length; index++) {
+            levels.thirdOctaveBandLevels[index] = getLevel(getBandEnergy(thirdOctaveBands[index]));
+        }
+        return true;
+    }
+
+    /**
+     * Forget the frames of the Leq and Lmax window, as when the capture is restarted.
+     */
+    public void reset() {
+        aWindow.clear();
+        cWindow.clear();
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getFrameSize() {
+        return realFft.getSize();
+    }
+
+    public int getOctaveBandCount() {
+        return octaveBands.length;
+    }
+
+    public int getThirdOctaveBandCount() {
+        return thirdOctaveBands.length;
+    }
+
+    /**
+     * Get the A weighting of a frequency, in dB, as defined in IEC 61672-1.
+     */
+    public static double getAWeighting(double frequency) {
+        if (frequency <= 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double f2 = frequency * frequency;
+        double response = 12194.0 * 12194.0 * f2 * f2 /
+                ((f2 + 20.6 * 20.6) * Math.sqrt((f2 + 107.7 * 107.7) * (f2 + 737.9 * 737.9)) * (f2 + 12194.0 * 12194.0));
+        return 20 * Math.log10(response) + 2.00;
+    }
+
+    /**
+     * Get the C weighting of a frequency, in dB, as defined in IEC 61672-1.
+     */
+    public static double getCWeighting(double frequency) {
+        if (frequency <= 0) {
+            return Double.NEGATIVE_INFINITY;
+        }
+        double f2 = frequency * frequency;
+        double response = 12194.0 * 12194.0 * f2 / ((f2 + 20.6 * 20.6) * (f2 + 12194.0 * 12194.0));
+        return 20 * Math.log10(response) + 0.06;
+    }
+
+    // endregion
+
+    // region Tools
+
+    private double getBandEnergy(Band band) {
+        double energy = 0;
+        double[] weights = band.weights;
+        for (int index = 0; index < weights.length; index++) {
+            energy += power[band.firstBin + index] * weights[index];
+        }
+        return energy;
+    }
+
+    private static double getLevel(double meanSquare) {
+        return 10 * Math.log10(Math.max(meanSquare, MINIMUM_ENERGY) / (REFERENCE_PRESSURE * REFERENCE_PRESSURE));
+    }
+
+    /**
+     * Get the bins of the bands below half the sample rate.
+     *
+     * @param nominalFrequencies Nominal center frequencies of the bands.
+     * @param firstExponent      Exponent of the first band: its exact center frequency is
+     *                           1000 * 10^(firstExponent / 10).
+     * @param exponentStep       Exponent between consecutive bands: 3 for octaves, 1 for thirds.
+     * @param binWidth           Frequencies covered by each bin, in Hz.
+     */
+    private Band[] getBands(double[] nominalFrequencies, int firstExponent, int exponentStep, double binWidth) {
+        double nyquistFrequency = sampleRate / 2.0;
+        int count = 0;
+        while (count < nominalFrequencies.length && nominalFrequencies[count] < nyquistFrequency) {
+            count++;
+        }
+        Band[] bands = new Band[count];
+        for (int index = 0; index < count; index++) {
+            int exponent = firstExponent + index * exponentStep;
+            double centerFrequency = 1000 * Math.pow(10, exponent / 10.0);
+            double lowerFrequency = centerFrequency * Math.pow(10, -exponentStep / 20.0);
+            double upperFrequency = Math.min(centerFrequency * Math.pow(10, exponentStep / 20.0), nyquistFrequency);
+            int firstBin = Math.max(0, (int) Math.floor(lowerFrequency / binWidth + 0.5));
+            int lastBin = Math.min(binCount - 1, (int) Math.floor(upperFrequency / binWidth + 0.5));
+            double[] weights = new double[lastBin - firstBin + 1];
+            for (int bin = firstBin; bin <= lastBin; bin++) {
+                double binLower = Math.max(0, (bin - 0.5) * binWidth);
+                double binUpper = Math.min(nyquistFrequency, (bin + 0.5) * binWidth);
+                double overlap = Math.min(binUpper, upperFrequency) - Math.max(binLower, lowerFrequency);
+                weights[bin - firstBin] = Math.max(0, overlap) / (binUpper - binLower);
+            }
+            bands[index] = new Band(firstBin, weights);
+        }
+        return bands;
+    }
+
+    // endregion
+
+    /**
+     * Mean and maximum of the values of the last frames.
+     *
+     * The sum is updated as values come and go, and computed again from scratch every time the
+     * window wraps around, so rounding errors don't add up. The maximum is kept with a monotonic
+     * queue, holding the values that can still be the maximum, in decreasing order.
+     */
+    static class SlidingWindow {
+        private final double[] values;
+        private int count = 0;
+        private int next = 0;
+        private double sum = 0;
+        // Indexes, in the order values were added, of the candidates to maximum
+        private final long[] maximumQueue;
+        private int queueHead = 0;
+        private int queueSize = 0;
+        private long added = 0;
+
+        SlidingWindow(int capacity) {
+            values = new double[capacity];
+            maximumQueue = new long[capacity];
+        }
+
+        void add(double value) {
+            if (count == values.length) {
+                sum -= values[next];
+            } else {
+                count++;
+            }
+            values[next] = value;
+            sum += value;
+            next++;
+            if (next == values.length) {
+                next = 0;
+                if (count == values.length) {
+                    sum = 0;
+                    for (double windowValue : values) {
+                        sum += windowValue;
+                    }
+                }
+            }
+
+            // Drop the candidates out of the window, and those not larger than the new value
+            if (queueSize > 0 && maximumQueue[queueHead] <= added - values.length) {
+                queueHead = (queueHead + 1) % maximumQueue.length;
+                queueSize--;
+            }
+            while (queueSize > 0 && getValue(maximumQueue[(queueHead + queueSize - 1) % maximumQueue.length]) <= value) {
+                queueSize--;
+            }
+            maximumQueue[(queueHead + queueSize) % maximumQueue.length] = added;
+            queueSize++;
+            added++;
+        }
+
+        double getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        double getMaximum() {
+            return queueSize == 0 ? 0 : getValue(maximumQueue[queueHead]);
+        }
+
+        void clear() {
+            count = 0;
+            next = 0;
+            sum = 0;
+            queueHead = 0;
+            queueSize = 0;
+            added = 0;
+        }
+
+        private double getValue(long index) {
+            return values[(int) (index % values.length)];
+        }
+    }
+}
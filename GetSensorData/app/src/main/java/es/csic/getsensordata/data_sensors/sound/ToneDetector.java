@@ -0,0 +1,472 @@
+package es.csic.getsensordata.data_sensors.sound;
+
+/**
+ * Bank of Goertzel detectors of tones, e.g. the ultrasonic ones of acoustic beacons, finding when
+ * each tone starts in the stream of samples captured from the microphone.
+ *
+ * The stream is cut in blocks of a fixed size, independent of the frames, overlapping by half, and
+ * the Goertzel filters of every detector give the power of its frequency in each block, as the
+ * squared amplitude of a tone there (1 for a full scale one). Blocks are windowed with a Hann
+ * window, so loud sounds at other frequencies, such as voices far below ultrasonic tones, don't
+ * leak into the detectors, which must be some 4 bins (sample rate / block size) apart, and a bin
+ * away from 0 Hz and half the sample rate. Each detector tracks the noise floor of its frequency,
+ * as the mean power of the last second of blocks without a tone. A tone is detected once three
+ * blocks in a row are above it: the first one by the threshold, the second one by the threshold
+ * minus a hysteresis of 3 dB, and the third one, fully covered by the tone, by the threshold again.
+ * A drop below the threshold minus the hysteresis ends the detection. The sudden start or end of a
+ * tone spreads over nearby frequencies, but only in the two blocks holding it, so neither that nor
+ * clicks are detected, unless right after a peak of the noise, and neither are tones in the first
+ * blocks of the stream, while the noise floor is measured. Tones must last a block and a half to be detected reliably: shorter ones are
+ * missed or, when loud, their start and end spread over three blocks in a row, and may be detected
+ * at nearby frequencies too.
+ *
+ * The onset is located within the blocks: the filter adds the samples of a tone coherently, so
+ * the amplitude of a block partially covered by the tone, compared to the amplitude of a block
+ * fully covered, is the share of the window covered, which gives where the tone starts. That
+ * share barely changes near the ends of a window, so of the first block above the threshold and
+ * the one before it, the onset is taken from the one where it is closer to the middle. The block
+ * fully covered is the third one, starting a block after the first one above the threshold, so
+ * onsets are found a block and a half after the tone starts.
+ *
+ * Nothing is allocated per frame, and the filters go on from one frame to the next, so a tone can
+ * be detected across frames. Not thread safe: use it from the thread analysing the frames.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     ToneDetector toneDetector = new ToneDetector(44100, new double[]{18000, 19000, 20000}, 256, 10);
+ *     ToneDetector.Detection[] detections = ToneDetector.newDetections(16);
+ *     int count = toneDetector.detect(frame.floatSamples, frame.length, frame.sampleIndex, detections);
+ *     for (int index = 0; index < count; index++) {
+ *         // Use detections[index].frequency, onsetSampleIndex, snr...
+ *     }
+ *     ```
+ */
+public class ToneDetector {
+    // About 6 ms at 44.1 kHz, with bins 172 Hz wide
+    public static final int DEFAULT_BLOCK_SIZE = 256;
+    public static final double DEFAULT_THRESHOLD = 10;
+    // Drop of the SNR, in dB, below the threshold ending a detection
+    static final double HYSTERESIS = 3;
+    // Minimum SNR, in dB, of the block before the first one above the threshold for the onset to
+    // be looked for there
+    private static final double ONSET_SNR = 6;
+    // Time constant, in seconds, of the noise floor
+    private static final double NOISE_SECONDS = 1;
+    // Blocks measuring the noise floor before detecting
+    static final int NOISE_WARM_UP_BLOCKS = 16;
+    // Lowest noise floor, some -120 dB below full scale, so silence doesn't give an infinite SNR
+    private static final double MINIMUM_POWER = 1e-12;
+
+    private static final int IDLE = 0;
+    // Above the threshold for a block, waiting for the next one to confirm it
+    private static final int PENDING = 1;
+    // Above the threshold minus the hysteresis for a second block, waiting for the next one,
+    // fully covered by the tone, to confirm it and locate the onset
+    private static final int CONFIRMED = 2;
+    private static final int DETECTING = 3;
+
+    /**
+     * Onset of a tone. Reuse it from one frame to the next.
+     */
+    public static class Detection {
+        // Position of the detector in the bank
+        public int detectorIndex;
+        // Frequency of the detector, in Hz
+        public double frequency;
+        // Index of the first sample of the tone in the stream, with a fraction of a sample
+        public double onsetSampleIndex;
+        // Signal to noise ratio, in dB
+        public double snr;
+        // Level of the tone, in dB relative to a full scale one
+        public double level;
+
+        public void copyFrom(Detection detection) {
+            detectorIndex = detection.detectorIndex;
+            frequency = detection.frequency;
+            onsetSampleIndex = detection.onsetSampleIndex;
+            snr = detection.snr;
+            level = detection.level;
+        }
+    }
+
+    private final int sampleRate;
+    private final double[] frequencies;
+    private final int blockSize;
+    // Samples between the starts of two blocks
+    private final int hopSize;
+    private final double threshold;
+    private final double[] window;
+    // Share of the window from each sample of a block to its end, blockSize + 1 long
+    private final double[] coveredShares;
+    private final double powerScale;
+    private final double noiseRate;
+    private final double[] coefficients;
+    // Goertzel filters, two per detector: those of the even blocks, then those of the odd ones
+    private final double[] states1;
+    private final double[] states2;
+    // Position, in the blocks being filtered, of the next sample, for the even and odd blocks
+    private final int[] blockPositions = new int[2];
+    // Whether the block being filtered started with the stream, for the even and odd blocks
+    private final boolean[] isWholeBlock = new boolean[2];
+    // Detection state, one per detector
+    private final int[] states;
+    private final double[] noisePowers;
+    private final int[] noiseBlockCounts;
+    private final double[] previousPowers;
+    private final double[] pendingPowers;
+    private final double[] pendingPreviousPowers;
+    private final double[] confirmedPowers;
+
+    // Index of the sample expected next, or -1 if none yet
+    private long nextSampleIndex = -1;
+    private long detectionCount = 0;
+    private long missedDetectionCount = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param sampleRate  Samples per second of the stream.
+     * @param frequencies Frequencies of the tones, in Hz, below half the sample rate.
+     * @param blockSize   Samples per block, even, the resolution of the detection and of its
+     *                    frequency.
+     * @param threshold   SNR, in dB, a tone is detected from.
+     */
+    public ToneDetector(int sampleRate, double[] frequencies, int blockSize, double threshold) {
+        if (blockSize < 4 || blockSize % 2 != 0 || frequencies.length == 0) {
+            throw new IllegalArgumentException("At least a frequency and an even block of four samples are needed");
+        }
+        for (double frequency : frequencies) {
+            if (frequency <= 0 || frequency >= sampleRate / 2.0) {
+                throw new IllegalArgumentException("Frequency out of (0, " + sampleRate / 2.0 + ") Hz: " + frequency);
+            }
+        }
+        this.sampleRate = sampleRate;
+        this.frequencies = frequencies.clone();
+        this.blockSize = blockSize;
+        this.hopSize = blockSize / 2;
+        this.threshold = threshold;
+
+        window = new double[blockSize];
+        double windowSum = 0;
+        for (int index = 0; index < blockSize; index++) {
+            window[index] = 0.5 * (1 - Math.cos(2 * Math.PI * index / blockSize));
+            windowSum += window[index];
+        }
+        coveredShares = new double[blockSize + 1];
+        for (int index = blockSize - 1; index >= 0; index--) {
+            coveredShares[index] = coveredShares[index + 1] + window[index] / windowSum;
+        }
+        coveredShares[0] = 1;
+        // A tone of amplitude A adds up to a magnitude of A * windowSum / 2
+        powerScale = 4.0 / (windowSum * windowSum);
+        noiseRate = 1 - Math.exp(-(double) hopSize / sampleRate / NOISE_SECONDS);
+
+        int detectorCount = frequencies.length;
+        coefficients = new double[detectorCount];
+        for (int index = 0; index < detectorCount; index++) {
+            coefficients[index] = 2 * Math.cos(2 * Math.PI * frequencies[index] / sampleRate);
+        }
+        states1 = new double[2 * detectorCount];
+        states2 = new double[2 * detectorCount];
+        states = new int[detectorCount];
+        noisePowers = new double[detectorCount];
+        noiseBlockCounts = new int[detectorCount];
+        previousPowers = new double[detectorCount];
+        pendingPowers = new double[detectorCount];
+        pendingPreviousPowers = new double[detectorCount];
+        confirmedPowers = new double[detectorCount];
+        reset();
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Create the detections `detect()` writes to.
+     *
+     * @param count Maximum number of detections per call.
+     */
+    public static Detection[] newDetections(int count) {
+        Detection[] detections = new Detection[count];
+        for (int index = 0; index < count; index++) {
+            detections[index] = new Detection();
+        }
+        return detections;
+    }
+
+    /**
+     * Look for tones in a frame. Frames not following the previous one, as when a frame is
+     * dropped, start the detection again, keeping the noise floors.
+     *
+     * @param samples     Samples of the frame, in [-1, 1).
+     * @param length      Number of samples.
+     * @param sampleIndex Index of the first sample in the stream.
+     * @param detections  Where the onsets found are written, in order; those not fitting are
+     *                    counted as missed.
+     *
+     * @return the number of onsets written.
+     */
+    public int detect(float[] samples, int length, long sampleIndex, Detection[] detections) {
+        if (sampleIndex != nextSampleIndex) {
+            restart();
+        }
+        nextSampleIndex = sampleIndex + length;
+
+        int detectorCount = coefficients.length;
+        int count = 0;
+        int offset = 0;
+        while (offset < length) {
+            // Up to the end of the next half block, where either an even or an odd block ends
+            int end = offset + Math.min(length - offset, hopSize - blockPositions[0] % hopSize);
+            for (int parity = 0; parity < 2; parity++) {
+                // Position in the window of the first sample of the frame
+                int windowOffset = blockPositions[parity] - offset;
+                for (int detector = 0; detector < detectorCount; detector++) {
+                    int filter = parity * detectorCount + detector;
+                    double coefficient = coefficients[detector];
+                    double state1 = states1[filter];
+                    double state2 = states2[filter];
+                    for (int index = offset; index < end; index++) {
+                        double state = samples[index] * window[windowOffset + index] + coefficient * state1 - state2;
+                        state2 = state1;
+                        state1 = state;
+                    }
+                    states1[filter] = state1;
+                    states2[filter] = state2;
+                }
+                blockPositions[parity] += end - offset;
+            }
+            offset = end;
+            for (int parity = 0; parity < 2; parity++) {
+                if (blockPositions[parity] < blockSize) {
+                    continue;
+                }
+                long blockEndSampleIndex = sampleIndex + end;
+                for (int detector = 0; detector < detectorCount; detector++) {
+                    int filter = parity * detectorCount + detector;
+                    double state1 = states1[filter];
+                    double state2 = states2[filter];
+                    double power = powerScale * (state1 * state1 + state2 * state2 - coefficients[detector] * state1 * state2);
+                    states1[filter] = 0;
+                    states2[filter] = 0;
+                    if (isWholeBlock[parity] && endBlock(detector, power)) {
+                        if (count < detections.length) {
+                            setDetection(detector, blockEndSampleIndex, detections[count]);
+                            count++;
+                        } else {
+                            missedDetectionCount++;
+                        }
+                        detectionCount++;
+                    }
+                }
+                blockPositions[parity] = 0;
+                isWholeBlock[parity] = true;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Forget the stream, noise floors included.
+     */
+    public void reset() {
+        for (int detector = 0; detector < coefficients.length; detector++) {
+            noisePowers[detector] = MINIMUM_POWER;
+            noiseBlockCounts[detector] = 0;
+        }
+        nextSampleIndex = -1;
+        restart();
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    public double getThreshold() {
+        return threshold;
+    }
+
+    public int getDetectorCount() {
+        return frequencies.length;
+    }
+
+    public double getFrequency(int detectorIndex) {
+        return frequencies[detectorIndex];
+    }
+
+    /**
+     * Get the noise floor of a detector, in dB relative to a full scale tone.
+     */
+    public double getNoiseLevel(int detectorIndex) {
+        return 10 * Math.log10(noisePowers[detectorIndex]);
+    }
+
+    public long getDetectionCount() {
+        return detectionCount;
+    }
+
+    /**
+     * Get the number of onsets found that didn't fit in the detections given.
+     */
+    public long getMissedDetectionCount() {
+        return missedDetectionCount;
+    }
+
+    // endregion
+
+    // region Tools
+
+    /**
+     * Start the blocks again, from the next sample: the even ones right there, and the odd ones
+     * half a block later, once the first one, cut, is discarded.
+     */
+    private void restart() {
+        for (int filter = 0; filter < states1.length; filter++) {
+            states1[filter] = 0;
+            states2[filter] = 0;
+        }
+        for (int detector = 0; detector < coefficients.length; detector++) {
+            states[detector] = IDLE;
+            previousPowers[detector] = 0;
+        }
+        blockPositions[0] = 0;
+        blockPositions[1] = hopSize;
+        isWholeBlock[0] = true;
+        isWholeBlock[1] = false;
+    }
+
+    /**
+     * Update the detection state of a detector with the power of a block just ended.
+     *
+     * @return true if a tone was detected, in which case its onset is left in the pending values,
+     * and the power of this block, fully covered by the tone, in the confirmed one.
+     */
+    private boolean endBlock(int detector, double power) {
+        double snr = getSnr(power, noisePowers[detector]);
+
+        boolean isDetected = false;
+        switch (states[detector]) {
+            case IDLE:
+                if (snr >= threshold && noiseBlockCounts[detector] >= NOISE_WARM_UP_BLOCKS) {
+                    states[detector] = PENDING;
+                    pendingPowers[detector] = power;
+                    pendingPreviousPowers[detector] = previousPowers[detector];
+                } else {
+                    updateNoise(detector, power);
+                }
+                break;
+            case PENDING:
+                if (snr >= threshold - HYSTERESIS) {
+                    states[detector] = CONFIRMED;
+                } else {
+                    states[detector] = IDLE;
+                    updateNoise(detector, power);
+                }
+                break;
+            case CONFIRMED:
+                // Fully covered by the tone, so above the threshold itself
+                if (snr >= threshold) {
+                    states[detector] = DETECTING;
+                    confirmedPowers[detector] = power;
+                    isDetected = true;
+                } else {
+                    states[detector] = IDLE;
+                    updateNoise(detector, power);
+                }
+                break;
+            default:
+                if (snr < threshold - HYSTERESIS) {
+                    states[detector] = IDLE;
+                    updateNoise(detector, power);
+                }
+                break;
+        }
+        previousPowers[detector] = power;
+        return isDetected;
+    }
+
+    /**
+     * Write the onset of the tone just detected, which started in the first block above the
+     * threshold, two blocks before the last one, or in the one before it.
+     *
+     * @param blockEndSampleIndex Index of the sample following the last block.
+     */
+    private void setDetection(int detector, long blockEndSampleIndex, Detection detection) {
+        double noisePower = noisePowers[detector];
+        double fullPower = confirmedPowers[detector];
+        double fullAmplitude = Math.sqrt(fullPower - noisePower);
+        // Start of the first block above the threshold, and share of its window covered
+        long pendingStartSampleIndex = blockEndSampleIndex - blockSize - 2 * hopSize;
+        double pendingShare = Math.min(1, getAmplitude(pendingPowers[detector], noisePower) / fullAmplitude);
+        double onsetSampleIndex = pendingStartSampleIndex + getOnset(pendingShare);
+        double previousPower = pendingPreviousPowers[detector];
+        if (getSnr(previousPower, noisePower) >= ONSET_SNR) {
+            double previousShare = Math.min(1, getAmplitude(previousPower, noisePower) / fullAmplitude);
+            if (Math.abs(previousShare - 0.5) < Math.abs(pendingShare - 0.5)) {
+                onsetSampleIndex = pendingStartSampleIndex - hopSize + getOnset(previousShare);
+            }
+        }
+
+        detection.detectorIndex = detector;
+        detection.frequency = frequencies[detector];
+        detection.onsetSampleIndex = onsetSampleIndex;
+        detection.snr = getSnr(fullPower, noisePower);
+        detection.level = 10 * Math.log10(fullPower);
+    }
+
+    /**
+     * Get where a tone starts in a block, from the share of the window it covers.
+     *
+     * @return the position, in samples, with a fraction of a sample, from the start of the block.
+     */
+    private double getOnset(double coveredShare) {
+        if (coveredShare >= 1) {
+            return 0;
+        }
+        // Covered shares decrease from 1 to 0 along the block
+        int low = 0;
+        int high = blockSize;
+        while (high - low > 1) {
+            int middle = (low + high) >>> 1;
+            if (coveredShares[middle] > coveredShare) {
+                low = middle;
+            } else {
+                high = middle;
+            }
+        }
+        return low + (coveredShares[low] - coveredShare) / (coveredShares[low] - coveredShares[high]);
+    }
+
+    /**
+     * Add a block without a tone to the noise floor: its mean power, once warmed up.
+     */
+    private void updateNoise(int detector, double power) {
+        int blockCount = noiseBlockCounts[detector];
+        double rate = Math.max(noiseRate, 1.0 / (blockCount + 1));
+        noisePowers[detector] = Math.max(noisePowers[detector] + rate * (power - noisePowers[detector]), MINIMUM_POWER);
+        if (blockCount < NOISE_WARM_UP_BLOCKS) {
+            noiseBlockCounts[detector] = blockCount + 1;
+        }
+    }
+
+    private static double getSnr(double power, double noisePower) {
+        return 10 * Math.log10(Math.max(power, MINIMUM_POWER) / noisePower);
+    }
+
+    /**
+     * Get the amplitude of the tone in a block, removing the power of the noise.
+     */
+    private static double getAmplitude(double power, double noisePower) {
+        return Math.sqrt(Math.max(0, power - noisePower));
+    }
+
+    // endregion
+}
@@ -0,0 +1,279 @@
+package es.csic.getsensordata.data_sensors.wifi;
+
+/**
+ * Schedule of the WiFi scans requested, within the budget the platform allows.
+ *
+ * Since Android 9, an app in the foreground can only start 4 scans every 2 minutes: the rest are
+ * rejected, and asking for them just wakes the device up for nothing. When throttled, scans are
+ * spaced evenly over the window, one every 30 seconds, which is the best rate that can be kept,
+ * and with the shortest wait for fresh results; the scans accepted in the last window are also
+ * tracked, so a burst is never asked for. Without throttling, scans are requested at the minimum
+ * interval given.
+ *
+ * The platform is followed through the outcome of every scan:
+ * - A rejected request means the platform throttles, even if it was not expected to, and the next
+ *   one waits for a whole interval.
+ * - Results not updated, or not received in 10 seconds, mean the scan failed.
+ * - Updated results without a scan pending come from a scan of another app or the system, which
+ *   the platform shares with every app: they count as a scan of ours, so the next one is delayed.
+ *
+ * The effective scan rate, as the rate of fresh results, and the latency from each request to its
+ * results are tracked as exponential moving averages.
+ *
+ * Times are values of `System.nanoTime()`. It is thread safe, so requests and results can come from
+ * different threads.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     WiFiScanScheduler scanScheduler = new WiFiScanScheduler(2000, Build.VERSION.SDK_INT >= Build.VERSION_CODES.P);
+ *     // When the scan is due
+ *     scanScheduler.onScanRequested(System.nanoTime(), wiFiManager.startScan());
+ *     long delayNanoseconds = scanScheduler.getNextScanNanoseconds(System.nanoTime()) - System.nanoTime();
+ *     // When the scan results are received, true if they answer the scan requested
+ *     boolean isRequested = scanScheduler.onScanResults(System.nanoTime(), intent.getBooleanExtra(WifiManager.EXTRA_RESULTS_UPDATED, true));
+ *     ```
+ */
+public class WiFiScanScheduler {
+    // Scans an app in the foreground can start per window, since Android 9
+    public static final int FOREGROUND_SCAN_BUDGET = 4;
+    public static final long FOREGROUND_SCAN_WINDOW_MS = 120000;
+    // Time after which a scan requested without results is taken as failed
+    static final long SCAN_TIMEOUT_MS = 10000;
+    // Weight of the last value in the moving averages of the rate and the latency
+    private static final double SMOOTHING = 0.2;
+
+    private final long minimumIntervalNanoseconds;
+    private final int budget;
+    private final long windowNanoseconds;
+    private final long timeoutNanoseconds;
+    private boolean isThrottled;
+    // Times the last scans were accepted, as a ring of `budget` entries
+    private final long[] acceptedTimes;
+    private int acceptedCount = 0;
+    private int acceptedIndex = 0;
+    // Last time a scan was requested, failed or was done by others, the next scan waits for from
+    // then, so the scans of the budget are spaced by their requests
+    private long previousTime;
+    private boolean hasPreviousTime = false;
+    private boolean isPending = false;
+    private long pendingTime;
+    private long previousResultsTime;
+    private boolean hasPreviousResults = false;
+    private double meanIntervalSeconds = 0;
+    private double meanLatencySeconds = 0;
+    private double lastLatencySeconds = 0;
+    private long requestedScans = 0;
+    private long acceptedScans = 0;
+    private long rejectedScans = 0;
+    private long completedScans = 0;
+    private long failedScans = 0;
+    private long externalScans = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer, with the budget of the apps in the foreground.
+     *
+     * @param minimumIntervalMs Minimum time, in milliseconds, between two scans.
+     * @param isThrottled       Whether the platform is expected to throttle the scans.
+     */
+    public WiFiScanScheduler(long minimumIntervalMs, boolean isThrottled) {
+        this(minimumIntervalMs, isThrottled, FOREGROUND_SCAN_BUDGET, FOREGROUND_SCAN_WINDOW_MS);
+    }
+
+    /**
+     * Class initializer.
+     *
+     * @param minimumIntervalMs Minimum time, in milliseconds, between two scans.
+     * @param isThrottled       Whether the platform is expected to throttle the scans.
+     * @param budget            Scans allowed per window when throttled.
+     * @param windowMs          Time, in milliseconds, of the window of the budget.
+     */
+    public WiFiScanScheduler(long minimumIntervalMs, boolean isThrottled, int budget, long windowMs) {
+        if (minimumIntervalMs <= 0 || budget < 1 || windowMs <= 0) {
+            throw new IllegalArgumentException("The interval, the budget and its window must be positive");
+        }
+        this.minimumIntervalNanoseconds = minimumIntervalMs * 1000000L;
+        this.isThrottled = isThrottled;
+        this.budget = budget;
+        this.windowNanoseconds = windowMs * 1000000L;
+        this.timeoutNanoseconds = SCAN_TIMEOUT_MS * 1000000L;
+        acceptedTimes = new long[budget];
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Get when the next scan should be requested.
+     *
+     * @param nowNanoseconds Current time.
+     *
+     * @return the time of the next scan, which is `nowNanoseconds` or earlier if it is due.
+     */
+    public synchronized long getNextScanNanoseconds(long nowNanoseconds) {
+        checkTimeout(nowNanoseconds);
+        if (isPending) {
+            // One scan at a time: wait for its results
+            return pendingTime + timeoutNanoseconds;
+        }
+        if (!hasPreviousTime) {
+            return nowNanoseconds;
+        }
+        long nextTime = previousTime + getIntervalNanoseconds();
+        if (isThrottled && acceptedCount == budget) {
+            // The oldest scan of the budget has to leave the window first
+            long oldestTime = acceptedTimes[acceptedIndex];
+            if (nextTime - (oldestTime + windowNanoseconds) < 0) {
+                nextTime = oldestTime + windowNanoseconds;
+            }
+        }
+        return nextTime;
+    }
+
+    /**
+     * Take note of a scan requested.
+     *
+     * @param nowNanoseconds Time it was requested.
+     * @param isAccepted     Whether the platform accepted it, as returned by `startScan()`.
+     */
+    public synchronized void onScanRequested(long nowNanoseconds, boolean isAccepted) {
+        checkTimeout(nowNanoseconds);
+        requestedScans++;
+        previousTime = nowNanoseconds;
+        hasPreviousTime = true;
+        if (!isAccepted) {
+            rejectedScans++;
+            // Throttled even if not expected: the budget of the platform is used up
+            isThrottled = true;
+            return;
+        }
+        acceptedScans++;
+        acceptedTimes[acceptedIndex] = nowNanoseconds;
+        acceptedIndex = (acceptedIndex + 1) % budget;
+        acceptedCount = Math.min(acceptedCount + 1, budget);
+        isPending = true;
+        pendingTime = nowNanoseconds;
+    }
+
+    /**
+     * Take note of scan results received.
+     *
+     * @param nowNanoseconds Time they were received.
+     * @param isUpdated      Whether they come from a new scan, as told by `EXTRA_RESULTS_UPDATED`.
+     *
+     * @return whether they answer the scan requested, updated or not, rather than a scan of another
+     * app or the system.
+     */
+    public synchronized boolean onScanResults(long nowNanoseconds, boolean isUpdated) {
+        checkTimeout(nowNanoseconds);
+        boolean isRequested = isPending;
+        if (!isUpdated) {
+            if (isPending) {
+                failedScans++;
+                isPending = false;
+                previousTime = nowNanoseconds;
+            }
+            return isRequested;
+        }
+        if (isPending) {
+            completedScans++;
+            lastLatencySeconds = (nowNanoseconds - pendingTime) * 1e-9;
+            meanLatencySeconds = completedScans == 1 ? lastLatencySeconds : (1 - SMOOTHING) * meanLatencySeconds + SMOOTHING * lastLatencySeconds;
+            isPending = false;
+        } else {
+            externalScans++;
+            previousTime = nowNanoseconds;
+            hasPreviousTime = true;
+        }
+        if (hasPreviousResults) {
+            double interval = (nowNanoseconds - previousResultsTime) * 1e-9;
+            meanIntervalSeconds = meanIntervalSeconds == 0 ? interval : (1 - SMOOTHING) * meanIntervalSeconds + SMOOTHING * interval;
+        }
+        previousResultsTime = nowNanoseconds;
+        hasPreviousResults = true;
+        return isRequested;
+    }
+
+    /**
+     * Whether scans are spaced to fit in the budget, because the platform was expected to throttle
+     * them or rejected one.
+     */
+    public synchronized boolean isThrottled() {
+        return isThrottled;
+    }
+
+    /**
+     * Get the time between scans, in nanoseconds, the minimum one or the one that fits the budget.
+     */
+    public synchronized long getIntervalNanoseconds() {
+        if (isThrottled) {
+            return Math.max(minimumIntervalNanoseconds, windowNanoseconds / budget);
+        }
+        return minimumIntervalNanoseconds;
+    }
+
+    /**
+     * Get the rate of fresh scan results, requested or not, in scans per second, or 0 if unknown.
+     */
+    public synchronized double getScanRate() {
+        return meanIntervalSeconds > 0 ? 1 / meanIntervalSeconds : 0;
+    }
+
+    /**
+     * Get the mean time, in seconds, from a scan requested to its results.
+     */
+    public synchronized double getMeanLatency() {
+        return meanLatencySeconds;
+    }
+
+    public synchronized double getLastLatency() {
+        return lastLatencySeconds;
+    }
+
+    public synchronized long getRequestedScans() {
+        return requestedScans;
+    }
+
+    public synchronized long getAcceptedScans() {
+        return acceptedScans;
+    }
+
+    public synchronized long getRejectedScans() {
+        return rejectedScans;
+    }
+
+    public synchronized long getCompletedScans() {
+        return completedScans;
+    }
+
+    /**
+     * Get the number of scans accepted whose results were not updated or did not arrive.
+     */
+    public synchronized long getFailedScans() {
+        return failedScans;
+    }
+
+    /**
+     * Get the number of fresh results received without a scan of ours pending.
+     */
+    public synchronized long getExternalScans() {
+        return externalScans;
+    }
+
+    // endregion
+
+    // region Tools
+
+    private void checkTimeout(long nowNanoseconds) {
+        if (isPending && nowNanoseconds - pendingTime >= timeoutNanoseconds) {
+            failedScans++;
+            isPending = false;
+            previousTime = nowNanoseconds;
+        }
+    }
+
+    // endregion
+}
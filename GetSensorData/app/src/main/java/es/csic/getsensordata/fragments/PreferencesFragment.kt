@@ -34,6 +34,74 @@ class PreferencesFragment : PreferenceFragmentCompat() {
                 summaryId = R.string.displayPreferencesFontSizeSummary,
                 defaultValueId = R.string.displayPreferencesFontSizeDefaultValue
         )
+        showCustomSummary<EditTextPreference>(
+                preferenceKeyId = R.string.displayPreferencesScreenRefreshIntervalKey,
+                summaryId = R.string.displayPreferencesScreenRefreshIntervalSummary,
+                defaultValueId = R.string.displayPreferencesScreenRefreshIntervalDefaultValue
+        )
+        showCustomSummary<EditTextPreference>(
+                preferenceKeyId = R.string.logPreferencesFlushIntervalKey,
+                summaryId = R.string.logPreferencesFlushIntervalSummary,
+                defaultValueId = R.string.logPreferencesFlushIntervalDefaultValue
+        )
+        showCustomSummary<ListPreference>(
+                preferenceKeyId = R.string.logPreferencesCompressionLevelKey,
+                summaryId = R.string.logPreferencesCompressionLevelSummary,
+                valuesId = R.array.logPreferencesCompressionLevelValues,
+                entriesId = R.array.logPreferencesCompressionLevelEntries
+        )
+        showCustomSummary<ListPreference>(
+                preferenceKeyId = R.string.logPreferencesRawCaptureKey,
+                summaryId = R.string.logPreferencesRawCaptureSummary,
+                valuesId = R.array.logPreferencesRawCaptureValues,
+                entriesId = R.array.logPreferencesRawCaptureEntries
+        )
+        showCustomSummary<ListPreference>(
+                preferenceKeyId = R.string.sensorDeliveryPreferencesThreadPriorityKey,
+                summaryId = R.string.sensorDeliveryPreferencesThreadPrioritySummary,
+                valuesId = R.array.sensorDeliveryPreferencesThreadPriorityValues,
+                entriesId = R.array.sensorDeliveryPreferencesThreadPriorityEntries
+        )
+        showCustomSummary<ListPreference>(
+                preferenceKeyId = R.string.sensorDeliveryPreferencesDirectChannelRateLevelKey,
+                summaryId = R.string.sensorDeliveryPreferencesDirectChannelRateLevelSummary,
+                valuesId = R.array.sensorDeliveryPreferencesDirectChannelRateLevelValues,
+                entriesId = R.array.sensorDeliveryPreferencesDirectChannelRateLevelEntries
+        )
+        showCustomSummary<EditTextPreference>(
+                preferenceKeyId = R.string.batchingPreferencesMaxReportLatencyKey,
+                summaryId = R.string.batchingPreferencesMaxReportLatencySummary,
+                defaultValueId = R.string.batchingPreferencesMaxReportLatencyDefaultValue
+        )
+        showCustomSummary<ListPreference>(
+                preferenceKeyId = R.string.soundPreferencesSampleRateKey,
+                summaryId = R.string.soundPreferencesSampleRateSummary,
+                valuesId = R.array.soundPreferencesSampleRateValues,
+                entriesId = R.array.soundPreferencesSampleRateEntries
+        )
+        showCustomSummary<ListPreference>(
+                preferenceKeyId = R.string.soundPreferencesFrameSizeKey,
+                summaryId = R.string.soundPreferencesFrameSizeSummary,
+                valuesId = R.array.soundPreferencesFrameSizeValues,
+                entriesId = R.array.soundPreferencesFrameSizeEntries
+        )
+        showCustomSummary<ListPreference>(
+                preferenceKeyId = R.string.soundPreferencesLeqWindowKey,
+                summaryId = R.string.soundPreferencesLeqWindowSummary,
+                valuesId = R.array.soundPreferencesLeqWindowValues,
+                entriesId = R.array.soundPreferencesLeqWindowEntries
+        )
+        showCustomSummary<EditTextPreference>(
+                preferenceKeyId = R.string.soundPreferencesToneFrequenciesKey,
+                summaryId = R.string.soundPreferencesToneFrequenciesSummary,
+                defaultValueId = R.string.soundPreferencesToneFrequenciesDefaultValue
+        )
+        showCustomSummary<ListPreference>(
+                preferenceKeyId = R.string.soundPreferencesToneThresholdKey,
+                summaryId = R.string.soundPreferencesToneThresholdSummary,
+                valuesId = R.array.soundPreferencesToneThresholdValues,
+                entriesId = R.array.soundPreferencesToneThresholdEntries
+        )
     }
 
     override fun onStart() {
@@ -43,6 +111,9 @@ class PreferencesFragment : PreferenceFragmentCompat() {
 
         setNumberKeyboardType(R.string.updateFrequencyCustomUpdateRateKey)
         setNumberKeyboardType(R.string.displayPreferencesFontSizeKey)
+        setNumberKeyboardType(R.string.displayPreferencesScreenRefreshIntervalKey)
+        setNumberKeyboardType(R.string.logPreferencesFlushIntervalKey)
+        setNumberKeyboardType(R.string.batchingPreferencesMaxReportLatencyKey)
         setNumberKeyboardType(
                 R.string.cameraPreferencesPreviewTransparencyKey,
                 InputType.TYPE_CLASS_NUMBER or InputType.TYPE_NUMBER_FLAG_DECIMAL
@@ -0,0 +1,180 @@
+package es.csic.getsensordata.logging;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Converter of binary sessions into the text log, so the existing tools keep working.
+ *
+ * Each record with a schema is formatted with the same `LogLineFormatter` calls and the same
+ * values as `getStatusForLog()` of its data sensor, so the lines are exactly those the text log
+ * would have had. Text records are written as they were stored.
+ *
+ * Within each segment, records are written sorted by their app timestamp, as they would have
+ * arrived to the text log. Records of different segments are never reordered.
+ *
+ * Sessions are converted on a desktop with `BinarySessionConverterTool`, from the unit test
+ * classpath.
+ */
+public class BinarySessionConverter implements BinarySessionReader.Listener {
+    private final Writer writer;
+    private final ArrayList<LogColumns> segmentColumns = new ArrayList<>();
+    private final LogLineFormatter logLineFormatter = new LogLineFormatter();
+    private long[] textTimestamps = new long[16];
+    private String[] texts = new String[16];
+    private int textCount = 0;
+    private int[] cursors = new int[0];
+    private long writtenLines = 0;
+    private IOException writeException = null;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param writer Writer the text log is written to.
+     */
+    public BinarySessionConverter(Writer writer) {
+        this.writer = writer;
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Convert a whole binary session.
+     *
+     * @param inputStream Stream of the binary session. It is closed once converted.
+     * @param writer      Writer the text log is written to. It is flushed, but not closed.
+     *
+     * @return number of lines written.
+     */
+    public static long convert(InputStream inputStream, Writer writer) throws IOException {
+        BinarySessionConverter converter = new BinarySessionConverter(writer);
+        try (BinarySessionReader reader = new BinarySessionReader(inputStream)) {
+            reader.readAll(converter);
+        }
+        // A segment cut by a crash is converted anyway
+        converter.onSegmentEnd();
+        converter.throwIfFailed();
+        writer.flush();
+        return converter.writtenLines;
+    }
+
+    public long getWrittenLines() {
+        return writtenLines;
+    }
+
+    // endregion
+
+    // region Listener
+
+    @Override
+    public void onSchema(int sensorId, LogSchema schema) {
+        // Columns carry their own schema
+    }
+
+    @Override
+    public void onColumns(LogColumns columns) {
+        // Columns are reused by the reader, so a data sensor repeated within a segment forces
+        // writing what was read so far
+        if (segmentColumns.contains(columns)) {
+            onSegmentEnd();
+        }
+        segmentColumns.add(columns);
+    }
+
+    @Override
+    public void onText(long appTimestampNanoseconds, String text) {
+        if (textCount == texts.length) {
+            textTimestamps = Arrays.copyOf(textTimestamps, textCount * 2);
+            texts = Arrays.copyOf(texts, textCount * 2);
+        }
+        textTimestamps[textCount] = appTimestampNanoseconds;
+        texts[textCount] = text;
+        textCount++;
+    }
+
+    /**
+     * Write every record of the segment, merging the data sensors and the text records by their
+     * app timestamp.
+     */
+    @Override
+    public void onSegmentEnd() {
+        if (writeException != null) {
+            return;
+        }
+        int columnsCount = segmentColumns.size();
+        if (cursors.length < columnsCount) {
+            cursors = new int[columnsCount];
+        }
+        Arrays.fill(cursors, 0, columnsCount, 0);
+        int textCursor = 0;
+        try {
+            while (true) {
+                // Text records go first on ties, as the header is written before any data sensor
+                int next = -1;
+                boolean isTextPending = textCursor < textCount;
+                long nextTimestamp = isTextPending ? textTimestamps[textCursor] : Long.MAX_VALUE;
+                for (int index = 0; index < columnsCount; index++) {
+                    LogColumns columns = segmentColumns.get(index);
+                    int row = cursors[index];
+                    if (row < columns.getRowCount() && columns.getAppTimestamp(row) < nextTimestamp) {
+                        next = index;
+                        nextTimestamp = columns.getAppTimestamp(row);
+                    }
+                }
+                if (next >= 0) {
+                    writeRow(segmentColumns.get(next), cursors[next]++);
+                } else if (isTextPending) {
+                    writer.write(texts[textCursor]);
+                    texts[textCursor] = null;
+                    textCursor++;
+                    writtenLines++;
+                } else {
+                    break;
+                }
+            }
+        } catch (IOException exception) {
+            writeException = exception;
+        }
+        segmentColumns.clear();
+        textCount = 0;
+    }
+
+    // endregion
+
+    private void writeRow(LogColumns columns, int row) throws IOException {
+        LogSchema schema = columns.getSchema();
+        // Same arithmetic used by the data sensors, so the values formatted are the same
+        logLineFormatter.begin(schema.getPrefix())
+                .append(columns.getAppTimestamp(row) * 1e-9, 3)
+                .append(columns.getSensorTimestamp(row) * 1e-9, 3);
+        for (int field = 0; field < schema.getFieldCount(); field++) {
+            LogSchema.Field schemaField = schema.getField(field);
+            switch (schemaField.getType()) {
+                case Float32:
+                    logLineFormatter.append(columns.getFloat(field, row), schemaField.getDecimals());
+                    break;
+                case Float64:
+                    logLineFormatter.append(columns.getDouble(field, row), schemaField.getDecimals());
+                    break;
+                case Int32:
+                    logLineFormatter.append(columns.getInt(field, row));
+                    break;
+            }
+        }
+        logLineFormatter.writeTo(writer);
+        writtenLines++;
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (writeException != null) {
+            throw writeException;
+        }
+    }
+}
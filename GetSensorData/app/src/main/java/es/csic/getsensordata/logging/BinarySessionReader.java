@@ -0,0 +1,224 @@
+package es.csic.getsensordata.logging;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+
+/**
+ * Streaming reader of the binary sessions written by `BinarySessionWriter`.
+ *
+ * Blocks are read one at a time and handed to a listener, so sessions of any length can be read
+ * with the memory of a single segment. The columns of each data sensor are reused from one block
+ * to the next: copy them if needed after the listener returns.
+ *
+ * A block truncated at the end of the file, as left by a crash, ends the reading without error;
+ * check `isTruncated()` to know it happened.
+ */
+public class BinarySessionReader implements Closeable {
+
+    /**
+     * Receiver of the blocks read.
+     */
+    public interface Listener {
+        /**
+         * A data sensor was described. Its columns will follow.
+         */
+        void onSchema(int sensorId, LogSchema schema);
+
+        /**
+         * Records of a data sensor were read.
+         *
+         * @param columns Records read. Only valid until the next block of the same data sensor.
+         */
+        void onColumns(LogColumns columns);
+
+        /**
+         * A text record was read.
+         *
+         * @param appTimestampNanoseconds Time, in nanoseconds, since the session started.
+         * @param text                    Text of the record, including its line separator.
+         */
+        void onText(long appTimestampNanoseconds, String text);
+
+        /**
+         * Every record of the segment has been read.
+         */
+        void onSegmentEnd();
+    }
+
+    private final InputStream inputStream;
+    private final HashMap<Integer, LogColumns> columnsBySensorId = new HashMap<>();
+    private final byte[] blockHeader = new byte[BinarySessionWriter.BLOCK_HEADER_SIZE];
+    private byte[] payload = new byte[64 * 1024];
+    private boolean isHeaderRead = false;
+    private boolean isTruncated = false;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param inputStream Stream of the binary session, better if buffered. The reader owns it from
+     *                    now on, and closes it when the reader is closed.
+     */
+    public BinarySessionReader(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Read the next block and hand it to the listener.
+     *
+     * @param listener Receiver of the block.
+     *
+     * @return false if there are no more blocks.
+     *
+     * @throws IOException if the file can't be read or is not a binary session.
+     */
+    public boolean readBlock(Listener listener) throws IOException {
+        if (!isHeaderRead) {
+            readHeader();
+        }
+        int headerSize = readFully(blockHeader, BinarySessionWriter.BLOCK_HEADER_SIZE);
+        if (headerSize < BinarySessionWriter.BLOCK_HEADER_SIZE) {
+            isTruncated = headerSize > 0;
+            return false;
+        }
+        ByteBuffer header = ByteBuffer.wrap(blockHeader).order(ByteOrder.LITTLE_ENDIAN);
+        byte type = header.get();
+        int payloadSize = header.getInt();
+        if (payloadSize < 0) {
+            throw new IOException("Invalid block size: " + payloadSize);
+        }
+        if (payload.length < payloadSize) {
+            payload = new byte[Math.max(payloadSize, payload.length * 2)];
+        }
+        if (readFully(payload, payloadSize) < payloadSize) {
+            isTruncated = true;
+            return false;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(payload, 0, payloadSize).order(ByteOrder.LITTLE_ENDIAN);
+        switch (type) {
+            case BinarySessionWriter.BLOCK_SCHEMA:
+                readSchema(buffer, listener);
+                break;
+            case BinarySessionWriter.BLOCK_COLUMNS:
+                readColumns(buffer, listener);
+                break;
+            case BinarySessionWriter.BLOCK_TEXT:
+                long appTimestampNanoseconds = buffer.getLong();
+                String text = new String(payload, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+                listener.onText(appTimestampNanoseconds, text);
+                break;
+            case BinarySessionWriter.BLOCK_SEGMENT_END:
+                listener.onSegmentEnd();
+                break;
+            default:
+                // Unknown blocks, from newer versions, are skipped
+                break;
+        }
+        return true;
+    }
+
+    /**
+     * Read every remaining block.
+     */
+    public void readAll(Listener listener) throws IOException {
+        //noinspection StatementWithEmptyBody
+        while (readBlock(listener)) {
+        }
+    }
+
+    /**
+     * Did the file end in the middle of a block?
+     */
+    public boolean isTruncated() {
+        return isTruncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    // endregion
+
+    private void readHeader() throws IOException {
+        byte[] fileHeader = new byte[8];
+        if (readFully(fileHeader, fileHeader.length) < fileHeader.length) {
+            throw new EOFException("Missing binary session header");
+        }
+        ByteBuffer header = ByteBuffer.wrap(fileHeader).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt() != BinarySessionWriter.MAGIC) {
+            throw new IOException("Not a binary session");
+        }
+        int version = header.getInt();
+        if (version > BinarySessionWriter.VERSION) {
+            throw new IOException("Unsupported binary session version: " + version);
+        }
+        isHeaderRead = true;
+    }
+
+    private void readSchema(ByteBuffer buffer, Listener listener) throws IOException {
+        int sensorId = buffer.getShort();
+        String prefix = readString(buffer);
+        int fieldCount = buffer.getShort();
+        LogSchema.Field[] fields = new LogSchema.Field[fieldCount];
+        for (int field = 0; field < fieldCount; field++) {
+            String name = readString(buffer);
+            LogSchema.FieldType fieldType;
+            try {
+                fieldType = LogSchema.FieldType.fromCode(buffer.get());
+            } catch (IllegalArgumentException exception) {
+                throw new IOException(exception.getMessage());
+            }
+            int decimals = buffer.get();
+            fields[field] = new LogSchema.Field(name, fieldType, decimals);
+        }
+        LogSchema schema = new LogSchema(prefix, fields);
+        columnsBySensorId.put(sensorId, new LogColumns(sensorId, schema, 1));
+        listener.onSchema(sensorId, schema);
+    }
+
+    private void readColumns(ByteBuffer buffer, Listener listener) throws IOException {
+        int sensorId = buffer.getShort();
+        LogColumns columns = columnsBySensorId.get(sensorId);
+        if (columns == null) {
+            throw new IOException("Columns of sensor " + sensorId + " before its schema");
+        }
+        columns.readFrom(buffer);
+        listener.onColumns(columns);
+    }
+
+    private String readString(ByteBuffer buffer) {
+        int size = buffer.getShort();
+        String string = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), size, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + size);
+        return string;
+    }
+
+    /**
+     * Read up to `size` bytes, stopping only at the end of the stream.
+     *
+     * @return number of bytes read.
+     */
+    private int readFully(byte[] bytes, int size) throws IOException {
+        int read = 0;
+        while (read < size) {
+            int count = inputStream.read(bytes, read, size - read);
+            if (count < 0) {
+                break;
+            }
+            read += count;
+        }
+        return read;
+    }
+}
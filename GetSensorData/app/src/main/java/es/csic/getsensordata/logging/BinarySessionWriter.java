@@ -0,0 +1,490 @@
+package es.csic.getsensordata.logging;
+
+import android.util.Log;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous writer of binary sessions, a compact alternative to the text log.
+ *
+ * Data sensors with a `LogSchema` store their records through a `Channel` of their own, which
+ * keeps them by columns in primitive arrays: no text is formatted and no object is allocated per
+ * record. Any other record (the header, the position marks, the data sensors without a schema) is
+ * stored as text, exactly as it would appear in the text log.
+ *
+ * Periodically, the writer thread takes the records of every channel, swapping its columns with
+ * a spare set, and writes a segment: a block per channel with records, a block per text record and
+ * an end of segment block. Every channel is swapped at once, so a segment holds exactly the records
+ * stored before it was cut, and merging them by timestamp within each segment restores the order
+ * they were stored in. `BinarySessionReader` reads the file back, and `BinarySessionConverter`
+ * turns it into the text log.
+ *
+ * File layout, in little endian:
+ *
+ *     int32  magic ("GSDB")
+ *     int32  version
+ *     blocks, each one being:
+ *         int8   block type
+ *         int32  payload size, in bytes
+ *         payload:
+ *             schema:   int16 sensor id, string prefix, int16 field count,
+ *                       and for each field: string name, int8 type, int8 decimals
+ *             columns:  int16 sensor id, int32 row count, int64[rows] app timestamps (ns),
+ *                       int64[rows] sensor timestamps (ns), and the values of each field
+ *             text:     int64 app timestamp (ns), UTF-8 text up to the end of the payload
+ *             segment end: nothing
+ *
+ * Strings inside a schema are an int16 size followed by their UTF-8 bytes. The schema of a data
+ * sensor is always written before its first columns. If the app crashes, only the last segment,
+ * not yet written, is lost; a truncated block at the end of the file is ignored by the reader.
+ *
+ * Optionally, each segment is compressed as an independent block through a
+ * `CompressedBlockWriter`, timestamped with the time the previous segment was cut, so the file is
+ * also seekable by time.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     BinarySessionWriter writer = new BinarySessionWriter(new FileOutputStream(file), System.nanoTime());
+ *     BinarySessionWriter.Channel channel = writer.register(accelerometerDataSensor.getLogSchema());
+ *     channel.write(accelerometerDataSensor);
+ *     writer.writeText("\nPOSI;...");
+ *     ...
+ *     writer.close();
+ *     ```
+ */
+public class BinarySessionWriter {
+    private static final String TAG = "BinarySessionWriter";
+
+    public static final int MAGIC = 0x42445347; // "GSDB", as read in little endian
+    public static final int VERSION = 1;
+
+    static final byte BLOCK_SCHEMA = 1;
+    static final byte BLOCK_COLUMNS = 2;
+    static final byte BLOCK_TEXT = 3;
+    static final byte BLOCK_SEGMENT_END = 4;
+    static final int BLOCK_HEADER_SIZE = 5;
+
+    public static final int DEFAULT_TEXT_QUEUE_CAPACITY = 4096;
+    public static final int DEFAULT_MAXIMUM_ROW_COUNT = 65536;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+    private static final int INITIAL_ROW_COUNT = 256;
+    private static final int INITIAL_BUFFER_SIZE = 256 * 1024;
+
+    // region Channel
+
+    /**
+     * Where a single data sensor stores its records.
+     *
+     * Records are kept in two sets of columns: the one being filled by the data sensor and the
+     * spare one, written by the writer thread meanwhile.
+     */
+    public class Channel {
+        private final int sensorId;
+        private final LogSchema schema;
+        private LogColumns activeColumns;
+        private LogColumns spareColumns;
+        // Only accessed by the writer thread
+        private boolean isSchemaWritten = false;
+        private LogColumns columnsTaken;
+
+        private Channel(int sensorId, LogSchema schema) {
+            this.sensorId = sensorId;
+            this.schema = schema;
+            activeColumns = new LogColumns(sensorId, schema, INITIAL_ROW_COUNT);
+            spareColumns = new LogColumns(sensorId, schema, INITIAL_ROW_COUNT);
+        }
+
+        public LogSchema getSchema() {
+            return schema;
+        }
+
+        /**
+         * Store a record, filled by its source. Never blocks for longer than the writer thread
+         * takes to swap the columns.
+         *
+         * @param source Whoever fills the record, usually a data sensor.
+         *
+         * @return true if the record was stored, false if it was dropped because the columns are
+         * full or the writer is closed.
+         */
+        public synchronized boolean write(LogRecord.Source source) {
+            if (open && activeColumns.beginRow(maximumRowCount)) {
+                source.writeLogRecord(activeColumns);
+                activeColumns.endRow();
+                return true;
+            }
+            droppedRecords.incrementAndGet();
+            return false;
+        }
+
+        /**
+         * Take the records stored so far, leaving the spare columns to store the next ones.
+         *
+         * Must be called holding the lock of the channel.
+         */
+        private void swap() {
+            columnsTaken = activeColumns;
+            activeColumns = spareColumns;
+            spareColumns = columnsTaken;
+        }
+    }
+
+    // endregion
+
+    // region Text Record
+
+    private static class TextRecord {
+        final long appTimestampNanoseconds;
+        final String text;
+
+        TextRecord(long appTimestampNanoseconds, String text) {
+            this.appTimestampNanoseconds = appTimestampNanoseconds;
+            this.text = text;
+        }
+    }
+
+    // endregion
+
+    private final FileOutputStream fileOutputStream;
+    private final FileChannel fileChannel;
+    private final long epochNanoseconds;
+    private final long flushIntervalMs;
+    private final int maximumRowCount;
+    private final LogWriter.Durability durability;
+    private final int compressionLevel;
+    private final CopyOnWriteArrayList<Channel> channels = new CopyOnWriteArrayList<>();
+    private final ArrayBlockingQueue<TextRecord> textQueue;
+    private final ArrayList<TextRecord> textsTaken = new ArrayList<>();
+    private final CountDownLatch closing = new CountDownLatch(1);
+    private final Thread writerThread;
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    // Only accessed by the writer thread
+    private CompressedBlockWriter compressedBlockWriter;
+    private long segmentTimestampNs;
+
+    private volatile boolean open = true;
+
+    private final AtomicLong writtenRecords = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private long writtenBytes = 0;
+    private long segments = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer, using the default flush interval, maximum row count, text queue capacity
+     * and durability.
+     *
+     * @param fileOutputStream Stream of the file the session will be written to.
+     * @param epochNanoseconds Value of `System.nanoTime()` when the session started, used to
+     *                         timestamp the text records.
+     */
+    public BinarySessionWriter(FileOutputStream fileOutputStream, long epochNanoseconds) {
+        this(fileOutputStream, epochNanoseconds, DEFAULT_FLUSH_INTERVAL_MS, DEFAULT_MAXIMUM_ROW_COUNT, DEFAULT_TEXT_QUEUE_CAPACITY, LogWriter.Durability.Buffered);
+    }
+
+    /**
+     * Class initializer.
+     *
+     * @param fileOutputStream  Stream of the file the session will be written to. The writer owns
+     *                          it from now on, and closes it when the writer is closed.
+     * @param epochNanoseconds  Value of `System.nanoTime()` when the session started, used to
+     *                          timestamp the text records.
+     * @param flushIntervalMs   Time, in milliseconds, between segments.
+     * @param maximumRowCount   Maximum number of records a channel keeps between segments.
+     * @param textQueueCapacity Maximum number of text records waiting to be written.
+     * @param durability        Whether segments should be forced to the storage or not.
+     */
+    public BinarySessionWriter(FileOutputStream fileOutputStream, long epochNanoseconds, long flushIntervalMs, int maximumRowCount, int textQueueCapacity, LogWriter.Durability durability) {
+        this(fileOutputStream, epochNanoseconds, flushIntervalMs, maximumRowCount, textQueueCapacity, durability, LogWriter.NO_COMPRESSION);
+    }
+
+    /**
+     * Class initializer, compressing the segments.
+     *
+     * @param fileOutputStream  Stream of the file the session will be written to. The writer owns
+     *                          it from now on, and closes it when the writer is closed.
+     * @param epochNanoseconds  Value of `System.nanoTime()` when the session started, used to
+     *                          timestamp the text records and the compressed blocks.
+     * @param flushIntervalMs   Time, in milliseconds, between segments.
+     * @param maximumRowCount   Maximum number of records a channel keeps between segments.
+     * @param textQueueCapacity Maximum number of text records waiting to be written.
+     * @param durability        Whether segments should be forced to the storage or not.
+     * @param compressionLevel  Compression level, from 1 (fastest) to 9 (smallest), or
+     *                          `LogWriter.NO_COMPRESSION` to write the segments as they are.
+     */
+    public BinarySessionWriter(FileOutputStream fileOutputStream, long epochNanoseconds, long flushIntervalMs, int maximumRowCount, int textQueueCapacity, LogWriter.Durability durability, int compressionLevel) {
+        this.fileOutputStream = fileOutputStream;
+        this.fileChannel = fileOutputStream.getChannel();
+        this.epochNanoseconds = epochNanoseconds;
+        this.flushIntervalMs = flushIntervalMs;
+        this.maximumRowCount = maximumRowCount;
+        this.textQueue = new ArrayBlockingQueue<>(textQueueCapacity);
+        this.durability = durability;
+        this.compressionLevel = compressionLevel;
+
+        Log.d(TAG, "BinarySessionWriter(" +
+                "flushIntervalMs=" + flushIntervalMs + ", " +
+                "maximumRowCount=" + maximumRowCount + ", " +
+                "textQueueCapacity=" + textQueueCapacity + ", " +
+                "durability=" + durability + ", " +
+                "compressionLevel=" + compressionLevel + ")");
+
+        segmentTimestampNs = System.nanoTime() - epochNanoseconds;
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        writerThread = new Thread(this::writeLoop);
+        writerThread.setName("Writer thread - BinarySessionWriter");
+        writerThread.start();
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Create the channel a data sensor stores its records through.
+     *
+     * @param schema Schema of the records of the data sensor.
+     *
+     * @return the new channel.
+     */
+    public synchronized Channel register(LogSchema schema) {
+        Log.d(TAG, "register(schema=" + schema.getPrefix() + ")");
+
+        Channel channel = new Channel(channels.size(), schema);
+        channels.add(channel);
+        return channel;
+    }
+
+    /**
+     * Queue a text record to be written. Never blocks.
+     *
+     * @param record Text to write, including its line separator.
+     *
+     * @return true if the record was queued, false if it was dropped because the queue is full or
+     * the writer is closed.
+     */
+    public boolean writeText(String record) {
+        // Timestamped and queued under the lock, like the records of a channel
+        synchronized (textQueue) {
+            if (open && textQueue.offer(new TextRecord(System.nanoTime() - epochNanoseconds, record))) {
+                return true;
+            }
+        }
+        droppedRecords.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Stop accepting records, write those still stored and close the file.
+     *
+     * Blocks until the writer thread finishes.
+     */
+    public void close() {
+        Log.d(TAG, "close()");
+
+        open = false;
+        closing.countDown();
+        try {
+            writerThread.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        Log.i(TAG, "Closed. Records written: " + getWrittenRecords() +
+                ", dropped: " + getDroppedRecords() +
+                ", bytes: " + writtenBytes +
+                ", segments: " + segments);
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public long getWrittenRecords() {
+        return writtenRecords.get();
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    // endregion
+
+    // region Writer Thread
+
+    private void writeLoop() {
+        try {
+            if (compressionLevel != LogWriter.NO_COMPRESSION) {
+                compressedBlockWriter = new CompressedBlockWriter(fileChannel, compressionLevel);
+            }
+            boolean isClosing = false;
+            while (!isClosing) {
+                try {
+                    isClosing = closing.await(flushIntervalMs, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException exception) {
+                    isClosing = !open;
+                }
+                writeSegment();
+            }
+            if (compressedBlockWriter != null) {
+                writtenBytes += compressedBlockWriter.close();
+                compressedBlockWriter = null;
+                if (durability == LogWriter.Durability.Synced) {
+                    fileChannel.force(false);
+                }
+            }
+        } catch (IOException exception) {
+            Log.e(TAG, "Error writing to binary session file", exception);
+            open = false;
+            droppedRecords.addAndGet(textQueue.size());
+            textQueue.clear();
+        } finally {
+            try {
+                fileOutputStream.close();
+            } catch (IOException exception) {
+                Log.e(TAG, "Error closing binary session file", exception);
+            }
+        }
+    }
+
+    /**
+     * Write the records of every channel and every text record queued, followed by an end of
+     * segment, and commit them to the file.
+     */
+    private void writeSegment() throws IOException {
+        // Channels registered meanwhile join the next segment
+        List<Channel> segmentChannels = new ArrayList<>(channels);
+        long blockTimestampNs = segmentTimestampNs;
+        segmentTimestampNs = System.nanoTime() - epochNanoseconds;
+        cut(segmentChannels, 0);
+        for (Channel channel : segmentChannels) {
+            if (!channel.isSchemaWritten) {
+                appendSchema(channel);
+                channel.isSchemaWritten = true;
+            }
+            LogColumns columns = channel.columnsTaken;
+            if (columns.getRowCount() > 0) {
+                appendColumns(columns);
+                writtenRecords.addAndGet(columns.getRowCount());
+                columns.clear();
+            }
+        }
+        for (TextRecord record : textsTaken) {
+            appendText(record);
+        }
+        textsTaken.clear();
+        beginBlock(BLOCK_SEGMENT_END, 0);
+        commit(blockTimestampNs);
+        segments++;
+    }
+
+    /**
+     * Take the records of every channel and every text record queued, holding every lock at once,
+     * so no record is stored in one of them while the rest are being taken.
+     *
+     * Locks are always taken in the same order, and producers only hold one of them, so there are
+     * no deadlocks.
+     */
+    private void cut(List<Channel> segmentChannels, int index) {
+        if (index < segmentChannels.size()) {
+            Channel channel = segmentChannels.get(index);
+            synchronized (channel) {
+                cut(segmentChannels, index + 1);
+                channel.swap();
+            }
+        } else {
+            synchronized (textQueue) {
+                textQueue.drainTo(textsTaken);
+            }
+        }
+    }
+
+    private void appendSchema(Channel channel) {
+        LogSchema schema = channel.schema;
+        byte[] prefix = schema.getPrefix().getBytes(StandardCharsets.UTF_8);
+        byte[][] names = new byte[schema.getFieldCount()][];
+        int size = 2 + 2 + prefix.length + 2;
+        for (int field = 0; field < names.length; field++) {
+            names[field] = schema.getField(field).getName().getBytes(StandardCharsets.UTF_8);
+            size += 2 + names[field].length + 2;
+        }
+        beginBlock(BLOCK_SCHEMA, size);
+        buffer.putShort((short) channel.sensorId);
+        buffer.putShort((short) prefix.length).put(prefix);
+        buffer.putShort((short) names.length);
+        for (int field = 0; field < names.length; field++) {
+            buffer.putShort((short) names[field].length).put(names[field]);
+            buffer.put((byte) schema.getField(field).getType().getCode());
+            buffer.put((byte) schema.getField(field).getDecimals());
+        }
+    }
+
+    private void appendColumns(LogColumns columns) {
+        beginBlock(BLOCK_COLUMNS, 2 + columns.getSerializedSize());
+        buffer.putShort((short) columns.getSensorId());
+        columns.writeTo(buffer);
+    }
+
+    private void appendText(TextRecord record) {
+        byte[] text = record.text.getBytes(StandardCharsets.UTF_8);
+        beginBlock(BLOCK_TEXT, 8 + text.length);
+        buffer.putLong(record.appTimestampNanoseconds);
+        buffer.put(text);
+        writtenRecords.incrementAndGet();
+    }
+
+    /**
+     * Write the header of a block, making sure the buffer has room for its payload.
+     */
+    private void beginBlock(byte type, int payloadSize) {
+        int required = BLOCK_HEADER_SIZE + payloadSize;
+        if (buffer.remaining() < required) {
+            // The whole segment is kept in memory until committed, so grow the buffer
+            int newCapacity = Math.max(buffer.capacity() * 2, buffer.position() + required);
+            ByteBuffer newBuffer = ByteBuffer.allocate(newCapacity).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+        buffer.put(type);
+        buffer.putInt(payloadSize);
+    }
+
+    /**
+     * Write the whole buffer to the file channel and, depending on the durability, force it to
+     * the storage.
+     *
+     * @param blockTimestampNs Timestamp of the compressed block, if compressing.
+     */
+    private void commit(long blockTimestampNs) throws IOException {
+        buffer.flip();
+        if (compressedBlockWriter != null) {
+            writtenBytes += compressedBlockWriter.writeBlock(buffer, blockTimestampNs);
+        } else {
+            while (buffer.hasRemaining()) {
+                writtenBytes += fileChannel.write(buffer);
+            }
+        }
+        buffer.clear();
+        if (durability == LogWriter.Durability.Synced) {
+            fileChannel.force(false);
+        }
+    }
+
+    // endregion
+}
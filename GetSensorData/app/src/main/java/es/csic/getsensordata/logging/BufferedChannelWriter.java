@@ -0,0 +1,220 @@
+package es.csic.getsensordata.logging;
+
+import android.util.Log;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base of the asynchronous writers of a stream captured to a file, as `WavWriter` and
+ * `RawCaptureWriter`.
+ *
+ * The capturing thread fills the active buffer, one of a few large direct buffers allocated once,
+ * holding the lock of the writer. Once full, or once the flush interval expires, it hands it to the
+ * writer thread with `swapActiveBuffer()`, which takes a free buffer in its place, or fails if
+ * every buffer is waiting to be written, so the subclass drops what doesn't fit instead of
+ * blocking. The writer thread writes every buffer to the file channel in one go and gives it back,
+ * and hands over the active buffer itself once filled for longer than the flush interval, so a
+ * slow stream is still written in time.
+ *
+ * Subclasses put their header in the active buffer and then call `startWriterThread()`, in their
+ * constructor.
+ */
+abstract class BufferedChannelWriter {
+    private static final long MAX_POLL_INTERVAL_MS = 100;
+
+    private final String tag;
+    private final String fileDescription;
+    private final FileOutputStream fileOutputStream;
+    protected final FileChannel fileChannel;
+    protected final int bufferSize;
+    private final long flushIntervalNs;
+    private final long pollIntervalNs;
+    // Buffers ready to be filled, and filled ones ready to be written
+    private final ArrayBlockingQueue<ByteBuffer> freeBuffers;
+    private final ArrayBlockingQueue<ByteBuffer> filledBuffers;
+    private Thread writerThread;
+    // Buffer being filled, and when its flush interval started, guarded by the writer itself
+    protected ByteBuffer activeBuffer;
+    protected long activeBufferNs;
+
+    protected volatile boolean open = true;
+
+    // Only accessed by the writer thread, until it finishes
+    protected long writtenBytes = 0;
+    protected long commits = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param tag              Tag of the subclass, for its log messages.
+     * @param fileDescription  What the file holds, for the errors, as "WAV file".
+     * @param fileOutputStream Stream of the file. The writer owns it from now on, and closes it
+     *                         when the writer is closed.
+     * @param bufferSize       Size, in bytes, of each buffer.
+     * @param bufferCount      Number of buffers, at least two.
+     * @param flushIntervalMs  Maximum time, in milliseconds, the data waits in a buffer.
+     */
+    BufferedChannelWriter(String tag, String fileDescription, FileOutputStream fileOutputStream, int bufferSize, int bufferCount, long flushIntervalMs) {
+        if (bufferCount < 2) {
+            throw new IllegalArgumentException("At least two buffers are needed");
+        }
+        this.tag = tag;
+        this.fileDescription = fileDescription;
+        this.fileOutputStream = fileOutputStream;
+        this.fileChannel = fileOutputStream.getChannel();
+        this.bufferSize = bufferSize;
+        this.flushIntervalNs = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.pollIntervalNs = Math.min(flushIntervalNs, TimeUnit.MILLISECONDS.toNanos(MAX_POLL_INTERVAL_MS));
+        this.freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+        this.filledBuffers = new ArrayBlockingQueue<>(bufferCount);
+        for (int index = 1; index < bufferCount; index++) {
+            freeBuffers.add(ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN));
+        }
+        activeBuffer = ByteBuffer.allocateDirect(bufferSize).order(ByteOrder.LITTLE_ENDIAN);
+        activeBufferNs = System.nanoTime();
+    }
+
+    /**
+     * Start the writer thread, once the header is in the active buffer.
+     */
+    protected void startWriterThread() {
+        writerThread = new Thread(this::writeLoop);
+        writerThread.setName("Writer thread - " + tag);
+        writerThread.start();
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    // endregion
+
+    // region Subclass Interface
+
+    /**
+     * Stop accepting data, and block until the writer thread writes the buffers still filled and
+     * closes the file.
+     *
+     * @return false if it was already closed.
+     */
+    protected boolean closeBuffers() {
+        synchronized (this) {
+            if (!open) {
+                return false;
+            }
+            if (activeBuffer.position() > 0) {
+                filledBuffers.add(activeBuffer);
+                activeBuffer = null;
+            }
+            open = false;
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    /**
+     * Hand the buffer being filled to the writer thread, and take a free one. Call it holding the
+     * lock of the writer.
+     *
+     * @return false if there is no free buffer, in which case the buffer being filled is kept.
+     */
+    protected boolean swapActiveBuffer() {
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null) {
+            return false;
+        }
+        filledBuffers.add(activeBuffer);
+        activeBuffer = buffer;
+        activeBufferNs = System.nanoTime();
+        return true;
+    }
+
+    /**
+     * Get the number of free buffers. They can only increase until the next swap, as the writer
+     * thread gives them back.
+     */
+    protected int getFreeBufferCount() {
+        return freeBuffers.size();
+    }
+
+    protected long getFlushIntervalNs() {
+        return flushIntervalNs;
+    }
+
+    /**
+     * Called in the writer thread after every buffer written, as to patch a header.
+     */
+    protected void onBufferWritten() throws IOException {
+    }
+
+    // endregion
+
+    // region Writer Thread
+
+    private void writeLoop() {
+        try {
+            while (open || !filledBuffers.isEmpty()) {
+                ByteBuffer buffer;
+                try {
+                    // Wake up often enough to notice close() was called, and to flush a buffer
+                    // filled slowly. The writer thread is never interrupted, as that would close
+                    // the file channel
+                    buffer = filledBuffers.poll(pollIntervalNs, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException exception) {
+                    buffer = filledBuffers.poll();
+                }
+                if (buffer == null) {
+                    flushIfExpired();
+                    continue;
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    writtenBytes += fileChannel.write(buffer);
+                }
+                buffer.clear();
+                freeBuffers.add(buffer);
+                commits++;
+                onBufferWritten();
+            }
+        } catch (IOException exception) {
+            Log.e(tag, "Error writing to " + fileDescription, exception);
+            synchronized (this) {
+                open = false;
+            }
+        } finally {
+            try {
+                fileOutputStream.close();
+            } catch (IOException exception) {
+                Log.e(tag, "Error closing " + fileDescription, exception);
+            }
+        }
+    }
+
+    /**
+     * Hand the buffer being filled to the writer thread if it has been filled for longer than the
+     * flush interval, as when the stream stops or slows down.
+     */
+    private synchronized void flushIfExpired() {
+        if (open && activeBuffer.position() > 0 && System.nanoTime() - activeBufferNs >= flushIntervalNs) {
+            swapActiveBuffer();
+        }
+    }
+
+    // endregion
+}
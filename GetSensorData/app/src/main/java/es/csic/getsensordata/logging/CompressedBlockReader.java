@@ -0,0 +1,355 @@
+package es.csic.getsensordata.logging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of the files written through `CompressedBlockWriter`.
+ *
+ * The index of the blocks is read from the end of the file or, if the file wasn't closed, rebuilt
+ * from the headers of the blocks, ignoring a truncated last block. Then any block can be read on
+ * its own, so reading from a given time only decompresses the blocks from there on.
+ *
+ * Files are decompressed on a desktop with `CompressedBlockReaderTool`, from the unit test
+ * classpath.
+ */
+public class CompressedBlockReader implements Closeable {
+    private final FileChannel fileChannel;
+    private final ByteBuffer header = ByteBuffer.allocate(CompressedBlockWriter.BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final Inflater inflater = new Inflater(true);
+    private final CRC32 crc32 = new CRC32();
+    private byte[] input = new byte[0];
+
+    private long[] blockTimestamps = new long[64];
+    private long[] blockOffsets = new long[64];
+    private int blockCount = 0;
+    private boolean isIndexed;
+    private boolean isTruncated = false;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer. The index of the blocks is read right away.
+     *
+     * @param fileChannel Channel of the file to read. The reader owns it from now on, and closes
+     *                    it when the reader is closed.
+     */
+    public CompressedBlockReader(FileChannel fileChannel) throws IOException {
+        this.fileChannel = fileChannel;
+
+        ByteBuffer fileHeader = read(0, CompressedBlockWriter.FILE_HEADER_SIZE);
+        if (fileHeader == null || fileHeader.getInt() != CompressedBlockWriter.MAGIC) {
+            throw new IOException("Not a compressed log file");
+        }
+        int version = fileHeader.getInt();
+        if (version != CompressedBlockWriter.VERSION) {
+            throw new IOException("Unsupported compressed log version: " + version);
+        }
+        byte codec = fileHeader.get();
+        if (codec != CompressedBlockWriter.CODEC_DEFLATE) {
+            throw new IOException("Unsupported compressed log codec: " + codec);
+        }
+
+        isIndexed = readIndex();
+        if (!isIndexed) {
+            rebuildIndex();
+        }
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Check whether a stream is a compressed log file, without consuming it.
+     *
+     * @param inputStream Stream supporting `mark()`.
+     */
+    public static boolean isCompressed(InputStream inputStream) throws IOException {
+        inputStream.mark(4);
+        try {
+            int magic = 0;
+            for (int index = 0; index < 4; index++) {
+                int value = inputStream.read();
+                if (value < 0) {
+                    return false;
+                }
+                magic |= value << (8 * index);
+            }
+            return magic == CompressedBlockWriter.MAGIC;
+        } finally {
+            inputStream.reset();
+        }
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    public long getBlockTimestamp(int block) {
+        return blockTimestamps[block];
+    }
+
+    public long getBlockOffset(int block) {
+        return blockOffsets[block];
+    }
+
+    /**
+     * Whether the index was read from the file, which means it was closed properly.
+     */
+    public boolean isIndexed() {
+        return isIndexed;
+    }
+
+    /**
+     * Whether the last block was truncated, as left by a crash, and so ignored.
+     */
+    public boolean isTruncated() {
+        return isTruncated;
+    }
+
+    /**
+     * Find the block to start reading from to get every record stored from a given time on.
+     *
+     * @param timestampNanoseconds Timestamp of the session, in nanoseconds.
+     *
+     * @return the last block opened not after the time, or the first block if none.
+     */
+    public int findBlock(long timestampNanoseconds) {
+        int low = 0;
+        int high = blockCount - 1;
+        int found = 0;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (blockTimestamps[middle] <= timestampNanoseconds) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Decompress a block.
+     *
+     * @param block Index of the block.
+     *
+     * @return the data of the block, as written.
+     */
+    public byte[] readBlock(int block) throws IOException {
+        long offset = blockOffsets[block];
+        ByteBuffer blockHeader = readHeader(offset);
+        if (blockHeader == null) {
+            throw new IOException("Truncated block " + block);
+        }
+        int compressedSize = blockHeader.getInt();
+        int uncompressedSize = blockHeader.getInt();
+        blockHeader.getLong();
+        int checksum = blockHeader.getInt();
+
+        if (input.length < compressedSize) {
+            input = new byte[compressedSize];
+        }
+        ByteBuffer compressed = ByteBuffer.wrap(input, 0, compressedSize);
+        readFully(compressed, offset + CompressedBlockWriter.BLOCK_HEADER_SIZE);
+        if (compressed.hasRemaining()) {
+            throw new IOException("Truncated block " + block);
+        }
+
+        byte[] output = new byte[uncompressedSize];
+        inflater.reset();
+        inflater.setInput(input, 0, compressedSize);
+        try {
+            int inflated = 0;
+            while (inflated < uncompressedSize && !inflater.finished()) {
+                int count = inflater.inflate(output, inflated, uncompressedSize - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != uncompressedSize) {
+                throw new IOException("Corrupted block " + block);
+            }
+        } catch (DataFormatException exception) {
+            throw new IOException("Corrupted block " + block, exception);
+        }
+        crc32.reset();
+        crc32.update(output, 0, uncompressedSize);
+        if ((int) crc32.getValue() != checksum) {
+            throw new IOException("Checksum mismatch in block " + block);
+        }
+        return output;
+    }
+
+    /**
+     * Open a stream of the data of the blocks, decompressed one at a time, from a given block on.
+     *
+     * @param firstBlock Index of the first block to read, usually found with `findBlock()`.
+     */
+    public InputStream openStream(int firstBlock) {
+        return new InputStream() {
+            private int nextBlock = firstBlock;
+            private byte[] data = new byte[0];
+            private int position = 0;
+
+            @Override
+            public int read() throws IOException {
+                if (!fill()) {
+                    return -1;
+                }
+                return data[position++] & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                if (length == 0) {
+                    return 0;
+                }
+                if (!fill()) {
+                    return -1;
+                }
+                int count = Math.min(length, data.length - position);
+                System.arraycopy(data, position, bytes, offset, count);
+                position += count;
+                return count;
+            }
+
+            private boolean fill() throws IOException {
+                while (position == data.length) {
+                    if (nextBlock >= blockCount) {
+                        return false;
+                    }
+                    data = readBlock(nextBlock++);
+                    position = 0;
+                }
+                return true;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        inflater.end();
+        fileChannel.close();
+    }
+
+    // endregion
+
+    // region Index
+
+    /**
+     * Read the index at the end of the file.
+     *
+     * @return false if there is no valid index, as when the file wasn't closed.
+     */
+    private boolean readIndex() throws IOException {
+        long size = fileChannel.size();
+        long minimumSize = CompressedBlockWriter.FILE_HEADER_SIZE + 8 + CompressedBlockWriter.INDEX_TRAILER_SIZE;
+        if (size < minimumSize) {
+            return false;
+        }
+        ByteBuffer trailer = read(size - CompressedBlockWriter.INDEX_TRAILER_SIZE, CompressedBlockWriter.INDEX_TRAILER_SIZE);
+        long indexOffset = trailer.getLong();
+        if (trailer.getInt() != CompressedBlockWriter.INDEX_MAGIC ||
+                indexOffset < CompressedBlockWriter.FILE_HEADER_SIZE || indexOffset > size - 8 - CompressedBlockWriter.INDEX_TRAILER_SIZE) {
+            return false;
+        }
+        ByteBuffer indexHeader = read(indexOffset, 8);
+        int count = indexHeader.getInt() == CompressedBlockWriter.INDEX_MARK ? indexHeader.getInt() : -1;
+        if (count < 0 || indexOffset + 8 + (long) count * CompressedBlockWriter.INDEX_ENTRY_SIZE + CompressedBlockWriter.INDEX_TRAILER_SIZE != size) {
+            return false;
+        }
+        ByteBuffer entries = read(indexOffset + 8, count * CompressedBlockWriter.INDEX_ENTRY_SIZE);
+        blockTimestamps = new long[Math.max(1, count)];
+        blockOffsets = new long[Math.max(1, count)];
+        for (int block = 0; block < count; block++) {
+            blockTimestamps[block] = entries.getLong();
+            blockOffsets[block] = entries.getLong();
+        }
+        blockCount = count;
+        return true;
+    }
+
+    /**
+     * Rebuild the index walking through the headers of the blocks, up to the first one truncated.
+     */
+    private void rebuildIndex() throws IOException {
+        long size = fileChannel.size();
+        long offset = CompressedBlockWriter.FILE_HEADER_SIZE;
+        while (offset < size) {
+            ByteBuffer blockHeader = readHeader(offset);
+            if (blockHeader == null) {
+                isTruncated = true;
+                break;
+            }
+            int compressedSize = blockHeader.getInt();
+            if (compressedSize == CompressedBlockWriter.INDEX_MARK) {
+                // An index cut by a crash while closing: every block is already there
+                break;
+            }
+            blockHeader.getInt();
+            long timestamp = blockHeader.getLong();
+            long end = offset + CompressedBlockWriter.BLOCK_HEADER_SIZE + compressedSize;
+            if (compressedSize < 0 || end > size) {
+                isTruncated = true;
+                break;
+            }
+            if (blockCount == blockTimestamps.length) {
+                blockTimestamps = Arrays.copyOf(blockTimestamps, blockCount * 2);
+                blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+            }
+            blockTimestamps[blockCount] = timestamp;
+            blockOffsets[blockCount] = offset;
+            blockCount++;
+            offset = end;
+        }
+    }
+
+    // endregion
+
+    private ByteBuffer readHeader(long offset) throws IOException {
+        header.clear();
+        readFully(header, offset);
+        if (header.hasRemaining()) {
+            // Only the index mark fits at the end of a file whose index was cut
+            if (header.position() >= 4 && header.getInt(0) == CompressedBlockWriter.INDEX_MARK) {
+                header.flip();
+                return header;
+            }
+            return null;
+        }
+        header.flip();
+        return header;
+    }
+
+    private ByteBuffer read(long offset, int size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        readFully(buffer, offset);
+        if (buffer.hasRemaining()) {
+            return null;
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = fileChannel.read(buffer, offset);
+            if (count < 0) {
+                break;
+            }
+            offset += count;
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package es.csic.getsensordata.logging;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Compression stage of the log writers: each commit is written as an independent compressed
+ * block, instead of as is.
+ *
+ * Every block is compressed on its own, so it can be decompressed without reading any other one,
+ * and starts with the timestamp of the session when it was opened: every record of the previous
+ * blocks was stored before it. When closed, an index with the timestamp and the offset of every
+ * block is appended, so `CompressedBlockReader` can seek to a time range without decompressing the
+ * whole file. If the app crashes, only the block being filled, not yet written, is lost; the
+ * reader rebuilds the index from the headers of the blocks and ignores a truncated last block.
+ *
+ * File layout, in little endian:
+ *
+ *     int32  magic ("GSDZ")
+ *     int32  version
+ *     int8   codec (1: raw deflate)
+ *     blocks, each one being:
+ *         int32  compressed size, in bytes
+ *         int32  uncompressed size, in bytes
+ *         int64  timestamp (ns)
+ *         int32  CRC-32 of the uncompressed bytes
+ *         compressed bytes
+ *     index, when closed:
+ *         int32  -1, instead of a compressed size
+ *         int32  block count
+ *         for each block: int64 timestamp (ns), int64 offset of the block in the file
+ *         int64  offset of the index in the file
+ *         int32  magic ("GSDI")
+ *
+ * Not thread safe: it is meant to be used by the writer thread of its log writer only.
+ */
+public class CompressedBlockWriter {
+    public static final int MAGIC = 0x5A445347; // "GSDZ", as read in little endian
+    public static final int INDEX_MAGIC = 0x49445347; // "GSDI", as read in little endian
+    public static final int VERSION = 1;
+    public static final byte CODEC_DEFLATE = 1;
+
+    public static final int DEFAULT_LEVEL = 6;
+
+    static final int FILE_HEADER_SIZE = 9;
+    static final int BLOCK_HEADER_SIZE = 20;
+    static final int INDEX_MARK = -1;
+    static final int INDEX_ENTRY_SIZE = 16;
+    static final int INDEX_TRAILER_SIZE = 12;
+
+    private final FileChannel fileChannel;
+    private final int level;
+    private final Deflater deflater;
+    private final CRC32 crc32 = new CRC32();
+    private final ByteBuffer header = ByteBuffer.allocate(BLOCK_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private byte[] input = new byte[0];
+    private byte[] output = new byte[0];
+
+    private long offset;
+    private long[] blockTimestamps = new long[64];
+    private long[] blockOffsets = new long[64];
+    private int blockCount = 0;
+    private long uncompressedBytes = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer. The header of the file is written right away.
+     *
+     * @param fileChannel Channel of the file the blocks will be written to, at its beginning.
+     * @param level       Compression level, from 1 (fastest) to 9 (smallest).
+     */
+    public CompressedBlockWriter(FileChannel fileChannel, int level) throws IOException {
+        this.fileChannel = fileChannel;
+        this.level = level;
+        deflater = new Deflater(level, true);
+
+        ByteBuffer fileHeader = ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        fileHeader.putInt(MAGIC);
+        fileHeader.putInt(VERSION);
+        fileHeader.put(CODEC_DEFLATE);
+        fileHeader.flip();
+        offset = writeFully(fileHeader);
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    public int getLevel() {
+        return level;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * Get the size, in bytes, of the data written so far, before being compressed.
+     */
+    public long getUncompressedBytes() {
+        return uncompressedBytes;
+    }
+
+    /**
+     * Get the size, in bytes, of the file written so far.
+     */
+    public long getCompressedBytes() {
+        return offset;
+    }
+
+    /**
+     * Compress and write a block.
+     *
+     * @param buffer               Data of the block, from its position to its limit. It is consumed.
+     * @param timestampNanoseconds Timestamp of the session when the block was opened.
+     *
+     * @return size, in bytes, written to the file.
+     */
+    public long writeBlock(ByteBuffer buffer, long timestampNanoseconds) throws IOException {
+        int size = buffer.remaining();
+        if (size == 0) {
+            return 0;
+        }
+        // Deflater only takes arrays on older versions of Android
+        if (input.length < size) {
+            input = new byte[size];
+        }
+        buffer.get(input, 0, size);
+        crc32.reset();
+        crc32.update(input, 0, size);
+
+        deflater.reset();
+        deflater.setInput(input, 0, size);
+        deflater.finish();
+        int compressedSize = 0;
+        if (output.length < size / 2 + 64) {
+            output = new byte[size / 2 + 64];
+        }
+        while (!deflater.finished()) {
+            if (compressedSize == output.length) {
+                output = Arrays.copyOf(output, output.length * 2);
+            }
+            compressedSize += deflater.deflate(output, compressedSize, output.length - compressedSize);
+        }
+
+        if (blockCount == blockTimestamps.length) {
+            blockTimestamps = Arrays.copyOf(blockTimestamps, blockCount * 2);
+            blockOffsets = Arrays.copyOf(blockOffsets, blockCount * 2);
+        }
+        blockTimestamps[blockCount] = timestampNanoseconds;
+        blockOffsets[blockCount] = offset;
+        blockCount++;
+
+        header.clear();
+        header.putInt(compressedSize);
+        header.putInt(size);
+        header.putLong(timestampNanoseconds);
+        header.putInt((int) crc32.getValue());
+        header.flip();
+        long written = writeFully(header) + writeFully(ByteBuffer.wrap(output, 0, compressedSize));
+        offset += written;
+        uncompressedBytes += size;
+        return written;
+    }
+
+    /**
+     * Write the index of the blocks and release the compressor. No block can be written after it.
+     *
+     * @return size, in bytes, written to the file.
+     */
+    public long close() throws IOException {
+        try {
+            ByteBuffer index = ByteBuffer.allocate(8 + blockCount * INDEX_ENTRY_SIZE + INDEX_TRAILER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            index.putInt(INDEX_MARK);
+            index.putInt(blockCount);
+            for (int block = 0; block < blockCount; block++) {
+                index.putLong(blockTimestamps[block]);
+                index.putLong(blockOffsets[block]);
+            }
+            index.putLong(offset);
+            index.putInt(INDEX_MAGIC);
+            index.flip();
+            long written = writeFully(index);
+            offset += written;
+            return written;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // endregion
+
+    private long writeFully(ByteBuffer buffer) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {
+            written += fileChannel.write(buffer);
+        }
+        return written;
+    }
+}
@@ -0,0 +1,262 @@
+package es.csic.getsensordata.logging;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Block of records of a single data sensor, stored by columns: one primitive array for the app
+ * timestamps, another one for the sensor timestamps, and one more for each field of its schema.
+ *
+ * The writer fills it as a `LogRecord`, one row after another, while the reader fills it from a
+ * block read from the file. Blocks are reused, and their arrays only grow when they need more
+ * rows than ever before, so no object is allocated per record.
+ *
+ * Not thread safe: its owner is in charge of synchronizing it.
+ */
+public class LogColumns implements LogRecord {
+    private final int sensorId;
+    private final LogSchema schema;
+    private final LogSchema.FieldType[] fieldTypes;
+
+    private long[] appTimestamps;
+    private long[] sensorTimestamps;
+    // One array per field, only for the type of the field; the rest are null
+    private final float[][] floatColumns;
+    private final double[][] doubleColumns;
+    private final int[][] intColumns;
+
+    private int capacity;
+    private int rowCount = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param sensorId Identifier of the data sensor in the binary session.
+     * @param schema   Schema of the records.
+     * @param capacity Initial number of rows.
+     */
+    public LogColumns(int sensorId, LogSchema schema, int capacity) {
+        this.sensorId = sensorId;
+        this.schema = schema;
+        int fieldCount = schema.getFieldCount();
+        fieldTypes = new LogSchema.FieldType[fieldCount];
+        floatColumns = new float[fieldCount][];
+        doubleColumns = new double[fieldCount][];
+        intColumns = new int[fieldCount][];
+        for (int field = 0; field < fieldCount; field++) {
+            fieldTypes[field] = schema.getField(field).getType();
+        }
+        this.capacity = 0;
+        grow(Math.max(1, capacity));
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    public int getSensorId() {
+        return sensorId;
+    }
+
+    public LogSchema getSchema() {
+        return schema;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public long getAppTimestamp(int row) {
+        return appTimestamps[row];
+    }
+
+    public long getSensorTimestamp(int row) {
+        return sensorTimestamps[row];
+    }
+
+    public float getFloat(int field, int row) {
+        return floatColumns[field][row];
+    }
+
+    public double getDouble(int field, int row) {
+        return doubleColumns[field][row];
+    }
+
+    public int getInt(int field, int row) {
+        return intColumns[field][row];
+    }
+
+    // endregion
+
+    // region LogRecord
+
+    // The row being filled is always the one after the last row committed
+
+    @Override
+    public void setTimestamps(long appTimestampNanoseconds, long sensorTimestampNanoseconds) {
+        appTimestamps[rowCount] = appTimestampNanoseconds;
+        sensorTimestamps[rowCount] = sensorTimestampNanoseconds;
+    }
+
+    @Override
+    public void setFloat(int field, float value) {
+        floatColumns[field][rowCount] = value;
+    }
+
+    @Override
+    public void setDouble(int field, double value) {
+        doubleColumns[field][rowCount] = value;
+    }
+
+    @Override
+    public void setInt(int field, int value) {
+        intColumns[field][rowCount] = value;
+    }
+
+    // endregion
+
+    // region Rows
+
+    /**
+     * Make room for a new row, to be filled as a `LogRecord`.
+     *
+     * @param maximumRowCount Number of rows the block can't grow beyond.
+     *
+     * @return false if the block is already full.
+     */
+    boolean beginRow(int maximumRowCount) {
+        if (rowCount == capacity) {
+            if (capacity >= maximumRowCount) {
+                return false;
+            }
+            grow(Math.min(capacity * 2, maximumRowCount));
+        }
+        return true;
+    }
+
+    /**
+     * Commit the row filled since `beginRow()`.
+     */
+    void endRow() {
+        rowCount++;
+    }
+
+    void clear() {
+        rowCount = 0;
+    }
+
+    private void grow(int newCapacity) {
+        appTimestamps = appTimestamps == null ? new long[newCapacity] : Arrays.copyOf(appTimestamps, newCapacity);
+        sensorTimestamps = sensorTimestamps == null ? new long[newCapacity] : Arrays.copyOf(sensorTimestamps, newCapacity);
+        for (int field = 0; field < fieldTypes.length; field++) {
+            switch (fieldTypes[field]) {
+                case Float32:
+                    floatColumns[field] = floatColumns[field] == null ? new float[newCapacity] : Arrays.copyOf(floatColumns[field], newCapacity);
+                    break;
+                case Float64:
+                    doubleColumns[field] = doubleColumns[field] == null ? new double[newCapacity] : Arrays.copyOf(doubleColumns[field], newCapacity);
+                    break;
+                case Int32:
+                    intColumns[field] = intColumns[field] == null ? new int[newCapacity] : Arrays.copyOf(intColumns[field], newCapacity);
+                    break;
+            }
+        }
+        capacity = newCapacity;
+    }
+
+    // endregion
+
+    // region Serialization
+
+    /**
+     * Get the size, in bytes, of the rows once serialized.
+     */
+    int getSerializedSize() {
+        int rowSize = 16;
+        for (LogSchema.FieldType fieldType : fieldTypes) {
+            rowSize += fieldType.getSize();
+        }
+        return 4 + rowCount * rowSize;
+    }
+
+    /**
+     * Serialize the rows: their number, then each column, one after another.
+     */
+    void writeTo(ByteBuffer buffer) {
+        buffer.putInt(rowCount);
+        for (int row = 0; row < rowCount; row++) {
+            buffer.putLong(appTimestamps[row]);
+        }
+        for (int row = 0; row < rowCount; row++) {
+            buffer.putLong(sensorTimestamps[row]);
+        }
+        for (int field = 0; field < fieldTypes.length; field++) {
+            switch (fieldTypes[field]) {
+                case Float32:
+                    float[] floats = floatColumns[field];
+                    for (int row = 0; row < rowCount; row++) {
+                        buffer.putFloat(floats[row]);
+                    }
+                    break;
+                case Float64:
+                    double[] doubles = doubleColumns[field];
+                    for (int row = 0; row < rowCount; row++) {
+                        buffer.putDouble(doubles[row]);
+                    }
+                    break;
+                case Int32:
+                    int[] ints = intColumns[field];
+                    for (int row = 0; row < rowCount; row++) {
+                        buffer.putInt(ints[row]);
+                    }
+                    break;
+            }
+        }
+    }
+
+    /**
+     * Replace the rows with those serialized by `writeTo()`.
+     */
+    void readFrom(ByteBuffer buffer) {
+        int newRowCount = buffer.getInt();
+        if (newRowCount < 0) {
+            throw new IllegalArgumentException("Invalid number of rows: " + newRowCount);
+        }
+        if (newRowCount > capacity) {
+            grow(newRowCount);
+        }
+        rowCount = newRowCount;
+        for (int row = 0; row < rowCount; row++) {
+            appTimestamps[row] = buffer.getLong();
+        }
+        for (int row = 0; row < rowCount; row++) {
+            sensorTimestamps[row] = buffer.getLong();
+        }
+        for (int field = 0; field < fieldTypes.length; field++) {
+            switch (fieldTypes[field]) {
+                case Float32:
+                    float[] floats = floatColumns[field];
+                    for (int row = 0; row < rowCount; row++) {
+                        floats[row] = buffer.getFloat();
+                    }
+                    break;
+                case Float64:
+                    double[] doubles = doubleColumns[field];
+                    for (int row = 0; row < rowCount; row++) {
+                        doubles[row] = buffer.getDouble();
+                    }
+                    break;
+                case Int32:
+                    int[] ints = intColumns[field];
+                    for (int row = 0; row < rowCount; row++) {
+                        ints[row] = buffer.getInt();
+                    }
+                    break;
+            }
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,185 @@
+package es.csic.getsensordata.logging;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Builder of the lines of the text log, a fast replacement of `String.format(Locale.US, ...)`.
+ *
+ * Every line starts with a line separator and the prefix of the data sensor, followed by its
+ * fields separated by `;`. Numbers are written straight into a reusable `StringBuilder`, so there
+ * is no template to parse and no argument to box on each line.
+ *
+ * The output is the same `String.format()` produces for `%.Nf`, `%d` and `%s`. Floats are widened
+ * to doubles, as `Formatter` does. For doubles, `Formatter` rounds half up the shortest decimal
+ * representation of the value, not the value itself. Both roundings only disagree when the value
+ * is almost exactly halfway between two results, so those values, and those too large or not
+ * finite, fall back to `String.format()`.
+ *
+ * Not thread safe: use an instance per thread, or per data sensor producing its lines in a single
+ * thread.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     // Same as String.format(Locale.US, "\nPRES;%.3f;%.3f;%.4f;%d", ...)
+ *     String line = logLineFormatter.begin("PRES")
+ *             .append(appTimestamp, 3)
+ *             .append(sensorTimestamp, 3)
+ *             .append(pressure, 4)
+ *             .append(accuracy)
+ *             .end();
+ *     ```
+ */
+public class LogLineFormatter {
+    // Decimals supported by the fast path
+    private static final int MAXIMUM_DECIMALS = 9;
+    // Values scaled beyond this don't fit the fast path, where every digit must be exact
+    private static final double MAXIMUM_SCALED_VALUE = 1e15;
+    // Distance to a halfway point, in ulps, safe for both roundings to agree
+    private static final int HALFWAY_MARGIN_ULPS = 4;
+
+    private static final double[] DOUBLE_POWERS_OF_TEN = new double[MAXIMUM_DECIMALS + 1];
+    private static final long[] LONG_POWERS_OF_TEN = new long[MAXIMUM_DECIMALS + 1];
+
+    static {
+        long power = 1;
+        for (int decimals = 0; decimals <= MAXIMUM_DECIMALS; decimals++) {
+            DOUBLE_POWERS_OF_TEN[decimals] = power;
+            LONG_POWERS_OF_TEN[decimals] = power;
+            power *= 10;
+        }
+    }
+
+    private final StringBuilder line = new StringBuilder(256);
+    private char[] lineChars = new char[256];
+
+    // region Public Interface
+
+    /**
+     * Start a new line, discarding the previous one.
+     *
+     * @param prefix Prefix of the data sensor, written after the line separator.
+     */
+    public LogLineFormatter begin(String prefix) {
+        line.setLength(0);
+        line.append('\n').append(prefix);
+        return this;
+    }
+
+    /**
+     * Append a field, same as `%.Nf`.
+     */
+    public LogLineFormatter append(double value, int decimals) {
+        line.append(';');
+        appendFixed(line, value, decimals);
+        return this;
+    }
+
+    /**
+     * Append a field, same as `%.Nf`.
+     */
+    public LogLineFormatter append(float value, int decimals) {
+        line.append(';');
+        appendFixed(line, value, decimals);
+        return this;
+    }
+
+    /**
+     * Append a field, same as `%d`.
+     */
+    public LogLineFormatter append(int value) {
+        line.append(';').append(value);
+        return this;
+    }
+
+    /**
+     * Append a field, same as `%d`.
+     */
+    public LogLineFormatter append(long value) {
+        line.append(';').append(value);
+        return this;
+    }
+
+    /**
+     * Append a field, same as `%s`.
+     */
+    public LogLineFormatter append(String value) {
+        line.append(';').append(value);
+        return this;
+    }
+
+    /**
+     * Get the line built, as a new string.
+     */
+    public String end() {
+        return line.toString();
+    }
+
+    /**
+     * Get the line built, without copying it. Only valid until the next line is started.
+     */
+    public CharSequence getLine() {
+        return line;
+    }
+
+    /**
+     * Write the line built, without copying it into a string.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        int length = line.length();
+        if (lineChars.length < length) {
+            lineChars = new char[length * 2];
+        }
+        line.getChars(0, length, lineChars, 0);
+        writer.write(lineChars, 0, length);
+    }
+
+    /**
+     * Append a number with a fixed number of decimals, same as `String.format(Locale.US, "%.Nf")`.
+     *
+     * @param builder  Where the number is appended.
+     * @param value    Number to append.
+     * @param decimals Number of decimals.
+     */
+    public static void appendFixed(StringBuilder builder, double value, int decimals) {
+        if (decimals < 0 || decimals > MAXIMUM_DECIMALS || Double.isNaN(value) || Double.isInfinite(value)) {
+            appendFixedSlowly(builder, value, decimals);
+            return;
+        }
+        double scaled = Math.abs(value) * DOUBLE_POWERS_OF_TEN[decimals];
+        if (scaled >= MAXIMUM_SCALED_VALUE) {
+            appendFixedSlowly(builder, value, decimals);
+            return;
+        }
+        double integral = Math.floor(scaled);
+        double fraction = scaled - integral;
+        if (Math.abs(fraction - 0.5) <= HALFWAY_MARGIN_ULPS * Math.ulp(scaled)) {
+            appendFixedSlowly(builder, value, decimals);
+            return;
+        }
+        long rounded = (long) integral + (fraction > 0.5 ? 1 : 0);
+
+        // Negative values keep their sign even if rounded to zero, as `Formatter` does
+        if (Double.doubleToRawLongBits(value) < 0) {
+            builder.append('-');
+        }
+        long powerOfTen = LONG_POWERS_OF_TEN[decimals];
+        builder.append(rounded / powerOfTen);
+        if (decimals > 0) {
+            builder.append('.');
+            long fractionDigits = rounded % powerOfTen;
+            for (int digit = decimals - 1; digit > 0 && fractionDigits < LONG_POWERS_OF_TEN[digit]; digit--) {
+                builder.append('0');
+            }
+            builder.append(fractionDigits);
+        }
+    }
+
+    // endregion
+
+    private static void appendFixedSlowly(StringBuilder builder, double value, int decimals) {
+        builder.append(String.format(Locale.US, "%." + decimals + "f", value));
+    }
+}
@@ -0,0 +1,34 @@
+package es.csic.getsensordata.logging;
+
+/**
+ * Record of a binary session being filled, following a `LogSchema`.
+ *
+ * Fields are identified by their index in the schema. Setting a field with a type different to
+ * the one in the schema is an error.
+ */
+public interface LogRecord {
+
+    /**
+     * Whoever can fill a record with its current status, like a data sensor.
+     */
+    interface Source {
+        /**
+         * Fill the record with the current status. Counterpart of `getStatusForLog()`.
+         *
+         * @param record Record to fill. Only valid during the call.
+         */
+        void writeLogRecord(LogRecord record);
+    }
+
+    /**
+     * @param appTimestampNanoseconds    Time, in nanoseconds, since the session started.
+     * @param sensorTimestampNanoseconds Time, in nanoseconds, the sensor took the sample.
+     */
+    void setTimestamps(long appTimestampNanoseconds, long sensorTimestampNanoseconds);
+
+    void setFloat(int field, float value);
+
+    void setDouble(int field, double value);
+
+    void setInt(int field, int value);
+}
@@ -0,0 +1,136 @@
+package es.csic.getsensordata.logging;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Description of the records a data sensor stores in a binary session: its prefix and the typed
+ * fields following the two timestamps every record has.
+ *
+ * Each field knows how many decimals it has in the text log, so a binary session can be converted
+ * back to the same lines `getStatusForLog()` produces. For example, the accelerometer is described as:
+ *
+ *     ```java
+ *     new LogSchema("ACCE",
+ *             new LogSchema.Field("Acc_X(m/s^2)", LogSchema.FieldType.Float32, 5),
+ *             new LogSchema.Field("Acc_Y(m/s^2)", LogSchema.FieldType.Float32, 5),
+ *             new LogSchema.Field("Acc_Z(m/s^2)", LogSchema.FieldType.Float32, 5),
+ *             new LogSchema.Field("Accuracy(integer)", LogSchema.FieldType.Int32, 0));
+ *     ```
+ *
+ * which matches the text layout `ACCE;%.3f;%.3f;%.5f;%.5f;%.5f;%d`.
+ */
+public class LogSchema {
+
+    // region Field
+
+    /**
+     * Type of the values of a field, as stored in a binary session.
+     */
+    public enum FieldType {
+        Float32(1, 4),
+        Float64(2, 8),
+        Int32(3, 4);
+
+        private final int code;
+        private final int size;
+
+        FieldType(int code, int size) {
+            this.code = code;
+            this.size = size;
+        }
+
+        public int getCode() {
+            return code;
+        }
+
+        // Size, in bytes, of each value
+        public int getSize() {
+            return size;
+        }
+
+        public static FieldType fromCode(int code) {
+            for (FieldType fieldType : values()) {
+                if (fieldType.code == code) {
+                    return fieldType;
+                }
+            }
+            throw new IllegalArgumentException("Unknown field type: " + code);
+        }
+    }
+
+    /**
+     * Field of a record.
+     */
+    public static class Field {
+        private final String name;
+        private final FieldType type;
+        private final int decimals;
+
+        /**
+         * Class initializer.
+         *
+         * @param name     Name of the field, including its units.
+         * @param type     Type of its values.
+         * @param decimals Number of decimals written in the text log. Ignored for integers.
+         */
+        public Field(String name, FieldType type, int decimals) {
+            this.name = name;
+            this.type = type;
+            this.decimals = decimals;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public FieldType getType() {
+            return type;
+        }
+
+        public int getDecimals() {
+            return decimals;
+        }
+    }
+
+    // endregion
+
+    private final String prefix;
+    private final List<Field> fields;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param prefix Prefix of the records, as in the text log.
+     * @param fields Fields of the records, after the app and sensor timestamps.
+     */
+    public LogSchema(String prefix, Field... fields) {
+        this.prefix = prefix;
+        this.fields = Collections.unmodifiableList(Arrays.asList(fields.clone()));
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public List<Field> getFields() {
+        return fields;
+    }
+
+    public int getFieldCount() {
+        return fields.size();
+    }
+
+    public Field getField(int index) {
+        return fields.get(index);
+    }
+
+    // endregion
+}
@@ -0,0 +1,316 @@
+package es.csic.getsensordata.logging;
+
+import android.util.Log;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Asynchronous log writer.
+ *
+ * Records are handed to the writer through a bounded queue, so the threads producing them (the UI
+ * thread, sensor callbacks, etc.) never touch the file system. A single writer thread drains the
+ * queue, encodes the records into a large direct buffer and writes it to the file channel in one
+ * go ("group commit") when the buffer is full or when the flush interval expires.
+ *
+ * If the queue is full the record is dropped and counted, instead of blocking the producer. Every
+ * record queued before `close()` is written, as records are only queued while holding the lock of
+ * the queue, and `close()` takes it to stop accepting them.
+ *
+ * Optionally, each commit is compressed as an independent block through a `CompressedBlockWriter`,
+ * timestamped with the session time the first of its records was taken from the queue. Records
+ * are never split between blocks, unless a single one doesn't fit in the buffer.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     LogWriter logWriter = new LogWriter(new FileOutputStream(file));
+ *     logWriter.write("\nPOSI;...");
+ *     ...
+ *     logWriter.close();
+ *     ```
+ */
+public class LogWriter {
+    private static final String TAG = "LogWriter";
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 16384;
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+    // Compression level to write the records as they are
+    public static final int NO_COMPRESSION = 0;
+    private static final long MAX_POLL_INTERVAL_MS = 100;
+    // Worst case of UTF-8 bytes per char
+    private static final int MAX_BYTES_PER_CHAR = 3;
+
+    /**
+     * How hard the writer tries to make committed records survive a crash.
+     */
+    public enum Durability {
+        // Records are written to the file channel on each commit, and the OS decides when they
+        // reach the storage
+        Buffered,
+        // Records are written to the file channel and forced to the storage on each commit
+        Synced
+    }
+
+    private final FileOutputStream fileOutputStream;
+    private final FileChannel fileChannel;
+    private final ArrayBlockingQueue<String> queue;
+    private final ByteBuffer buffer;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final long flushIntervalNs;
+    private final long pollIntervalNs;
+    private final Durability durability;
+    private final int compressionLevel;
+    private final long epochNanoseconds;
+    private final Thread writerThread;
+    // Only accessed by the writer thread
+    private CompressedBlockWriter compressedBlockWriter;
+    private long blockTimestampNs;
+
+    private volatile boolean open = true;
+    private long lastCommitNs;
+
+    private final AtomicLong writtenRecords = new AtomicLong();
+    private final AtomicLong droppedRecords = new AtomicLong();
+    private long writtenBytes = 0;
+    private long commits = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer, using the default queue capacity, buffer size, flush interval and
+     * durability.
+     *
+     * @param fileOutputStream Stream of the file the records will be written to.
+     */
+    public LogWriter(FileOutputStream fileOutputStream) {
+        this(fileOutputStream, DEFAULT_QUEUE_CAPACITY, DEFAULT_BUFFER_SIZE, DEFAULT_FLUSH_INTERVAL_MS, Durability.Buffered);
+    }
+
+    /**
+     * Class initializer.
+     *
+     * @param fileOutputStream Stream of the file the records will be written to. The writer owns
+     *                         it from now on, and closes it when the writer is closed.
+     * @param queueCapacity    Maximum number of records waiting to be written.
+     * @param bufferSize       Size, in bytes, of the buffer records are grouped in before writing.
+     * @param flushIntervalMs  Maximum time, in milliseconds, a record waits in the buffer.
+     * @param durability       Whether commits should be forced to the storage or not.
+     */
+    public LogWriter(FileOutputStream fileOutputStream, int queueCapacity, int bufferSize, long flushIntervalMs, Durability durability) {
+        this(fileOutputStream, queueCapacity, bufferSize, flushIntervalMs, durability, NO_COMPRESSION, 0);
+    }
+
+    /**
+     * Class initializer, compressing the records.
+     *
+     * @param fileOutputStream Stream of the file the records will be written to. The writer owns
+     *                         it from now on, and closes it when the writer is closed.
+     * @param queueCapacity    Maximum number of records waiting to be written.
+     * @param bufferSize       Size, in bytes, of the buffer records are grouped in before writing.
+     *                         Each commit is a compressed block, of at most this size.
+     * @param flushIntervalMs  Maximum time, in milliseconds, a record waits in the buffer.
+     * @param durability       Whether commits should be forced to the storage or not.
+     * @param compressionLevel Compression level, from 1 (fastest) to 9 (smallest), or
+     *                         `NO_COMPRESSION` to write the records as they are.
+     * @param epochNanoseconds Value of `System.nanoTime()` when the session started, used to
+     *                         timestamp the compressed blocks.
+     */
+    public LogWriter(FileOutputStream fileOutputStream, int queueCapacity, int bufferSize, long flushIntervalMs, Durability durability, int compressionLevel, long epochNanoseconds) {
+        this.fileOutputStream = fileOutputStream;
+        this.fileChannel = fileOutputStream.getChannel();
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.buffer = ByteBuffer.allocateDirect(bufferSize);
+        this.flushIntervalNs = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+        this.pollIntervalNs = Math.min(flushIntervalNs, TimeUnit.MILLISECONDS.toNanos(MAX_POLL_INTERVAL_MS));
+        this.durability = durability;
+        this.compressionLevel = compressionLevel;
+        this.epochNanoseconds = epochNanoseconds;
+
+        Log.d(TAG, "LogWriter(" +
+                "queueCapacity=" + queueCapacity + ", " +
+                "bufferSize=" + bufferSize + ", " +
+                "flushIntervalMs=" + flushIntervalMs + ", " +
+                "durability=" + durability + ", " +
+                "compressionLevel=" + compressionLevel + ")");
+
+        lastCommitNs = System.nanoTime();
+        writerThread = new Thread(this::writeLoop);
+        writerThread.setName("Writer thread - LogWriter");
+        writerThread.start();
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Queue a record to be written. Never blocks.
+     *
+     * @param record Text to write, including its line separator.
+     *
+     * @return true if the record was queued, false if it was dropped because the queue is full or
+     * the writer is closed.
+     */
+    public boolean write(String record) {
+        // Checked and queued under the same lock close() takes, so no record is queued once the
+        // writer thread may have seen the writer closed
+        synchronized (queue) {
+            if (open && queue.offer(record)) {
+                return true;
+            }
+        }
+        droppedRecords.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Stop accepting records, write those still queued and close the file.
+     *
+     * Blocks until the writer thread finishes, which is bounded by the records still queued.
+     */
+    public void close() {
+        Log.d(TAG, "close()");
+
+        synchronized (queue) {
+            open = false;
+        }
+        try {
+            writerThread.join();
+        } catch (InterruptedException exception) {
+            Thread.currentThread().interrupt();
+        }
+
+        Log.i(TAG, "Closed. Records written: " + getWrittenRecords() +
+                ", dropped: " + getDroppedRecords() +
+                ", bytes: " + writtenBytes +
+                ", commits: " + commits);
+    }
+
+    public boolean isOpen() {
+        return open;
+    }
+
+    public long getWrittenRecords() {
+        return writtenRecords.get();
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    // endregion
+
+    // region Writer Thread
+
+    private void writeLoop() {
+        try {
+            if (compressionLevel != NO_COMPRESSION) {
+                compressedBlockWriter = new CompressedBlockWriter(fileChannel, compressionLevel);
+            }
+            while (open || !queue.isEmpty()) {
+                String record;
+                try {
+                    // Wake up often enough to notice close() was called. The writer thread is
+                    // never interrupted, as that would close the file channel
+                    record = queue.poll(pollIntervalNs, TimeUnit.NANOSECONDS);
+                } catch (InterruptedException exception) {
+                    record = queue.poll();
+                }
+                if (record != null) {
+                    append(record);
+                    // Group every record already waiting with the one just taken. Records
+                    // arriving meanwhile wait for the next round, so commits are never delayed
+                    for (int pending = queue.size(); pending > 0; pending--) {
+                        append(queue.poll());
+                    }
+                }
+                if (System.nanoTime() - lastCommitNs >= flushIntervalNs) {
+                    commit();
+                }
+            }
+            commit();
+            if (compressedBlockWriter != null) {
+                writtenBytes += compressedBlockWriter.close();
+                compressedBlockWriter = null;
+                if (durability == Durability.Synced) {
+                    fileChannel.force(false);
+                }
+            }
+        } catch (IOException exception) {
+            Log.e(TAG, "Error writing to log file", exception);
+            synchronized (queue) {
+                open = false;
+            }
+            droppedRecords.addAndGet(queue.size());
+            queue.clear();
+        } finally {
+            try {
+                fileOutputStream.close();
+            } catch (IOException exception) {
+                Log.e(TAG, "Error closing log file", exception);
+            }
+        }
+    }
+
+    /**
+     * Encode a record into the buffer, committing the buffer first if the record might not fit,
+     * and each time it fills up.
+     */
+    private void append(String record) throws IOException {
+        if (buffer.remaining() < record.length() * MAX_BYTES_PER_CHAR) {
+            commit();
+        }
+        if (buffer.position() == 0) {
+            blockTimestampNs = System.nanoTime() - epochNanoseconds;
+        }
+        CharBuffer chars = CharBuffer.wrap(record);
+        encoder.reset();
+        while (true) {
+            CoderResult result = encoder.encode(chars, buffer, true);
+            if (result.isOverflow()) {
+                commit();
+                blockTimestampNs = System.nanoTime() - epochNanoseconds;
+            } else {
+                break;
+            }
+        }
+        writtenRecords.incrementAndGet();
+    }
+
+    /**
+     * Write the whole buffer to the file channel and, depending on the durability, force it to
+     * the storage.
+     */
+    private void commit() throws IOException {
+        lastCommitNs = System.nanoTime();
+        if (buffer.position() == 0) {
+            return;
+        }
+        buffer.flip();
+        if (compressedBlockWriter != null) {
+            writtenBytes += compressedBlockWriter.writeBlock(buffer, blockTimestampNs);
+        } else {
+            while (buffer.hasRemaining()) {
+                writtenBytes += fileChannel.write(buffer);
+            }
+        }
+        buffer.clear();
+        if (durability == Durability.Synced) {
+            fileChannel.force(false);
+        }
+        commits++;
+    }
+
+    // endregion
+}
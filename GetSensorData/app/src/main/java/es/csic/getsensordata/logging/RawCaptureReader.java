@@ -0,0 +1,174 @@
+package es.csic.getsensordata.logging;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming reader of the raw captures written by `RawCaptureWriter`.
+ *
+ * Chunks are read one at a time into a reusable `Chunk`, so captures of any length can be read
+ * with the memory of the largest chunk.
+ *
+ * A chunk truncated at the end of the file, as left by a crash, ends the reading without error;
+ * check `isTruncated()` to know it happened.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     try (RawCaptureReader reader = new RawCaptureReader(new BufferedInputStream(new FileInputStream(file)))) {
+ *         RawCaptureReader.Chunk chunk = new RawCaptureReader.Chunk();
+ *         while (reader.next(chunk)) {
+ *             // Feed chunk.bytes, from 0 to chunk.length, to the parser of reader.getPrefix()
+ *         }
+ *     }
+ *     ```
+ */
+public class RawCaptureReader implements Closeable {
+
+    /**
+     * Bytes received at once from the device. Reuse it from one chunk to the next.
+     */
+    public static class Chunk {
+        // Time, in nanoseconds, since the session started
+        public long timestampNanoseconds;
+        public byte[] bytes = new byte[4096];
+        public int length;
+    }
+
+    private final InputStream inputStream;
+    private final byte[] chunkHeader = new byte[RawCaptureWriter.CHUNK_HEADER_SIZE];
+    private final ByteBuffer chunkHeaderBuffer = ByteBuffer.wrap(chunkHeader).order(ByteOrder.LITTLE_ENDIAN);
+    private String prefix;
+    private String deviceName;
+    private boolean isHeaderRead = false;
+    private boolean isTruncated = false;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param inputStream Stream of the raw capture, better if buffered. The reader owns it from
+     *                    now on, and closes it when the reader is closed.
+     */
+    public RawCaptureReader(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Read the next chunk.
+     *
+     * @param chunk Where the chunk is read into. Its bytes are grown if needed.
+     *
+     * @return false if there are no more chunks.
+     *
+     * @throws IOException if the file can't be read or is not a raw capture.
+     */
+    public boolean next(Chunk chunk) throws IOException {
+        if (!isHeaderRead) {
+            readHeader();
+        }
+        int headerSize = readFully(chunkHeader, 0, chunkHeader.length);
+        if (headerSize < chunkHeader.length) {
+            isTruncated = headerSize > 0;
+            return false;
+        }
+        long timestampNanoseconds = chunkHeaderBuffer.getLong(0);
+        int length = chunkHeaderBuffer.getInt(8);
+        if (length < 0) {
+            throw new IOException("Invalid chunk size: " + length);
+        }
+        if (chunk.bytes.length < length) {
+            chunk.bytes = new byte[Math.max(length, chunk.bytes.length * 2)];
+        }
+        if (readFully(chunk.bytes, 0, length) < length) {
+            isTruncated = true;
+            return false;
+        }
+        chunk.timestampNanoseconds = timestampNanoseconds;
+        chunk.length = length;
+        return true;
+    }
+
+    /**
+     * Get the prefix of the data sensor that captured the device, as "IMUX" or "RFID".
+     */
+    public String getPrefix() throws IOException {
+        if (!isHeaderRead) {
+            readHeader();
+        }
+        return prefix;
+    }
+
+    public String getDeviceName() throws IOException {
+        if (!isHeaderRead) {
+            readHeader();
+        }
+        return deviceName;
+    }
+
+    /**
+     * Whether the last chunk of the file was cut, as when the app crashes while writing it.
+     */
+    public boolean isTruncated() {
+        return isTruncated;
+    }
+
+    @Override
+    public void close() throws IOException {
+        inputStream.close();
+    }
+
+    // endregion
+
+    private void readHeader() throws IOException {
+        byte[] header = new byte[8];
+        if (readFully(header, 0, header.length) < header.length) {
+            throw new IOException("Not a raw capture: too short");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+        int magic = buffer.getInt();
+        int version = buffer.getInt();
+        if (magic != RawCaptureWriter.MAGIC) {
+            throw new IOException("Not a raw capture: " + Integer.toHexString(magic));
+        }
+        if (version != RawCaptureWriter.VERSION) {
+            throw new IOException("Unsupported raw capture version: " + version);
+        }
+        prefix = readString();
+        deviceName = readString();
+        isHeaderRead = true;
+    }
+
+    private String readString() throws IOException {
+        byte[] size = new byte[2];
+        if (readFully(size, 0, 2) < 2) {
+            throw new IOException("Truncated raw capture header");
+        }
+        byte[] bytes = new byte[ByteBuffer.wrap(size).order(ByteOrder.LITTLE_ENDIAN).getShort() & 0xFFFF];
+        if (readFully(bytes, 0, bytes.length) < bytes.length) {
+            throw new IOException("Truncated raw capture header");
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readFully(byte[] bytes, int offset, int length) throws IOException {
+        int count = 0;
+        while (count < length) {
+            int read = inputStream.read(bytes, offset + count, length - count);
+            if (read < 0) {
+                break;
+            }
+            count += read;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,181 @@
+package es.csic.getsensordata.logging;
+
+import java.io.IOException;
+import java.io.Writer;
+
+import es.csic.getsensordata.MTiPacketDecoder;
+import es.csic.getsensordata.RFIDM220LineParser;
+
+/**
+ * Regenerator of the records of an external device from its raw capture.
+ *
+ * The chunks of the capture are fed, in order, to the same parser the data sensor uses while
+ * recording: `MTiPacketDecoder` for the XSens MTi IMU, `RFIDM220LineParser` for the RFID readers.
+ * Each record found is formatted with the same `LogLineFormatter` calls and values as
+ * `getStatusForLog()` of the data sensor, and timestamped with the time its last byte was
+ * received, so the lines are those the text log would have had, only without the delay of the
+ * main thread.
+ *
+ * Records are regenerated on a desktop with `RawCaptureReplayTool`, from the unit test classpath.
+ */
+public class RawCaptureReplay {
+    // Values written by MTiXSensIMU, neither sent by the IMU as configured
+    private static final float[] EULER = new float[3];
+    private static final float PRESSURE = 0;
+    // Sensor timestamp written by MTiXSensIMU, assuming a sample every 0.01 s
+    private static final float IMUX_SENSOR_TIMESTAMP = 0.01f;
+
+    private final Writer writer;
+    private final LogLineFormatter logLineFormatter = new LogLineFormatter();
+    private double appTimestamp;
+    private long writtenLines = 0;
+    private IOException writeException = null;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param writer Writer the records are written to.
+     */
+    public RawCaptureReplay(Writer writer) {
+        this.writer = writer;
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Regenerate the records of a whole raw capture.
+     *
+     * @param reader Reader of the raw capture. It is closed once replayed.
+     * @param writer Writer the records are written to. It is flushed, but not closed.
+     *
+     * @return number of records written.
+     */
+    public static long replay(RawCaptureReader reader, Writer writer) throws IOException {
+        RawCaptureReplay replay = new RawCaptureReplay(writer);
+        try (RawCaptureReader capture = reader) {
+            String prefix = capture.getPrefix();
+            switch (prefix) {
+                case "IMUX":
+                    replay.replayIMUX(capture);
+                    break;
+                case "RFID":
+                    replay.replayRFID(capture);
+                    break;
+                default:
+                    throw new IOException("Unsupported raw capture: " + prefix);
+            }
+        }
+        replay.throwIfFailed();
+        writer.flush();
+        return replay.writtenLines;
+    }
+
+    public long getWrittenLines() {
+        return writtenLines;
+    }
+
+    // endregion
+
+    // region Parsers
+
+    private void replayIMUX(RawCaptureReader reader) throws IOException {
+        MTiPacketDecoder decoder = new MTiPacketDecoder();
+        MTiPacketDecoder.Sample sample = new MTiPacketDecoder.Sample();
+        RawCaptureReader.Chunk chunk = new RawCaptureReader.Chunk();
+        while (reader.next(chunk)) {
+            appTimestamp = chunk.timestampNanoseconds * 1e-9;
+            int fed = 0;
+            while (fed < chunk.length) {
+                fed += decoder.feed(chunk.bytes, fed, chunk.length - fed);
+                while (decoder.next(sample)) {
+                    writeIMUX(sample);
+                }
+            }
+            throwIfFailed();
+        }
+    }
+
+    private void replayRFID(RawCaptureReader reader) throws IOException {
+        String deviceName = reader.getDeviceName();
+        int readerNumber = Integer.parseInt(deviceName.substring(deviceName.length() - 2));
+        RFIDM220LineParser parser = new RFIDM220LineParser();
+        RFIDM220LineParser.ReadingListener readingListener = reading -> writeRFID(readerNumber, reading);
+        RawCaptureReader.Chunk chunk = new RawCaptureReader.Chunk();
+        while (reader.next(chunk)) {
+            appTimestamp = chunk.timestampNanoseconds * 1e-9;
+            parser.feed(chunk.bytes, 0, chunk.length, readingListener);
+            throwIfFailed();
+        }
+    }
+
+    // endregion
+
+    // region Formatting
+
+    /**
+     * Same calls as `MTiXSensIMU.getStatusForLog()`.
+     */
+    private void writeIMUX(MTiPacketDecoder.Sample sample) {
+        logLineFormatter.begin("IMUX")
+                .append(appTimestamp, 3)
+                .append(IMUX_SENSOR_TIMESTAMP, 3)
+                .append(sample.counter);
+        for (float value : sample.acceleration) {
+            logLineFormatter.append(value, 5);
+        }
+        for (float value : sample.turnRate) {
+            logLineFormatter.append(value, 5);
+        }
+        for (float value : sample.magneticField) {
+            logLineFormatter.append(value, 5);
+        }
+        for (float value : EULER) {
+            logLineFormatter.append(value, 5);
+        }
+        for (float value : sample.quaternions) {
+            logLineFormatter.append(value, 5);
+        }
+        logLineFormatter
+                .append(PRESSURE, 3)
+                .append(sample.temperature, 2);
+        writeLine();
+    }
+
+    /**
+     * Same calls as `RFIDM220Reader.getStatusForLog()`.
+     */
+    private void writeRFID(int readerNumber, RFIDM220LineParser.Reading reading) {
+        logLineFormatter.begin("RFID")
+                .append(appTimestamp, 3)
+                .append(readerNumber)
+                .append(reading.tagId)
+                .append(reading.rssA)
+                .append(reading.rssB);
+        writeLine();
+    }
+
+    private void writeLine() {
+        if (writeException != null) {
+            return;
+        }
+        try {
+            logLineFormatter.writeTo(writer);
+            writtenLines++;
+        } catch (IOException exception) {
+            // Parser listeners can't throw it, so it is thrown once the chunk is parsed
+            writeException = exception;
+        }
+    }
+
+    private void throwIfFailed() throws IOException {
+        if (writeException != null) {
+            throw writeException;
+        }
+    }
+
+    // endregion
+}
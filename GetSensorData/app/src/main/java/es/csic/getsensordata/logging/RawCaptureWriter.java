@@ -0,0 +1,222 @@
+package es.csic.getsensordata.logging;
+
+import android.util.Log;
+
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Asynchronous writer of the raw byte stream received from an external device, so its records
+ * can be regenerated afterwards, with `RawCaptureReplay`, through the same parsers used while
+ * recording.
+ *
+ * The thread reading the device hands every chunk of bytes, as received, along with the host time
+ * it was received at, and they are copied into the buffers of a `BufferedChannelWriter`. The
+ * reading thread never touches the file system and never blocks, except for the brief moment the
+ * writer thread takes a buffer being filled. If every buffer is waiting to be written, the chunk is
+ * dropped and counted, instead of blocking.
+ *
+ * File layout, in little endian:
+ *
+ *     int32  magic ("GSDR")
+ *     int32  version
+ *     string prefix of the data sensor (e.g. "IMUX", "RFID")
+ *     string name of the device
+ *     chunks, each one being:
+ *         int64  timestamp (ns), relative to the epoch of the data sensor
+ *         int32  size, in bytes
+ *         bytes received
+ *
+ * Strings are an int16 size followed by their UTF-8 bytes. Chunks larger than a buffer are split
+ * in several ones with the same timestamp. Timestamps are relative to the epoch of the data sensor
+ * reading the device, so they match the AppTimestamp of its records. If the app crashes, only the
+ * buffers not yet written are lost; a truncated chunk at the end of the file is ignored by
+ * `RawCaptureReader`.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     RawCaptureWriter rawCaptureWriter = new RawCaptureWriter(new FileOutputStream(file), "IMUX", "XSens MTi IMU", dataSensor.getEpoch());
+ *     // Reading thread, for each chunk received
+ *     rawCaptureWriter.write(bytes, offset, length, System.nanoTime());
+ *     ...
+ *     rawCaptureWriter.close();
+ *     ```
+ */
+public class RawCaptureWriter extends BufferedChannelWriter {
+    private static final String TAG = "RawCaptureWriter";
+
+    public static final int MAGIC = 0x52445347; // "GSDR", as read in little endian
+    public static final int VERSION = 1;
+    static final int CHUNK_HEADER_SIZE = 12;
+
+    // Values of the raw capture preference
+    public static final int CAPTURE_OFF = 0;
+    // The device is captured, and its records are still decoded and logged
+    public static final int CAPTURE_WITH_DECODING = 1;
+    // The device is only captured: its records are regenerated from the capture afterwards
+    public static final int CAPTURE_ONLY = 2;
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    public static final int DEFAULT_BUFFER_COUNT = 4;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+
+    private final long epochNanoseconds;
+    // Whether the buffer being filled holds a chunk, as the first one holds the header before any
+    private boolean hasActiveChunk = false;
+
+    private long writtenChunks = 0;
+    private long droppedChunks = 0;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer, using the default buffers and flush interval.
+     *
+     * @param fileOutputStream Stream of the file the chunks will be written to.
+     * @param prefix           Prefix of the data sensor reading the device.
+     * @param deviceName       Name of the device.
+     * @param epochNanoseconds Epoch of the data sensor, as a value of `System.nanoTime()`.
+     */
+    public RawCaptureWriter(FileOutputStream fileOutputStream, String prefix, String deviceName, long epochNanoseconds) {
+        this(fileOutputStream, prefix, deviceName, epochNanoseconds, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * Class initializer.
+     *
+     * @param fileOutputStream Stream of the file the chunks will be written to. The writer owns it
+     *                         from now on, and closes it when the writer is closed.
+     * @param prefix           Prefix of the data sensor reading the device.
+     * @param deviceName       Name of the device.
+     * @param epochNanoseconds Epoch of the data sensor, as a value of `System.nanoTime()`.
+     * @param bufferSize       Size, in bytes, of each buffer.
+     * @param bufferCount      Number of buffers, at least two.
+     * @param flushIntervalMs  Maximum time, in milliseconds, a chunk waits in a buffer.
+     */
+    public RawCaptureWriter(FileOutputStream fileOutputStream, String prefix, String deviceName, long epochNanoseconds, int bufferSize, int bufferCount, long flushIntervalMs) {
+        super(TAG, "raw capture file", fileOutputStream, bufferSize, bufferCount, flushIntervalMs);
+        if (bufferSize <= CHUNK_HEADER_SIZE) {
+            throw new IllegalArgumentException("Buffers larger than a chunk header are needed");
+        }
+        this.epochNanoseconds = epochNanoseconds;
+        putHeader(activeBuffer, prefix, deviceName);
+
+        Log.d(TAG, "RawCaptureWriter(" +
+                "prefix=" + prefix + ", " +
+                "deviceName=" + deviceName + ", " +
+                "bufferSize=" + bufferSize + ", " +
+                "bufferCount=" + bufferCount + ", " +
+                "flushIntervalMs=" + flushIntervalMs + ")");
+
+        startWriterThread();
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Copy a chunk of bytes received, to be written. Never blocks for longer than the writer
+     * thread takes to swap the buffer being filled. Call it from a single thread, the one reading
+     * the device.
+     *
+     * @param bytes                Bytes received.
+     * @param offset               Position of the first byte.
+     * @param length               Number of bytes.
+     * @param timestampNanoseconds Value of `System.nanoTime()` when they were received.
+     *
+     * @return true if the chunk was copied, false if it was dropped because every buffer is
+     * waiting to be written or the writer is closed.
+     */
+    public synchronized boolean write(byte[] bytes, int offset, int length, long timestampNanoseconds) {
+        if (!open) {
+            droppedChunks++;
+            return false;
+        }
+        // A chunk is either copied whole or dropped, never cut. Free buffers can only increase
+        // meanwhile, as the writer thread gives them back
+        int activeCapacity = Math.max(0, activeBuffer.remaining() - CHUNK_HEADER_SIZE);
+        if (length > activeCapacity) {
+            int pieceSize = bufferSize - CHUNK_HEADER_SIZE;
+            if (getFreeBufferCount() < (length - activeCapacity + pieceSize - 1) / pieceSize) {
+                droppedChunks++;
+                return false;
+            }
+        }
+        long relativeTimestampNs = timestampNanoseconds - epochNanoseconds;
+        do {
+            if (activeBuffer.remaining() <= CHUNK_HEADER_SIZE && !swapActiveBuffer()) {
+                droppedChunks++;
+                return false;
+            }
+            // The flush interval of a buffer starts with its first chunk
+            if (!hasActiveChunk) {
+                activeBufferNs = timestampNanoseconds;
+                hasActiveChunk = true;
+            }
+            int count = Math.min(length, activeBuffer.remaining() - CHUNK_HEADER_SIZE);
+            activeBuffer.putLong(relativeTimestampNs);
+            activeBuffer.putInt(count);
+            activeBuffer.put(bytes, offset, count);
+            offset += count;
+            length -= count;
+        } while (length > 0);
+        writtenChunks++;
+        if (timestampNanoseconds - activeBufferNs >= getFlushIntervalNs()) {
+            swapActiveBuffer();
+        }
+        return true;
+    }
+
+    /**
+     * Stop accepting chunks, write those still buffered and close the file.
+     *
+     * Blocks until the writer thread finishes, which is bounded by the buffers still filled.
+     */
+    public void close() {
+        Log.d(TAG, "close()");
+
+        if (!closeBuffers()) {
+            return;
+        }
+
+        Log.i(TAG, "Closed. Chunks written: " + writtenChunks +
+                ", dropped: " + droppedChunks +
+                ", bytes: " + writtenBytes +
+                ", commits: " + commits);
+    }
+
+    public synchronized long getWrittenChunks() {
+        return writtenChunks;
+    }
+
+    public synchronized long getDroppedChunks() {
+        return droppedChunks;
+    }
+
+    // endregion
+
+    @Override
+    protected boolean swapActiveBuffer() {
+        if (!super.swapActiveBuffer()) {
+            return false;
+        }
+        hasActiveChunk = false;
+        return true;
+    }
+
+    private static void putHeader(ByteBuffer buffer, String prefix, String deviceName) {
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        putString(buffer, prefix);
+        putString(buffer, deviceName);
+    }
+
+    private static void putString(ByteBuffer buffer, String string) {
+        byte[] bytes = (string != null ? string : "").getBytes(StandardCharsets.UTF_8);
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+}
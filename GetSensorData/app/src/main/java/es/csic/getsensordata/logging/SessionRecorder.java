@@ -0,0 +1,212 @@
+package es.csic.getsensordata.logging;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import es.csic.getsensordata.data_sensors.definition.DataSensor;
+import es.csic.getsensordata.data_sensors.definition.DataSensorType;
+import es.csic.getsensordata.data_sensors.definition.SchemaLoggedDataSensor;
+
+/**
+ * Single sink storing the status for log of every data sensor attached to it.
+ *
+ * Each data sensor tells its recorder every time its status for log changes, which happens more
+ * often than the screen is refreshed. The recorder asks the data sensor for that status once and
+ * queues it in the log writer, so every record reaches the log file through the same path.
+ *
+ * It can store a binary session instead, through a `BinarySessionWriter`. Then, data sensors with
+ * a log schema, those implementing `SchemaLoggedDataSensor`, store their records in their own
+ * channel, with no text formatted, and the rest still store their status for log, as text.
+ *
+ * Records written and dropped are counted per data sensor type, and reported when the recorder is
+ * closed.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     SessionRecorder sessionRecorder = new SessionRecorder(logWriter);
+ *     sessionRecorder.attach(accelerometerDataSensor);
+ *     ...
+ *     sessionRecorder.close();
+ *     ```
+ */
+public class SessionRecorder implements DataSensor.DataSensorEventListener {
+    private static final String TAG = "SessionRecorder";
+
+    // Only one of them is used
+    private final LogWriter logWriter;
+    private final BinarySessionWriter binarySessionWriter;
+    private final ArrayList<DataSensor> dataSensors = new ArrayList<>();
+    // Channel of each data sensor type with a log schema, in binary sessions
+    private final AtomicReferenceArray<BinarySessionWriter.Channel> channels = new AtomicReferenceArray<>(DataSensorType.values().length);
+    private final AtomicLongArray writtenRecords = new AtomicLongArray(DataSensorType.values().length);
+    private final AtomicLongArray droppedRecords = new AtomicLongArray(DataSensorType.values().length);
+
+    // region Class Initializer
+
+    /**
+     * Class initializer.
+     *
+     * @param logWriter Writer the records will be queued in. The recorder owns it from now on, and
+     *                  closes it when the recorder is closed.
+     */
+    public SessionRecorder(LogWriter logWriter) {
+        this.logWriter = logWriter;
+        this.binarySessionWriter = null;
+    }
+
+    /**
+     * Class initializer for binary sessions.
+     *
+     * @param binarySessionWriter Writer the records will be stored in. The recorder owns it from
+     *                            now on, and closes it when the recorder is closed.
+     */
+    public SessionRecorder(BinarySessionWriter binarySessionWriter) {
+        this.logWriter = null;
+        this.binarySessionWriter = binarySessionWriter;
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Start storing the status for log of the data sensor.
+     *
+     * @param dataSensor Data sensor whose status changes will be stored.
+     */
+    public synchronized void attach(DataSensor dataSensor) {
+        Log.d(TAG, "attach(dataSensor=" + dataSensor.getPrefix() + ")");
+
+        int index = dataSensor.getType().ordinal();
+        if (binarySessionWriter != null && dataSensor instanceof SchemaLoggedDataSensor && channels.get(index) == null) {
+            channels.set(index, binarySessionWriter.register(((SchemaLoggedDataSensor) dataSensor).getLogSchema()));
+        }
+        dataSensor.setRecorder(this);
+        // Data sensors of the same type are equal, yet each RFID reader has to be attached
+        for (DataSensor attachedDataSensor : dataSensors) {
+            if (attachedDataSensor == dataSensor) {
+                return;
+            }
+        }
+        dataSensors.add(dataSensor);
+    }
+
+    /**
+     * Stop storing the status for log of every data sensor, write the records still queued and
+     * close the log file.
+     */
+    public synchronized void close() {
+        Log.d(TAG, "close()");
+
+        for (DataSensor dataSensor : dataSensors) {
+            if (dataSensor.getRecorder() == this) {
+                dataSensor.setRecorder(null);
+            }
+        }
+        dataSensors.clear();
+
+        if (binarySessionWriter != null) {
+            binarySessionWriter.close();
+        } else {
+            logWriter.close();
+        }
+
+        for (DataSensorType type : DataSensorType.values()) {
+            long written = writtenRecords.get(type.ordinal());
+            long dropped = droppedRecords.get(type.ordinal());
+            if (written > 0 || dropped > 0) {
+                Log.i(TAG, type.getPrefix() + ": records written: " + written + ", dropped: " + dropped);
+            }
+        }
+    }
+
+    /**
+     * Write a record not produced by a data sensor, like the header or a position mark.
+     *
+     * @param record Text to write, including its line separator.
+     */
+    public void write(String record) {
+        if (binarySessionWriter != null) {
+            binarySessionWriter.writeText(record);
+        } else {
+            logWriter.write(record);
+        }
+    }
+
+    public boolean isOpen() {
+        return binarySessionWriter != null ? binarySessionWriter.isOpen() : logWriter.isOpen();
+    }
+
+    public long getWrittenRecords(DataSensorType type) {
+        return writtenRecords.get(type.ordinal());
+    }
+
+    public long getDroppedRecords(DataSensorType type) {
+        return droppedRecords.get(type.ordinal());
+    }
+
+    // endregion
+
+    // region DataSensorEventListener
+
+    @Override
+    public void onDataSensorConnected(@NonNull DataSensor dataSensor) {
+    }
+
+    @Override
+    public void onDataSensorDisconnected(@NonNull DataSensor dataSensor) {
+    }
+
+    /**
+     * The status for log of the data sensor changed, so store it.
+     *
+     * Called from whatever thread the data sensor produces its status in.
+     */
+    @Override
+    public void onDataSensorChanged(@NonNull DataSensor dataSensor) {
+        int index = dataSensor.getType().ordinal();
+        BinarySessionWriter.Channel channel = channels.get(index);
+        if (channel != null) {
+            boolean isWritten;
+            try {
+                // Only data sensors with a log schema have a channel
+                isWritten = channel.write((SchemaLoggedDataSensor) dataSensor);
+            } catch (RuntimeException exception) {
+                Log.w(TAG, "Unable to get log record of " + dataSensor.getPrefix(), exception);
+                isWritten = false;
+            }
+            if (isWritten) {
+                writtenRecords.incrementAndGet(index);
+            } else {
+                droppedRecords.incrementAndGet(index);
+            }
+            return;
+        }
+        String record;
+        try {
+            record = dataSensor.getStatusForLog();
+        } catch (RuntimeException exception) {
+            // A data sensor without a status yet shouldn't stop the rest from being stored
+            Log.w(TAG, "Unable to get status for log of " + dataSensor.getPrefix(), exception);
+            droppedRecords.incrementAndGet(index);
+            return;
+        }
+        if (record.isEmpty()) {
+            return;
+        }
+        boolean isWritten = binarySessionWriter != null ? binarySessionWriter.writeText(record) : logWriter.write(record);
+        if (isWritten) {
+            writtenRecords.incrementAndGet(index);
+        } else {
+            droppedRecords.incrementAndGet(index);
+        }
+    }
+
+    // endregion
+}
@@ -0,0 +1,263 @@
+package es.csic.getsensordata.logging;
+
+import android.util.Log;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Asynchronous writer of a stream of mono 16 bit PCM samples to a WAV file, so the raw signal of
+ * the microphone is stored along with the records computed from it.
+ *
+ * The capture thread hands every frame of samples, as captured, and they are copied into the
+ * buffers of a `BufferedChannelWriter`. The capture thread never touches the file system and never
+ * blocks, except for the brief moment the writer thread takes a buffer being filled, and nothing
+ * is allocated per frame, so the memory used is the same whatever the length of the session.
+ *
+ * If every buffer is waiting to be written, the frame is dropped and counted, instead of blocking,
+ * and as much silence as the samples dropped is written before the next frame accepted, so the
+ * position of a sample in the file keeps being proportional to the time it was captured at.
+ * `write()` returns the position each frame is written at, to be logged along with its records.
+ *
+ * The sizes of the RIFF and data chunks of the header are patched every time a buffer is written,
+ * and when the writer is closed, so a file cut by a crash still holds every buffer written. As
+ * those sizes are 32 bit values, samples beyond 4 GB of data (13.5 hours at 44100 Hz) are dropped.
+ *
+ * # Example of use
+ *
+ *     ```java
+ *     WavWriter wavWriter = new WavWriter(new FileOutputStream(file), 44100);
+ *     // Capture thread, for each frame captured
+ *     long position = wavWriter.write(samples, 0, length);
+ *     ...
+ *     wavWriter.close();
+ *     ```
+ */
+public class WavWriter extends BufferedChannelWriter {
+    private static final String TAG = "WavWriter";
+
+    static final int HEADER_SIZE = 44;
+    private static final int BYTES_PER_SAMPLE = 2;
+    // Largest data chunk the 32 bit size of the RIFF chunk can describe
+    static final long MAX_DATA_SAMPLES = (0xFFFFFFFFL - (HEADER_SIZE - 8)) / BYTES_PER_SAMPLE;
+
+    public static final int DEFAULT_BUFFER_SIZE = 256 * 1024;
+    public static final int DEFAULT_BUFFER_COUNT = 8;
+    public static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+
+    private final int sampleRate;
+    private final long maxDataSamples;
+    // Sizes of the header, patched by the writer thread
+    private final ByteBuffer sizeBuffer = ByteBuffer.allocateDirect(4).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Samples accepted so far, silence included: the position of the next one in the file
+    private long acceptedSamples = 0;
+    // Samples dropped, still to be replaced by silence
+    private long pendingSilentSamples = 0;
+    private long writtenFrames = 0;
+    private long droppedFrames = 0;
+    private boolean isFull = false;
+
+    // region Class Initializer
+
+    /**
+     * Class initializer, using the default buffers and flush interval.
+     *
+     * @param fileOutputStream Stream of the file the samples will be written to.
+     * @param sampleRate       Samples per second of the stream.
+     */
+    public WavWriter(FileOutputStream fileOutputStream, int sampleRate) {
+        this(fileOutputStream, sampleRate, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFER_COUNT, DEFAULT_FLUSH_INTERVAL_MS, MAX_DATA_SAMPLES);
+    }
+
+    /**
+     * Class initializer.
+     *
+     * @param fileOutputStream Stream of the file the samples will be written to. The writer owns
+     *                         it from now on, and closes it when the writer is closed.
+     * @param sampleRate       Samples per second of the stream.
+     * @param bufferSize       Size, in bytes, of each buffer, even.
+     * @param bufferCount      Number of buffers, at least two.
+     * @param flushIntervalMs  Maximum time, in milliseconds, a sample waits in a buffer.
+     * @param maxDataSamples   Samples the file can hold, at most `MAX_DATA_SAMPLES`.
+     */
+    WavWriter(FileOutputStream fileOutputStream, int sampleRate, int bufferSize, int bufferCount, long flushIntervalMs, long maxDataSamples) {
+        super(TAG, "WAV file", fileOutputStream, bufferSize, bufferCount, flushIntervalMs);
+        if (bufferSize <= HEADER_SIZE || bufferSize % BYTES_PER_SAMPLE != 0) {
+            throw new IllegalArgumentException("Buffers larger than the header and of whole samples are needed");
+        }
+        this.sampleRate = sampleRate;
+        this.maxDataSamples = Math.min(maxDataSamples, MAX_DATA_SAMPLES);
+        putHeader(activeBuffer, sampleRate);
+
+        Log.d(TAG, "WavWriter(" +
+                "sampleRate=" + sampleRate + ", " +
+                "bufferSize=" + bufferSize + ", " +
+                "bufferCount=" + bufferCount + ", " +
+                "flushIntervalMs=" + flushIntervalMs + ")");
+
+        startWriterThread();
+    }
+
+    // endregion
+
+    // region Public Interface
+
+    /**
+     * Copy a frame of samples captured, to be written. Never blocks for longer than the writer
+     * thread takes to swap the buffer being filled. Call it from a single thread, the one
+     * capturing the samples.
+     *
+     * @param samples Samples captured.
+     * @param offset  Position of the first sample.
+     * @param length  Number of samples.
+     *
+     * @return the position of the first sample in the data of the file, in samples, or -1 if the
+     * frame was dropped because every buffer is waiting to be written, the file is full or the
+     * writer is closed.
+     */
+    public synchronized long write(short[] samples, int offset, int length) {
+        if (!open || isFull) {
+            droppedFrames++;
+            return -1;
+        }
+        if (acceptedSamples + pendingSilentSamples + length > maxDataSamples) {
+            isFull = true;
+            droppedFrames++;
+            Log.e(TAG, "WAV file full, no more samples written");
+            return -1;
+        }
+        // The silence replacing the samples dropped goes first, as much of it as fits
+        while (pendingSilentSamples > 0 && hasSpace()) {
+            int count = (int) Math.min(pendingSilentSamples, activeBuffer.remaining() / BYTES_PER_SAMPLE);
+            for (int index = 0; index < count; index++) {
+                activeBuffer.putShort((short) 0);
+            }
+            acceptedSamples += count;
+            pendingSilentSamples -= count;
+        }
+        // A frame is either copied whole or dropped, never cut. Free buffers can only increase
+        // meanwhile, as the writer thread gives them back
+        long capacity = activeBuffer.remaining() / BYTES_PER_SAMPLE + (long) getFreeBufferCount() * (bufferSize / BYTES_PER_SAMPLE);
+        if (pendingSilentSamples > 0 || length > capacity) {
+            pendingSilentSamples += length;
+            droppedFrames++;
+            return -1;
+        }
+        long position = acceptedSamples;
+        int end = offset + length;
+        while (offset < end) {
+            hasSpace();
+            int count = Math.min(end - offset, activeBuffer.remaining() / BYTES_PER_SAMPLE);
+            for (int index = offset; index < offset + count; index++) {
+                activeBuffer.putShort(samples[index]);
+            }
+            offset += count;
+        }
+        acceptedSamples += length;
+        writtenFrames++;
+        if (System.nanoTime() - activeBufferNs >= getFlushIntervalNs()) {
+            swapActiveBuffer();
+        }
+        return position;
+    }
+
+    /**
+     * Stop accepting samples, write those still buffered, patch the header and close the file.
+     *
+     * Blocks until the writer thread finishes, which is bounded by the buffers still filled.
+     */
+    public void close() {
+        Log.d(TAG, "close()");
+
+        if (!closeBuffers()) {
+            return;
+        }
+
+        Log.i(TAG, "Closed. Frames written: " + writtenFrames +
+                ", dropped: " + droppedFrames +
+                ", samples: " + acceptedSamples +
+                ", bytes: " + writtenBytes +
+                ", commits: " + commits);
+    }
+
+    public int getSampleRate() {
+        return sampleRate;
+    }
+
+    public synchronized long getWrittenFrames() {
+        return writtenFrames;
+    }
+
+    public synchronized long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    /**
+     * Get the number of samples written so far, silence replacing those dropped included.
+     */
+    public synchronized long getWrittenSamples() {
+        return acceptedSamples;
+    }
+
+    // endregion
+
+    // region Writer Thread
+
+    @Override
+    protected void onBufferWritten() throws IOException {
+        patchHeader();
+    }
+
+    /**
+     * Write the sizes of the RIFF and data chunks, from the bytes written so far, without moving
+     * the position of the file channel.
+     */
+    private void patchHeader() throws IOException {
+        long dataSize = writtenBytes - HEADER_SIZE;
+        putSize(HEADER_SIZE - 8 + dataSize, 4);
+        putSize(dataSize, HEADER_SIZE - 4);
+    }
+
+    private void putSize(long size, long position) throws IOException {
+        sizeBuffer.clear();
+        sizeBuffer.putInt((int) size);
+        sizeBuffer.flip();
+        while (sizeBuffer.hasRemaining()) {
+            position += fileChannel.write(sizeBuffer, position);
+        }
+    }
+
+    /**
+     * Make sure the buffer being filled has room for a sample, swapping it if full.
+     *
+     * @return false if it is full and there is no free buffer.
+     */
+    private boolean hasSpace() {
+        return activeBuffer.hasRemaining() || swapActiveBuffer();
+    }
+
+    // endregion
+
+    /**
+     * Put the header of a mono 16 bit PCM WAV file, with empty chunks.
+     */
+    private static void putHeader(ByteBuffer buffer, int sampleRate) {
+        buffer.put((byte) 'R').put((byte) 'I').put((byte) 'F').put((byte) 'F');
+        buffer.putInt(HEADER_SIZE - 8);
+        buffer.put((byte) 'W').put((byte) 'A').put((byte) 'V').put((byte) 'E');
+        buffer.put((byte) 'f').put((byte) 'm').put((byte) 't').put((byte) ' ');
+        buffer.putInt(16);
+        // PCM, mono
+        buffer.putShort((short) 1);
+        buffer.putShort((short) 1);
+        buffer.putInt(sampleRate);
+        buffer.putInt(sampleRate * BYTES_PER_SAMPLE);
+        buffer.putShort((short) BYTES_PER_SAMPLE);
+        buffer.putShort((short) (8 * BYTES_PER_SAMPLE));
+        buffer.put((byte) 'd').put((byte) 'a').put((byte) 't').put((byte) 'a');
+        buffer.putInt(0);
+    }
+}
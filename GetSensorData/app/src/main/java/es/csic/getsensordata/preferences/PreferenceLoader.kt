@@ -46,6 +46,13 @@ class PreferenceLoader(private val context: Context) {
         return valueAsString!!.toFloatOrNull() ?: defaultValue
     }
 
+    fun loadStringSet(keyId: Int, defaultValuesId: Int): Set<String> {
+        Log.d(Tag, "loadStringSet(keyId=$keyId, defaultValuesId=$defaultValuesId)")
+
+        val defaultValues = context.resources.getStringArray(defaultValuesId).toSet()
+        return preferences.getStringSet(context.getString(keyId), defaultValues) ?: defaultValues
+    }
+
     fun loadString(keyId: Int, defaultValueId: Int): String {
         Log.d(Tag, "loadString(keyId=$keyId, defaultValueId=$defaultValueId)")
 
@@ -24,6 +24,25 @@ class Preferences {
     val previewLocation: Preview.Location
     val previewTransparency: Float
     val showGuides: Boolean
+    val logFlushInterval: Int
+    val logSyncEnabled: Boolean
+    val logBinaryEnabled: Boolean
+    val logCompressionLevel: Int
+    val logRawCapture: Int
+    val screenRefreshInterval: Int
+    val sensorThreadPriority: Int
+    val sensorThreadPerSensorEnabled: Boolean
+    val directChannelRateLevel: Int
+    val batchedSensors: Set<String>
+    val batchingMaxReportLatency: Int
+    val soundSampleRate: Int
+    val soundFrameSize: Int
+    val soundSpectrumEnabled: Boolean
+    val soundLeqWindow: Int
+    val soundRecordingEnabled: Boolean
+    val soundToneDetectionEnabled: Boolean
+    val soundToneFrequencies: String
+    val soundToneThreshold: Int
 
     constructor(context: Context) {
         Log.d(Tag, "constructor(context=$context)")
@@ -94,6 +113,82 @@ class Preferences {
                 R.string.cameraPreferencesPreviewShowGuidesKey,
                 R.string.cameraPreferencesPreviewShowGuidesDefaultValue
         )
+        logFlushInterval = preferenceLoader.loadInt(
+                R.string.logPreferencesFlushIntervalKey,
+                R.string.logPreferencesFlushIntervalDefaultValue
+        )
+        logSyncEnabled = preferenceLoader.loadBoolean(
+                R.string.logPreferencesSyncEnabledKey,
+                R.string.logPreferencesSyncEnabledDefaultValue
+        )
+        logBinaryEnabled = preferenceLoader.loadBoolean(
+                R.string.logPreferencesBinaryEnabledKey,
+                R.string.logPreferencesBinaryEnabledDefaultValue
+        )
+        logCompressionLevel = preferenceLoader.loadInt(
+                R.string.logPreferencesCompressionLevelKey,
+                R.string.logPreferencesCompressionLevelDefaultValue
+        )
+        logRawCapture = preferenceLoader.loadInt(
+                R.string.logPreferencesRawCaptureKey,
+                R.string.logPreferencesRawCaptureDefaultValue
+        )
+        screenRefreshInterval = preferenceLoader.loadInt(
+                R.string.displayPreferencesScreenRefreshIntervalKey,
+                R.string.displayPreferencesScreenRefreshIntervalDefaultValue
+        )
+        sensorThreadPriority = preferenceLoader.loadInt(
+                R.string.sensorDeliveryPreferencesThreadPriorityKey,
+                R.string.sensorDeliveryPreferencesThreadPriorityDefaultValue
+        )
+        sensorThreadPerSensorEnabled = preferenceLoader.loadBoolean(
+                R.string.sensorDeliveryPreferencesThreadPerSensorEnabledKey,
+                R.string.sensorDeliveryPreferencesThreadPerSensorEnabledDefaultValue
+        )
+        directChannelRateLevel = preferenceLoader.loadInt(
+                R.string.sensorDeliveryPreferencesDirectChannelRateLevelKey,
+                R.string.sensorDeliveryPreferencesDirectChannelRateLevelDefaultValue
+        )
+        batchedSensors = preferenceLoader.loadStringSet(
+                R.string.batchingPreferencesSensorsKey,
+                R.array.batchingPreferencesSensorsDefaultValues
+        )
+        batchingMaxReportLatency = preferenceLoader.loadInt(
+                R.string.batchingPreferencesMaxReportLatencyKey,
+                R.string.batchingPreferencesMaxReportLatencyDefaultValue
+        )
+        soundSampleRate = preferenceLoader.loadInt(
+                R.string.soundPreferencesSampleRateKey,
+                R.string.soundPreferencesSampleRateDefaultValue
+        )
+        soundFrameSize = preferenceLoader.loadInt(
+                R.string.soundPreferencesFrameSizeKey,
+                R.string.soundPreferencesFrameSizeDefaultValue
+        )
+        soundSpectrumEnabled = preferenceLoader.loadBoolean(
+                R.string.soundPreferencesSpectrumEnabledKey,
+                R.string.soundPreferencesSpectrumEnabledDefaultValue
+        )
+        soundLeqWindow = preferenceLoader.loadInt(
+                R.string.soundPreferencesLeqWindowKey,
+                R.string.soundPreferencesLeqWindowDefaultValue
+        )
+        soundRecordingEnabled = preferenceLoader.loadBoolean(
+                R.string.soundPreferencesRecordingEnabledKey,
+                R.string.soundPreferencesRecordingEnabledDefaultValue
+        )
+        soundToneDetectionEnabled = preferenceLoader.loadBoolean(
+                R.string.soundPreferencesToneDetectionEnabledKey,
+                R.string.soundPreferencesToneDetectionEnabledDefaultValue
+        )
+        soundToneFrequencies = preferenceLoader.loadString(
+                R.string.soundPreferencesToneFrequenciesKey,
+                R.string.soundPreferencesToneFrequenciesDefaultValue
+        )
+        soundToneThreshold = preferenceLoader.loadInt(
+                R.string.soundPreferencesToneThresholdKey,
+                R.string.soundPreferencesToneThresholdDefaultValue
+        )
     }
 
     constructor(preferences: Preferences) {
@@ -115,6 +210,25 @@ class Preferences {
         previewLocation = preferences.previewLocation
         previewTransparency = preferences.previewTransparency
         showGuides = preferences.showGuides
+        logFlushInterval = preferences.logFlushInterval
+        logSyncEnabled = preferences.logSyncEnabled
+        logBinaryEnabled = preferences.logBinaryEnabled
+        logCompressionLevel = preferences.logCompressionLevel
+        logRawCapture = preferences.logRawCapture
+        screenRefreshInterval = preferences.screenRefreshInterval
+        sensorThreadPriority = preferences.sensorThreadPriority
+        sensorThreadPerSensorEnabled = preferences.sensorThreadPerSensorEnabled
+        directChannelRateLevel = preferences.directChannelRateLevel
+        batchedSensors = preferences.batchedSensors
+        batchingMaxReportLatency = preferences.batchingMaxReportLatency
+        soundSampleRate = preferences.soundSampleRate
+        soundFrameSize = preferences.soundFrameSize
+        soundSpectrumEnabled = preferences.soundSpectrumEnabled
+        soundLeqWindow = preferences.soundLeqWindow
+        soundRecordingEnabled = preferences.soundRecordingEnabled
+        soundToneDetectionEnabled = preferences.soundToneDetectionEnabled
+        soundToneFrequencies = preferences.soundToneFrequencies
+        soundToneThreshold = preferences.soundToneThreshold
     }
 
     companion object {
@@ -0,0 +1,157 @@
+package es.csic.getsensordata;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of `AudioFramePipeline`: its sample clock on synthetic read times, and the frames of a
+ * synthetic source read in uneven chunks.
+ */
+public class AudioFramePipelineTest {
+    private static final long MILLISECOND = 1000000L;
+    // Base of the synthetic read times
+    private static final long BASE = 1000000000L;
+
+    /**
+     * Source of a ramp of samples, read in chunks of uneven lengths, never more than a few frames
+     * ahead of the analysis, so no frame is dropped. Once every sample is read, reads block until
+     * the source is stopped.
+     */
+    private static class RampSource implements AudioFramePipeline.Source {
+        private static final int[] CHUNK_LENGTHS = {7, 100, 1, 33, 64};
+        final int sampleCount;
+        final int maximumAhead;
+        final AtomicLong analysedSamples;
+        volatile boolean isStopped = false;
+        int readSamples = 0;
+        int chunk = 0;
+
+        RampSource(int sampleCount, int maximumAhead, AtomicLong analysedSamples) {
+            this.sampleCount = sampleCount;
+            this.maximumAhead = maximumAhead;
+            this.analysedSamples = analysedSamples;
+        }
+
+        @Override
+        public void start() {
+        }
+
+        @Override
+        public int read(short[] samples, int offset, int length) {
+            while (!isStopped && (readSamples == sampleCount || readSamples - analysedSamples.get() > maximumAhead)) {
+                Thread.yield();
+            }
+            if (isStopped) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, CHUNK_LENGTHS[chunk++ % CHUNK_LENGTHS.length]), sampleCount - readSamples);
+            for (int index = 0; index < count; index++) {
+                samples[offset + index] = (short) (readSamples + index);
+            }
+            readSamples += count;
+            return count;
+        }
+
+        @Override
+        public void stop() {
+            isStopped = true;
+        }
+    }
+
+    @Test
+    public void anchorsTheClockToTheReadWithTheLowestLatency() {
+        // 1 sample per millisecond, frames of 10 samples, 100 samples held by the source
+        AudioFramePipeline.SampleClock sampleClock = new AudioFramePipeline.SampleClock(1000, 100);
+        assertFalse(sampleClock.update(BASE + 13 * MILLISECOND, 0, 10));
+        assertEquals(BASE + 3 * MILLISECOND, sampleClock.getTimestamp(0));
+        assertFalse(sampleClock.update(BASE + 21 * MILLISECOND, 10, 10));
+        assertEquals(BASE + MILLISECOND, sampleClock.getTimestamp(0));
+        assertEquals(BASE + 11 * MILLISECOND, sampleClock.getTimestamp(10));
+        // A later read doesn't move the anchor
+        assertFalse(sampleClock.update(BASE + 35 * MILLISECOND, 20, 10));
+        assertEquals(BASE + 21 * MILLISECOND, sampleClock.getTimestamp(20));
+    }
+
+    @Test
+    public void followsTheDriftOfTheAudioClock() {
+        AudioFramePipeline.SampleClock sampleClock = new AudioFramePipeline.SampleClock(1000, 100);
+        // A first read without latency, then reads 2 ms late, every 10 ms for 5 seconds
+        sampleClock.update(BASE + 10 * MILLISECOND, 0, 10);
+        long capturedSamples = 10;
+        while (capturedSamples < 5000) {
+            sampleClock.update(BASE + (capturedSamples + 12) * MILLISECOND, capturedSamples, 10);
+            capturedSamples += 10;
+            if (capturedSamples == 1000) {
+                // Still within the first window
+                assertEquals(BASE, sampleClock.getTimestamp(0));
+            }
+        }
+        // The read without latency left the lowest latency two windows ago
+        assertEquals(BASE + 2 * MILLISECOND, sampleClock.getTimestamp(0));
+    }
+
+    @Test
+    public void anchorsTheClockAgainAfterAnOverrun() {
+        AudioFramePipeline.SampleClock sampleClock = new AudioFramePipeline.SampleClock(1000, 100);
+        sampleClock.update(BASE + 10 * MILLISECOND, 0, 10);
+        sampleClock.update(BASE + 20 * MILLISECOND, 10, 10);
+        // 100 ms late is what the source holds
+        assertFalse(sampleClock.update(BASE + 130 * MILLISECOND, 20, 10));
+        // Later than that, samples were lost: the buffer was full, so the 90 samples it held after
+        // the frame read were captured in the last 90 ms, after those of the frame
+        assertTrue(sampleClock.update(BASE + 190 * MILLISECOND, 30, 10));
+        assertEquals(BASE + 90 * MILLISECOND, sampleClock.getTimestamp(30));
+        assertEquals(BASE + 100 * MILLISECOND, sampleClock.getTimestamp(40));
+    }
+
+    @Test
+    public void assemblesFramesFromUnevenReads() throws InterruptedException {
+        int frameSize = 64;
+        int sampleCount = 10 * frameSize + 20;
+        AtomicLong analysedSamples = new AtomicLong();
+        List<long[]> frames = new ArrayList<>();
+        AudioFramePipeline audioFramePipeline = new AudioFramePipeline(1000, frameSize, 8, 4 * frameSize, frame -> {
+            for (int index = 0; index < frame.length; index++) {
+                assertEquals(frame.sampleIndex + index, frame.samples[index]);
+                assertEquals(frame.samples[index] / 32768.0f, frame.floatSamples[index], 0);
+            }
+            frames.add(new long[]{frame.sampleIndex, frame.length, frame.timestampNanoseconds, frame.recordedSampleIndex});
+            analysedSamples.addAndGet(frame.length);
+        });
+        List<Long> capturedIndexes = new ArrayList<>();
+        audioFramePipeline.setCaptureListener(frame -> capturedIndexes.add(frame.sampleIndex));
+        RampSource source = new RampSource(sampleCount, 4 * frameSize, analysedSamples);
+        audioFramePipeline.start(source);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (analysedSamples.get() < 10 * frameSize) {
+            assertTrue("Timed out", System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+        // The last frame, cut by the stop
+        audioFramePipeline.stop();
+
+        assertEquals(11, frames.size());
+        for (int index = 0; index < frames.size(); index++) {
+            long[] frame = frames.get(index);
+            assertEquals(index * frameSize, frame[0]);
+            assertEquals(index < 10 ? frameSize : 20, frame[1]);
+            assertEquals(-1, frame[3]);
+            if (index > 0) {
+                assertTrue(frame[2] >= frames.get(index - 1)[2]);
+            }
+            assertEquals(frame[0], (long) capturedIndexes.get(index));
+        }
+        assertEquals(11, audioFramePipeline.getCapturedFrames());
+        assertEquals(11, audioFramePipeline.getAnalysedFrames());
+        assertEquals(0, audioFramePipeline.getDroppedFrames());
+        assertEquals(0, audioFramePipeline.getReadErrors());
+        assertFalse(audioFramePipeline.isCapturing());
+    }
+}
@@ -0,0 +1,167 @@
+package es.csic.getsensordata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per packet of `MTiPacketDecoder`, against the parser `MTiXSensIMU` had before it, over a
+ * clean MTData stream read in chunks of 62 bytes, as the USB reads without their status bytes.
+ *
+ * Run it with `main()` from the unit test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MTiPacketDecoderBenchmark {
+    private static final int PACKET_COUNT = 1000;
+    private static final int CHUNK_SIZE = 62;
+
+    private byte[] stream;
+    private MTiPacketDecoder decoder;
+    private MTiPacketDecoder.Sample sample;
+    private LegacyParser legacyParser;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MTiPacketDecoderBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int index = 0; index < PACKET_COUNT; index++) {
+            output.write(MTiPacketDecoderTest.packet(MTiPacketDecoderTest.randomValues(random), (short) index), 0, MTiPacketDecoder.PACKET_SIZE);
+        }
+        stream = output.toByteArray();
+        decoder = new MTiPacketDecoder();
+        sample = new MTiPacketDecoder.Sample();
+        legacyParser = new LegacyParser();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKET_COUNT)
+    public void packetDecoder(Blackhole blackhole) {
+        for (int offset = 0; offset < stream.length; offset += CHUNK_SIZE) {
+            int length = Math.min(CHUNK_SIZE, stream.length - offset);
+            int fed = 0;
+            while (fed < length) {
+                fed += decoder.feed(stream, offset + fed, length - fed);
+                while (decoder.next(sample)) {
+                    blackhole.consume(sample.acceleration[0]);
+                    blackhole.consume(sample.counter);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PACKET_COUNT)
+    public void legacyParser(Blackhole blackhole) {
+        for (int offset = 0; offset < stream.length; offset += CHUNK_SIZE) {
+            legacyParser.feed(stream, offset, Math.min(CHUNK_SIZE, stream.length - offset), blackhole);
+        }
+    }
+
+    /**
+     * Framing and parsing of `MTiXSensIMU` before `MTiPacketDecoder`: a circular window of two
+     * packets, and a new packet and `IMUData` per sample.
+     */
+    private static class LegacyParser {
+        private static final int PACKAGE_SIZE = MTiPacketDecoder.PACKET_SIZE;
+        private static final byte preamble = MTiPacketDecoder.PREAMBLE;
+        private static final byte BID = MTiPacketDecoder.BID;
+        private static final byte MID_MTData = MTiPacketDecoder.MID_MT_DATA;
+        private static final byte dataLength = (byte) MTiPacketDecoder.DATA_LENGTH;
+        private static final int TEMPERATURE_INDEX = 4;
+        private static final int ACCELERATION_INDEX = 8;
+        private static final int TURN_RATE_INDEX = 20;
+        private static final int MAGNETIC_FIELD_INDEX = 32;
+        private static final int QUATERNIONS_INDEX = 44;
+        private static final int COUNTER_INDEX = 60;
+
+        private final byte[] mtiPkg = new byte[PACKAGE_SIZE * 2];
+        private int roundCounter = 0;
+
+        static class IMUData {
+            public float[] acceleration = {0.0f, 0.0f, 0.0f};
+            public float[] turnRate = {0.0f, 0.0f, 0.0f};
+            public float[] magneticField = {0.0f, 0.0f, 0.0f};
+            public float[] quaternions = {0.0f, 0.0f, 0.0f, 0.0f};
+            public float pressure = 0.0f;
+            public float temperature = 0.0f;
+            public long time = 0;
+            public short counter = 0;
+        }
+
+        void feed(byte[] bytes, int offset, int length, Blackhole blackhole) {
+            for (int i = offset; i < offset + length; i++) {
+                mtiPkg[roundCounter] = bytes[i];
+
+                if (mtiPkg[roundCounter] == preamble) {
+                    if (mtiPkg[(roundCounter + PACKAGE_SIZE + 1) % (PACKAGE_SIZE * 2)] == BID &
+                            mtiPkg[(roundCounter + PACKAGE_SIZE + 2) % (PACKAGE_SIZE * 2)] == MID_MTData &
+                            mtiPkg[(roundCounter + PACKAGE_SIZE + 3) % (PACKAGE_SIZE * 2)] == dataLength &
+                            mtiPkg[(roundCounter + PACKAGE_SIZE) % (PACKAGE_SIZE * 2)] == preamble) {
+                        IMUData mtiBlock = parse(mtiPkg, (roundCounter + PACKAGE_SIZE) % (PACKAGE_SIZE * 2));
+                        if (mtiBlock != null) {
+                            blackhole.consume(mtiBlock.acceleration[0]);
+                            blackhole.consume(mtiBlock.counter);
+                        }
+                    }
+                }
+                roundCounter = (roundCounter + 1) % (PACKAGE_SIZE * 2);
+            }
+        }
+
+        private static float getFloat(byte[] Package, int index) {
+            return Float.intBitsToFloat((((int) Package[index]) << 24) + ((((int) Package[index + 1]) & 0x00FF) << 16) + ((((int) Package[index + 2]) & 0x00FF) << 8) + (((int) Package[index + 3]) & 0x00FF));
+        }
+
+        private IMUData parse(byte[] msg, int pointer) {
+            IMUData receivedMessage = new IMUData();
+            byte sum = 0;
+            byte[] Package = new byte[PACKAGE_SIZE];
+            Package[0] = preamble;
+            for (int i = 1; i < PACKAGE_SIZE; i++) {
+                sum += msg[(pointer + i) % (PACKAGE_SIZE * 2)];
+                Package[i] = msg[(pointer + i) % (PACKAGE_SIZE * 2)];
+            }
+            if (sum != 0) {
+                return null;
+            }
+            if (Package[2] == MID_MTData) {
+                for (int axis = 0; axis < 3; axis++) {
+                    receivedMessage.acceleration[axis] = getFloat(Package, ACCELERATION_INDEX + 4 * axis);
+                    receivedMessage.turnRate[axis] = getFloat(Package, TURN_RATE_INDEX + 4 * axis);
+                    receivedMessage.magneticField[axis] = getFloat(Package, MAGNETIC_FIELD_INDEX + 4 * axis);
+                }
+                receivedMessage.temperature = getFloat(Package, TEMPERATURE_INDEX);
+                for (int index = 0; index < 4; index++) {
+                    receivedMessage.quaternions[index] = getFloat(Package, QUATERNIONS_INDEX + 4 * index);
+                }
+                receivedMessage.counter = (short) ((((short) Package[COUNTER_INDEX]) << 8) + (((short) Package[COUNTER_INDEX + 1]) & 0x00FF));
+            }
+            return receivedMessage;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package es.csic.getsensordata;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MTiPacketDecoderTest {
+    // MTData packet, byte by byte as sent by an MTi: 24.5 C, at rest, counter 1234
+    private static final String REFERENCE_PACKET =
+            "FAFF323A" +
+            "41C400003E000000BD800000411D00003A83126FBB03126F" +
+            "3B449BA63E99999ABDCCCCCD3F0000003F80000000000000" +
+            "000000000000000004D27A";
+
+    static byte[] parseHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int index = 0; index < bytes.length; index++) {
+            bytes[index] = (byte) Integer.parseInt(hex.substring(2 * index, 2 * index + 2), 16);
+        }
+        return bytes;
+    }
+
+    /**
+     * Build an MTData packet.
+     *
+     * @param values Temperature, acceleration, turn rate, magnetic field and quaternions.
+     */
+    static byte[] packet(float[] values, short counter) {
+        ByteBuffer buffer = ByteBuffer.allocate(MTiPacketDecoder.PACKET_SIZE);
+        buffer.put(MTiPacketDecoder.PREAMBLE).put(MTiPacketDecoder.BID).put(MTiPacketDecoder.MID_MT_DATA).put((byte) MTiPacketDecoder.DATA_LENGTH);
+        for (float value : values) {
+            buffer.putFloat(value);
+        }
+        buffer.putShort(counter);
+        byte[] bytes = buffer.array();
+        byte sum = 0;
+        for (int index = 1; index < bytes.length - 1; index++) {
+            sum += bytes[index];
+        }
+        bytes[bytes.length - 1] = (byte) -sum;
+        return bytes;
+    }
+
+    static float[] randomValues(Random random) {
+        float[] values = new float[14];
+        for (int index = 0; index < values.length; index++) {
+            values[index] = (float) random.nextGaussian() * 10;
+        }
+        return values;
+    }
+
+    private static float[] valuesOf(MTiPacketDecoder.Sample sample) {
+        float[] values = new float[14];
+        values[0] = sample.temperature;
+        System.arraycopy(sample.acceleration, 0, values, 1, 3);
+        System.arraycopy(sample.turnRate, 0, values, 4, 3);
+        System.arraycopy(sample.magneticField, 0, values, 7, 3);
+        System.arraycopy(sample.quaternions, 0, values, 10, 4);
+        return values;
+    }
+
+    /**
+     * Feed a stream in chunks of the given size, and collect the samples decoded.
+     */
+    private static List<float[]> decode(MTiPacketDecoder decoder, byte[] stream, int chunkSize, List<Short> counters) {
+        List<float[]> samples = new ArrayList<>();
+        MTiPacketDecoder.Sample sample = new MTiPacketDecoder.Sample();
+        for (int offset = 0; offset < stream.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, stream.length - offset);
+            int fed = 0;
+            while (fed < length) {
+                fed += decoder.feed(stream, offset + fed, length - fed);
+                while (decoder.next(sample)) {
+                    samples.add(valuesOf(sample));
+                    counters.add(sample.counter);
+                }
+            }
+        }
+        return samples;
+    }
+
+    @Test
+    public void decodesReferencePacket() {
+        byte[] packet = parseHex(REFERENCE_PACKET);
+        assertEquals(MTiPacketDecoder.PACKET_SIZE, packet.length);
+        MTiPacketDecoder decoder = new MTiPacketDecoder();
+        MTiPacketDecoder.Sample sample = new MTiPacketDecoder.Sample();
+        decoder.feed(packet, 0, packet.length);
+        // Not confirmed until the header of the following packet arrives
+        assertFalse(decoder.next(sample));
+        decoder.feed(packet, 0, 4);
+        assertTrue(decoder.next(sample));
+
+        assertEquals(24.5f, sample.temperature, 0);
+        assertArrayEquals(new float[]{0.125f, -0.0625f, 9.8125f}, sample.acceleration, 0);
+        assertArrayEquals(new float[]{0.001f, -0.002f, 0.003f}, sample.turnRate, 0);
+        assertArrayEquals(new float[]{0.3f, -0.1f, 0.5f}, sample.magneticField, 0);
+        assertArrayEquals(new float[]{1, 0, 0, 0}, sample.quaternions, 0);
+        assertEquals(1234, sample.counter);
+        assertEquals(1, decoder.getDecodedPackets());
+        assertEquals(0, decoder.getSkippedBytes());
+    }
+
+    @Test
+    public void decodesStreamFedInChunksOfAnySize() {
+        Random random = new Random(11);
+        int count = 200;
+        float[][] values = new float[count][];
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int index = 0; index < count; index++) {
+            values[index] = randomValues(random);
+            stream.write(packet(values[index], (short) index), 0, MTiPacketDecoder.PACKET_SIZE);
+        }
+        byte[] bytes = stream.toByteArray();
+
+        for (int chunkSize : new int[]{1, 2, 7, 62, 63, 64, 500, bytes.length}) {
+            MTiPacketDecoder decoder = new MTiPacketDecoder();
+            List<Short> counters = new ArrayList<>();
+            List<float[]> samples = decode(decoder, bytes, chunkSize, counters);
+            // Once locked, the last packet is confirmed by its counter
+            assertEquals("chunks of " + chunkSize, count, samples.size());
+            for (int index = 0; index < count; index++) {
+                assertArrayEquals(values[index], samples.get(index), 0);
+                assertEquals(index, (int) counters.get(index));
+            }
+            assertEquals(0, decoder.getSkippedBytes());
+            assertEquals(0, decoder.getGaps());
+        }
+    }
+
+    @Test
+    public void skipsMisalignedBytes() {
+        Random random = new Random(3);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        // Joined in the middle of a packet
+        byte[] first = packet(randomValues(random), (short) 0);
+        stream.write(first, 20, first.length - 20);
+        float[][] values = new float[5][];
+        for (int index = 0; index < values.length; index++) {
+            if (index == 3) {
+                // Bytes looking like the start of a header
+                stream.write(new byte[]{MTiPacketDecoder.PREAMBLE, MTiPacketDecoder.BID, MTiPacketDecoder.MID_MT_DATA}, 0, 3);
+            }
+            values[index] = randomValues(random);
+            stream.write(packet(values[index], (short) (index + 1)), 0, MTiPacketDecoder.PACKET_SIZE);
+        }
+
+        MTiPacketDecoder decoder = new MTiPacketDecoder();
+        List<Short> counters = new ArrayList<>();
+        List<float[]> samples = decode(decoder, stream.toByteArray(), 5, counters);
+        assertEquals(values.length, samples.size());
+        for (int index = 0; index < values.length; index++) {
+            assertArrayEquals(values[index], samples.get(index), 0);
+        }
+        assertEquals(first.length - 20 + 3, decoder.getSkippedBytes());
+        assertEquals(0, decoder.getGaps());
+    }
+
+    @Test
+    public void rejectsCorruptedPackets() {
+        Random random = new Random(5);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int index = 0; index < 10; index++) {
+            byte[] packet = packet(randomValues(random), (short) index);
+            if (index == 4) {
+                packet[30] ^= 0x10;
+            }
+            stream.write(packet, 0, packet.length);
+        }
+
+        MTiPacketDecoder decoder = new MTiPacketDecoder();
+        List<Short> counters = new ArrayList<>();
+        decode(decoder, stream.toByteArray(), 62, counters);
+        assertEquals(9, counters.size());
+        assertFalse(counters.contains((short) 4));
+        assertEquals(1, decoder.getCorruptedPackets());
+        assertEquals(1, decoder.getGaps());
+        assertEquals(1, decoder.getMissingSamples());
+    }
+
+    @Test
+    public void rejectsTruncatedPackets() {
+        Random random = new Random(9);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int index = 0; index < 10; index++) {
+            byte[] packet = packet(randomValues(random), (short) index);
+            stream.write(packet, 0, index == 6 ? 30 : packet.length);
+        }
+
+        MTiPacketDecoder decoder = new MTiPacketDecoder();
+        List<Short> counters = new ArrayList<>();
+        decode(decoder, stream.toByteArray(), 17, counters);
+        assertEquals(9, counters.size());
+        assertFalse(counters.contains((short) 6));
+        assertEquals(1, decoder.getMissingSamples());
+    }
+
+    @Test
+    public void countsGapsAcrossTheCounterWrap() {
+        Random random = new Random(1);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        for (int counter : new int[]{65533, 65534, 1, 2, 5}) {
+            stream.write(packet(randomValues(random), (short) counter), 0, MTiPacketDecoder.PACKET_SIZE);
+        }
+        // The header of the following packet, confirming the last one after its jump
+        stream.write(packet(randomValues(random), (short) 6), 0, 4);
+        MTiPacketDecoder decoder = new MTiPacketDecoder();
+        List<Short> counters = new ArrayList<>();
+        decode(decoder, stream.toByteArray(), 63, counters);
+        assertEquals(5, counters.size());
+        assertEquals(2, decoder.getGaps());
+        // 65535 and 0, then 3 and 4
+        assertEquals(4, decoder.getMissingSamples());
+    }
+
+    @Test
+    public void resetDiscardsPendingBytes() {
+        Random random = new Random(2);
+        MTiPacketDecoder decoder = new MTiPacketDecoder();
+        MTiPacketDecoder.Sample sample = new MTiPacketDecoder.Sample();
+        byte[] packet = packet(randomValues(random), (short) 7);
+        decoder.feed(packet, 0, 40);
+        decoder.reset();
+        decoder.feed(packet, 0, packet.length);
+        byte[] next = packet(randomValues(random), (short) 100);
+        decoder.feed(next, 0, next.length);
+        assertTrue(decoder.next(sample));
+        assertEquals(7, sample.counter);
+        // Not locked across the reset, so the jump from 7 to 100 is not confirmed by the counter
+        // but by the header, and counted as a gap
+        decoder.feed(packet, 0, 4);
+        assertTrue(decoder.next(sample));
+        assertEquals(100, sample.counter);
+        assertEquals(1, decoder.getGaps());
+    }
+
+    @Test
+    public void decodesOnlyIntactPacketsOfANoisyStream() {
+        Random random = new Random(7);
+        int count = 20000;
+        float[][] values = new float[count][];
+        boolean[] isIntact = new boolean[count];
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        int intactCount = 0;
+        for (int index = 0; index < count; index++) {
+            values[index] = randomValues(random);
+            byte[] packet = packet(values[index], (short) index);
+            isIntact[index] = true;
+            if (index % 97 == 5) {
+                // A bit flipped
+                packet[10 + random.nextInt(40)] ^= 0x10;
+                isIntact[index] = false;
+            }
+            if (index % 131 == 7) {
+                // Garbage starting like a packet
+                byte[] garbage = new byte[1 + random.nextInt(7)];
+                random.nextBytes(garbage);
+                garbage[0] = MTiPacketDecoder.PREAMBLE;
+                stream.write(garbage, 0, garbage.length);
+            }
+            if (index % 211 == 9) {
+                stream.write(packet, 0, 30);
+                isIntact[index] = false;
+                continue;
+            }
+            stream.write(packet, 0, packet.length);
+            if (isIntact[index]) {
+                intactCount++;
+            }
+        }
+        byte[] bytes = stream.toByteArray();
+
+        MTiPacketDecoder decoder = new MTiPacketDecoder();
+        MTiPacketDecoder.Sample sample = new MTiPacketDecoder.Sample();
+        int decodedCount = 0;
+        int offset = 0;
+        while (offset < bytes.length) {
+            int length = Math.min(bytes.length - offset, 1 + random.nextInt(200));
+            int fed = 0;
+            while (fed < length) {
+                fed += decoder.feed(bytes, offset + fed, length - fed);
+                while (decoder.next(sample)) {
+                    int index = sample.counter & 0xFFFF;
+                    assertTrue("packet " + index + " is not intact", isIntact[index]);
+                    assertArrayEquals(values[index], valuesOf(sample), 0);
+                    decodedCount++;
+                }
+            }
+            offset += length;
+        }
+        // A packet right after a corrupted one may wait for a confirmation that never comes
+        assertTrue(decodedCount + " of " + intactCount, decodedCount >= intactCount - 10);
+        assertTrue(decoder.getCorruptedPackets() > 0);
+    }
+}
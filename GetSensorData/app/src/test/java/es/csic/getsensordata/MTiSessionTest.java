@@ -0,0 +1,303 @@
+package es.csic.getsensordata;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of `MTiSession` against a fake MTi behind an in-memory endpoint.
+ */
+public class MTiSessionTest {
+    // Time between two chunks of the USB serial converter
+    private static final long TICK_NANOSECONDS = 16000000L;
+
+    /**
+     * Fake MTi: streams MTData while measuring, and answers the commands written to it.
+     */
+    private static class FakeImu implements MTiSession.Transport {
+        boolean isMeasuring = true;
+        // Sampling period, in units of 1/115200 s
+        int period = 0x480;
+        short counter = 0;
+        // Samples due, carried over between ticks
+        double dueSamples = 0;
+        // Acknowledgements to drop, as if lost on the way
+        int droppedAcknowledgements = 0;
+        boolean isSilent = false;
+        boolean isWriteFailing = false;
+        final Set<Byte> rejectedMids = new HashSet<>();
+        final List<Byte> receivedMids = new ArrayList<>();
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+
+        @Override
+        public boolean write(byte[] bytes, int offset, int length) {
+            if (isWriteFailing) {
+                return false;
+            }
+            byte sum = 0;
+            for (int index = offset + 1; index < offset + length; index++) {
+                sum += bytes[index];
+            }
+            assertEquals(MTiSession.PREAMBLE, bytes[offset]);
+            assertEquals(MTiSession.BID, bytes[offset + 1]);
+            assertEquals(length - 5, bytes[offset + 3] & 0xFF);
+            assertEquals(0, sum);
+
+            byte mid = bytes[offset + 2];
+            receivedMids.add(mid);
+            if (isSilent) {
+                return true;
+            }
+            if (droppedAcknowledgements > 0) {
+                droppedAcknowledgements--;
+                return true;
+            }
+            if (rejectedMids.contains(mid)) {
+                send(MTiSession.MID_ERROR, new byte[]{4});
+                return true;
+            }
+            if (mid == MTiSession.MID_GO_TO_CONFIG) {
+                isMeasuring = false;
+            } else if (mid == MTiSession.MID_GO_TO_MEASUREMENT) {
+                isMeasuring = true;
+            } else if (mid == MTiSession.MID_SET_PERIOD) {
+                period = (bytes[offset + 4] & 0xFF) << 8 | bytes[offset + 5] & 0xFF;
+            }
+            send((byte) (mid + 1), mid == MTiSession.MID_REQ_DID ? new byte[]{1, 2, 3, 4} : null);
+            return true;
+        }
+
+        private void send(byte mid, byte[] data) {
+            byte[] message = MTiSession.buildMessage(mid, data);
+            output.write(message, 0, message.length);
+        }
+
+        /**
+         * Get the bytes sent during a tick.
+         */
+        byte[] tick() {
+            if (isMeasuring) {
+                dueSamples += TICK_NANOSECONDS * 1e-9 * 115200 / period;
+                for (; dueSamples >= 1; dueSamples--) {
+                    byte[] data = new byte[MTiPacketDecoder.DATA_LENGTH];
+                    data[MTiPacketDecoder.OFFSET_COUNTER - 4] = (byte) (counter >> 8);
+                    data[MTiPacketDecoder.OFFSET_COUNTER - 3] = (byte) counter;
+                    counter++;
+                    send(MTiPacketDecoder.MID_MT_DATA, data);
+                }
+            }
+            byte[] bytes = output.toByteArray();
+            output.reset();
+            return bytes;
+        }
+    }
+
+    private FakeImu imu;
+    private MTiSession session;
+    private MTiPacketDecoder decoder;
+    private final MTiPacketDecoder.Sample sample = new MTiPacketDecoder.Sample();
+    private final Map<String, String> results = new LinkedHashMap<>();
+    private final Random random = new Random(1);
+    private long nowNanoseconds = 0;
+    private int sampleCount = 0;
+
+    @Before
+    public void setUp() {
+        imu = new FakeImu();
+        session = new MTiSession(imu);
+        decoder = new MTiPacketDecoder();
+    }
+
+    private MTiSession.CommandCallback callback(String name) {
+        return (command, result, response) -> results.put(name, result + "/" + command.getAttempts() + (response != null && response.length > 0 ? "/" + Arrays.toString(response) : ""));
+    }
+
+    /**
+     * Let time pass, handing what the IMU sends to the session and the decoder, in chunks of
+     * random sizes, as the USB requests.
+     */
+    private void run(int ticks) {
+        for (int tick = 0; tick < ticks; tick++) {
+            nowNanoseconds += TICK_NANOSECONDS;
+            byte[] bytes = imu.tick();
+            int offset = 0;
+            do {
+                int length = Math.min(bytes.length - offset, random.nextInt(200));
+                session.onStreamData(bytes, offset, length, nowNanoseconds);
+                int fed = 0;
+                while (fed < length) {
+                    fed += decoder.feed(bytes, offset + fed, length - fed);
+                    while (decoder.next(sample)) {
+                        sampleCount++;
+                    }
+                }
+                offset += length;
+            } while (offset < bytes.length);
+        }
+    }
+
+    /**
+     * Run until the session is done with every command.
+     *
+     * @return ticks taken.
+     */
+    private int runWhileBusy() {
+        int ticks = 0;
+        while (session.isBusy()) {
+            assertTrue("Still busy", ticks < 1000);
+            run(1);
+            ticks++;
+        }
+        return ticks;
+    }
+
+    @Test
+    public void reconfiguresWhileMeasuring() {
+        run(10);
+        // 400 Hz
+        session.submit(MTiSession.MID_GO_TO_CONFIG, null, callback("config"));
+        session.submit(MTiSession.MID_SET_PERIOD, new byte[]{0x01, 0x20}, callback("period"));
+        session.submit(MTiSession.MID_SET_OUTPUT_MODE, new byte[]{0, 7}, callback("mode"));
+        session.submit(MTiSession.MID_SET_OUTPUT_SETTINGS, new byte[]{0, 0, 0, 1}, callback("settings"));
+        session.submit(MTiSession.MID_GO_TO_MEASUREMENT, null, callback("measurement"));
+        int ticks = runWhileBusy();
+
+        assertTrue("Took " + ticks + " ticks", ticks <= 10);
+        assertEquals(5, results.size());
+        for (String result : results.values()) {
+            assertEquals("Acknowledged/1", result);
+        }
+        assertEquals(0x120, imu.period);
+        assertTrue(imu.isMeasuring);
+        assertEquals(5, session.getAcknowledgedCommands());
+        assertEquals(0, session.getRetries());
+
+        // 1.6 s at 400 Hz, without losing any sample
+        int previousSampleCount = sampleCount;
+        long previousGaps = decoder.getGaps();
+        run(100);
+        assertEquals(640, sampleCount - previousSampleCount, 5);
+        assertEquals(previousGaps, decoder.getGaps());
+    }
+
+    @Test
+    public void handsTheResponseToTheCallback() {
+        session.submit(MTiSession.MID_REQ_DID, null, callback("did"));
+        runWhileBusy();
+        assertEquals("Acknowledged/1/[1, 2, 3, 4]", results.get("did"));
+    }
+
+    @Test
+    public void retriesWhenTheAcknowledgementIsLost() {
+        imu.droppedAcknowledgements = 1;
+        session.submit(MTiSession.MID_REQ_DID, null, callback("did"));
+        int ticks = runWhileBusy();
+        assertEquals("Acknowledged/2/[1, 2, 3, 4]", results.get("did"));
+        assertEquals(1, session.getRetries());
+        // Sent again in the first tick after the timeout, and acknowledged in the next one
+        assertEquals(MTiSession.DEFAULT_TIMEOUT_MS * 1000000.0 / TICK_NANOSECONDS + 2, ticks, 1);
+    }
+
+    @Test
+    public void endsRejectedCommandsWithTheErrorCode() {
+        imu.rejectedMids.add(MTiSession.MID_SET_PERIOD);
+        session.submit(MTiSession.MID_SET_PERIOD, new byte[]{0, 1}, callback("period"));
+        session.submit(MTiSession.MID_GO_TO_MEASUREMENT, null, callback("measurement"));
+        runWhileBusy();
+        assertEquals("Rejected/1/[4]", results.get("period"));
+        assertEquals("Acknowledged/1", results.get("measurement"));
+        assertEquals(1, session.getFailedCommands());
+    }
+
+    @Test
+    public void timesOutWhenTheImuIsSilent() {
+        imu.isSilent = true;
+        long startNanoseconds = nowNanoseconds;
+        session.submit(MTiSession.MID_GO_TO_CONFIG, null, callback("config"));
+        session.submit(MTiSession.MID_GO_TO_MEASUREMENT, null, callback("measurement"));
+        runWhileBusy();
+
+        assertEquals("TimedOut/3", results.get("config"));
+        assertEquals("TimedOut/3", results.get("measurement"));
+        assertEquals(Arrays.asList(
+                MTiSession.MID_GO_TO_CONFIG, MTiSession.MID_GO_TO_CONFIG, MTiSession.MID_GO_TO_CONFIG,
+                MTiSession.MID_GO_TO_MEASUREMENT, MTiSession.MID_GO_TO_MEASUREMENT, MTiSession.MID_GO_TO_MEASUREMENT
+        ), imu.receivedMids);
+        // 2 commands of 3 attempts of 500 ms, each timing out in the first tick after its deadline
+        double elapsedMs = (nowNanoseconds - startNanoseconds) * 1e-6;
+        int attempts = 2 * MTiSession.DEFAULT_ATTEMPTS;
+        assertTrue("Took " + elapsedMs + " ms", elapsedMs >= attempts * MTiSession.DEFAULT_TIMEOUT_MS);
+        assertTrue("Took " + elapsedMs + " ms", elapsedMs <= attempts * MTiSession.DEFAULT_TIMEOUT_MS + (attempts + 1) * TICK_NANOSECONDS * 1e-6);
+        assertEquals(2, session.getFailedCommands());
+        assertEquals(4, session.getRetries());
+    }
+
+    @Test
+    public void failsCommandsThatCantBeSent() {
+        imu.isWriteFailing = true;
+        session.submit(MTiSession.MID_GO_TO_CONFIG, null, callback("config"));
+        run(1);
+        assertEquals("TimedOut/1", results.get("config"));
+        assertFalse(session.isBusy());
+    }
+
+    @Test
+    public void skipsCorruptedAcknowledgements() {
+        imu.isMeasuring = false;
+        session.submit(MTiSession.MID_REQ_DID, null, callback("did"));
+        run(2);
+        assertEquals("Acknowledged/1/[1, 2, 3, 4]", results.get("did"));
+
+        // An acknowledgement with a wrong checksum, then a right one
+        session.submit(MTiSession.MID_REQ_DID, null, callback("corrupted"));
+        imu.isSilent = true;
+        run(1);
+        byte[] corrupted = MTiSession.buildMessage((byte) (MTiSession.MID_REQ_DID + 1), new byte[]{9, 9, 9, 9});
+        corrupted[5] ^= 1;
+        byte[] valid = MTiSession.buildMessage((byte) (MTiSession.MID_REQ_DID + 1), new byte[]{5, 6, 7, 8});
+        session.onStreamData(corrupted, 0, corrupted.length, nowNanoseconds);
+        assertTrue(session.isBusy());
+        session.onStreamData(valid, 0, valid.length, nowNanoseconds);
+        assertEquals("Acknowledged/1/[5, 6, 7, 8]", results.get("corrupted"));
+    }
+
+    @Test
+    public void cancelsPendingCommandsWhenClosed() {
+        imu.isSilent = true;
+        session.submit(MTiSession.MID_GO_TO_CONFIG, null, callback("current"));
+        run(1);
+        session.submit(MTiSession.MID_GO_TO_MEASUREMENT, null, callback("pending"));
+        session.close();
+        session.submit(MTiSession.MID_GO_TO_CONFIG, null, callback("afterClose"));
+
+        assertEquals("Cancelled/1", results.get("current"));
+        assertEquals("Cancelled/0", results.get("pending"));
+        assertEquals("Cancelled/0", results.get("afterClose"));
+        assertFalse(session.isBusy());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsDataTooLong() {
+        session.submit(MTiSession.MID_SET_OUTPUT_SETTINGS, new byte[255], null);
+    }
+
+    @Test
+    public void buildsMessagesWithTheirChecksum() {
+        assertArrayEquals(new byte[]{(byte) 0xFA, (byte) 0xFF, 0x30, 0x00, (byte) 0xD1}, MTiSession.buildMessage(MTiSession.MID_GO_TO_CONFIG, null));
+        assertArrayEquals(new byte[]{(byte) 0xFA, (byte) 0xFF, 0x04, 0x02, 0x01, 0x20, (byte) 0xDA}, MTiSession.buildMessage(MTiSession.MID_SET_PERIOD, new byte[]{0x01, 0x20}));
+    }
+}
@@ -0,0 +1,112 @@
+package es.csic.getsensordata;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of the removal of the status bytes the FTDI converter puts at the start of each USB
+ * packet, and of the overruns it flags.
+ */
+public class MTiUsbReaderTest {
+    private static final int PACKET_SIZE = 8;
+    // Line status of a packet without errors: transmitter holding and shift registers empty
+    private static final byte LINE_STATUS = 0x60;
+    private static final byte MODEM_STATUS = 0x01;
+
+    /**
+     * Stream sent by the IMU, with a different value per byte.
+     */
+    private static byte[] stream(int length) {
+        byte[] bytes = new byte[length];
+        for (int index = 0; index < length; index++) {
+            bytes[index] = (byte) (index + 1);
+        }
+        return bytes;
+    }
+
+    /**
+     * Data of a request, as received: the stream cut in packets, each one starting with the status.
+     *
+     * @param stream      Stream sent by the IMU.
+     * @param offset      Position of the first byte of the request in the stream.
+     * @param dataLengths Number of data bytes of each packet, at most `PACKET_SIZE - STATUS_SIZE`.
+     * @param overruns    Whether each packet flags an overrun.
+     */
+    private static byte[] request(byte[] stream, int offset, int[] dataLengths, boolean[] overruns) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (int packet = 0; packet < dataLengths.length; packet++) {
+            bytes.write(MODEM_STATUS);
+            bytes.write(LINE_STATUS | (overruns[packet] ? MTiUsbReader.STATUS_OVERRUN_ERROR : 0));
+            bytes.write(stream, offset, dataLengths[packet]);
+            offset += dataLengths[packet];
+        }
+        return bytes.toByteArray();
+    }
+
+    @Test
+    public void removesStatusOfEveryPacket() {
+        byte[] stream = stream(20);
+        byte[] request = request(stream, 0, new int[]{6, 6, 6, 2}, new boolean[4]);
+        assertEquals(28, request.length);
+
+        int length = MTiUsbReader.removeStatus(request, request.length, PACKET_SIZE);
+
+        assertEquals(20, length);
+        assertArrayEquals(stream, Arrays.copyOf(request, length));
+        assertEquals(0, MTiUsbReader.removeStatus(new byte[]{MODEM_STATUS, LINE_STATUS}, 2, PACKET_SIZE));
+        assertEquals(0, MTiUsbReader.removeStatus(new byte[0], 0, PACKET_SIZE));
+    }
+
+    @Test
+    public void joinsStreamSplitAcrossReads() {
+        // A request completes with its first packet not full, even if only its status was
+        // received, so the next packet, and its status, start the next read
+        byte[] stream = stream(23);
+        byte[][] requests = {
+                request(stream, 0, new int[]{6, 3}, new boolean[2]),
+                request(stream, 9, new int[]{0}, new boolean[1]),
+                request(stream, 9, new int[]{6, 6, 2}, new boolean[3])};
+        ByteArrayOutputStream received = new ByteArrayOutputStream();
+        for (byte[] request : requests) {
+            int length = MTiUsbReader.removeStatus(request, request.length, PACKET_SIZE);
+            received.write(request, 0, length);
+        }
+
+        assertArrayEquals(stream, received.toByteArray());
+    }
+
+    @Test
+    public void ignoresStatusCutAtTheEndOfRead() {
+        // Only the modem status of the last packet arrived: no data, and no line status to check
+        byte[] stream = stream(6);
+        byte[] request = Arrays.copyOf(request(stream, 0, new int[]{6}, new boolean[1]), PACKET_SIZE + 1);
+        request[PACKET_SIZE] = MODEM_STATUS;
+
+        assertEquals(0, MTiUsbReader.countOverruns(request, request.length, PACKET_SIZE));
+        int length = MTiUsbReader.removeStatus(request, request.length, PACKET_SIZE);
+        assertEquals(6, length);
+        assertArrayEquals(stream, Arrays.copyOf(request, length));
+    }
+
+    @Test
+    public void countsOverrunsOfEveryPacket() {
+        byte[] stream = stream(30);
+        byte[] request = request(stream, 0, new int[]{6, 6, 6, 6, 4}, new boolean[]{true, false, false, true, true});
+
+        assertEquals(3, MTiUsbReader.countOverruns(request, request.length, PACKET_SIZE));
+        // Only the line status is checked, and only at the start of each packet
+        byte[] clean = request(stream, 0, new int[]{6, 6}, new boolean[2]);
+        clean[0] = (byte) 0xFF;
+        clean[3] = MTiUsbReader.STATUS_OVERRUN_ERROR;
+        assertEquals(0, MTiUsbReader.countOverruns(clean, clean.length, PACKET_SIZE));
+        // Only from the bytes received: the line status of the fourth packet is cut
+        assertEquals(1, MTiUsbReader.countOverruns(request, 2 * PACKET_SIZE, PACKET_SIZE));
+        assertEquals(1, MTiUsbReader.countOverruns(request, 3 * PACKET_SIZE + 1, PACKET_SIZE));
+        assertEquals(2, MTiUsbReader.countOverruns(request, 3 * PACKET_SIZE + 2, PACKET_SIZE));
+    }
+}
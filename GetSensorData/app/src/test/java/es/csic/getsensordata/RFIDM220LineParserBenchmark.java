@@ -0,0 +1,77 @@
+package es.csic.getsensordata;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time per line of `RFIDM220LineParser`, against the parser `RFIDM220Reader` had before it, over a
+ * clean stream read in chunks of 1024 bytes, as from the socket.
+ *
+ * Run it with `main()` from the unit test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RFIDM220LineParserBenchmark {
+    private static final int LINE_COUNT = 1000;
+    private static final int CHUNK_SIZE = 1024;
+
+    private byte[] stream;
+    private RFIDM220LineParser parser;
+    private RFIDM220LineParserTest.LegacyParser legacyParser;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(RFIDM220LineParserBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        for (int index = 0; index < LINE_COUNT; index++) {
+            byte[] line = RFIDM220LineParserTest.randomLine(random).getBytes(StandardCharsets.US_ASCII);
+            output.write(line, 0, line.length);
+            output.write('\r');
+        }
+        stream = output.toByteArray();
+        parser = new RFIDM220LineParser();
+        legacyParser = new RFIDM220LineParserTest.LegacyParser();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public void lineParser(Blackhole blackhole) {
+        for (int offset = 0; offset < stream.length; offset += CHUNK_SIZE) {
+            parser.feed(stream, offset, Math.min(CHUNK_SIZE, stream.length - offset), reading -> blackhole.consume(reading.rssA));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINE_COUNT)
+    public void legacyParser(Blackhole blackhole) {
+        for (int offset = 0; offset < stream.length; offset += CHUNK_SIZE) {
+            legacyParser.feed(stream, offset, Math.min(CHUNK_SIZE, stream.length - offset), reading -> blackhole.consume(reading.rssA));
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package es.csic.getsensordata;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of `RFIDM220LineParser`, against the parser `RFIDM220Reader` had before it on fuzzed
+ * lines and streams.
+ */
+public class RFIDM220LineParserTest {
+    private static final byte CARRIAGE_RETURN = 13;
+    private static final byte[] ALPHABET = ",ABPpHGLOCATEab0123456789+- xyz".getBytes(StandardCharsets.US_ASCII);
+    // Result of the legacy parser when it throws
+    private static final String THROWN = "thrown";
+
+    /**
+     * Parsing of `RFIDM220Reader` before `RFIDM220LineParser`: a `StringBuilder` per line, and
+     * `String.indexOf()`, `Long.parseLong()` and `Integer.parseInt()` on it. Stack traces aren't
+     * printed, as they don't change the results.
+     */
+    static class LegacyParser {
+        private final RFIDM220LineParser.Reading reading = new RFIDM220LineParser.Reading();
+        private boolean inSync = false;
+        private StringBuilder line = new StringBuilder();
+        private long validLines = 0;
+        private long invalidLines = 0;
+
+        void feed(byte[] bytes, int offset, int length, RFIDM220LineParser.ReadingListener listener) {
+            for (int index = offset; index < offset + length; index++) {
+                byte currentByte = bytes[index];
+                if (!inSync && currentByte == CARRIAGE_RETURN) {
+                    line = new StringBuilder();
+                    inSync = true;
+                } else if (inSync) {
+                    if (currentByte != CARRIAGE_RETURN) {
+                        line.append((char) currentByte);
+                    } else {
+                        if (parseLine(line.toString(), reading)) {
+                            validLines++;
+                            listener.onReading(reading);
+                        } else {
+                            invalidLines++;
+                        }
+                        line = new StringBuilder();
+                    }
+                }
+            }
+        }
+
+        long getValidLines() {
+            return validLines;
+        }
+
+        long getInvalidLines() {
+            return invalidLines;
+        }
+
+        static boolean parseLine(String line, RFIDM220LineParser.Reading reading) {
+            int posH = line.indexOf("H,");
+            int posG = line.indexOf(",GLOCATE,");
+            int posP = line.toUpperCase().indexOf(",P");
+            int posA = line.indexOf(",A");
+            int posB = line.indexOf(",B");
+            if (line.length() < 23 || posH != 0 || posG == -1 || posP == -1 || (posA == -1 && posB == -1)) {
+                return false;
+            }
+
+            long tagId = 0;
+            try {
+                tagId = Long.parseLong(line.substring(posH + 2, posH + 10));
+            } catch (Exception ignored) {
+            }
+            // charAt() throws past the end of the line, ending the read thread
+            int ss1 = -1;
+            int ss2 = -1;
+            if (posA != -1) {
+                int digits = line.charAt(posA + 2) == '1' ? 3 : 2;
+                try {
+                    ss1 = Integer.parseInt(line.substring(posA + 2, posA + 2 + digits));
+                } catch (Exception ignored) {
+                }
+            }
+            if (posB != -1) {
+                int digits = line.charAt(posB + 2) == '1' ? 3 : 2;
+                try {
+                    ss2 = Integer.parseInt(line.substring(posB + 2, posB + 2 + digits));
+                } catch (Exception ignored) {
+                }
+            }
+            if (ss1 > 0 || ss2 > 0) {
+                reading.rssA = ss1;
+                reading.rssB = ss2;
+                reading.tagId = tagId;
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * A line as the reader sends it, of one of the shapes seen.
+     */
+    static String randomLine(Random random) {
+        String tagId = String.format(Locale.US, "%08d", random.nextInt(100000000));
+        switch (random.nextInt(4)) {
+            case 0:
+                return "H," + tagId + ",GLOCATE,P,A" + (40 + random.nextInt(80)) + ",B" + (40 + random.nextInt(80));
+            case 1:
+                return "H," + tagId + ",GLOCATE,p,B" + (40 + random.nextInt(80));
+            case 2:
+                return "H," + tagId + ",GLOCATE,P,A" + (40 + random.nextInt(80)) + ",X12";
+            default:
+                return "H," + tagId + ",GLOCATE,P,12,A1" + random.nextInt(10) + random.nextInt(10) + ",B" + random.nextInt(10);
+        }
+    }
+
+    /**
+     * A line with up to 3 random substitutions, insertions, deletions or truncations, some of them
+     * high bytes, but no carriage returns.
+     */
+    private static byte[] mutate(String line, Random random) {
+        List<Byte> bytes = new ArrayList<>();
+        for (byte value : line.getBytes(StandardCharsets.US_ASCII)) {
+            bytes.add(value);
+        }
+        int mutations = random.nextInt(4);
+        for (int mutation = 0; mutation < mutations && !bytes.isEmpty(); mutation++) {
+            int position = random.nextInt(bytes.size());
+            byte value = random.nextInt(8) == 0 ? (byte) (0x80 + random.nextInt(128)) : ALPHABET[random.nextInt(ALPHABET.length)];
+            switch (random.nextInt(4)) {
+                case 0:
+                    bytes.set(position, value);
+                    break;
+                case 1:
+                    bytes.add(position, value);
+                    break;
+                case 2:
+                    bytes.remove(position);
+                    break;
+                default:
+                    bytes.subList(position, bytes.size()).clear();
+            }
+        }
+        byte[] result = new byte[bytes.size()];
+        for (int index = 0; index < result.length; index++) {
+            result[index] = bytes.get(index) == CARRIAGE_RETURN ? (byte) ' ' : bytes.get(index);
+        }
+        return result;
+    }
+
+    private static String toString(RFIDM220LineParser.Reading reading) {
+        return reading.tagId + "/" + reading.rssA + "/" + reading.rssB;
+    }
+
+    private static String parseLegacy(byte[] line) {
+        RFIDM220LineParser.Reading reading = new RFIDM220LineParser.Reading();
+        try {
+            return LegacyParser.parseLine(new String(line, StandardCharsets.ISO_8859_1), reading) ? toString(reading) : "-";
+        } catch (StringIndexOutOfBoundsException exception) {
+            return THROWN;
+        }
+    }
+
+    private static String parse(byte[] line) {
+        RFIDM220LineParser.Reading reading = new RFIDM220LineParser.Reading();
+        return RFIDM220LineParser.parseLine(line, 0, line.length, reading) ? toString(reading) : "-";
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.ISO_8859_1);
+    }
+
+    @Test
+    public void parsesLines() {
+        assertEquals("12345/67/110", parse(bytes("H,00012345,GLOCATE,P,A67,B110")));
+        assertEquals("12345/-1/99", parse(bytes("H,00012345,GLOCATE,p,B99,X")));
+        // Tag ID not a number
+        assertEquals("0/67/-1", parse(bytes("H,0001x345,GLOCATE,P,A67,C")));
+        // No RSS
+        assertEquals("-", parse(bytes("H,00012345,GLOCATE,P,Axx,B0")));
+        // No position
+        assertEquals("-", parse(bytes("H,00012345,GLOCATE,Q,A67,B110")));
+        // Too short
+        assertEquals("-", parse(bytes("H,1,GLOCATE,P,A67")));
+        // Antenna field at the end, where the legacy parser threw
+        assertEquals("12345/67/-1", parse(bytes("H,00012345,GLOCATE,P,A67,B")));
+    }
+
+    @Test
+    public void parsesFuzzedLinesAsTheLegacyParser() {
+        Random random = new Random(11);
+        int validCount = 0;
+        int thrownCount = 0;
+        for (int index = 0; index < 200000; index++) {
+            byte[] line = mutate(randomLine(random), random);
+            String expected = parseLegacy(line);
+            if (expected.equals(THROWN)) {
+                // Missing instead
+                thrownCount++;
+                continue;
+            }
+            if (!expected.equals("-")) {
+                validCount++;
+            }
+            assertEquals(new String(line, StandardCharsets.ISO_8859_1), expected, parse(line));
+        }
+        // Enough of each
+        assertTrue("Valid " + validCount, validCount > 50000);
+        assertTrue("Thrown " + thrownCount, thrownCount > 100);
+    }
+
+    @Test
+    public void parsesStreamsInAnyChunksAsTheLegacyParser() throws Exception {
+        Random random = new Random(12);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        // Tail of a line, skipped
+        output.write(bytes("H,00012345,GLOCATE,P,A77\r"));
+        for (int index = 0; index < 30000; index++) {
+            byte[] line = mutate(randomLine(random), random);
+            if (!parseLegacy(line).equals(THROWN)) {
+                output.write(line);
+                output.write(CARRIAGE_RETURN);
+            }
+        }
+        byte[] stream = output.toByteArray();
+
+        StringBuilder expected = new StringBuilder();
+        LegacyParser legacyParser = new LegacyParser();
+        for (int offset = 0; offset < stream.length; offset++) {
+            legacyParser.feed(stream, offset, 1, reading -> expected.append(toString(reading)).append('\n'));
+        }
+        for (int maximumChunkSize : new int[]{1, 8, 1000, stream.length}) {
+            StringBuilder actual = new StringBuilder();
+            RFIDM220LineParser parser = new RFIDM220LineParser();
+            for (int offset = 0; offset < stream.length; ) {
+                int length = Math.min(stream.length - offset, 1 + random.nextInt(maximumChunkSize));
+                parser.feed(stream, offset, length, reading -> actual.append(toString(reading)).append('\n'));
+                offset += length;
+            }
+            String description = "Chunks up to " + maximumChunkSize;
+            assertEquals(description, expected.toString(), actual.toString());
+            assertEquals(description, legacyParser.getValidLines(), parser.getValidLines());
+            assertEquals(description, legacyParser.getInvalidLines(), parser.getInvalidLines());
+        }
+    }
+
+    @Test
+    public void countsLinesTooLongAsInvalid() {
+        RFIDM220LineParser parser = new RFIDM220LineParser(32);
+        List<String> readings = new ArrayList<>();
+        byte[] stream = bytes("\rH,00012345,GLOCATE,P,A67,B110\rH,00012345,GLOCATE,P,A67,B110,xxxxxxxx\rH,00000001,GLOCATE,P,A50\r");
+        // Lines too long, whole in the chunk and across chunks
+        for (int chunkSize : new int[]{stream.length, 5}) {
+            for (int offset = 0; offset < stream.length; offset += chunkSize) {
+                parser.feed(stream, offset, Math.min(chunkSize, stream.length - offset), reading -> readings.add(toString(reading)));
+            }
+            parser.reset();
+        }
+        assertEquals(4, readings.size());
+        assertEquals("1/50/-1", readings.get(3));
+        assertEquals(4, parser.getValidLines());
+        assertEquals(2, parser.getInvalidLines());
+    }
+
+    @Test
+    public void skipsUpToTheFirstLineAfterReset() {
+        RFIDM220LineParser parser = new RFIDM220LineParser();
+        List<String> readings = new ArrayList<>();
+        byte[] stream = bytes("H,00000001,GLOCATE,P,A50\rH,00000002,GLOCATE,P,A51\r");
+        parser.feed(stream, 0, stream.length, reading -> readings.add(toString(reading)));
+        parser.feed(stream, 0, 10, reading -> readings.add(toString(reading)));
+        parser.reset();
+        parser.feed(stream, 10, stream.length - 10, reading -> readings.add(toString(reading)));
+        assertEquals(2, readings.size());
+        assertEquals("2/51/-1", readings.get(1));
+        assertFalse(parser.getInvalidLines() > 0);
+    }
+}
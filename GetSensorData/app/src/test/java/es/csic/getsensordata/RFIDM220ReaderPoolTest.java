@@ -0,0 +1,271 @@
+package es.csic.getsensordata;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of `RFIDM220ReaderPool`, with connections fed by the test chunk by chunk.
+ */
+public class RFIDM220ReaderPoolTest {
+    private static final long BACKOFF_MS = 10;
+    private static final long TIMEOUT_MS = 5000;
+
+    /**
+     * Connection whose bytes available are the chunks given by the test, one at a time.
+     */
+    private static class FakeConnection implements RFIDM220ReaderPool.Connection {
+        final ConcurrentLinkedQueue<byte[]> chunks = new ConcurrentLinkedQueue<>();
+        final ByteArrayOutputStream commands = new ByteArrayOutputStream();
+        volatile boolean isBroken = false;
+        volatile boolean isClosed = false;
+
+        private final InputStream inputStream = new InputStream() {
+            @Override
+            public int available() throws IOException {
+                if (isBroken) {
+                    throw new IOException("Connection broken");
+                }
+                byte[] chunk = chunks.peek();
+                return chunk == null ? 0 : chunk.length;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) throws IOException {
+                byte[] chunk = chunks.poll();
+                if (chunk == null || chunk.length > length) {
+                    throw new IOException("Unexpected read");
+                }
+                System.arraycopy(chunk, 0, bytes, offset, chunk.length);
+                return chunk.length;
+            }
+
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Unexpected read");
+            }
+        };
+
+        void feed(String chunk) {
+            chunks.add(chunk.getBytes(StandardCharsets.US_ASCII));
+        }
+
+        String getCommands() {
+            synchronized (commands) {
+                return new String(commands.toByteArray(), StandardCharsets.US_ASCII);
+            }
+        }
+
+        @Override
+        public InputStream getInputStream() {
+            return inputStream;
+        }
+
+        @Override
+        public OutputStream getOutputStream() {
+            return new OutputStream() {
+                @Override
+                public void write(int oneByte) {
+                    synchronized (commands) {
+                        commands.write(oneByte);
+                    }
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+            isClosed = true;
+        }
+    }
+
+    /**
+     * Connector failing the first attempts, and keeping every connection made.
+     */
+    private static class FakeConnector implements RFIDM220ReaderPool.Connector {
+        final AtomicInteger failuresLeft;
+        final List<FakeConnection> connections = new CopyOnWriteArrayList<>();
+
+        FakeConnector(int failures) {
+            failuresLeft = new AtomicInteger(failures);
+        }
+
+        @Override
+        public RFIDM220ReaderPool.Connection connect(String address) throws IOException {
+            if (failuresLeft.getAndDecrement() > 0) {
+                throw new IOException("Unable to connect " + address);
+            }
+            FakeConnection connection = new FakeConnection();
+            connections.add(connection);
+            return connection;
+        }
+    }
+
+    private static class RecordingListener implements RFIDM220ReaderPool.Listener {
+        final List<String> events = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void onReaderConnected(int readerIndex) {
+            events.add("connected " + readerIndex);
+        }
+
+        @Override
+        public void onReaderDisconnected(int readerIndex) {
+            events.add("disconnected " + readerIndex);
+        }
+
+        @Override
+        public void onReading(int readerIndex, long timestampNanoseconds, RFIDM220LineParser.Reading reading) {
+            events.add(readerIndex + ": " + reading.tagId + "/" + reading.rssA + "/" + reading.rssB);
+        }
+    }
+
+    private RFIDM220ReaderPool readerPool;
+
+    @After
+    public void tearDown() {
+        if (readerPool != null) {
+            readerPool.close();
+        }
+    }
+
+    private static void waitFor(String what, BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!condition.getAsBoolean()) {
+            assertTrue("Timed out waiting for " + what, System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    private RFIDM220ReaderPool.State getState(int readerIndex) {
+        RFIDM220ReaderPool.ReaderStatus status = new RFIDM220ReaderPool.ReaderStatus();
+        readerPool.getReaderStatus(readerIndex, status);
+        return status.state;
+    }
+
+    @Test
+    public void assemblesLinesCutAcrossChunks() throws InterruptedException {
+        FakeConnector connector = new FakeConnector(0);
+        RecordingListener listener = new RecordingListener();
+        readerPool = new RFIDM220ReaderPool(connector, listener, 1, BACKOFF_MS, BACKOFF_MS, RFIDM220ReaderPool.DEFAULT_LINK_TIMEOUT_MS);
+        readerPool.addReader("00:00:00:00:00:01", "RFCode M220 01");
+        int readerIndex = readerPool.addReader("00:00:00:00:00:07", "RFCode M220 07");
+        readerPool.connect(readerIndex);
+        readerPool.startReading(readerIndex);
+        waitFor("reading", () -> getState(readerIndex) == RFIDM220ReaderPool.State.READING);
+
+        FakeConnection connection = connector.connections.get(0);
+        assertTrue(connection.getCommands().startsWith("M,0\rM,0\rG,LOCATE,4\r"));
+        // Up to the first carriage return is discarded, as the line could be incomplete
+        connection.feed("A51\rH,0000");
+        connection.feed("0001,GLOCATE,P,A50\rH,00000002,GLOC");
+        connection.feed("ATE,P,A51,B");
+        connection.feed("60\r");
+        waitFor("readings", () -> listener.events.size() == 3);
+
+        assertEquals(Arrays.asList("connected 1", "1: 1/50/-1", "1: 2/51/60"), listener.events);
+        RFIDM220ReaderPool.ReaderStatus status = new RFIDM220ReaderPool.ReaderStatus();
+        readerPool.getReaderStatus(readerIndex, status);
+        assertEquals(7, status.readerNumber);
+        assertEquals(2, status.validLines);
+        assertEquals(0, status.invalidLines);
+        assertEquals(58, status.bytesRead);
+        assertEquals(RFIDM220ReaderPool.State.IDLE, getState(0));
+    }
+
+    @Test
+    public void retriesAFailedConnectWithBackoff() throws InterruptedException {
+        FakeConnector connector = new FakeConnector(2);
+        RecordingListener listener = new RecordingListener();
+        readerPool = new RFIDM220ReaderPool(connector, listener, 1, BACKOFF_MS, 4 * BACKOFF_MS, RFIDM220ReaderPool.DEFAULT_LINK_TIMEOUT_MS);
+        int readerIndex = readerPool.addReader("00:00:00:00:00:01", "RFCode M220 01");
+        readerPool.connect(readerIndex);
+        waitFor("connected", () -> getState(readerIndex) == RFIDM220ReaderPool.State.CONNECTED);
+
+        RFIDM220ReaderPool.ReaderStatus status = new RFIDM220ReaderPool.ReaderStatus();
+        readerPool.getReaderStatus(readerIndex, status);
+        assertEquals(3, status.connectAttempts);
+        assertEquals(0, status.failedAttempts);
+        assertEquals(1, connector.connections.size());
+        assertEquals(Arrays.asList("connected 0"), listener.events);
+    }
+
+    @Test
+    public void reconnectsAndReadsAgainWhenTheConnectionDrops() throws InterruptedException {
+        FakeConnector connector = new FakeConnector(0);
+        RecordingListener listener = new RecordingListener();
+        readerPool = new RFIDM220ReaderPool(connector, listener, 1, BACKOFF_MS, BACKOFF_MS, RFIDM220ReaderPool.DEFAULT_LINK_TIMEOUT_MS);
+        int readerIndex = readerPool.addReader("00:00:00:00:00:01", "RFCode M220 01");
+        readerPool.connect(readerIndex);
+        readerPool.startReading(readerIndex);
+        waitFor("reading", () -> getState(readerIndex) == RFIDM220ReaderPool.State.READING);
+
+        FakeConnection first = connector.connections.get(0);
+        // A line cut by the drop is not completed by the next connection
+        first.feed("\rH,00000001,GLOCATE,P,A50\rH,0000");
+        waitFor("reading", () -> listener.events.size() == 2);
+        first.isBroken = true;
+        waitFor("reconnection", () -> connector.connections.size() == 2 && getState(readerIndex) == RFIDM220ReaderPool.State.READING);
+        assertTrue(first.isClosed);
+
+        FakeConnection second = connector.connections.get(1);
+        assertTrue(second.getCommands().startsWith("M,0\rM,0\rG,LOCATE,4\r"));
+        second.feed("0002,GLOCATE,P,A51\rH,00000003,GLOCATE,P,A52\r");
+        waitFor("reading", () -> listener.events.size() == 5);
+
+        assertEquals(Arrays.asList("connected 0", "0: 1/50/-1", "disconnected 0", "connected 0", "0: 3/52/-1"), listener.events);
+        RFIDM220ReaderPool.ReaderStatus status = new RFIDM220ReaderPool.ReaderStatus();
+        readerPool.getReaderStatus(readerIndex, status);
+        assertEquals(2, status.connectAttempts);
+        assertEquals(0, status.failedAttempts);
+    }
+
+    @Test
+    public void reconnectsASilentReader() throws InterruptedException {
+        FakeConnector connector = new FakeConnector(0);
+        RecordingListener listener = new RecordingListener();
+        readerPool = new RFIDM220ReaderPool(connector, listener, 1, BACKOFF_MS, BACKOFF_MS, 50);
+        int readerIndex = readerPool.addReader("00:00:00:00:00:01", "RFCode M220 01");
+        readerPool.connect(readerIndex);
+        readerPool.startReading(readerIndex);
+        waitFor("reconnection", () -> connector.connections.size() == 2);
+
+        assertTrue(connector.connections.get(0).isClosed);
+        assertEquals("connected 0", listener.events.get(0));
+        assertEquals("disconnected 0", listener.events.get(1));
+    }
+
+    @Test
+    public void disconnectsWhenAsked() throws InterruptedException {
+        FakeConnector connector = new FakeConnector(0);
+        RecordingListener listener = new RecordingListener();
+        readerPool = new RFIDM220ReaderPool(connector, listener, 1, BACKOFF_MS, BACKOFF_MS, RFIDM220ReaderPool.DEFAULT_LINK_TIMEOUT_MS);
+        int readerIndex = readerPool.addReader("00:00:00:00:00:01", "RFCode M220 01");
+        readerPool.connect(readerIndex);
+        readerPool.startReading(readerIndex);
+        waitFor("reading", () -> getState(readerIndex) == RFIDM220ReaderPool.State.READING);
+        readerPool.disconnect(readerIndex);
+        waitFor("idle", () -> getState(readerIndex) == RFIDM220ReaderPool.State.IDLE);
+
+        FakeConnection connection = connector.connections.get(0);
+        assertTrue(connection.isClosed);
+        // Taken out of measurement mode before closing
+        assertTrue(connection.getCommands().endsWith("M\rM,0\r"));
+        assertEquals(Arrays.asList("connected 0", "disconnected 0"), listener.events);
+        assertEquals(1, connector.connections.size());
+    }
+}
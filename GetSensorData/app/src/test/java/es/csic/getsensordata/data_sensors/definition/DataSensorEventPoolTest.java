@@ -0,0 +1,138 @@
+package es.csic.getsensordata.data_sensors.definition;
+
+import android.content.ContextWrapper;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+
+import es.csic.getsensordata.data_sensors.AccelerometerDataSensor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Tests of `DataSensorEventPool`, alone and publishing samples through a `ManagedDataSensor`.
+ */
+public class DataSensorEventPoolTest {
+    /**
+     * Context without any system service, so the data sensor has no sensor behind it.
+     */
+    private static class NoServicesContext extends ContextWrapper {
+        NoServicesContext() {
+            super(null);
+        }
+
+        @Override
+        public Object getSystemService(String name) {
+            return null;
+        }
+    }
+
+    /**
+     * Recorder keeping a copy of the last event, as those writing it in another thread do.
+     */
+    private static class CopyingRecorder implements DataSensor.DataSensorEventListener {
+        private final DataSensorEventPool pool;
+        DataSensorEvent copy;
+        long changes = 0;
+
+        CopyingRecorder(DataSensorEventPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void onDataSensorConnected(DataSensor dataSensor) {
+        }
+
+        @Override
+        public void onDataSensorDisconnected(DataSensor dataSensor) {
+        }
+
+        @Override
+        public void onDataSensorChanged(DataSensor dataSensor) {
+            if (copy != null) {
+                pool.release(copy);
+            }
+            copy = pool.acquire().copyFrom(((ManagedDataSensor) dataSensor).getEvent());
+            changes++;
+        }
+    }
+
+    private AccelerometerDataSensor dataSensor;
+
+    @Before
+    public void setUp() {
+        dataSensor = new AccelerometerDataSensor(new NoServicesContext(), 1);
+    }
+
+    @Test
+    public void reusesEventsReleased() {
+        DataSensorEventPool pool = new DataSensorEventPool(dataSensor, 2);
+        DataSensorEvent first = pool.acquire();
+        DataSensorEvent second = pool.acquire();
+        assertNotSame(first, second);
+        assertSame(dataSensor, first.getDataSensor());
+        assertEquals(2, pool.getAllocatedEvents());
+
+        pool.release(first);
+        assertSame(first, pool.acquire());
+        assertEquals(2, pool.getAllocatedEvents());
+    }
+
+    @Test
+    public void dropsEventsBeyondItsCapacity() {
+        DataSensorEventPool pool = new DataSensorEventPool(dataSensor, 1);
+        DataSensorEvent first = pool.acquire();
+        DataSensorEvent second = pool.acquire();
+        pool.release(first);
+        pool.release(second);
+        assertSame(first, pool.acquire());
+        pool.acquire();
+        assertEquals(3, pool.getAllocatedEvents());
+    }
+
+    @Test
+    public void allocatesNothingOncePublishing() {
+        assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threadMXBean.isThreadAllocatedMemorySupported() && threadMXBean.isThreadAllocatedMemoryEnabled());
+
+        CopyingRecorder recorder = new CopyingRecorder(dataSensor.getEventPool());
+        dataSensor.setRecorder(recorder);
+        float[] values = new float[3];
+
+        // Warm up: the event published, the one being filled, and the copy of the recorder
+        for (int sample = 0; sample < 10; sample++) {
+            values[0] = sample;
+            dataSensor.publish(values, values.length, sample);
+        }
+        long allocatedEvents = dataSensor.getEventPool().getAllocatedEvents();
+        assertEquals(3, allocatedEvents);
+
+        long threadId = Thread.currentThread().getId();
+        long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId);
+        for (int sample = 10; sample < 1000000; sample++) {
+            values[0] = sample;
+            values[2] = -sample;
+            dataSensor.publish(values, values.length, sample * 1000L);
+        }
+        allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBytes;
+        assertEquals(allocatedEvents, dataSensor.getEventPool().getAllocatedEvents());
+        // Nothing is allocated per sample: a few bytes of the JVM itself are allowed, far below
+        // the 1 MB a single byte per sample would take
+        assertTrue("Bytes allocated publishing: " + allocatedBytes, allocatedBytes < 64 * 1024);
+
+        DataSensorEvent event = dataSensor.getEvent();
+        assertEquals(999999, event.getValues()[0], 0);
+        assertEquals(-999999, event.getValues()[2], 0);
+        assertEquals(999999000L, event.getTimestamp());
+        assertEquals(999999000L, recorder.copy.getTimestamp());
+        assertNotSame(event, recorder.copy);
+        assertEquals(1000000, recorder.changes);
+    }
+}
@@ -0,0 +1,202 @@
+package es.csic.getsensordata.data_sensors.definition;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class DirectReportDecoderTest {
+    private static final int REPORT_COUNT = 8;
+    private static final int TOKEN = 7;
+    private static final int TYPE = 1;
+
+    private final byte[] sharedMemory = new byte[REPORT_COUNT * DirectReportDecoder.REPORT_SIZE];
+    private final ByteBuffer buffer = ByteBuffer.wrap(sharedMemory).order(ByteOrder.LITTLE_ENDIAN);
+    // Counters of the reports decoded
+    private final List<Integer> counters = new ArrayList<>();
+    private DirectReportDecoder decoder;
+
+    private final DirectReportDecoder.ReportListener listener = (token, type, timestamp, values) -> {
+        int counter = (int) (timestamp / 1000);
+        assertEquals(TOKEN, token);
+        assertEquals(TYPE, type);
+        for (int index = 0; index < DirectReportDecoder.MAX_VALUES; index++) {
+            assertEquals(counter + index * 0.5f, values[index], 0);
+        }
+        counters.add(counter);
+    };
+
+    @Before
+    public void setUp() {
+        decoder = new DirectReportDecoder(sharedMemory);
+    }
+
+    /**
+     * Write a report as the sensor does, the counter last.
+     */
+    private void write(int counter) {
+        int offset = (counter - 1) % REPORT_COUNT * DirectReportDecoder.REPORT_SIZE;
+        buffer.putInt(offset + DirectReportDecoder.OFFSET_SIZE, DirectReportDecoder.REPORT_SIZE);
+        buffer.putInt(offset + DirectReportDecoder.OFFSET_TOKEN, TOKEN);
+        buffer.putInt(offset + DirectReportDecoder.OFFSET_TYPE, TYPE);
+        buffer.putLong(offset + DirectReportDecoder.OFFSET_TIMESTAMP, counter * 1000L);
+        for (int index = 0; index < DirectReportDecoder.MAX_VALUES; index++) {
+            buffer.putFloat(offset + DirectReportDecoder.OFFSET_VALUES + 4 * index, counter + index * 0.5f);
+        }
+        buffer.putInt(offset + DirectReportDecoder.OFFSET_COUNTER, counter);
+    }
+
+    private void write(int firstCounter, int lastCounter) {
+        for (int counter = firstCounter; counter <= lastCounter; counter++) {
+            write(counter);
+        }
+    }
+
+    private static List<Integer> range(int first, int last) {
+        List<Integer> counters = new ArrayList<>();
+        for (int counter = first; counter <= last; counter++) {
+            counters.add(counter);
+        }
+        return counters;
+    }
+
+    /**
+     * Shared memory copied from `sharedMemory`, counting the reports copied.
+     */
+    private class CountingSharedMemory implements DirectReportDecoder.SharedMemory {
+        int copiedReports = 0;
+
+        @Override
+        public void read(byte[] snapshot, int offset, int length) {
+            System.arraycopy(sharedMemory, offset, snapshot, offset, length);
+            copiedReports += length / DirectReportDecoder.REPORT_SIZE;
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSnapshotsNotOfWholeReports() {
+        new DirectReportDecoder(new byte[DirectReportDecoder.REPORT_SIZE + 1]);
+    }
+
+    @Test
+    public void decodesNothingFromAnEmptyRing() {
+        assertEquals(0, decoder.decode(listener));
+        assertEquals(0, decoder.getDecodedReports());
+        assertEquals(0, decoder.getLostReports());
+        assertEquals(REPORT_COUNT, decoder.getReportCount());
+    }
+
+    @Test
+    public void decodesNewReportsInOrder() {
+        write(1, 5);
+        assertEquals(5, decoder.decode(listener));
+        assertEquals(0, decoder.decode(listener));
+        // Wrapping around the ring
+        write(6, 12);
+        assertEquals(7, decoder.decode(listener));
+        write(13);
+        assertEquals(1, decoder.decode(listener));
+
+        assertEquals(range(1, 13), counters);
+        assertEquals(13, decoder.getDecodedReports());
+        assertEquals(0, decoder.getLostReports());
+    }
+
+    @Test
+    public void decodesAFullRing() {
+        write(1, REPORT_COUNT);
+        assertEquals(REPORT_COUNT, decoder.decode(listener));
+        assertEquals(range(1, REPORT_COUNT), counters);
+        assertEquals(0, decoder.getLostReports());
+    }
+
+    @Test
+    public void skipsReportsOverwrittenWhenLapped() {
+        write(1, 5);
+        decoder.decode(listener);
+        // The ring holds 18 to 25
+        write(6, 25);
+        assertEquals(REPORT_COUNT, decoder.decode(listener));
+        assertEquals(12, decoder.getLostReports());
+        write(26, 30);
+        assertEquals(5, decoder.decode(listener));
+
+        List<Integer> expected = range(1, 5);
+        expected.addAll(range(18, 30));
+        assertEquals(expected, counters);
+        assertEquals(18, decoder.getDecodedReports());
+        assertEquals(12, decoder.getLostReports());
+    }
+
+    @Test
+    public void skipsReportsOverwrittenBeforeTheFirstDecoding() {
+        write(1, 20);
+        assertEquals(REPORT_COUNT, decoder.decode(listener));
+        assertEquals(range(13, 20), counters);
+        assertEquals(12, decoder.getLostReports());
+    }
+
+    @Test
+    public void waitsForReportsNotFullyWritten() {
+        write(1, 3);
+        // Counter written, but not the size yet
+        write(4);
+        buffer.putInt(3 * DirectReportDecoder.REPORT_SIZE + DirectReportDecoder.OFFSET_SIZE, 0);
+        assertEquals(3, decoder.decode(listener));
+        buffer.putInt(3 * DirectReportDecoder.REPORT_SIZE + DirectReportDecoder.OFFSET_SIZE, DirectReportDecoder.REPORT_SIZE);
+        assertEquals(1, decoder.decode(listener));
+        assertEquals(range(1, 4), counters);
+    }
+
+    @Test
+    public void readsOnlyTheNewReports() throws IOException {
+        DirectReportDecoder reader = new DirectReportDecoder(new byte[sharedMemory.length], 2);
+        CountingSharedMemory counting = new CountingSharedMemory();
+        write(1, 3);
+        // Two chunks: the first full of new reports, the second not
+        assertEquals(3, reader.read(counting, listener));
+        assertEquals(4, counting.copiedReports);
+        assertEquals(0, reader.read(counting, listener));
+        assertEquals(6, counting.copiedReports);
+        // Wrapping around the ring, the last chunk cut at its end
+        write(4, 10);
+        counting.copiedReports = 0;
+        assertEquals(7, reader.read(counting, listener));
+        assertEquals(9, counting.copiedReports);
+
+        assertEquals(range(1, 10), counters);
+        assertEquals(0, reader.getLostReports());
+    }
+
+    @Test
+    public void readsTheWholeRingWhenLapped() throws IOException {
+        DirectReportDecoder reader = new DirectReportDecoder(new byte[sharedMemory.length], 2);
+        CountingSharedMemory counting = new CountingSharedMemory();
+        write(1, 2);
+        reader.read(counting, listener);
+        write(3, 20);
+        counting.copiedReports = 0;
+        assertEquals(REPORT_COUNT, reader.read(counting, listener));
+        // The chunk of the report expected, then the whole ring
+        assertEquals(2 + REPORT_COUNT, counting.copiedReports);
+
+        List<Integer> expected = range(1, 2);
+        expected.addAll(range(13, 20));
+        assertEquals(expected, counters);
+        assertEquals(10, reader.getLostReports());
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWhenTheSharedMemoryCantBeRead() throws IOException {
+        write(1);
+        decoder.read((snapshot, offset, length) -> {
+            throw new IOException("Closed");
+        }, listener);
+    }
+}
@@ -0,0 +1,210 @@
+package es.csic.getsensordata.data_sensors.definition;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of `EmitterTable`, alone and against a `HashMap` on random updates and expiries.
+ */
+public class EmitterTableTest {
+    private static final long MILLISECOND = 1000000L;
+
+    private static long wiFiKey(long id) {
+        return EmitterTable.key(EmitterTable.KIND_WIFI, id);
+    }
+
+    /**
+     * Find keys whose home slot is the same, so they take consecutive slots in a probe sequence.
+     */
+    private static long[] findCollidingKeys(EmitterTable emitterTable, int count, boolean isAtTheEnd) {
+        // Alone in the table, a key lands in its home slot
+        long[] keys = new long[count];
+        int found = 0;
+        int homeSlot = -1;
+        for (long id = 1; found < count; id++) {
+            emitterTable.clear();
+            int slot = emitterTable.update(wiFiKey(id), -50, 0);
+            if ((homeSlot < 0 && (!isAtTheEnd || slot == emitterTable.getSlotCount() - 1)) || slot == homeSlot) {
+                homeSlot = slot;
+                keys[found++] = wiFiKey(id);
+            }
+        }
+        emitterTable.clear();
+        return keys;
+    }
+
+    @Test
+    public void insertsAndUpdatesEmitters() {
+        EmitterTable emitterTable = new EmitterTable(16, 30000);
+        EmitterTable.Statistics statistics = new EmitterTable.Statistics();
+        long key = EmitterTable.key(EmitterTable.KIND_WIFI, EmitterTable.parseMac("0a:1b:2c:3d:4e:5f"));
+        int slot = emitterTable.update(key, -60, 1000 * MILLISECOND);
+        emitterTable.setLabel(slot, "eduroam");
+        emitterTable.update(key, -70, 2000 * MILLISECOND);
+        slot = emitterTable.update(key, -50, 3000 * MILLISECOND);
+        emitterTable.update(EmitterTable.key(EmitterTable.KIND_RFID, 1234), -80, 3000 * MILLISECOND);
+
+        assertEquals(slot, emitterTable.find(key));
+        assertEquals(2, emitterTable.size());
+        assertEquals(1, emitterTable.count(EmitterTable.KIND_WIFI));
+        assertEquals(1, emitterTable.count(EmitterTable.KIND_RFID));
+        assertEquals(-1, emitterTable.find(EmitterTable.key(EmitterTable.KIND_RFID, 4321)));
+
+        assertTrue(emitterTable.getStatistics(key, 4000 * MILLISECOND, statistics));
+        assertEquals("eduroam", statistics.label);
+        assertEquals(EmitterTable.KIND_WIFI, statistics.getKind());
+        assertEquals("0a:1b:2c:3d:4e:5f", EmitterTable.appendMac(new StringBuilder(), statistics.getId()).toString());
+        assertEquals(-50, statistics.lastRss);
+        assertEquals(-60, statistics.meanRss, 0);
+        assertEquals(-70, statistics.minimumRss);
+        assertEquals(-50, statistics.maximumRss);
+        assertEquals(3, statistics.count);
+        assertEquals(1000 * MILLISECOND, statistics.ageNanoseconds);
+        assertEquals(3000 * MILLISECOND, statistics.lifetimeNanoseconds);
+    }
+
+    @Test
+    public void computesTheStatisticsOverTheLastMeasurements() {
+        EmitterTable emitterTable = new EmitterTable(4, 30000, 3);
+        EmitterTable.Statistics statistics = new EmitterTable.Statistics();
+        for (int rss = -90; rss <= -40; rss += 10) {
+            emitterTable.update(wiFiKey(1), rss, 0);
+        }
+        assertTrue(emitterTable.getStatistics(wiFiKey(1), 0, statistics));
+        assertEquals(3, statistics.windowCount);
+        assertEquals(6, statistics.count);
+        assertEquals(-50, statistics.meanRss, 0);
+        assertEquals(-60, statistics.minimumRss);
+        assertEquals(-40, statistics.maximumRss);
+    }
+
+    @Test
+    public void shiftsBackTheEmittersAfterOneDeleted() {
+        EmitterTable emitterTable = new EmitterTable(8, 30000);
+        long[] keys = findCollidingKeys(emitterTable, 3, false);
+        emitterTable.update(keys[0], -50, 0);
+        int secondSlot = emitterTable.update(keys[1], -60, 10 * MILLISECOND);
+        int thirdSlot = emitterTable.update(keys[2], -70, 10 * MILLISECOND);
+        assertNotEquals(secondSlot, thirdSlot);
+
+        // The first one expires, and the others are moved back into the hole left
+        assertEquals(1, emitterTable.expire(30005 * MILLISECOND));
+        assertEquals(-1, emitterTable.find(keys[0]));
+        assertEquals(secondSlot, emitterTable.find(keys[1]) + 1);
+        assertEquals(thirdSlot, emitterTable.find(keys[2]) + 1);
+        assertEquals(-60, emitterTable.getLastRss(emitterTable.find(keys[1])));
+        assertEquals(-70, emitterTable.getLastRss(emitterTable.find(keys[2])));
+        assertEquals(2, emitterTable.size());
+        assertEquals(1, emitterTable.getExpiredEmitters());
+    }
+
+    @Test
+    public void wrapsProbeSequencesAroundTheEnd() {
+        EmitterTable emitterTable = new EmitterTable(8, 30000);
+        long[] keys = findCollidingKeys(emitterTable, 3, true);
+        int firstSlot = emitterTable.update(keys[0], -50, 0);
+        int secondSlot = emitterTable.update(keys[1], -60, 10 * MILLISECOND);
+        int thirdSlot = emitterTable.update(keys[2], -70, 10 * MILLISECOND);
+        assertEquals(emitterTable.getSlotCount() - 1, firstSlot);
+        assertEquals(0, secondSlot);
+        assertEquals(1, thirdSlot);
+
+        // Removing the one at the end shifts back those wrapped to the start
+        assertEquals(1, emitterTable.expire(30005 * MILLISECOND));
+        assertEquals(emitterTable.getSlotCount() - 1, emitterTable.find(keys[1]));
+        assertEquals(0, emitterTable.find(keys[2]));
+        assertEquals(-1, emitterTable.find(keys[0]));
+    }
+
+    @Test
+    public void expiresTheEmittersNotHeardLately() {
+        EmitterTable emitterTable = new EmitterTable(16, 1000);
+        emitterTable.update(wiFiKey(1), -50, 0);
+        emitterTable.update(wiFiKey(2), -50, 0);
+        emitterTable.update(wiFiKey(2), -50, 800 * MILLISECOND);
+        int slot = emitterTable.find(wiFiKey(1));
+
+        assertFalse(emitterTable.isExpired(slot, 1000 * MILLISECOND));
+        assertTrue(emitterTable.isExpired(slot, 1001 * MILLISECOND));
+        assertEquals(0, emitterTable.expire(1000 * MILLISECOND));
+        assertEquals(1, emitterTable.expire(1001 * MILLISECOND));
+        assertEquals(-1, emitterTable.find(wiFiKey(1)));
+        assertTrue(emitterTable.find(wiFiKey(2)) >= 0);
+        assertEquals(1, emitterTable.expire(1801 * MILLISECOND));
+        assertEquals(0, emitterTable.size());
+    }
+
+    @Test
+    public void evictsTheEmitterHeardLongestAgoWhenFull() {
+        EmitterTable emitterTable = new EmitterTable(3, 30000);
+        emitterTable.update(wiFiKey(1), -50, 2 * MILLISECOND);
+        emitterTable.update(wiFiKey(2), -50, MILLISECOND);
+        emitterTable.update(wiFiKey(3), -50, 3 * MILLISECOND);
+        emitterTable.update(wiFiKey(4), -50, 4 * MILLISECOND);
+
+        assertEquals(3, emitterTable.size());
+        assertEquals(-1, emitterTable.find(wiFiKey(2)));
+        assertEquals(1, emitterTable.getEvictedEmitters());
+    }
+
+    @Test
+    public void sortsByRss() {
+        EmitterTable emitterTable = new EmitterTable(8, 30000);
+        emitterTable.update(wiFiKey(1), -70, 0);
+        emitterTable.update(wiFiKey(2), -40, 0);
+        emitterTable.update(EmitterTable.key(EmitterTable.KIND_RFID, 3), -30, 0);
+        emitterTable.update(wiFiKey(4), -55, 0);
+        int[] slots = new int[8];
+
+        assertEquals(3, emitterTable.sortByRss(EmitterTable.KIND_WIFI, slots));
+        assertEquals(wiFiKey(2), emitterTable.getKey(slots[0]));
+        assertEquals(wiFiKey(4), emitterTable.getKey(slots[1]));
+        assertEquals(wiFiKey(1), emitterTable.getKey(slots[2]));
+        assertEquals(4, emitterTable.sortByRss(EmitterTable.KIND_ANY, slots));
+        assertEquals(EmitterTable.KIND_RFID, EmitterTable.kindOf(emitterTable.getKey(slots[0])));
+    }
+
+    @Test
+    public void matchesAHashMapOnRandomUpdatesAndExpiries() {
+        EmitterTable emitterTable = new EmitterTable(64, 100);
+        Map<Long, Long> lastSeen = new HashMap<>();
+        Random random = new Random(1);
+        long nowNanoseconds = 0;
+        for (int step = 0; step < 100000; step++) {
+            nowNanoseconds += random.nextInt(100) * 10000L;
+            long key = wiFiKey(1 + random.nextInt(60));
+            emitterTable.update(key, -random.nextInt(100), nowNanoseconds);
+            lastSeen.put(key, nowNanoseconds);
+            if (step % 97 == 0) {
+                long expiryNanoseconds = nowNanoseconds - 100 * MILLISECOND;
+                emitterTable.expire(nowNanoseconds);
+                lastSeen.values().removeIf(seen -> seen < expiryNanoseconds);
+            }
+            if (step % 101 == 0) {
+                assertEquals(lastSeen.size(), emitterTable.size());
+                for (long id = 1; id <= 60; id++) {
+                    assertEquals(lastSeen.containsKey(wiFiKey(id)), emitterTable.find(wiFiKey(id)) >= 0);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void parsesAndAppendsMacAddresses() {
+        assertEquals(0x0a1b2c3d4e5fL, EmitterTable.parseMac("0A-1b-2c-3d-4e-5f"));
+        assertEquals(-1, EmitterTable.parseMac("0a:1b:2c:3d:4e"));
+        assertEquals(-1, EmitterTable.parseMac("0a:1b:2c:3d:4e:5g"));
+        assertEquals(-1, EmitterTable.parseMac(null));
+        assertEquals("00:00:00:00:00:01", EmitterTable.appendMac(new StringBuilder(), 1).toString());
+        assertNull(new EmitterTable(1, 1).getLabel(0));
+    }
+}
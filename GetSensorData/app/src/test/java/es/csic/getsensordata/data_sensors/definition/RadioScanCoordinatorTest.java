@@ -0,0 +1,165 @@
+package es.csic.getsensordata.data_sensors.definition;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RadioScanCoordinatorTest {
+    private static final long SECOND = 1000000000L;
+    private static final int WIFI = RadioScanCoordinator.WIFI;
+    private static final int BLUETOOTH = RadioScanCoordinator.BLUETOOTH;
+    private static final int BLE = RadioScanCoordinator.BLE;
+
+    private RadioScanCoordinator radioScanCoordinator;
+    // Windows begun and ended, as "WiFi+" or "Bluetooth-"
+    private final List<String> windows = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        // Windows of 1 second, shares planned every 10 seconds
+        radioScanCoordinator = new RadioScanCoordinator(1000, 1000, 10000);
+        radioScanCoordinator.setListener((technology, isBegun) ->
+                windows.add((technology == WIFI ? "WiFi" : "Bluetooth") + (isBegun ? "+" : "-")));
+    }
+
+    /**
+     * Scan in the window reserved, hearing some observations, from `startTime` for `length`.
+     */
+    private void scan(int technology, long startTime, long length, int observations) {
+        radioScanCoordinator.begin(technology, startTime);
+        radioScanCoordinator.onObservations(technology, startTime + length, observations);
+        radioScanCoordinator.end(technology, startTime + length);
+    }
+
+    @Test
+    public void reservesWindowsNotOverlapping() {
+        assertEquals(0, radioScanCoordinator.reserve(WIFI, 0));
+        radioScanCoordinator.begin(WIFI, 0);
+        assertTrue(radioScanCoordinator.isRadioTaken());
+        // Due while WiFi scans: after its window
+        assertEquals(SECOND, radioScanCoordinator.reserve(BLUETOOTH, SECOND / 2));
+        radioScanCoordinator.end(WIFI, SECOND);
+        assertFalse(radioScanCoordinator.isRadioTaken());
+        radioScanCoordinator.begin(BLUETOOTH, SECOND);
+
+        assertEquals(1, radioScanCoordinator.getWindowCount(WIFI));
+        assertEquals(Arrays.asList("WiFi+", "WiFi-", "Bluetooth+"), windows);
+    }
+
+    @Test
+    public void pacesWindowsToTheirShare() {
+        scan(WIFI, 0, SECOND, 0);
+        // A window of 1 second every 4 seconds, with the initial share of a quarter
+        assertEquals(4 * SECOND, radioScanCoordinator.reserve(WIFI, 2 * SECOND));
+        assertEquals(0.25, radioScanCoordinator.getShare(WIFI), 1e-9);
+        assertEquals(0.5, radioScanCoordinator.getShare(BLE), 1e-9);
+    }
+
+    @Test
+    public void learnsTheLengthOfTheWindows() {
+        scan(BLUETOOTH, 0, 3 * SECOND, 0);
+        // 0.7 * 1 s + 0.3 * 3 s
+        assertEquals(1600000000L, radioScanCoordinator.getWindowNanoseconds(BLUETOOTH));
+        assertEquals(1000000000L, radioScanCoordinator.getWindowNanoseconds(WIFI));
+    }
+
+    @Test
+    public void expiresWindowsWithoutResults() {
+        radioScanCoordinator.reserve(WIFI, 0);
+        radioScanCoordinator.begin(WIFI, 0);
+        radioScanCoordinator.expire(SECOND / 2);
+        assertTrue(radioScanCoordinator.isRadioTaken());
+        radioScanCoordinator.expire(SECOND);
+        assertFalse(radioScanCoordinator.isRadioTaken());
+
+        assertEquals(Arrays.asList("WiFi+", "WiFi-"), windows);
+        assertEquals(0, radioScanCoordinator.getWindowCount(WIFI));
+        assertEquals(SECOND, radioScanCoordinator.getWindowNanoseconds(WIFI));
+    }
+
+    @Test
+    public void cancelsWindowsWithoutLearningTheirLength() {
+        // Not begun: nothing to cancel
+        radioScanCoordinator.reserve(BLUETOOTH, 0);
+        radioScanCoordinator.cancel(BLUETOOTH, 0);
+        radioScanCoordinator.begin(BLUETOOTH, 0);
+        radioScanCoordinator.cancel(BLUETOOTH, SECOND / 4);
+        assertFalse(radioScanCoordinator.isRadioTaken());
+        // The discovery finished afterwards ends nothing
+        radioScanCoordinator.end(BLUETOOTH, SECOND / 2);
+
+        assertEquals(Arrays.asList("Bluetooth+", "Bluetooth-"), windows);
+        assertEquals(0, radioScanCoordinator.getWindowCount(BLUETOOTH));
+        assertEquals(SECOND, radioScanCoordinator.getWindowNanoseconds(BLUETOOTH));
+        // Paced from the part of the window used
+        assertEquals(SECOND, radioScanCoordinator.reserve(BLUETOOTH, SECOND / 2));
+    }
+
+    @Test
+    public void givesTheRadioToTheTechnologyHearingTheMost() {
+        // Bluetooth hears 20 devices per second of radio, held back by its share, and BLE 1 beacon
+        // per second; WiFi is never measured
+        scan(BLUETOOTH, 0, SECOND, 20);
+        assertEquals(4 * SECOND, radioScanCoordinator.reserve(BLUETOOTH, SECOND));
+        scan(BLUETOOTH, 4 * SECOND, SECOND, 20);
+        radioScanCoordinator.onObservations(BLE, 9 * SECOND, 8);
+        radioScanCoordinator.expire(10 * SECOND);
+
+        assertEquals(20, radioScanCoordinator.getYield(BLUETOOTH), 1e-9);
+        assertEquals(1, radioScanCoordinator.getYield(BLE), 1e-9);
+        assertEquals(4, radioScanCoordinator.getRate(BLUETOOTH), 1e-9);
+        assertEquals(0.2, radioScanCoordinator.getBusyShare(), 1e-9);
+        assertEquals(0.25, radioScanCoordinator.getShare(WIFI), 1e-9);
+        assertEquals(0.65, radioScanCoordinator.getShare(BLUETOOTH), 1e-9);
+        assertEquals(0.1, radioScanCoordinator.getShare(BLE), 1e-9);
+    }
+
+    @Test
+    public void leavesTheRadioToBleWhenItHearsTheMost() {
+        scan(WIFI, 0, SECOND, 2);
+        scan(BLUETOOTH, 2 * SECOND, SECOND, 1);
+        radioScanCoordinator.onObservations(BLE, 9 * SECOND, 80);
+        radioScanCoordinator.expire(10 * SECOND);
+
+        assertEquals(10, radioScanCoordinator.getYield(BLE), 1e-9);
+        assertEquals(RadioScanCoordinator.MINIMUM_SHARE, radioScanCoordinator.getShare(WIFI), 1e-9);
+        assertEquals(RadioScanCoordinator.MINIMUM_SHARE, radioScanCoordinator.getShare(BLUETOOTH), 1e-9);
+        assertEquals(0.8, radioScanCoordinator.getShare(BLE), 1e-9);
+        // A window of 1 second every 10 seconds
+        assertEquals(12 * SECOND, radioScanCoordinator.reserve(BLUETOOTH, 10 * SECOND));
+    }
+
+    @Test
+    public void leavesTheShareNotUsedToTheNextTechnology() {
+        // WiFi hears the most but, not held back, only scans 1.5 seconds out of 10: it gets that
+        // share with the margin, and Bluetooth, held back, the rest
+        scan(WIFI, 0, 3 * SECOND / 2, 30);
+        scan(BLUETOOTH, 2 * SECOND, SECOND, 10);
+        assertEquals(6 * SECOND, radioScanCoordinator.reserve(BLUETOOTH, 3 * SECOND));
+        radioScanCoordinator.expire(10 * SECOND);
+
+        assertEquals(20, radioScanCoordinator.getYield(WIFI), 1e-9);
+        assertEquals(10, radioScanCoordinator.getYield(BLUETOOTH), 1e-9);
+        assertEquals(0.15 * RadioScanCoordinator.SHARE_MARGIN, radioScanCoordinator.getShare(WIFI), 1e-9);
+        assertEquals(0.9 - 0.15 * RadioScanCoordinator.SHARE_MARGIN, radioScanCoordinator.getShare(BLUETOOTH), 1e-9);
+        assertEquals(0.1, radioScanCoordinator.getShare(BLE), 1e-9);
+    }
+
+    @Test
+    public void appendsTheRatesAndShares() {
+        assertEquals("WiFi 0.0/s 25%, Bluetooth 0.0/s 25%, BLE 0.0/s 50%, 0% taken",
+                radioScanCoordinator.appendRates(new StringBuilder()).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWindowsOfBle() {
+        radioScanCoordinator.reserve(BLE, 0);
+    }
+}
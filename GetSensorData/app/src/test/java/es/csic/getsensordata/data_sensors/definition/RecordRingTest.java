@@ -0,0 +1,150 @@
+package es.csic.getsensordata.data_sensors.definition;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RecordRingTest {
+    private static class Reading {
+        long value;
+    }
+
+    private static RecordRing<Reading> createRing(int capacity) {
+        Reading[] readings = new Reading[capacity];
+        for (int index = 0; index < capacity; index++) {
+            readings[index] = new Reading();
+        }
+        return new RecordRing<>(readings);
+    }
+
+    private static void publish(RecordRing<Reading> ring, long value) {
+        Reading reading = ring.claim();
+        reading.value = value;
+        ring.publish();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBeAPowerOfTwo() {
+        createRing(3);
+    }
+
+    @Test
+    public void peeksRecordsInOrder() {
+        RecordRing<Reading> ring = createRing(4);
+        assertNull(ring.peek());
+        for (long value = 0; value < 10; value++) {
+            publish(ring, value);
+            publish(ring, value + 100);
+            assertEquals(value, ring.peek().value);
+            ring.release();
+            assertEquals(value + 100, ring.peek().value);
+            ring.release();
+            assertNull(ring.peek());
+        }
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void dropsRecordsWhenFull() {
+        RecordRing<Reading> ring = createRing(4);
+        for (long value = 0; value < 4; value++) {
+            publish(ring, value);
+        }
+        assertNull(ring.claim());
+        assertEquals(1, ring.getDroppedRecords());
+        ring.peek();
+        ring.release();
+        publish(ring, 4);
+        assertEquals(4, ring.size());
+        for (long value = 1; value <= 4; value++) {
+            assertEquals(value, ring.peek().value);
+            ring.release();
+        }
+        assertNull(ring.peek());
+    }
+
+    @Test
+    public void peeksNothingNotPublishedAfterClear() {
+        RecordRing<Reading> ring = createRing(4);
+        publish(ring, 1);
+        publish(ring, 2);
+        ring.clear();
+        assertEquals(0, ring.size());
+        assertNull(ring.peek());
+
+        publish(ring, 3);
+        assertEquals(3, ring.peek().value);
+        ring.release();
+        assertNull(ring.peek());
+        assertNull(ring.peek());
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void peeksNothingNotPublishedAfterClearWithoutPeeking() {
+        // The consumer never looked at the tail before clearing
+        RecordRing<Reading> ring = createRing(4);
+        publish(ring, 1);
+        ring.clear();
+        publish(ring, 2);
+        Reading reading = ring.peek();
+        assertEquals(2, reading.value);
+        ring.release();
+        for (int peek = 0; peek < 2 * ring.getCapacity(); peek++) {
+            assertNull(ring.peek());
+        }
+        assertEquals(0, ring.size());
+    }
+
+    @Test
+    public void fillsTheWholeRingAfterClear() {
+        RecordRing<Reading> ring = createRing(4);
+        publish(ring, 1);
+        publish(ring, 2);
+        publish(ring, 3);
+        ring.clear();
+        for (long value = 0; value < 4; value++) {
+            publish(ring, value);
+        }
+        assertNull(ring.claim());
+        for (long value = 0; value < 4; value++) {
+            Reading reading = ring.peek();
+            assertSame(reading, ring.peek());
+            assertEquals(value, reading.value);
+            ring.release();
+        }
+        assertNull(ring.peek());
+    }
+
+    @Test
+    public void deliversEveryRecordAcrossThreads() throws InterruptedException {
+        RecordRing<Reading> ring = createRing(64);
+        final long count = 1000000;
+        Thread producer = new Thread(() -> {
+            for (long value = 0; value < count; ) {
+                Reading reading = ring.claim();
+                if (reading != null) {
+                    reading.value = value++;
+                    ring.publish();
+                } else {
+                    Thread.yield();
+                }
+            }
+        });
+        producer.start();
+        long expected = 0;
+        while (expected < count) {
+            Reading reading = ring.peek();
+            if (reading != null) {
+                assertEquals(expected++, reading.value);
+                ring.release();
+            } else {
+                Thread.yield();
+            }
+        }
+        producer.join();
+        assertNull(ring.peek());
+    }
+}
@@ -0,0 +1,71 @@
+package es.csic.getsensordata.data_sensors.sound;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class RealFftTest {
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSizesNotPowersOfTwo() {
+        new RealFft(1000);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSizesBelowFour() {
+        new RealFft(2);
+    }
+
+    @Test
+    public void matchesANaiveDft() {
+        Random random = new Random(1);
+        for (int size : new int[]{4, 8, 16, 64, 1024}) {
+            RealFft realFft = new RealFft(size);
+            assertEquals(size / 2 + 1, realFft.getBinCount());
+            double[] samples = new double[size];
+            for (int index = 0; index < size; index++) {
+                samples[index] = random.nextGaussian();
+            }
+            double[] input = samples.clone();
+            double[] real = new double[realFft.getBinCount()];
+            double[] imaginary = new double[realFft.getBinCount()];
+            // Twice, as the work buffers are reused
+            for (int run = 0; run < 2; run++) {
+                realFft.transform(input, real, imaginary);
+                for (int bin = 0; bin < realFft.getBinCount(); bin++) {
+                    double expectedReal = 0;
+                    double expectedImaginary = 0;
+                    for (int index = 0; index < size; index++) {
+                        double angle = 2 * Math.PI * bin * index / size;
+                        expectedReal += samples[index] * Math.cos(angle);
+                        expectedImaginary -= samples[index] * Math.sin(angle);
+                    }
+                    String description = "N = " + size + ", bin " + bin;
+                    assertEquals(description, expectedReal, real[bin], 1e-9);
+                    assertEquals(description, expectedImaginary, imaginary[bin], 1e-9);
+                }
+            }
+            assertArrayEquals("Samples modified", samples, input, 0);
+        }
+    }
+
+    @Test
+    public void transformsACosineIntoItsBin() {
+        int size = 256;
+        RealFft realFft = new RealFft(size);
+        double[] samples = new double[size];
+        for (int index = 0; index < size; index++) {
+            samples[index] = 1 + Math.cos(2 * Math.PI * 10 * index / size) + 0.5 * Math.cos(Math.PI * index);
+        }
+        double[] real = new double[realFft.getBinCount()];
+        double[] imaginary = new double[realFft.getBinCount()];
+        realFft.transform(samples, real, imaginary);
+        for (int bin = 0; bin < realFft.getBinCount(); bin++) {
+            double expected = bin == 0 ? size : bin == 10 ? size / 2.0 : bin == size / 2 ? size / 2.0 : 0;
+            assertEquals("Bin " + bin, expected, real[bin], 1e-9);
+            assertEquals("Bin " + bin, 0, imaginary[bin], 1e-9);
+        }
+    }
+}
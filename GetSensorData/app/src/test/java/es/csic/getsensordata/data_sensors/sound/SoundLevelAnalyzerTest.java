@@ -0,0 +1,150 @@
+package es.csic.getsensordata.data_sensors.sound;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SoundLevelAnalyzerTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int FRAME_SIZE = 4096;
+    private static final double AMPLITUDE = 0.1;
+    // Level of a tone of that amplitude, with the calibration of the SOUN records
+    private static final double TONE_LEVEL = 20 * Math.log10(AMPLITUDE / Math.sqrt(2) * 32768.0 / 32767.0 / 2e-5);
+
+    private static float[] tone(int size, int sampleRate, double frequency, double amplitude, double phase) {
+        float[] samples = new float[size];
+        for (int index = 0; index < size; index++) {
+            samples[index] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * index / sampleRate + phase));
+        }
+        return samples;
+    }
+
+    /**
+     * Index of the band whose nominal frequency is that of the tone, or -1 if there is none.
+     */
+    private static int indexOfBand(double[] nominalFrequencies, double frequency, double tolerance) {
+        for (int index = 0; index < nominalFrequencies.length; index++) {
+            if (Math.abs(Math.log10(nominalFrequencies[index] / frequency)) < tolerance) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void computesWeightingsOfTheStandard() {
+        assertEquals(0, SoundLevelAnalyzer.getAWeighting(1000), 0.01);
+        assertEquals(-19.1, SoundLevelAnalyzer.getAWeighting(100), 0.05);
+        assertEquals(-2.5, SoundLevelAnalyzer.getAWeighting(10000), 0.05);
+        assertEquals(0, SoundLevelAnalyzer.getCWeighting(1000), 0.01);
+        assertEquals(-0.3, SoundLevelAnalyzer.getCWeighting(100), 0.05);
+        assertEquals(Double.NEGATIVE_INFINITY, SoundLevelAnalyzer.getAWeighting(0), 0);
+    }
+
+    @Test
+    public void givesBandsBelowHalfTheSampleRate() {
+        SoundLevelAnalyzer soundLevelAnalyzer = new SoundLevelAnalyzer(SAMPLE_RATE, FRAME_SIZE, 1);
+        assertEquals(10, soundLevelAnalyzer.getOctaveBandCount());
+        assertEquals(30, soundLevelAnalyzer.getThirdOctaveBandCount());
+        soundLevelAnalyzer = new SoundLevelAnalyzer(8000, 512, 1);
+        assertEquals(7, soundLevelAnalyzer.getOctaveBandCount());
+        assertEquals(22, soundLevelAnalyzer.getThirdOctaveBandCount());
+    }
+
+    @Test
+    public void measuresTheLevelsOfTones() {
+        SoundLevelAnalyzer soundLevelAnalyzer = new SoundLevelAnalyzer(SAMPLE_RATE, FRAME_SIZE, 1);
+        SoundLevelAnalyzer.Levels levels = new SoundLevelAnalyzer.Levels();
+        // Tones in a bin, between bins, and in the low bins where the window makes levels approximate
+        for (double frequency : new double[]{1000, 1003.7, 4000, 100, 31.5}) {
+            String description = frequency + " Hz";
+            soundLevelAnalyzer.reset();
+            assertTrue(soundLevelAnalyzer.analyze(tone(FRAME_SIZE, SAMPLE_RATE, frequency, AMPLITUDE, 0.3), FRAME_SIZE, levels));
+            assertEquals(description, TONE_LEVEL, levels.lz, 0.05);
+            assertEquals(description, SoundLevelAnalyzer.getAWeighting(frequency), levels.la - levels.lz, frequency < 60 ? 1.5 : 0.1);
+            assertEquals(description, SoundLevelAnalyzer.getCWeighting(frequency), levels.lc - levels.lz, frequency < 60 ? 0.15 : 0.1);
+            if (frequency < 60) {
+                continue;
+            }
+
+            int octaveBand = indexOfBand(SoundLevelAnalyzer.OCTAVE_BAND_FREQUENCIES, frequency, 0.1);
+            assertEquals(description, TONE_LEVEL, levels.octaveBandLevels[octaveBand], frequency < 200 ? 0.3 : 0.1);
+            int thirdOctaveBand = indexOfBand(SoundLevelAnalyzer.THIRD_OCTAVE_BAND_FREQUENCIES, frequency, 0.03);
+            assertEquals(description, TONE_LEVEL, levels.thirdOctaveBandLevels[thirdOctaveBand], frequency < 200 ? 0.4 : 0.01);
+            // Far from the tone
+            assertTrue(description, levels.thirdOctaveBandLevels[(thirdOctaveBand + 6) % levels.thirdOctaveBandCount] < TONE_LEVEL - 60);
+
+            // Bands cover the whole spectrum above the first one
+            double energy = 0;
+            for (int index = 0; index < levels.thirdOctaveBandCount; index++) {
+                energy += Math.pow(10, levels.thirdOctaveBandLevels[index] / 10);
+            }
+            assertEquals(description, TONE_LEVEL, 10 * Math.log10(energy), 0.05);
+        }
+    }
+
+    @Test
+    public void floorsTheLevelsOfSilence() {
+        SoundLevelAnalyzer soundLevelAnalyzer = new SoundLevelAnalyzer(8000, 512, 1);
+        SoundLevelAnalyzer.Levels levels = new SoundLevelAnalyzer.Levels();
+        assertTrue(soundLevelAnalyzer.analyze(new float[512], 512, levels));
+        assertEquals(SoundLevelAnalyzer.MINIMUM_LEVEL, levels.lz, 0);
+        assertEquals(SoundLevelAnalyzer.MINIMUM_LEVEL, levels.laeq, 0);
+        assertEquals(SoundLevelAnalyzer.MINIMUM_LEVEL, levels.octaveBandLevels[3], 0);
+    }
+
+    @Test
+    public void skipsFramesShorterThanTheFrameSize() {
+        SoundLevelAnalyzer soundLevelAnalyzer = new SoundLevelAnalyzer(8000, 512, 1);
+        assertFalse(soundLevelAnalyzer.analyze(new float[512], 300, new SoundLevelAnalyzer.Levels()));
+    }
+
+    @Test
+    public void followsALevelStep() {
+        // About 11 frames in the window
+        SoundLevelAnalyzer soundLevelAnalyzer = new SoundLevelAnalyzer(SAMPLE_RATE, FRAME_SIZE, 1);
+        SoundLevelAnalyzer.Levels levels = new SoundLevelAnalyzer.Levels();
+        for (int frame = 0; frame < 11; frame++) {
+            soundLevelAnalyzer.analyze(tone(FRAME_SIZE, SAMPLE_RATE, 1000, frame < 5 ? AMPLITUDE : AMPLITUDE / 10, 0), FRAME_SIZE, levels);
+        }
+        double loudEnergy = Math.pow(10, TONE_LEVEL / 10);
+        assertEquals(10 * Math.log10((5 * loudEnergy + 6 * loudEnergy / 100) / 11), levels.laeq, 0.05);
+        assertEquals(TONE_LEVEL, levels.lamax, 0.05);
+
+        // Once the loud frames left the window
+        for (int frame = 0; frame < 5; frame++) {
+            soundLevelAnalyzer.analyze(tone(FRAME_SIZE, SAMPLE_RATE, 1000, AMPLITUDE / 10, 0), FRAME_SIZE, levels);
+        }
+        assertEquals(TONE_LEVEL - 20, levels.laeq, 0.05);
+        assertEquals(TONE_LEVEL - 20, levels.lamax, 0.05);
+    }
+
+    @Test
+    public void matchesABruteForceWindow() {
+        // 16 frames in the window
+        SoundLevelAnalyzer soundLevelAnalyzer = new SoundLevelAnalyzer(8000, 512, 1);
+        SoundLevelAnalyzer.Levels levels = new SoundLevelAnalyzer.Levels();
+        int windowFrames = 16;
+        Random random = new Random(1);
+        double[] energies = new double[5000];
+        for (int frame = 0; frame < energies.length; frame++) {
+            double amplitude = 0.01 * Math.exp(random.nextGaussian());
+            soundLevelAnalyzer.analyze(tone(512, 8000, 1000, amplitude, random.nextDouble()), 512, levels);
+            energies[frame] = Math.pow(10, levels.la / 10);
+
+            double sum = 0;
+            double maximum = 0;
+            int first = Math.max(0, frame - windowFrames + 1);
+            for (int index = first; index <= frame; index++) {
+                sum += energies[index];
+                maximum = Math.max(maximum, energies[index]);
+            }
+            assertEquals("Frame " + frame, 10 * Math.log10(sum / (frame - first + 1)), levels.laeq, 1e-9);
+            assertEquals("Frame " + frame, 10 * Math.log10(maximum), levels.lamax, 1e-9);
+        }
+    }
+}
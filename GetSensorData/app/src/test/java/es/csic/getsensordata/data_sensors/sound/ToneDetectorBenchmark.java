@@ -0,0 +1,75 @@
+package es.csic.getsensordata.data_sensors.sound;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time `ToneDetector` takes to analyse a frame of noise with tone bursts, at 44.1 kHz, with 4
+ * detectors.
+ *
+ * Run it with `main()` from the unit test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ToneDetectorBenchmark {
+    private static final int SAMPLE_RATE = 44100;
+    private static final int FRAME_COUNT = 64;
+
+    @Param({"1024", "4096"})
+    public int frameSize;
+
+    private float[][] frames;
+    private ToneDetector toneDetector;
+    private ToneDetector.Detection[] detections;
+    private long sampleIndex = 0;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ToneDetectorBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        frames = new float[FRAME_COUNT][frameSize];
+        for (int frame = 0; frame < FRAME_COUNT; frame++) {
+            for (int index = 0; index < frameSize; index++) {
+                long n = (long) frame * frameSize + index;
+                double value = 0.01 * random.nextGaussian();
+                // A burst of 40 ms every 0.3 s
+                if (n % (3 * SAMPLE_RATE / 10) < SAMPLE_RATE / 25) {
+                    value += 0.05 * Math.sin(2 * Math.PI * 20000 * n / SAMPLE_RATE);
+                }
+                frames[frame][index] = (float) value;
+            }
+        }
+        toneDetector = new ToneDetector(SAMPLE_RATE, new double[]{18000, 19000, 20000, 21000}, ToneDetector.DEFAULT_BLOCK_SIZE, ToneDetector.DEFAULT_THRESHOLD);
+        detections = ToneDetector.newDetections(16);
+    }
+
+    @Benchmark
+    public int detect() {
+        float[] frame = frames[(int) (sampleIndex / frameSize % FRAME_COUNT)];
+        int count = toneDetector.detect(frame, frameSize, sampleIndex, detections);
+        sampleIndex += frameSize;
+        return count;
+    }
+}
@@ -0,0 +1,212 @@
+package es.csic.getsensordata.data_sensors.sound;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ToneDetectorTest {
+    private static final int SAMPLE_RATE = 44100;
+    private static final double[] FREQUENCIES = {18000, 19000, 20000, 21000};
+    private static final int BLOCK_SIZE = ToneDetector.DEFAULT_BLOCK_SIZE;
+    private static final double NOISE_AMPLITUDE = 0.001;
+    // Power of the noise in a block, as that of a tone: 6 sigma^2 / N with the Hann window
+    private static final double NOISE_POWER = 6 * NOISE_AMPLITUDE * NOISE_AMPLITUDE / BLOCK_SIZE;
+
+    /**
+     * Synthetic signal: white noise, a loud hum at 1 kHz and tone bursts.
+     */
+    private static class Signal {
+        final Random random;
+        final List<long[]> bursts = new ArrayList<>();
+        final double toneAmplitude;
+        final long burstLength;
+
+        /**
+         * @param snr         SNR of the tones, in dB, in a block.
+         * @param burstLength Samples of each burst.
+         */
+        Signal(long seed, double snr, long burstLength) {
+            this.random = new Random(seed);
+            this.toneAmplitude = Math.sqrt(Math.pow(10, snr / 10) * NOISE_POWER);
+            this.burstLength = burstLength;
+        }
+
+        void addBurst(long onset, int detectorIndex) {
+            bursts.add(new long[]{onset, detectorIndex});
+        }
+
+        void fill(float[] samples, int length, long sampleIndex) {
+            for (int index = 0; index < length; index++) {
+                long n = sampleIndex + index;
+                double value = NOISE_AMPLITUDE * random.nextGaussian() + 0.3 * Math.sin(2 * Math.PI * 1000 * n / SAMPLE_RATE);
+                for (long[] burst : bursts) {
+                    if (n >= burst[0] && n < burst[0] + burstLength) {
+                        value += toneAmplitude * Math.sin(2 * Math.PI * FREQUENCIES[(int) burst[1]] * n / SAMPLE_RATE + 0.7);
+                    }
+                }
+                samples[index] = (float) value;
+            }
+        }
+    }
+
+    /**
+     * Run the detector over a signal, in frames of the given size, collecting the detections.
+     */
+    private static List<ToneDetector.Detection> detect(ToneDetector toneDetector, Signal signal, long length, int frameSize) {
+        List<ToneDetector.Detection> found = new ArrayList<>();
+        ToneDetector.Detection[] detections = ToneDetector.newDetections(8);
+        float[] frame = new float[frameSize];
+        for (long sampleIndex = 0; sampleIndex < length; sampleIndex += frameSize) {
+            int frameLength = (int) Math.min(frameSize, length - sampleIndex);
+            signal.fill(frame, frameLength, sampleIndex);
+            int count = toneDetector.detect(frame, frameLength, sampleIndex, detections);
+            for (int index = 0; index < count; index++) {
+                ToneDetector.Detection detection = new ToneDetector.Detection();
+                detection.copyFrom(detections[index]);
+                found.add(detection);
+            }
+        }
+        return found;
+    }
+
+    private static ToneDetector newToneDetector() {
+        return new ToneDetector(SAMPLE_RATE, FREQUENCIES, BLOCK_SIZE, ToneDetector.DEFAULT_THRESHOLD);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsFrequenciesAboveNyquist() {
+        new ToneDetector(SAMPLE_RATE, new double[]{23000}, BLOCK_SIZE, ToneDetector.DEFAULT_THRESHOLD);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOddBlocks() {
+        new ToneDetector(SAMPLE_RATE, FREQUENCIES, 255, ToneDetector.DEFAULT_THRESHOLD);
+    }
+
+    @Test
+    public void locatesOnsetsWithAnyFrameSize() {
+        for (int frameSize : new int[]{1, 64, 100, 256, 441, 512, 4096}) {
+            // Onsets anywhere in a block, and across frames
+            for (long onset : new long[]{SAMPLE_RATE / 2, SAMPLE_RATE / 2 + 37, SAMPLE_RATE / 2 + 128, SAMPLE_RATE / 2 + 201, 10 * 512 - 1}) {
+                Signal signal = new Signal(onset + frameSize, 40, SAMPLE_RATE / 25);
+                signal.addBurst(onset, 2);
+                List<ToneDetector.Detection> detections = detect(newToneDetector(), signal, onset + SAMPLE_RATE / 5, frameSize);
+
+                String description = "frames of " + frameSize + ", onset " + onset;
+                assertEquals(description, 1, detections.size());
+                ToneDetector.Detection detection = detections.get(0);
+                assertEquals(description, 2, detection.detectorIndex);
+                assertEquals(description, 20000, detection.frequency, 0);
+                assertEquals(description, onset, detection.onsetSampleIndex, 8);
+                assertEquals(description, 40, detection.snr, 3);
+            }
+        }
+    }
+
+    @Test
+    public void detectsNothingInNoise() {
+        ToneDetector toneDetector = newToneDetector();
+        Signal signal = new Signal(1, 0, 0);
+        assertEquals(0, detect(toneDetector, signal, 30L * SAMPLE_RATE, 4096).size());
+        assertEquals(0, toneDetector.getDetectionCount());
+        for (int detector = 0; detector < FREQUENCIES.length; detector++) {
+            assertEquals(10 * Math.log10(NOISE_POWER), toneDetector.getNoiseLevel(detector), 2);
+        }
+    }
+
+    @Test
+    public void detectsNothingInClicks() {
+        ToneDetector toneDetector = newToneDetector();
+        ToneDetector.Detection[] detections = ToneDetector.newDetections(8);
+        Random random = new Random(4);
+        float[] frame = new float[SAMPLE_RATE / 2];
+        int count = 0;
+        for (long sampleIndex = 0; sampleIndex < 30L * SAMPLE_RATE; sampleIndex += frame.length) {
+            for (int index = 0; index < frame.length; index++) {
+                frame[index] = (float) (NOISE_AMPLITUDE * random.nextGaussian());
+            }
+            // A full scale click every half a second
+            frame[random.nextInt(frame.length)] = 0.99f;
+            count += toneDetector.detect(frame, frame.length, sampleIndex, detections);
+        }
+        assertEquals(0, count);
+    }
+
+    @Test
+    public void detectsTonesOfABlockAndAHalf() {
+        Signal signal = new Signal(5, 20, 3 * BLOCK_SIZE / 2);
+        int count = 0;
+        for (long onset = SAMPLE_RATE / 2; onset < 10L * SAMPLE_RATE; onset += SAMPLE_RATE / 4 + 17) {
+            signal.addBurst(onset, count++ % FREQUENCIES.length);
+        }
+        List<ToneDetector.Detection> detections = detect(newToneDetector(), signal, 10L * SAMPLE_RATE, 4096);
+        assertEquals(count, detections.size());
+        for (int index = 0; index < count; index++) {
+            assertEquals(signal.bursts.get(index)[1], detections.get(index).detectorIndex);
+            assertEquals(signal.bursts.get(index)[0], detections.get(index).onsetSampleIndex, BLOCK_SIZE / 2.0);
+        }
+    }
+
+    @Test
+    public void detectsNothingShorterThanHalfABlock() {
+        Signal signal = new Signal(6, 20, BLOCK_SIZE / 2);
+        for (long onset = SAMPLE_RATE / 2; onset < 10L * SAMPLE_RATE; onset += SAMPLE_RATE / 4 + 17) {
+            signal.addBurst(onset, (int) (onset % FREQUENCIES.length));
+        }
+        assertEquals(0, detect(newToneDetector(), signal, 10L * SAMPLE_RATE, 4096).size());
+    }
+
+    @Test
+    public void detectsToneBursts() {
+        for (double snr : new double[]{40, 30, 20}) {
+            Signal signal = new Signal(7, snr, SAMPLE_RATE / 25);
+            Random random = new Random(8);
+            long length = 30L * SAMPLE_RATE;
+            for (long onset = SAMPLE_RATE / 2; onset < length - SAMPLE_RATE; onset += 3 * SAMPLE_RATE / 10 + random.nextInt(SAMPLE_RATE / 10)) {
+                signal.addBurst(onset, random.nextInt(FREQUENCIES.length));
+            }
+            List<ToneDetector.Detection> detections = detect(newToneDetector(), signal, length, 4096);
+
+            boolean[] isFound = new boolean[signal.bursts.size()];
+            for (ToneDetector.Detection detection : detections) {
+                int nearest = -1;
+                for (int burst = 0; burst < isFound.length; burst++) {
+                    if (nearest < 0 || Math.abs(detection.onsetSampleIndex - signal.bursts.get(burst)[0]) < Math.abs(detection.onsetSampleIndex - signal.bursts.get(nearest)[0])) {
+                        nearest = burst;
+                    }
+                }
+                long[] burst = signal.bursts.get(nearest);
+                String description = "SNR " + snr + " dB, onset " + burst[0];
+                assertEquals(description, burst[1], detection.detectorIndex);
+                assertEquals(description, burst[0], detection.onsetSampleIndex, BLOCK_SIZE / 2.0);
+                assertTrue(description + " detected twice", !isFound[nearest]);
+                isFound[nearest] = true;
+            }
+            assertEquals("SNR " + snr + " dB", signal.bursts.size(), detections.size());
+        }
+    }
+
+    @Test
+    public void countsDetectionsNotFitting() {
+        Signal signal = new Signal(9, 40, SAMPLE_RATE / 25);
+        for (int detector = 0; detector < FREQUENCIES.length; detector++) {
+            signal.addBurst(SAMPLE_RATE / 2, detector);
+        }
+        ToneDetector toneDetector = newToneDetector();
+        ToneDetector.Detection[] detections = ToneDetector.newDetections(2);
+        float[] frame = new float[SAMPLE_RATE];
+        int count = 0;
+        for (long sampleIndex = 0; sampleIndex < 2L * SAMPLE_RATE; sampleIndex += frame.length) {
+            signal.fill(frame, frame.length, sampleIndex);
+            count += toneDetector.detect(frame, frame.length, sampleIndex, detections);
+        }
+        assertEquals(2, count);
+        assertEquals(4, toneDetector.getDetectionCount());
+        assertEquals(2, toneDetector.getMissedDetectionCount());
+    }
+}
@@ -0,0 +1,125 @@
+package es.csic.getsensordata.data_sensors.wifi;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class WiFiScanSchedulerTest {
+    private static final long SECOND = 1000000000L;
+
+    /**
+     * Request a scan at `time`, accepted, and receive its results a second later.
+     */
+    private static void scan(WiFiScanScheduler scanScheduler, long time) {
+        assertTrue(scanScheduler.getNextScanNanoseconds(time) - time <= 0);
+        scanScheduler.onScanRequested(time, true);
+        assertTrue(scanScheduler.onScanResults(time + SECOND, true));
+    }
+
+    @Test
+    public void scansAtTheMinimumIntervalWhenNotThrottled() {
+        WiFiScanScheduler scanScheduler = new WiFiScanScheduler(2000, false);
+        assertEquals(0, scanScheduler.getNextScanNanoseconds(0));
+        scan(scanScheduler, 0);
+        assertEquals(2 * SECOND, scanScheduler.getNextScanNanoseconds(SECOND));
+        scan(scanScheduler, 2 * SECOND);
+        scan(scanScheduler, 4 * SECOND);
+
+        assertEquals(0.5, scanScheduler.getScanRate(), 1e-9);
+        assertEquals(1, scanScheduler.getMeanLatency(), 1e-9);
+        assertEquals(3, scanScheduler.getCompletedScans());
+    }
+
+    @Test
+    public void spacesThrottledScansOverTheWindow() {
+        WiFiScanScheduler scanScheduler = new WiFiScanScheduler(2000, true);
+        assertEquals(30 * SECOND, scanScheduler.getIntervalNanoseconds());
+        scan(scanScheduler, 0);
+        assertEquals(30 * SECOND, scanScheduler.getNextScanNanoseconds(SECOND));
+        // The scans of the budget never need more than the window
+        for (long time = 30 * SECOND; time < 300 * SECOND; time += 30 * SECOND) {
+            scan(scanScheduler, time);
+            assertEquals(time + 30 * SECOND, scanScheduler.getNextScanNanoseconds(time + SECOND));
+        }
+        assertEquals(0, scanScheduler.getRejectedScans());
+    }
+
+    @Test
+    public void backsOffAfterARejection() {
+        WiFiScanScheduler scanScheduler = new WiFiScanScheduler(2000, false);
+        assertFalse(scanScheduler.isThrottled());
+        scanScheduler.onScanRequested(0, false);
+
+        assertTrue(scanScheduler.isThrottled());
+        assertEquals(1, scanScheduler.getRejectedScans());
+        // No scan pending: a whole throttled interval from the rejection
+        assertEquals(30 * SECOND, scanScheduler.getNextScanNanoseconds(SECOND));
+    }
+
+    @Test
+    public void waitsForTheBudgetUsedUpToLeaveTheWindow() {
+        WiFiScanScheduler scanScheduler = new WiFiScanScheduler(2000, false);
+        for (long time = 0; time < 8 * SECOND; time += 2 * SECOND) {
+            scan(scanScheduler, time);
+        }
+        assertEquals(8 * SECOND, scanScheduler.getNextScanNanoseconds(7 * SECOND));
+        scanScheduler.onScanRequested(8 * SECOND, false);
+
+        // The budget of 4 scans was used from 0 s: the first one leaves the window at 120 s
+        assertEquals(120 * SECOND, scanScheduler.getNextScanNanoseconds(9 * SECOND));
+        scan(scanScheduler, 120 * SECOND);
+        // The window rolls over: the oldest scan left is at 2 s, so the interval is what waits
+        assertEquals(150 * SECOND, scanScheduler.getNextScanNanoseconds(121 * SECOND));
+        scan(scanScheduler, 150 * SECOND);
+        assertEquals(180 * SECOND, scanScheduler.getNextScanNanoseconds(151 * SECOND));
+        assertEquals(6, scanScheduler.getAcceptedScans());
+        assertEquals(7, scanScheduler.getRequestedScans());
+    }
+
+    @Test
+    public void rollsOverAWindowLongerThanTheBudgetSpacing() {
+        // 2 scans every 10 seconds, at least 1 second apart: a rejection makes it wait 5 seconds,
+        // or for the oldest scan of the window
+        WiFiScanScheduler scanScheduler = new WiFiScanScheduler(1000, false, 2, 10000);
+        scan(scanScheduler, 0);
+        scan(scanScheduler, SECOND);
+        scanScheduler.onScanRequested(2 * SECOND, false);
+        assertEquals(10 * SECOND, scanScheduler.getNextScanNanoseconds(3 * SECOND));
+        scan(scanScheduler, 10 * SECOND);
+        assertEquals(15 * SECOND, scanScheduler.getNextScanNanoseconds(11 * SECOND));
+        scan(scanScheduler, 15 * SECOND);
+        assertEquals(20 * SECOND, scanScheduler.getNextScanNanoseconds(16 * SECOND));
+    }
+
+    @Test
+    public void failsScansWithoutResults() {
+        WiFiScanScheduler scanScheduler = new WiFiScanScheduler(2000, false);
+        scanScheduler.onScanRequested(0, true);
+        // One scan at a time
+        assertEquals(10 * SECOND, scanScheduler.getNextScanNanoseconds(5 * SECOND));
+        assertEquals(12 * SECOND, scanScheduler.getNextScanNanoseconds(10 * SECOND));
+        assertEquals(1, scanScheduler.getFailedScans());
+
+        scanScheduler.onScanRequested(12 * SECOND, true);
+        // Results not updated answer the scan, but it failed
+        assertTrue(scanScheduler.onScanResults(13 * SECOND, false));
+        assertEquals(2, scanScheduler.getFailedScans());
+        assertEquals(15 * SECOND, scanScheduler.getNextScanNanoseconds(13 * SECOND));
+        assertEquals(0, scanScheduler.getCompletedScans());
+    }
+
+    @Test
+    public void delaysTheNextScanAfterTheResultsOfOthers() {
+        WiFiScanScheduler scanScheduler = new WiFiScanScheduler(2000, false);
+        scan(scanScheduler, 0);
+        assertFalse(scanScheduler.onScanResults(3 * SECOND, true));
+        assertEquals(1, scanScheduler.getExternalScans());
+        assertEquals(5 * SECOND, scanScheduler.getNextScanNanoseconds(3 * SECOND));
+        // Results not updated, without a scan pending, change nothing
+        assertFalse(scanScheduler.onScanResults(4 * SECOND, false));
+        assertEquals(0, scanScheduler.getFailedScans());
+        assertEquals(5 * SECOND, scanScheduler.getNextScanNanoseconds(4 * SECOND));
+    }
+}
@@ -0,0 +1,112 @@
+package es.csic.getsensordata.logging;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of binary sessions written by `BinarySessionWriter` and converted back to the text log by
+ * `BinarySessionConverter`, against the lines the data sensors format for the text log.
+ */
+public class BinarySessionConverterTest {
+    private static final LogSchema ACCELEROMETER_SCHEMA = new LogSchema("ACCE",
+            new LogSchema.Field("Acc_X(m/s^2)", LogSchema.FieldType.Float32, 5),
+            new LogSchema.Field("Acc_Y(m/s^2)", LogSchema.FieldType.Float32, 5),
+            new LogSchema.Field("Acc_Z(m/s^2)", LogSchema.FieldType.Float32, 5),
+            new LogSchema.Field("Accuracy(integer)", LogSchema.FieldType.Int32, 0));
+    private static final LogSchema LOCATION_SCHEMA = new LogSchema("GNSS",
+            new LogSchema.Field("Latitude(deg)", LogSchema.FieldType.Float64, 6),
+            new LogSchema.Field("Longitude(deg)", LogSchema.FieldType.Float64, 6));
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /**
+     * Write a session of two data sensors and text records, interleaved, and return the text log
+     * it should be converted to. Every record is timestamped later than the previous one, so the
+     * order of the lines doesn't depend on where the segments are cut.
+     */
+    private static String writeSession(BinarySessionWriter writer, long epochNanoseconds) throws InterruptedException {
+        BinarySessionWriter.Channel accelerometerChannel = writer.register(ACCELEROMETER_SCHEMA);
+        BinarySessionWriter.Channel locationChannel = writer.register(LOCATION_SCHEMA);
+        StringBuilder expected = new StringBuilder();
+        for (int index = 0; index < 200; index++) {
+            long appTimestamp = System.nanoTime() - epochNanoseconds;
+            long sensorTimestamp = 1000000L * index + 123456;
+            if (index % 10 == 0) {
+                String text = String.format(Locale.US, "\nPOSI;%d;text ñ", index);
+                writer.writeText(text);
+                expected.append(text);
+            } else if (index % 3 == 0) {
+                double latitude = 40.4 + index * 1e-7;
+                double longitude = -3.7 - index * 1e-7;
+                locationChannel.write(record -> {
+                    record.setTimestamps(appTimestamp, sensorTimestamp);
+                    record.setDouble(0, latitude);
+                    record.setDouble(1, longitude);
+                });
+                expected.append(String.format(Locale.US, "\nGNSS;%.3f;%.3f;%.6f;%.6f",
+                        appTimestamp * 1e-9, sensorTimestamp * 1e-9, latitude, longitude));
+            } else {
+                float x = index * 0.01f;
+                float y = -index * 0.125f;
+                float z = 9.80665f;
+                int accuracy = index % 4;
+                accelerometerChannel.write(record -> {
+                    record.setTimestamps(appTimestamp, sensorTimestamp);
+                    record.setFloat(0, x);
+                    record.setFloat(1, y);
+                    record.setFloat(2, z);
+                    record.setInt(3, accuracy);
+                });
+                expected.append(String.format(Locale.US, "\nACCE;%.3f;%.3f;%.5f;%.5f;%.5f;%d",
+                        appTimestamp * 1e-9, sensorTimestamp * 1e-9, x, y, z, accuracy));
+            }
+            // Strictly later timestamps, and several segments
+            Thread.sleep(1);
+        }
+        writer.close();
+        assertEquals(200, writer.getWrittenRecords());
+        assertEquals(0, writer.getDroppedRecords());
+        return expected.toString();
+    }
+
+    private static String convert(InputStream inputStream) throws IOException {
+        StringWriter text = new StringWriter();
+        BinarySessionConverter.convert(inputStream, text);
+        return text.toString();
+    }
+
+    @Test
+    public void convertsSessionToTextLog() throws Exception {
+        File file = temporaryFolder.newFile();
+        long epochNanoseconds = System.nanoTime();
+        BinarySessionWriter writer = new BinarySessionWriter(new FileOutputStream(file), epochNanoseconds, 20, 64, 64, LogWriter.Durability.Buffered);
+        String expected = writeSession(writer, epochNanoseconds);
+
+        assertEquals(expected, convert(new BufferedInputStream(new FileInputStream(file))));
+    }
+
+    @Test
+    public void convertsCompressedSessionToTextLog() throws Exception {
+        File file = temporaryFolder.newFile();
+        long epochNanoseconds = System.nanoTime();
+        BinarySessionWriter writer = new BinarySessionWriter(new FileOutputStream(file), epochNanoseconds, 20, 64, 64, LogWriter.Durability.Buffered, 6);
+        String expected = writeSession(writer, epochNanoseconds);
+
+        try (CompressedBlockReader reader = new CompressedBlockReader(new FileInputStream(file).getChannel())) {
+            assertEquals(expected, convert(reader.openStream(0)));
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package es.csic.getsensordata.logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Conversion of a binary session into the text log, with `BinarySessionConverter`. Compressed
+ * binary sessions (`.gsdb.gsdz`) are decompressed on the fly.
+ *
+ * Run it with `main()` from the unit test classpath:
+ *
+ *     ```
+ *     java es.csic.getsensordata.logging.BinarySessionConverterTool logfile.gsdb logfile.txt
+ *     ```
+ */
+public class BinarySessionConverterTool {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: BinarySessionConverterTool <binary session> <text log>");
+            System.exit(1);
+        }
+        try (InputStream inputStream = openSession(args[0]);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1]), StandardCharsets.UTF_8))) {
+            long lines = BinarySessionConverter.convert(inputStream, writer);
+            System.out.println(args[0] + " -> " + args[1] + ": " + lines + " lines");
+        }
+    }
+
+    /**
+     * Open a binary session, compressed or not.
+     */
+    private static InputStream openSession(String path) throws IOException {
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(path));
+        if (!CompressedBlockReader.isCompressed(inputStream)) {
+            return inputStream;
+        }
+        inputStream.close();
+        CompressedBlockReader reader = new CompressedBlockReader(new FileInputStream(path).getChannel());
+        return new BufferedInputStream(reader.openStream(0)) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                reader.close();
+            }
+        };
+    }
+}
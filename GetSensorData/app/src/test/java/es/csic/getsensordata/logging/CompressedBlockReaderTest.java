@@ -0,0 +1,157 @@
+package es.csic.getsensordata.logging;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of files written by `CompressedBlockWriter`, directly and through `LogWriter`, and read
+ * back by `CompressedBlockReader`.
+ */
+public class CompressedBlockReaderTest {
+    // Timestamps of the blocks written, two of them opened at the same time
+    private static final long[] TIMESTAMPS = {0, 1000000000L, 1000000000L, 3500000000L};
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static CompressedBlockReader open(File file) throws IOException {
+        return new CompressedBlockReader(new FileInputStream(file).getChannel());
+    }
+
+    private static byte[] readAll(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] chunk = new byte[100];
+        int count;
+        while ((count = inputStream.read(chunk, 0, chunk.length)) >= 0) {
+            bytes.write(chunk, 0, count);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Blocks of text, and one of random bytes, which compresses to more than its size.
+     */
+    private static byte[][] blocks() {
+        byte[] random = new byte[5000];
+        new Random(1).nextBytes(random);
+        return new byte[][]{
+                "ACCE;0.001;0.001;0.1;0.2;9.8;3\n".getBytes(StandardCharsets.UTF_8),
+                random,
+                new String(new char[10000]).replace('\0', 'x').getBytes(StandardCharsets.UTF_8),
+                "POSI;ñ\n".getBytes(StandardCharsets.UTF_8)};
+    }
+
+    private static void writeBlocks(CompressedBlockWriter writer, byte[][] blocks) throws IOException {
+        for (int block = 0; block < blocks.length; block++) {
+            writer.writeBlock(ByteBuffer.wrap(blocks[block]), TIMESTAMPS[block]);
+            // Empty blocks are never written
+            assertEquals(0, writer.writeBlock(ByteBuffer.allocate(0), TIMESTAMPS[block]));
+        }
+    }
+
+    @Test
+    public void readsBlocksThroughIndex() throws IOException {
+        File file = temporaryFolder.newFile();
+        byte[][] blocks = blocks();
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            CompressedBlockWriter writer = new CompressedBlockWriter(outputStream.getChannel(), CompressedBlockWriter.DEFAULT_LEVEL);
+            writeBlocks(writer, blocks);
+            writer.close();
+            assertEquals(file.length(), writer.getCompressedBytes());
+            assertEquals(5000 + 10000 + blocks[0].length + blocks[3].length, writer.getUncompressedBytes());
+        }
+
+        try (CompressedBlockReader reader = open(file)) {
+            assertTrue(reader.isIndexed());
+            assertFalse(reader.isTruncated());
+            assertEquals(blocks.length, reader.getBlockCount());
+            assertEquals(CompressedBlockWriter.FILE_HEADER_SIZE, reader.getBlockOffset(0));
+            for (int block = 0; block < blocks.length; block++) {
+                assertEquals(TIMESTAMPS[block], reader.getBlockTimestamp(block));
+                assertArrayEquals(blocks[block], reader.readBlock(block));
+            }
+            // The last block opened not after the time, skipping those with the same timestamp
+            assertEquals(0, reader.findBlock(-1));
+            assertEquals(0, reader.findBlock(999999999L));
+            assertEquals(2, reader.findBlock(1000000000L));
+            assertEquals(2, reader.findBlock(3499999999L));
+            assertEquals(3, reader.findBlock(Long.MAX_VALUE));
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            expected.write(blocks[2]);
+            expected.write(blocks[3]);
+            assertArrayEquals(expected.toByteArray(), readAll(reader.openStream(2)));
+        }
+    }
+
+    @Test
+    public void rebuildsIndexOfFileNotClosed() throws IOException {
+        File file = temporaryFolder.newFile();
+        byte[][] blocks = blocks();
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            CompressedBlockWriter writer = new CompressedBlockWriter(outputStream.getChannel(), CompressedBlockWriter.DEFAULT_LEVEL);
+            writeBlocks(writer, blocks);
+            // As a crash while the last block is written
+            outputStream.getChannel().truncate(writer.getCompressedBytes() - 3);
+        }
+
+        try (CompressedBlockReader reader = open(file)) {
+            assertFalse(reader.isIndexed());
+            assertTrue(reader.isTruncated());
+            assertEquals(blocks.length - 1, reader.getBlockCount());
+            for (int block = 0; block < blocks.length - 1; block++) {
+                assertEquals(TIMESTAMPS[block], reader.getBlockTimestamp(block));
+                assertArrayEquals(blocks[block], reader.readBlock(block));
+            }
+        }
+    }
+
+    @Test
+    public void splitsLogIntoBlocksOfTheBufferSize() throws IOException {
+        File file = temporaryFolder.newFile();
+        int bufferSize = 64;
+        LogWriter logWriter = new LogWriter(new FileOutputStream(file), 16, bufferSize, 10000, LogWriter.Durability.Buffered, CompressedBlockWriter.DEFAULT_LEVEL, System.nanoTime());
+        char[] exact = new char[bufferSize];
+        Arrays.fill(exact, 'e');
+        char[] large = new char[3 * bufferSize + 10];
+        Arrays.fill(large, 'l');
+        // A record filling a block exactly, one larger than a block, and a short one
+        String[] records = {new String(exact), new String(large), "\nshort"};
+        StringBuilder expected = new StringBuilder();
+        for (String record : records) {
+            while (!logWriter.write(record)) {
+                Thread.yield();
+            }
+            expected.append(record);
+        }
+        logWriter.close();
+
+        try (CompressedBlockReader reader = open(file)) {
+            assertTrue(reader.isIndexed());
+            // The exact block, the large record cut in 4 blocks, the last one shared
+            assertEquals(5, reader.getBlockCount());
+            for (int block = 0; block < 4; block++) {
+                assertEquals(bufferSize, reader.readBlock(block).length);
+            }
+            assertEquals(10 + "\nshort".length(), reader.readBlock(4).length);
+            assertEquals(expected.toString(), new String(readAll(reader.openStream(0)), StandardCharsets.UTF_8));
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package es.csic.getsensordata.logging;
+
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Decompression of a file written through `CompressedBlockWriter`, with `CompressedBlockReader`,
+ * whole or from a given time of the session, in seconds.
+ *
+ * Run it with `main()` from the unit test classpath:
+ *
+ *     ```
+ *     java es.csic.getsensordata.logging.CompressedBlockReaderTool logfile.txt.gsdz logfile.txt [from]
+ *     ```
+ */
+public class CompressedBlockReaderTool {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3) {
+            System.err.println("Usage: CompressedBlockReaderTool <compressed log> <output> [from (s)]");
+            System.exit(1);
+        }
+        try (CompressedBlockReader reader = new CompressedBlockReader(new FileInputStream(args[0]).getChannel());
+             OutputStream outputStream = new FileOutputStream(args[1])) {
+            int firstBlock = 0;
+            if (args.length == 3) {
+                firstBlock = reader.findBlock((long) (Double.parseDouble(args[2]) * 1e9));
+            }
+            long bytes = 0;
+            for (int block = firstBlock; block < reader.getBlockCount(); block++) {
+                byte[] data = reader.readBlock(block);
+                outputStream.write(data);
+                bytes += data.length;
+            }
+            System.out.println(args[0] + " -> " + args[1] + ": " + (reader.getBlockCount() - firstBlock) + " blocks, " + bytes + " bytes" +
+                    (reader.isIndexed() ? "" : " (not closed, index rebuilt)"));
+        }
+    }
+}
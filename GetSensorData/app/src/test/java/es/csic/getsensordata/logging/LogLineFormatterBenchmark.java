@@ -0,0 +1,73 @@
+package es.csic.getsensordata.logging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to build an accelerometer line of the text log with `LogLineFormatter`, against
+ * `String.format()`.
+ *
+ * Run it with `main()` from the unit test classpath.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LogLineFormatterBenchmark {
+    private static final int VALUE_COUNT = 1024;
+
+    private final double[] timestamps = new double[VALUE_COUNT];
+    private final float[] values = new float[VALUE_COUNT];
+    private final LogLineFormatter logLineFormatter = new LogLineFormatter();
+    private int index = 0;
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(LogLineFormatterBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(1);
+        for (int index = 0; index < VALUE_COUNT; index++) {
+            timestamps[index] = random.nextDouble() * 7200;
+            values[index] = random.nextFloat() * 20 - 10;
+        }
+    }
+
+    @Benchmark
+    public String stringFormat() {
+        int index = this.index++ & (VALUE_COUNT - 1);
+        return String.format(Locale.US, "\nACCE;%.3f;%.3f;%.5f;%.5f;%.5f;%d",
+                timestamps[index], timestamps[index], values[index], values[index], values[index], 3);
+    }
+
+    @Benchmark
+    public String logLineFormatter() {
+        int index = this.index++ & (VALUE_COUNT - 1);
+        return logLineFormatter.begin("ACCE")
+                .append(timestamps[index], 3)
+                .append(timestamps[index], 3)
+                .append(values[index], 5)
+                .append(values[index], 5)
+                .append(values[index], 5)
+                .append(3)
+                .end();
+    }
+}
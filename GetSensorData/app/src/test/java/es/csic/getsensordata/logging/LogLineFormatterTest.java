@@ -0,0 +1,122 @@
+package es.csic.getsensordata.logging;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Golden tests of `LogLineFormatter`: every output must be byte identical to `String.format()`.
+ */
+public class LogLineFormatterTest {
+    private static void assertSameAsFormat(double value, int decimals) {
+        StringBuilder builder = new StringBuilder();
+        LogLineFormatter.appendFixed(builder, value, decimals);
+        assertEquals("value " + value + ", decimals " + decimals,
+                String.format(Locale.US, "%." + decimals + "f", value), builder.toString());
+    }
+
+    @Test
+    public void formatsSpecialValues() {
+        double[] values = {
+                0, -0.0, 1, -1, 0.125, 1e-7, 1e14, 1e15, 1e20, 123456789.123456789,
+                Double.MIN_VALUE, -Double.MIN_VALUE, Double.MAX_VALUE,
+                Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY
+        };
+        for (double value : values) {
+            for (int decimals = 0; decimals <= 10; decimals++) {
+                assertSameAsFormat(value, decimals);
+            }
+        }
+    }
+
+    @Test
+    public void formatsHalfwayValues() {
+        double[] values = {
+                0.5, 1.5, 2.5, -0.5, -1.5, 0.0005, 0.00049999, 9.9995, 9.99949, 1.0005, 2.675, 1.005,
+                1.045, 0.015, 0.025, 0.035, 0.045, 1.00005, 4.35, 8.345
+        };
+        for (double value : values) {
+            for (int decimals = 0; decimals <= 10; decimals++) {
+                assertSameAsFormat(value, decimals);
+            }
+        }
+
+        Random random = new Random(42);
+        for (int index = 0; index < 100000; index++) {
+            int decimals = random.nextInt(10);
+            assertSameAsFormat(Math.round(random.nextDouble() * 1e6) / 1e6 + 0.5 / Math.pow(10, decimals), decimals);
+            assertSameAsFormat((random.nextInt(200000) - 100000) / 1000.0 + 0.0005, decimals);
+        }
+    }
+
+    @Test
+    public void keepsTheSignOfNegativeValuesRoundedToZero() {
+        for (double value : new double[]{-0.0001, -0.0004, -0.0, -1e-12}) {
+            for (int decimals = 0; decimals <= 3; decimals++) {
+                assertSameAsFormat(value, decimals);
+            }
+        }
+    }
+
+    @Test
+    public void formatsFloatsWidenedToDoubles() {
+        float[] values = {0.1f, 9.80665f, -9.80665f, 0.3f, 1e-3f, Float.MIN_VALUE, Float.MAX_VALUE, Float.NaN};
+        for (float value : values) {
+            for (int decimals = 0; decimals <= 10; decimals++) {
+                assertSameAsFormat(value, decimals);
+            }
+        }
+    }
+
+    @Test
+    public void formatsRandomValues() {
+        Random random = new Random(7);
+        for (int index = 0; index < 200000; index++) {
+            int decimals = random.nextInt(11);
+            double value;
+            switch (index % 3) {
+                case 0:
+                    value = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(16) - 6);
+                    break;
+                case 1:
+                    value = (float) ((random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(10) - 4));
+                    break;
+                default:
+                    value = Double.longBitsToDouble(random.nextLong());
+                    break;
+            }
+            assertSameAsFormat(value, decimals);
+        }
+    }
+
+    @Test
+    public void buildsLinesAsFormat() throws IOException {
+        LogLineFormatter logLineFormatter = new LogLineFormatter();
+        Random random = new Random(3);
+        for (int index = 0; index < 10000; index++) {
+            double appTimestamp = random.nextDouble() * 7200;
+            double sensorTimestamp = random.nextDouble() * 1e5;
+            float x = random.nextFloat() * 20 - 10;
+            float y = (float) random.nextGaussian();
+            float z = random.nextFloat();
+            int accuracy = random.nextInt(4);
+            long counter = random.nextLong();
+            assertEquals(
+                    String.format(Locale.US, "\nACCE;%.3f;%.3f;%.5f;%.5f;%.5f;%d;%d", appTimestamp, sensorTimestamp, x, y, z, accuracy, counter),
+                    logLineFormatter.begin("ACCE").append(appTimestamp, 3).append(sensorTimestamp, 3).append(x, 5).append(y, 5).append(z, 5).append(accuracy).append(counter).end()
+            );
+
+            String expected = String.format(Locale.US, "\nWIFI;%.3f;%.3f;%s;%s;%d;%d", appTimestamp, sensorTimestamp, null, "aa:bb:cc:dd:ee:ff", 2412, -70);
+            logLineFormatter.begin("WIFI").append(appTimestamp, 3).append(sensorTimestamp, 3).append((String) null).append("aa:bb:cc:dd:ee:ff").append(2412).append(-70);
+            assertEquals(expected, logLineFormatter.getLine().toString());
+            StringWriter writer = new StringWriter();
+            logLineFormatter.writeTo(writer);
+            assertEquals(expected, writer.toString());
+        }
+    }
+}
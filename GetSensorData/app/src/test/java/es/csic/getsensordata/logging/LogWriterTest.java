@@ -0,0 +1,108 @@
+package es.csic.getsensordata.logging;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LogWriterTest {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void writesEveryRecordQueued() throws IOException {
+        File file = temporaryFolder.newFile();
+        LogWriter logWriter = new LogWriter(new FileOutputStream(file), 16, 64, 10, LogWriter.Durability.Buffered);
+        StringBuilder expected = new StringBuilder();
+        for (int index = 0; index < 1000; index++) {
+            String record = "\nACCE;" + index + ";ñ";
+            while (!logWriter.write(record)) {
+                Thread.yield();
+            }
+            expected.append(record);
+        }
+        logWriter.close();
+
+        assertFalse(logWriter.isOpen());
+        assertFalse(logWriter.write("\nlate"));
+        assertEquals(expected.toString(), read(file));
+        assertEquals(1000, logWriter.getWrittenRecords());
+    }
+
+    @Test
+    public void writesEveryRecordQueuedWhileClosing() throws Exception {
+        for (int round = 0; round < 20; round++) {
+            File file = temporaryFolder.newFile();
+            LogWriter logWriter = new LogWriter(new FileOutputStream(file), 64, 1024, 1, LogWriter.Durability.Buffered);
+            int producerCount = 3;
+            List<List<String>> queuedRecords = new ArrayList<>();
+            List<Thread> producers = new ArrayList<>();
+            CountDownLatch started = new CountDownLatch(producerCount);
+            long[] attempts = new long[producerCount];
+            for (int producer = 0; producer < producerCount; producer++) {
+                List<String> queued = new ArrayList<>();
+                queuedRecords.add(queued);
+                int producerIndex = producer;
+                Thread thread = new Thread(() -> {
+                    started.countDown();
+                    // Until closed, as queue full drops are fine
+                    for (int index = 0; logWriter.isOpen() || index % 100 != 0; index++) {
+                        String record = "\n" + producerIndex + ";" + index;
+                        attempts[producerIndex]++;
+                        if (logWriter.write(record)) {
+                            queued.add(record);
+                        }
+                        if (index % 16 == 0) {
+                            Thread.yield();
+                        }
+                    }
+                });
+                producers.add(thread);
+                thread.start();
+            }
+            started.await();
+            Thread.sleep(5);
+            logWriter.close();
+            for (Thread thread : producers) {
+                thread.join();
+            }
+
+            Set<String> written = new HashSet<>();
+            for (String line : read(file).split("\n")) {
+                if (!line.isEmpty()) {
+                    written.add("\n" + line);
+                }
+            }
+            long queuedCount = 0;
+            long attemptCount = 0;
+            for (int producer = 0; producer < producerCount; producer++) {
+                queuedCount += queuedRecords.get(producer).size();
+                attemptCount += attempts[producer];
+                for (String record : queuedRecords.get(producer)) {
+                    assertTrue("Round " + round + ", record queued but not written: " + record.trim(), written.contains(record));
+                }
+            }
+            assertEquals(queuedCount, written.size());
+            assertEquals(queuedCount, logWriter.getWrittenRecords());
+            assertEquals(attemptCount, logWriter.getWrittenRecords() + logWriter.getDroppedRecords());
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package es.csic.getsensordata.logging;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of raw captures written by `RawCaptureWriter`, read back by `RawCaptureReader` and
+ * replayed by `RawCaptureReplay`.
+ */
+public class RawCaptureReplayTest {
+    private static final long EPOCH_NANOSECONDS = 1000000000L;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static RawCaptureReader open(File file) throws IOException {
+        return new RawCaptureReader(new BufferedInputStream(new FileInputStream(file)));
+    }
+
+    private static byte[] bytes(String string) {
+        return string.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void readsChunksWritten() throws IOException {
+        File file = temporaryFolder.newFile();
+        // Chunks of up to 20 bytes per buffer
+        RawCaptureWriter writer = new RawCaptureWriter(new FileOutputStream(file), "IMUX", "XSens MTi IMU", EPOCH_NANOSECONDS, RawCaptureWriter.CHUNK_HEADER_SIZE + 20, 4, 10000);
+        byte[] large = new byte[30];
+        for (int index = 0; index < large.length; index++) {
+            large[index] = (byte) index;
+        }
+        assertTrue(writer.write(bytes("abc"), 0, 3, EPOCH_NANOSECONDS + 5));
+        assertTrue(writer.write(large, 0, large.length, EPOCH_NANOSECONDS + 7));
+        assertTrue(writer.write(bytes("xyz"), 1, 2, EPOCH_NANOSECONDS + 9));
+        writer.close();
+        assertFalse(writer.write(bytes("late"), 0, 4, EPOCH_NANOSECONDS + 11));
+        assertEquals(3, writer.getWrittenChunks());
+        assertEquals(1, writer.getDroppedChunks());
+
+        try (RawCaptureReader reader = open(file)) {
+            assertEquals("IMUX", reader.getPrefix());
+            assertEquals("XSens MTi IMU", reader.getDeviceName());
+            RawCaptureReader.Chunk chunk = new RawCaptureReader.Chunk();
+            assertTrue(reader.next(chunk));
+            assertEquals(5, chunk.timestampNanoseconds);
+            assertArrayEquals(bytes("abc"), Arrays.copyOf(chunk.bytes, chunk.length));
+            // A chunk larger than a buffer is split, keeping its timestamp
+            byte[] joined = new byte[0];
+            while (joined.length < large.length) {
+                assertTrue(reader.next(chunk));
+                assertEquals(7, chunk.timestampNanoseconds);
+                int start = joined.length;
+                joined = Arrays.copyOf(joined, start + chunk.length);
+                System.arraycopy(chunk.bytes, 0, joined, start, chunk.length);
+            }
+            assertArrayEquals(large, joined);
+            assertTrue(reader.next(chunk));
+            assertEquals(9, chunk.timestampNanoseconds);
+            assertArrayEquals(bytes("yz"), Arrays.copyOf(chunk.bytes, chunk.length));
+            assertFalse(reader.next(chunk));
+            assertFalse(reader.isTruncated());
+        }
+    }
+
+    @Test
+    public void ignoresTruncatedChunk() throws IOException {
+        File file = temporaryFolder.newFile();
+        RawCaptureWriter writer = new RawCaptureWriter(new FileOutputStream(file), "RFID", "RFID reader 01", EPOCH_NANOSECONDS);
+        writer.write(bytes("first"), 0, 5, EPOCH_NANOSECONDS);
+        writer.write(bytes("second"), 0, 6, EPOCH_NANOSECONDS);
+        writer.close();
+        // As a crash while the last chunk is written
+        try (FileOutputStream truncated = new FileOutputStream(file, true)) {
+            truncated.getChannel().truncate(file.length() - 2);
+        }
+
+        try (RawCaptureReader reader = open(file)) {
+            RawCaptureReader.Chunk chunk = new RawCaptureReader.Chunk();
+            assertTrue(reader.next(chunk));
+            assertArrayEquals(bytes("first"), Arrays.copyOf(chunk.bytes, chunk.length));
+            assertFalse(reader.next(chunk));
+            assertTrue(reader.isTruncated());
+        }
+    }
+
+    @Test
+    public void keepsFirstChunkForItsFlushInterval() throws Exception {
+        File file = temporaryFolder.newFile();
+        long startNanoseconds = System.nanoTime();
+        RawCaptureWriter writer = new RawCaptureWriter(new FileOutputStream(file), "RFID", "RFID reader 01", startNanoseconds, RawCaptureWriter.DEFAULT_BUFFER_SIZE, 4, 10000);
+        // The device sends its first bytes long after the writer was opened: the flush interval
+        // starts with them, not with the header
+        writer.write(bytes("first"), 0, 5, startNanoseconds + 20000000000L);
+        writer.write(bytes("second"), 0, 6, startNanoseconds + 25000000000L);
+        Thread.sleep(50);
+        assertEquals(0, file.length());
+        // Past the flush interval of the first chunk
+        writer.write(bytes("third"), 0, 5, startNanoseconds + 31000000000L);
+        long deadline = System.nanoTime() + 5000000000L;
+        while (file.length() == 0 && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+        }
+        long flushedLength = file.length();
+        writer.close();
+        assertEquals(file.length(), flushedLength);
+    }
+
+    @Test
+    public void replaysRFIDRecords() throws IOException {
+        File file = temporaryFolder.newFile();
+        RawCaptureWriter writer = new RawCaptureWriter(new FileOutputStream(file), "RFID", "RFID reader 03", EPOCH_NANOSECONDS, RawCaptureWriter.CHUNK_HEADER_SIZE + 32, 8, 10000);
+        // Lines cut across chunks, the first one only syncing the parser
+        String[] chunks = {"garbage\rH,0000", "1234,GLOCATE,P,A55,B60\rH,00005678,GLO", "CATE,p,B72\r"};
+        long[] timestamps = {500000000L, 1500000000L, 2250000000L};
+        for (int index = 0; index < chunks.length; index++) {
+            byte[] chunk = bytes(chunks[index]);
+            assertTrue(writer.write(chunk, 0, chunk.length, EPOCH_NANOSECONDS + timestamps[index]));
+        }
+        writer.close();
+
+        StringWriter records = new StringWriter();
+        assertEquals(2, RawCaptureReplay.replay(open(file), records));
+        // Each record is timestamped with the chunk its line ends in
+        assertEquals("\nRFID;1.500;3;1234;55;60\nRFID;2.250;3;5678;-1;72", records.toString());
+    }
+}
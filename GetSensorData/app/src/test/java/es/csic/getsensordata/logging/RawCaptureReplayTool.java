@@ -0,0 +1,36 @@
+package es.csic.getsensordata.logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Regeneration of the records of an external device from its raw capture, with
+ * `RawCaptureReplay`.
+ *
+ * Run it with `main()` from the unit test classpath:
+ *
+ *     ```
+ *     java es.csic.getsensordata.logging.RawCaptureReplayTool logfile_IMUX.gsdr logfile_IMUX.txt
+ *     ```
+ */
+public class RawCaptureReplayTool {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: RawCaptureReplayTool <raw capture> <text log>");
+            System.exit(1);
+        }
+        try (RawCaptureReader reader = new RawCaptureReader(new BufferedInputStream(new FileInputStream(args[0])));
+             Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(args[1]), StandardCharsets.UTF_8))) {
+            long lines = RawCaptureReplay.replay(reader, writer);
+            System.out.println(args[0] + " -> " + args[1] + ": " + lines + " lines" +
+                    (reader.isTruncated() ? " (last chunk truncated)" : ""));
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package es.csic.getsensordata.logging;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of the WAV files written, with buffers of a few samples so every write crosses them.
+ */
+public class WavWriterTest {
+    private static final int SAMPLE_RATE = 8000;
+    // Bytes left for samples in the first buffer, after the header
+    private static final int BUFFER_SIZE = 32;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private static ByteBuffer read(File file) throws IOException {
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static short[] ramp(int start, int length) {
+        short[] samples = new short[length];
+        for (int index = 0; index < length; index++) {
+            samples[index] = (short) (start + index);
+        }
+        return samples;
+    }
+
+    private static void assertHeader(ByteBuffer file, int dataSize) {
+        assertEquals(0x46464952, file.getInt(0)); // "RIFF"
+        assertEquals(WavWriter.HEADER_SIZE - 8 + dataSize, file.getInt(4));
+        assertEquals(0x45564157, file.getInt(8)); // "WAVE"
+        assertEquals(SAMPLE_RATE, file.getInt(24));
+        assertEquals(2 * SAMPLE_RATE, file.getInt(28));
+        assertEquals(0x61746164, file.getInt(36)); // "data"
+        assertEquals(dataSize, file.getInt(40));
+    }
+
+    @Test
+    public void patchesHeaderOnClose() throws IOException {
+        File file = temporaryFolder.newFile();
+        WavWriter wavWriter = new WavWriter(new FileOutputStream(file), SAMPLE_RATE, WavWriter.HEADER_SIZE + 20, 3, 10000, WavWriter.MAX_DATA_SAMPLES);
+        for (int frame = 0; frame < 5; frame++) {
+            assertEquals(7 * frame, wavWriter.write(ramp(7 * frame, 7), 0, 7));
+        }
+        wavWriter.close();
+
+        assertFalse(wavWriter.isOpen());
+        assertEquals(-1, wavWriter.write(ramp(0, 7), 0, 7));
+        assertEquals(5, wavWriter.getWrittenFrames());
+        assertEquals(35, wavWriter.getWrittenSamples());
+        ByteBuffer content = read(file);
+        assertEquals(WavWriter.HEADER_SIZE + 70, content.limit());
+        assertHeader(content, 70);
+        for (int index = 0; index < 35; index++) {
+            assertEquals(index, content.getShort(WavWriter.HEADER_SIZE + 2 * index));
+        }
+    }
+
+    @Test
+    public void patchesHeaderOfBuffersWrittenBeforeClosing() throws Exception {
+        File file = temporaryFolder.newFile();
+        WavWriter wavWriter = new WavWriter(new FileOutputStream(file), SAMPLE_RATE, WavWriter.HEADER_SIZE + BUFFER_SIZE, 4, 10, WavWriter.MAX_DATA_SAMPLES);
+        // The first buffer is full, and the second one is flushed once its interval expires
+        short[] samples = ramp(1, 40);
+        assertEquals(0, wavWriter.write(samples, 0, 25));
+        assertEquals(25, wavWriter.write(samples, 25, 15));
+
+        // A file cut now would still be whole, with the sizes of what it holds
+        long deadline = System.nanoTime() + 5000000000L;
+        ByteBuffer content = read(file);
+        while ((content.limit() < WavWriter.HEADER_SIZE || content.getInt(40) != 80) && System.nanoTime() < deadline) {
+            Thread.sleep(1);
+            content = read(file);
+        }
+        assertEquals(WavWriter.HEADER_SIZE + 80, content.limit());
+        assertHeader(content, 80);
+        assertTrue(wavWriter.isOpen());
+
+        // The rest goes after, and the header follows it
+        assertEquals(40, wavWriter.write(ramp(41, 3), 0, 3));
+        wavWriter.close();
+        content = read(file);
+        assertEquals(WavWriter.HEADER_SIZE + 86, content.limit());
+        assertHeader(content, 86);
+        for (int index = 0; index < 43; index++) {
+            assertEquals(index + 1, content.getShort(WavWriter.HEADER_SIZE + 2 * index));
+        }
+    }
+
+    @Test
+    public void dropsFramesBeyondTheMaximumSize() throws IOException {
+        File file = temporaryFolder.newFile();
+        WavWriter wavWriter = new WavWriter(new FileOutputStream(file), SAMPLE_RATE, WavWriter.HEADER_SIZE + BUFFER_SIZE, 3, 10000, 20);
+        assertEquals(0, wavWriter.write(ramp(0, 15), 0, 15));
+        // Frames are never cut, and once full no frame is accepted, even if it would fit
+        assertEquals(-1, wavWriter.write(ramp(15, 10), 0, 10));
+        assertEquals(-1, wavWriter.write(ramp(15, 2), 0, 2));
+        wavWriter.close();
+
+        assertEquals(1, wavWriter.getWrittenFrames());
+        assertEquals(2, wavWriter.getDroppedFrames());
+        ByteBuffer content = read(file);
+        assertEquals(WavWriter.HEADER_SIZE + 30, content.limit());
+        assertHeader(content, 30);
+    }
+}